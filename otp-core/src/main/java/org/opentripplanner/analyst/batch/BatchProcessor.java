@@ -13,7 +13,11 @@
 
 package org.opentripplanner.analyst.batch;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
@@ -74,13 +78,51 @@ public class BatchProcessor {
     @Setter private TimeZone timeZone = TimeZone.getDefault();
     @Setter private String outputPath = "/tmp/analystOutput";
     @Setter private float checkpointIntervalMinutes = -1;
+
+    /**
+     * If set, compute the travel time in seconds from every origin to every destination and
+     * store them in a TravelTimeMatrix file at this path, with one row per origin and one column
+     * per destination, in population order. Unreachable destinations are -1, destinations not
+     * linked to the graph -2. Takes precedence over the aggregator and accumulator.
+     */
+    @Setter private String matrixPath = null;
     
-    enum Mode { BASIC, AGGREGATE, ACCUMULATE };
+    enum Mode { BASIC, AGGREGATE, ACCUMULATE, MATRIX };
     private Mode mode;
     private long startTime = -1;
     private long lastLogTime = 0;
     private long lastCheckpointTime = 0;
     private ResultSet aggregateResultSet = null;
+    private TravelTimeMatrix matrix = null;
+
+    /** The destination samples in population order, null for unlinked destinations. */
+    private Sample[] destinationSamples;
+
+    /** One row of travel times per worker thread, reused for each of its origins. */
+    private final ThreadLocal<int[]> rowBuffer = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[destinationSamples.length];
+        }
+    };
+
+    /** 
+     * The accumulated results of each worker thread, summed into aggregateResultSet when needed.
+     * Accumulators only ever add to the accumulated results, so this gives the same results as
+     * accumulating everything into one result set, without making the threads wait on each other.
+     */
+    private final List<ResultSet> partialResultSets = new ArrayList<ResultSet>();
+
+    private final ThreadLocal<ResultSet> partialResultSet = new ThreadLocal<ResultSet>() {
+        @Override
+        protected ResultSet initialValue() {
+            ResultSet partial = new ResultSet(destinations);
+            synchronized (partialResultSets) {
+                partialResultSets.add(partial);
+            }
+            return partial;
+        }
+    };
     
     /** Cut off the search instead of building a full path tree. Can greatly improve run times. */
     public void setSearchCutoffMinutes(int minutes) {
@@ -117,7 +159,28 @@ public class BatchProcessor {
         ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
         // ECS enqueues results in the order they complete (unlike invokeAll, which blocks)
         CompletionService<Void> ecs = new ExecutorCompletionService<Void>(threadPool);
-        if (aggregator != null) {
+        if (matrixPath != null) {
+            /* save the travel time from every origin to every destination */
+            mode = Mode.MATRIX;
+            aggregateResultSet = null;
+            List<Sample> samples = new ArrayList<Sample>();
+            for (Individual di : destinations) { // using filtered iterator
+                samples.add(di.sample);
+            }
+            destinationSamples = samples.toArray(new Sample[samples.size()]);
+            int nDestinations = destinationSamples.length;
+            int nOrigins = 0;
+            for (Individual oi : origins) {
+                ++nOrigins;
+            }
+            try {
+                matrix = new TravelTimeMatrix(new File(matrixPath), nOrigins, nDestinations);
+            } catch (IOException e) {
+                LOG.error("cannot create travel time matrix file {}: {}", matrixPath, e);
+                System.exit(-1);
+            }
+            LOG.info("writing a {} x {} travel time matrix to {}", nOrigins, nDestinations, matrixPath);
+        } else if (aggregator != null) {
             /* aggregate over destinations and save one value per origin */
             mode = Mode.AGGREGATE;
             aggregateResultSet = new ResultSet(origins); // results shaped like origins
@@ -160,7 +223,16 @@ public class BatchProcessor {
             LOG.warn("run was interrupted after {} tasks", nCompleted);
         }
         threadPool.shutdown();
-        if (accumulator != null)
+        if (mode == Mode.ACCUMULATE)
+            mergePartialResultSets();
+        if (matrix != null) {
+            try {
+                matrix.close();
+            } catch (IOException e) {
+                LOG.error("cannot write travel time matrix file {}: {}", matrixPath, e);
+            }
+        }
+        if (mode == Mode.ACCUMULATE)
             accumulator.finish();
         if (aggregateResultSet != null)
             aggregateResultSet.writeAppropriateFormat(outputPath);
@@ -188,12 +260,49 @@ public class BatchProcessor {
         // anyway, this is being called in the controller thread now
         if (currentTime > lastCheckpointTime + checkpointIntervalMinutes * 60 * 1000) {
             lastCheckpointTime = currentTime;
+            // workers keep accumulating, so the checkpoint may miss the origins in progress
+            if (mode == Mode.ACCUMULATE)
+                mergePartialResultSets();
             aggregateResultSet.writeAppropriateFormat(outputPath);
             return true;
         }
         return false;
     }
     
+    /** Set the accumulated results to the sum of the per-thread partial results. */
+    private void mergePartialResultSets() {
+        double[] merged = aggregateResultSet.results;
+        Arrays.fill(merged, 0);
+        synchronized (partialResultSets) {
+            for (ResultSet partial : partialResultSets) {
+                for (int i = 0; i < merged.length; i++)
+                    merged[i] += partial.results[i];
+            }
+        }
+    }
+
+    /**
+     * Evaluate the travel times to all destinations into this thread's row buffer, with the same
+     * conventions as ResultSet.forTravelTimes but without going through the population iterator
+     * and filters again for each origin. A null tree (an origin that could not be linked) leaves
+     * every linked destination unreachable.
+     */
+    private int[] travelTimes(ShortestPathTree spt) {
+        int[] row = rowBuffer.get();
+        for (int d = 0; d < row.length; d++) {
+            Sample s = destinationSamples[d];
+            if (s == null) {
+                row[d] = -2;
+            } else if (spt == null) {
+                row[d] = -1;
+            } else {
+                long t = s.eval(spt);
+                row[d] = t == Long.MAX_VALUE ? -1 : (int) Math.min(t, Integer.MAX_VALUE);
+            }
+        }
+        return row;
+    }
+
     private RoutingRequest buildRequest(Individual i) {
         RoutingRequest req = prototypeRoutingRequest.clone();
         req.setDateTime(date, time, timeZone);
@@ -253,16 +362,24 @@ public class BatchProcessor {
         public void run() {
             LOG.debug("calling origin : {}", oi);
             RoutingRequest req = buildRequest(oi);
-            if (req != null) {
+            if (mode == Mode.MATRIX) {
+                int[] row;
+                if (req == null) {
+                    row = travelTimes(null);
+                } else {
+                    ShortestPathTree spt = sptService.getShortestPathTree(req);
+                    row = travelTimes(spt);
+                    req.cleanup();
+                }
+                matrix.setRow(i, row);
+            } else if (req != null) {
                 ShortestPathTree spt = sptService.getShortestPathTree(req);
                 // ResultSet should be a local to avoid memory leak
                 ResultSet results = ResultSet.forTravelTimes(destinations, spt);
                 req.cleanup();
                 switch (mode) {
                 case ACCUMULATE:
-                    synchronized (aggregateResultSet) {
-                        accumulator.accumulate(oi.input, results, aggregateResultSet);
-                    }
+                    accumulator.accumulate(oi.input, results, partialResultSet.get());
                     break;
                 case AGGREGATE:
                     aggregateResultSet.results[i] = aggregator.computeAggregate(results);
@@ -0,0 +1,118 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import lombok.Getter;
+
+/**
+ * An origin-destination matrix of travel times in seconds, stored in a memory-mapped file as
+ * big-endian 32-bit ints: the number of rows and the number of columns, followed by the rows one
+ * after another. The file is mapped in blocks of whole rows, since a single mapping cannot exceed
+ * 2GB and a 50k x 50k matrix takes 10GB. Rows are written by absolute index, so several threads
+ * may write different rows at the same time; pages are flushed to disk by the operating system as
+ * needed, and all at once on close.
+ */
+public class TravelTimeMatrix {
+
+    /** Size of the header in ints. */
+    private static final int HEADER_INTS = 2;
+
+    /** Largest size of a mapped block in bytes. */
+    private static final long MAX_BLOCK_BYTES = 1L << 30;
+
+    @Getter
+    private final int rows;
+
+    @Getter
+    private final int cols;
+
+    private final int rowsPerBlock;
+
+    private final MappedByteBuffer[] blocks;
+
+    private final IntBuffer[] intBlocks;
+
+    private final RandomAccessFile file;
+
+    /** Create a matrix file of the given size, replacing any existing file. */
+    public TravelTimeMatrix(File path, int rows, int cols) throws IOException {
+        this(path, rows, cols, MAX_BLOCK_BYTES, true);
+    }
+
+    /** Open an existing matrix file for reading. */
+    public TravelTimeMatrix(File path) throws IOException {
+        this(path, -1, -1, MAX_BLOCK_BYTES, false);
+    }
+
+    TravelTimeMatrix(File path, int rows, int cols, long maxBlockBytes, boolean create)
+            throws IOException {
+        file = new RandomAccessFile(path, create ? "rw" : "r");
+        FileChannel channel = file.getChannel();
+        if (create) {
+            file.setLength(0);
+            file.setLength(4L * HEADER_INTS + 4L * rows * cols);
+            file.writeInt(rows);
+            file.writeInt(cols);
+        } else {
+            rows = file.readInt();
+            cols = file.readInt();
+        }
+        this.rows = rows;
+        this.cols = cols;
+        rowsPerBlock = (int) Math.max(1, Math.min(rows, maxBlockBytes / (4L * Math.max(cols, 1))));
+        int nBlocks = rows == 0 ? 0 : (rows + rowsPerBlock - 1) / rowsPerBlock;
+        blocks = new MappedByteBuffer[nBlocks];
+        intBlocks = new IntBuffer[nBlocks];
+        for (int b = 0; b < nBlocks; b++) {
+            int blockRows = Math.min(rowsPerBlock, rows - b * rowsPerBlock);
+            long offset = 4L * HEADER_INTS + 4L * b * rowsPerBlock * cols;
+            blocks[b] = channel.map(create ? MapMode.READ_WRITE : MapMode.READ_ONLY, offset,
+                    4L * blockRows * cols);
+            intBlocks[b] = blocks[b].asIntBuffer();
+        }
+    }
+
+    /** Store the travel times from one origin to all destinations. */
+    public void setRow(int row, int[] times) {
+        if (times.length != cols)
+            throw new IllegalArgumentException("row has " + times.length + " columns, not " + cols);
+        IntBuffer block = intBlocks[row / rowsPerBlock];
+        int base = (row % rowsPerBlock) * cols;
+        for (int c = 0; c < cols; c++) {
+            block.put(base + c, times[c]);
+        }
+    }
+
+    public int get(int row, int col) {
+        return intBlocks[row / rowsPerBlock].get((row % rowsPerBlock) * cols + col);
+    }
+
+    /** Flush all written rows to disk and release the file. */
+    public void close() throws IOException {
+        for (MappedByteBuffer block : blocks) {
+            if (!block.isReadOnly())
+                block.force();
+        }
+        file.close();
+    }
+
+}
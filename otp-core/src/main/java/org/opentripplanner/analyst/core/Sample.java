@@ -51,6 +51,24 @@ public class Sample {
             m1 = (s1.getActiveTime() + t1); 
         return (m0 < m1) ? m0 : m1; 
     }
+
+    public byte evalBoardings(TimeSurface surface) {
+        int m0 = surface.getBoardings(v0);
+        int m1 = surface.getBoardings(v1);
+        return (byte) ((m0 < m1) ? m0 : m1);
+    }
+
+    public long eval(TimeSurface surface) {
+        int s0 = surface.getTime(v0);
+        int s1 = surface.getTime(v1);
+        long m0 = Long.MAX_VALUE;
+        long m1 = Long.MAX_VALUE;
+        if (s0 != TimeSurface.UNREACHABLE)
+            m0 = (s0 + t0);
+        if (s1 != TimeSurface.UNREACHABLE)
+            m1 = (s1 + t1);
+        return (m0 < m1) ? m0 : m1;
+    }
     
     public String toString() {
         return String.format("Sample: %s in %d sec or %s in %d sec\n", v0, t0, v1, t1);
@@ -30,7 +30,6 @@ import org.geotools.coverage.grid.GridGeometry2D;
 import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.opentripplanner.analyst.parameter.Style;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -267,7 +266,7 @@ public abstract class Tile {
     
     final byte UNREACHABLE = Byte.MIN_VALUE;
 
-    public BufferedImage generateImage(ShortestPathTree spt, RenderRequest renderRequest) {
+    public BufferedImage generateImage(TimeSurface surface, RenderRequest renderRequest) {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
         byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
@@ -276,9 +275,9 @@ public abstract class Tile {
             byte pixel;
             if (s != null) {
                 if (renderRequest.style == Style.BOARDINGS) {
-                    pixel = s.evalBoardings(spt);
+                    pixel = s.evalBoardings(surface);
                 } else {
-                    long t = s.eval(spt); // renderRequest.style
+                    long t = s.eval(surface); // renderRequest.style
                     if (t == Long.MAX_VALUE)
                         pixel = UNREACHABLE;
                     else {
@@ -297,13 +296,13 @@ public abstract class Tile {
             i++;
         }
         long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
         return image;
     }
 
     public BufferedImage linearCombination(
-            double k1, ShortestPathTree spt1, 
-            double k2, ShortestPathTree spt2, 
+            double k1, TimeSurface surface1, 
+            double k2, TimeSurface surface2, 
             double intercept, RenderRequest renderRequest) {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
@@ -312,8 +311,8 @@ public abstract class Tile {
         for (Sample s : getSamples()) {
             byte pixel = UNREACHABLE;
             if (s != null) {
-                long t1 = s.eval(spt1);
-                long t2 = s.eval(spt2);
+                long t1 = s.eval(surface1);
+                long t2 = s.eval(surface2);
                 if (t1 != Long.MAX_VALUE && t2 != Long.MAX_VALUE) {
                     double t = (k1 * t1 + k2 * t2) / 60 + intercept; 
                     if (t < -120)
@@ -327,7 +326,7 @@ public abstract class Tile {
             i++;
         }
         long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
         return image;
     }
 
@@ -0,0 +1,147 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+/**
+ * The results of a finished one-to-many search, without the States that produced them: for each
+ * reached vertex, the travel time, walk distance and number of boardings of the state the tree
+ * would return for that vertex. Values are stored in primitive arrays indexed by vertex index, so
+ * a surface takes a few bytes per graph vertex where a tree keeps whole chains of States alive.
+ * The arrays only cover the permanent vertices of the graph; the few temporary vertices of a
+ * request, whose indexes keep growing as requests are made, are kept in a small map.
+ */
+public class TimeSurface {
+
+    /** Time value of vertices that were not reached. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** Boardings value of vertices that were not reached. Reached vertices saturate one below. */
+    public static final int UNREACHABLE_BOARDINGS = 255;
+
+    /** The time of the search, in seconds since the epoch. */
+    public final long dateTime;
+
+    /** Active time in seconds of the best state at each vertex. */
+    private final int[] times;
+
+    /** Walk distance in meters of the best state at each vertex. */
+    private final float[] walkDistances;
+
+    /** Number of boardings of the best state at each vertex, as an unsigned byte. */
+    private final byte[] boardings;
+
+    /** The values at reached vertices outside the arrays, by vertex index. */
+    private final Map<Integer, Reached> others = new HashMap<Integer, Reached>();
+
+    private final int vertexCount;
+
+    /** The values of a vertex outside the arrays. */
+    private static class Reached {
+        int time;
+        float walkDistance;
+        int boardings;
+    }
+
+    public TimeSurface(ShortestPathTree spt) {
+        dateTime = spt.getOptions().dateTime;
+        int size = permanentIndexLimit(spt.getOptions().rctx.graph);
+        times = new int[size];
+        Arrays.fill(times, UNREACHABLE);
+        walkDistances = new float[size];
+        boardings = new byte[size];
+        Arrays.fill(boardings, (byte) UNREACHABLE_BOARDINGS);
+        int n = 0;
+        for (State s : spt.getAllStates()) {
+            Vertex v = s.getVertex();
+            int index = v.getIndex();
+            if (index < size ? times[index] != UNREACHABLE : others.containsKey(index))
+                continue;
+            State best = spt.getState(v);
+            if (best == null)
+                continue;
+            int time = (int) Math.min(best.getActiveTime(), UNREACHABLE - 1);
+            float walkDistance = (float) best.getWalkDistance();
+            int nBoardings = Math.min(best.getNumBoardings(), UNREACHABLE_BOARDINGS - 1);
+            if (index < size) {
+                times[index] = time;
+                walkDistances[index] = walkDistance;
+                boardings[index] = (byte) nBoardings;
+            } else {
+                // a temporary vertex, such as the origin of the request
+                Reached reached = new Reached();
+                reached.time = time;
+                reached.walkDistance = walkDistance;
+                reached.boardings = nBoardings;
+                others.put(index, reached);
+            }
+            n++;
+        }
+        this.vertexCount = n;
+    }
+
+    /** @return one more than the highest index of a vertex of the graph */
+    private static int permanentIndexLimit(Graph graph) {
+        int max = -1;
+        for (Vertex v : graph.getVertices())
+            max = Math.max(max, v.getIndex());
+        return max + 1;
+    }
+
+    /** @return the travel time in seconds to the given vertex, or UNREACHABLE */
+    public int getTime(Vertex v) {
+        int index = v.getIndex();
+        if (index < times.length)
+            return times[index];
+        Reached reached = others.get(index);
+        return reached == null ? UNREACHABLE : reached.time;
+    }
+
+    /** @return the walk distance in meters to the given vertex, or NaN if it was not reached */
+    public float getWalkDistance(Vertex v) {
+        int index = v.getIndex();
+        if (index < times.length)
+            return times[index] == UNREACHABLE ? Float.NaN : walkDistances[index];
+        Reached reached = others.get(index);
+        return reached == null ? Float.NaN : reached.walkDistance;
+    }
+
+    /** @return the number of boardings to reach the given vertex, or UNREACHABLE_BOARDINGS */
+    public int getBoardings(Vertex v) {
+        int index = v.getIndex();
+        if (index < boardings.length)
+            return boardings[index] & 0xFF;
+        Reached reached = others.get(index);
+        return reached == null ? UNREACHABLE_BOARDINGS : reached.boardings;
+    }
+
+    /** @return the number of vertices reached */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /** @return the approximate size of this surface on the heap, in bytes */
+    public long getSizeInBytes() {
+        return times.length * 9L + others.size() * 64L;
+    }
+
+}
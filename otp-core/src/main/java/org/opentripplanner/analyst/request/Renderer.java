@@ -25,9 +25,9 @@ import org.geotools.gce.geotiff.GeoTiffWriter;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
 import org.opentripplanner.analyst.core.Tile;
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.opentripplanner.analyst.parameter.MIMEImageFormat;
 import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,21 +49,22 @@ public class Renderer {
             RenderRequest renderRequest) throws Exception {
 
         Tile tile = tileCache.get(tileRequest);
-        ShortestPathTree sptA = sptCache.get(sptRequestA);
-        ShortestPathTree sptB = sptCache.get(sptRequestB);
+        TimeSurface surfaceA = sptCache.get(sptRequestA);
+        TimeSurface surfaceB = sptCache.get(sptRequestB);
         
         BufferedImage image;
         switch (renderRequest.layer) {
         case DIFFERENCE :
-            image = tile.linearCombination(1, sptA, -1, sptB, 0, renderRequest);
+            image = tile.linearCombination(1, surfaceA, -1, surfaceB, 0, renderRequest);
             break;
         case HAGERSTRAND :
-            long elapsed = Math.abs(sptRequestB.dateTime - sptRequestA.dateTime);
-            image = tile.linearCombination(-1, sptA, -1, sptB, elapsed/60, renderRequest);
+            // the cached searches may start a little before the requested times
+            long elapsed = Math.abs(surfaceB.dateTime - surfaceA.dateTime);
+            image = tile.linearCombination(-1, surfaceA, -1, surfaceB, elapsed/60, renderRequest);
             break;
         case TRAVELTIME :
         default :
-            image = tile.generateImage(sptA, renderRequest);
+            image = tile.generateImage(surfaceA, renderRequest);
         }
         
         // add a timestamp to the image if requested. 
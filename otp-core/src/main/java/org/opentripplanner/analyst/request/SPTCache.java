@@ -17,6 +17,8 @@ import javax.annotation.PostConstruct;
 
 import lombok.Setter;
 
+import org.opentripplanner.analyst.core.TimeSurface;
+import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.SPTService;
@@ -27,43 +29,124 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 
-public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
+/**
+ * Caches the results of shortest path tree searches for the Analyst renderers. Only the per-vertex
+ * times, walk distances and boardings are kept, as a {@link TimeSurface}: the trees themselves and
+ * their States are dropped once the surface is built. The cache is bounded by the memory held by
+ * the surfaces rather than by their number.
+ *
+ * Requests are normalized before they are used as keys: their time is rounded down to a
+ * configurable bucket and fields that do not change the tree are cleared. Tile and WMS requests
+ * arriving in bursts for the same origin a few seconds apart then share a single search.
+ */
+public class SPTCache extends CacheLoader<RoutingRequest, TimeSurface>
+    implements Weigher<RoutingRequest, TimeSurface>,
+    RemovalListener<RoutingRequest, TimeSurface> {
 
     private static final Logger LOG = LoggerFactory.getLogger(SPTCache.class);
 
-    @Autowired private SPTService sptService; 
-    
-    @Autowired private GraphService graphService; 
+    @Autowired private SPTService sptService;
 
-    private LoadingCache<RoutingRequest, ShortestPathTree> sptCache;
+    @Autowired private GraphService graphService;
 
-    @Setter private int size = 200;
+    private LoadingCache<RoutingRequest, TimeSurface> sptCache;
+
+    /** Upper bound on the size of all cached surfaces, in megabytes. */
+    @Setter private int maxMegabytes = 512;
     @Setter private int concurrency = 16;
-            
+
+    /** Request times are rounded down to a multiple of this many seconds. 0 keeps exact times. */
+    @Setter private int timeBucket = 60;
+
     @PostConstruct
     private void runAfterInjection() {
         this.sptCache = CacheBuilder.newBuilder()
                 .concurrencyLevel(concurrency)
-                .maximumSize(size)
+                .maximumWeight(maxMegabytes * 1024L * 1024L)
+                .weigher(this)
+                .removalListener(this)
+                .recordStats()
                 .build(this);
     }
- 
+
     @Override /** completes the abstract CacheLoader superclass */
-    public ShortestPathTree load(RoutingRequest req) throws Exception {
+    public TimeSurface load(RoutingRequest req) throws Exception {
         LOG.debug("spt cache miss : {}", req);
         req.setRoutingContext(graphService.getGraph());
         long t0 = System.currentTimeMillis();
         ShortestPathTree spt = sptService.getShortestPathTree(req);
         long t1 = System.currentTimeMillis();
         LOG.debug("calculated spt in {}msec", (int) (t1 - t0));
+        TimeSurface surface = new TimeSurface(spt);
         req.cleanup();
-        return spt;
+        return surface;
     }
 
-    public ShortestPathTree get(RoutingRequest req) throws Exception {
-        return req == null ? null : sptCache.get(req);
+    public TimeSurface get(RoutingRequest req) throws Exception {
+        return req == null ? null : sptCache.get(normalize(req));
     }
-    
+
+    /** @return the hit, miss, load and eviction counts of this cache */
+    public CacheStats getStats() {
+        return sptCache.stats();
+    }
+
+    /** @return the size of the cached surfaces, in bytes */
+    public long getWeight() {
+        long weight = 0;
+        for (TimeSurface surface : sptCache.asMap().values())
+            weight += weigh(null, surface);
+        return weight;
+    }
+
+    @Override
+    public int weigh(RoutingRequest req, TimeSurface surface) {
+        return (int) Math.min(Integer.MAX_VALUE, surface.getSizeInBytes());
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<RoutingRequest, TimeSurface> notification) {
+        if (notification.wasEvicted()) {
+            LOG.debug("spt evicted ({}): {}", notification.getCause(), notification.getKey());
+            LOG.debug("spt cache {}", sptCache.stats());
+        }
+    }
+
+    /**
+     * Make a copy of the request suitable as a cache key. Its time (and worst time, if set) is
+     * moved back to the start of its time bucket, and the names and place strings of located
+     * endpoints are cleared. In batch mode the number of itineraries is ignored, since the whole
+     * tree is searched.
+     */
+    RoutingRequest normalize(RoutingRequest req) {
+        RoutingRequest key = req.clone();
+        if (timeBucket > 1) {
+            long shift = ((key.dateTime % timeBucket) + timeBucket) % timeBucket;
+            key.dateTime -= shift;
+            if (key.worstTime != Long.MAX_VALUE && key.worstTime != 0)
+                key.worstTime -= shift;
+        }
+        key.from = normalize(key.from);
+        key.to = normalize(key.to);
+        if (key.batch)
+            key.setNumItineraries(1);
+        return key;
+    }
+
+    /** Only the coordinates, heading and edge of a located place are used in routing. */
+    private static GenericLocation normalize(GenericLocation location) {
+        if (location == null || !location.hasCoordinate())
+            return location;
+        GenericLocation normalized = new GenericLocation(location.getLat(), location.getLng());
+        normalized.setHeading(location.getHeading());
+        normalized.setEdgeId(location.getEdgeId());
+        return normalized;
+    }
+
 }
@@ -55,8 +55,8 @@ public class Debug { // rename to DebugOutput
         finishedPrecalculating = System.currentTimeMillis();
     }
 
-    /** Record the time when a path was found. */
-    public void foundPath() {
+    /** Record the time when a path was found. Searches for several itineraries may run concurrently. */
+    public synchronized void foundPath() {
         foundPaths.add(System.currentTimeMillis());
     }
 
@@ -77,6 +77,9 @@ import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.OnboardDepartVertex;
 import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.opentripplanner.util.PolylineEncoder;
+import org.opentripplanner.util.monitoring.Counter;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -88,6 +91,13 @@ public class PlanGenerator {
 
     private static final Logger LOG = LoggerFactory.getLogger(PlanGenerator.class);
 
+    private static final MetricsRegistry metrics = MetricsRegistry.getRegistry();
+    private static final Histogram generateNanos = metrics.histogram("plan.generateNanos");
+    private static final Histogram renderNanos = metrics.histogram("plan.renderNanos");
+    private static final Counter requests = metrics.counter("plan.requests");
+    private static final Counter vertexNotFound = metrics.counter("plan.vertexNotFound");
+    private static final Counter pathNotFound = metrics.counter("plan.pathNotFound");
+
     private static final double MAX_ZAG_DISTANCE = 30;
 
     @Autowired public PathService pathService;
@@ -97,6 +107,9 @@ public class PlanGenerator {
     
     /** Generates a TripPlan from a Request */
     public TripPlan generate(RoutingRequest options) {
+        long start = metrics.startTime();
+        if (start != MetricsRegistry.DISABLED)
+            requests.increment();
 
         // TODO: this seems to only check the endpoints, which are usually auto-generated
         //if ( ! options.isAccessible())
@@ -129,15 +142,20 @@ public class PlanGenerator {
             }
         } catch (VertexNotFoundException e) {
             LOG.info("Vertex not found: " + options.getFrom() + " : " + options.getTo(), e);
+            if (start != MetricsRegistry.DISABLED)
+                vertexNotFound.increment();
             throw e;
         }
         options.rctx.debug.finishedCalculating();
 
         if (paths == null || paths.size() == 0) {
             LOG.info("Path not found: " + options.getFrom() + " : " + options.getTo());
+            if (start != MetricsRegistry.DISABLED)
+                pathNotFound.increment();
             throw new PathNotFoundException();
         }
 
+        long renderStart = metrics.startTime();
         TripPlan plan = generatePlan(paths, originalOptions);
         if (plan != null) {
             for (Itinerary i : plan.itinerary) {
@@ -154,6 +172,8 @@ public class PlanGenerator {
             }
         }
         options.rctx.debug.finishedRendering();
+        renderNanos.recordElapsed(renderStart);
+        generateNanos.recordElapsed(start);
         return plan;
     }
 
@@ -22,6 +22,7 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.springframework.security.access.annotation.Secured;
@@ -42,6 +43,8 @@ import com.sun.jersey.spi.resource.Singleton;
 public class Monitoring {
     static MonitoringStore store = MonitoringStoreFactory.getStore();
 
+    static MetricsRegistry metrics = MetricsRegistry.getRegistry();
+
     /**
      * Get a Long from the monitoring store
      * 
@@ -86,4 +89,36 @@ public class Monitoring {
         return store.isMonitoring(key);
     }
 
+    /**
+     * Get all counters and histogram summaries of the metrics registry. Times are in nanoseconds.
+     * 
+     * @return
+     */
+    @Secured({ "ROLE_USER" })
+    @GET
+    @Path("/metrics")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Object getMetrics() {
+        return metrics.getSnapshot();
+    }
+
+    /**
+     * Turn on/off the metrics registry, optionally zeroing all metrics
+     * 
+     * @param on whether to enable the registry, which is left as it is if absent
+     * @param reset
+     * @return
+     */
+    @Secured({ "ROLE_USER" })
+    @POST
+    @Path("/metrics")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Object controlMetrics(@FormParam("on") Boolean on, @FormParam("reset") boolean reset) {
+        if (on != null)
+            metrics.setEnabled(on);
+        if (reset)
+            metrics.reset();
+        return "OK";
+    }
+
 }
@@ -0,0 +1,52 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.Collection;
+
+/**
+ * A set of primitive longs, such as OSM node ids, backed by a {@link LongIntHashMap}. Much more
+ * compact than a HashSet<Long> when it holds millions of ids. Not thread safe.
+ */
+public class LongHashSet {
+
+    private final LongIntHashMap map;
+
+    public LongHashSet(int expectedSize) {
+        map = new LongIntHashMap(expectedSize, 0);
+    }
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /** @return true if the set did not already contain the value */
+    public boolean add(long value) {
+        return map.put(value, 1) == 0;
+    }
+
+    public void addAll(Collection<Long> values) {
+        for (long value : values)
+            add(value);
+    }
+
+    public boolean contains(long value) {
+        return map.containsKey(value);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+}
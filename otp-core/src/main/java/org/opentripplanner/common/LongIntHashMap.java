@@ -0,0 +1,156 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to primitive int values, using open addressing with linear
+ * probing. It needs about 12 bytes per slot (at most 0.75 load), where a HashMap<Long, Integer>
+ * needs around 70 bytes per entry, which matters when mapping tens of millions of OSM ids.
+ * 
+ * Not thread safe. Values may be any int except the one given as "no entry" value.
+ */
+public class LongIntHashMap {
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int noEntryValue;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private int size = 0;
+
+    /* Long.MIN_VALUE marks free slots, so it is stored apart */
+    private boolean hasFreeKey = false;
+
+    private int freeKeyValue;
+
+    private int resizeAt;
+
+    /** @param noEntryValue the value returned by get() for absent keys */
+    public LongIntHashMap(int expectedSize, int noEntryValue) {
+        this.noEntryValue = noEntryValue;
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity *= 2;
+        allocate(capacity);
+    }
+
+    public LongIntHashMap() {
+        this(16, -1);
+    }
+
+    /** @return the value for the key, or the "no entry" value if the key is absent. */
+    public int get(long key) {
+        if (key == FREE)
+            return hasFreeKey ? freeKeyValue : noEntryValue;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key)
+                return values[i];
+            if (k == FREE)
+                return noEntryValue;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE)
+            return hasFreeKey;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key)
+                return true;
+            if (k == FREE)
+                return false;
+        }
+    }
+
+    /** @return the previous value for the key, or the "no entry" value if it was absent. */
+    public int put(long key, int value) {
+        if (key == FREE) {
+            int previous = hasFreeKey ? freeKeyValue : noEntryValue;
+            if (!hasFreeKey)
+                size++;
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return previous;
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (;; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+            if (k == FREE)
+                break;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size >= resizeAt)
+            rehash(keys.length * 2);
+        return noEntryValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Remove all entries, shrinking the table back to its smallest size. */
+    public void clear() {
+        allocate(16);
+        size = 0;
+        hasFreeKey = false;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new int[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key == FREE)
+                continue;
+            int i = slot(key, mask);
+            while (keys[i] != FREE)
+                i = (i + 1) & mask;
+            keys[i] = key;
+            values[i] = oldValues[j];
+        }
+    }
+
+    /** Spread the bits of the key, since OSM ids are often dense and sequential. */
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+}
@@ -0,0 +1,291 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable hash map whose updates return a new map sharing most of its structure with the old
+ * one (a hash array mapped trie). Adding or removing a key copies only the few small nodes on the
+ * path to that key, so taking a snapshot of a map that is being updated costs nothing: the
+ * snapshot is simply the current map.
+ *
+ * Null keys and values are not supported. Instances are safe to share between threads.
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    /** @return the value for the key, or null if there is none */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return (V) root.find(0, hash(key), key);
+    }
+
+    /** @return a map with the given value for the key, or this map if it already had that value */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = root.assoc(0, hash(key), key, value, added);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** @return a map without the key, or this map if it did not contain the key */
+    public PersistentHashMap<K, V> minus(K key) {
+        Node newRoot = root.without(0, hash(key), key);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<K, V>(newRoot == null ? BitmapNode.EMPTY : newRoot, size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return a new list of all keys, in no particular order */
+    @SuppressWarnings("unchecked")
+    public List<K> keys() {
+        List<Object> keys = new ArrayList<Object>(size);
+        root.keys(keys);
+        return (List<K>) keys;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Object[] cloneAndSet(Object[] array, int i, Object value) {
+        Object[] clone = array.clone();
+        clone[i] = value;
+        return clone;
+    }
+
+    private static interface Node {
+
+        Object find(int shift, int hash, Object key);
+
+        /** @return a node with the key set to the value, or this node if nothing changed */
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+
+        /** @return a node without the key, this node if it was absent, or null if it is empty */
+        Node without(int shift, int hash, Object key);
+
+        void keys(List<Object> out);
+    }
+
+    /**
+     * A trie node with up to 32 children, selected by 5 bits of the hash. The array holds a pair
+     * of slots per child: a key and its value, or null and a sub-node.
+     */
+    private static final class BitmapNode implements Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return null;
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null)
+                return ((Node) array[i + 1]).find(shift + BITS, hash, key);
+            return key.equals(k) ? array[i + 1] : null;
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, i);
+                newArray[i] = key;
+                newArray[i + 1] = value;
+                System.arraycopy(array, i, newArray, i + 2, array.length - i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = ((Node) v).assoc(shift + BITS, hash, key, value, added);
+                if (child == v)
+                    return this;
+                return new BitmapNode(bitmap, cloneAndSet(array, i + 1, child));
+            }
+            if (key.equals(k)) {
+                if (value == v)
+                    return this;
+                return new BitmapNode(bitmap, cloneAndSet(array, i + 1, value));
+            }
+            // two keys in the same slot: push both down into a new node
+            added[0] = true;
+            Node child = createNode(shift + BITS, k, v, hash, key, value);
+            Object[] newArray = cloneAndSet(array, i, null);
+            newArray[i + 1] = child;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null) {
+                Node child = ((Node) array[i + 1]).without(shift + BITS, hash, key);
+                if (child == array[i + 1])
+                    return this;
+                if (child != null)
+                    return new BitmapNode(bitmap, cloneAndSet(array, i + 1, child));
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            if (bitmap == bit)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        @Override
+        public void keys(List<Object> out) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null)
+                    ((Node) array[i + 1]).keys(out);
+                else
+                    out.add(array[i]);
+            }
+        }
+
+        private static Node createNode(int shift, Object k1, Object v1, int hash2, Object k2,
+                Object v2) {
+            int hash1 = hash(k1);
+            if (hash1 == hash2)
+                return new CollisionNode(hash1, new Object[] { k1, v1, k2, v2 });
+            boolean[] added = new boolean[1];
+            return EMPTY.assoc(shift, hash1, k1, v1, added).assoc(shift, hash2, k2, v2, added);
+        }
+    }
+
+    /** Keys whose hashes are identical, kept as key/value pairs in a flat array. */
+    private static final class CollisionNode implements Node {
+
+        final int hash;
+
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : array[i + 1];
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // nest this node in a bitmap node, then add the key there
+                Node parent = new BitmapNode(bit(this.hash, shift), new Object[] { null, this });
+                return parent.assoc(shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value)
+                    return this;
+                return new CollisionNode(hash, cloneAndSet(array, i + 1, value));
+            }
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            if (i < 0)
+                return this;
+            if (array.length == 2)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public void keys(List<Object> out) {
+            for (int i = 0; i < array.length; i += 2)
+                out.add(array[i]);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.geometry;
+
+import java.io.ObjectStreamException;
+import java.nio.DoubleBuffer;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A two-dimensional {@link CoordinateSequence} over a range of a shared DoubleBuffer, typically a
+ * read-only memory-mapped section of a graph file. The coordinates stay in the buffer (and thus in
+ * the OS page cache when the buffer is mapped) instead of being copied onto the heap.
+ *
+ * The buffer itself is never written, since it is shared by all the sequences of a graph: the first
+ * call to {@link #setOrdinate(int, int, double)} copies this sequence's coordinates onto the heap,
+ * and later reads and writes use that copy.
+ *
+ * Cloning or serializing this sequence produces an ordinary {@link PackedCoordinateSequence.Double}.
+ */
+public class MappedCoordinateSequence extends PackedCoordinateSequence {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient DoubleBuffer buffer;
+
+    /** index in the buffer of the x ordinate of the first coordinate */
+    private final int offset;
+
+    private final int size;
+
+    /** heap copy of the coordinates once the sequence has been modified, null before */
+    private double[] coords;
+
+    /**
+     * @param buffer the shared coordinate buffer, holding x and y ordinates alternately
+     * @param first index of the first coordinate of this sequence in the buffer
+     * @param size number of coordinates in this sequence
+     */
+    public MappedCoordinateSequence(DoubleBuffer buffer, int first, int size) {
+        this.buffer = buffer;
+        this.offset = first * 2;
+        this.size = size;
+        this.dimension = 2;
+    }
+
+    @Override
+    protected Coordinate getCoordinateInternal(int index) {
+        return new Coordinate(getOrdinate(index, 0), getOrdinate(index, 1));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getOrdinate(int index, int ordinate) {
+        if (coords != null)
+            return coords[index * 2 + ordinate];
+        return buffer.get(offset + index * 2 + ordinate);
+    }
+
+    @Override
+    public void setOrdinate(int index, int ordinate, double value) {
+        coordRef = null;
+        if (coords == null)
+            coords = copyCoordinates();
+        coords[index * 2 + ordinate] = value;
+    }
+
+    @Override
+    public Envelope expandEnvelope(Envelope env) {
+        for (int i = 0; i < size; i++) {
+            env.expandToInclude(getOrdinate(i, 0), getOrdinate(i, 1));
+        }
+        return env;
+    }
+
+    /** @return whether the coordinates are still read from the shared buffer. */
+    public boolean isMapped() {
+        return coords == null;
+    }
+
+    /** @return a heap copy of this sequence. */
+    public PackedCoordinateSequence.Double toPacked() {
+        return new PackedCoordinateSequence.Double(copyCoordinates(), 2);
+    }
+
+    private double[] copyCoordinates() {
+        double[] copy = new double[size * 2];
+        if (coords != null) {
+            System.arraycopy(coords, 0, copy, 0, copy.length);
+        } else {
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = buffer.get(offset + i);
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public Object clone() {
+        return toPacked();
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return toPacked();
+    }
+
+}
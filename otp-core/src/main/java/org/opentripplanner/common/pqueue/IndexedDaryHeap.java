@@ -0,0 +1,293 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A 4-ary min-heap that knows where each of its elements is, so that an element can be removed or
+ * rekeyed in O(log n) without the linear search done by BinHeap.rekey.
+ *
+ * Element positions are tracked in an open-addressing identity hash table kept alongside the heap.
+ * Heap entries and table entries point at each other, so moving an element within the heap or
+ * within the table costs O(1) bookkeeping. Elements are compared by identity, and a given element
+ * can only be in the queue once: inserting an element that is already present changes its key.
+ *
+ * This lets A* remove a State from the queue as soon as the ShortestPathTree finds it dominated,
+ * instead of leaving it in the queue to be discarded by ShortestPathTree.visit when it comes out.
+ */
+public class IndexedDaryHeap<T> implements OTPPriorityQueue<T> {
+
+    public static final OTPPriorityQueueFactory FACTORY = new IndexedDaryHeapFactory();
+
+    private static final int D = 4;
+
+    private static final double GROW_FACTOR = 2.0;
+
+    /* the heap, 0-based */
+    private T[] elem;
+    private double[] prio;
+    private int[] elemSlot; // position of each heap element in the identity table
+    private int size;
+    private int capacity;
+
+    /* the identity table, a power of two in length and at most half full */
+    private Object[] keys;
+    private int[] keyPos; // position in the heap of each key
+    private int mask;
+
+    private long removed = 0;
+
+    public IndexedDaryHeap() {
+        this(1000);
+    }
+
+    @SuppressWarnings("unchecked")
+    public IndexedDaryHeap(int capacity) {
+        if (capacity < 10) capacity = 10;
+        this.capacity = capacity;
+        elem = (T[]) new Object[capacity];
+        prio = new double[capacity];
+        elemSlot = new int[capacity];
+        size = 0;
+        buildTable();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[0];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    @Override
+    public T peek_min() {
+        if (size > 0)
+            return elem[0];
+        else
+            return null;
+    }
+
+    /** Insert an element, or change its key if it is already in the queue. */
+    @Override
+    public void insert(T e, double p) {
+        int slot = find(e);
+        if (slot >= 0) {
+            moveTo(keyPos[slot], e, p, slot);
+            return;
+        }
+        if (size >= capacity)
+            resize((int) (capacity * GROW_FACTOR));
+        slot = addKey(e);
+        size += 1;
+        siftUp(size - 1, e, p, slot);
+    }
+
+    @Override
+    public void insert_or_dec_key(T e, double p) {
+        int slot = find(e);
+        if (slot < 0) {
+            insert(e, p);
+        } else {
+            int i = keyPos[slot];
+            if (p < prio[i])
+                siftUp(i, e, p, slot);
+        }
+    }
+
+    /**
+     * Change the key of an element already in the queue.
+     * @return false if the element was not in the queue.
+     */
+    public boolean rekey(T e, double p) {
+        int slot = find(e);
+        if (slot < 0)
+            return false;
+        moveTo(keyPos[slot], e, p, slot);
+        return true;
+    }
+
+    /**
+     * Remove an element from the queue.
+     * @return false if the element was not in the queue.
+     */
+    public boolean remove(T e) {
+        int slot = find(e);
+        if (slot < 0)
+            return false;
+        removeAt(keyPos[slot]);
+        removed += 1;
+        return true;
+    }
+
+    public boolean contains(T e) {
+        return find(e) >= 0;
+    }
+
+    /** @return the number of elements removed through {@link #remove(Object)} since creation. */
+    public long getRemovedCount() {
+        return removed;
+    }
+
+    @Override
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[0];
+        removeAt(0);
+        return minElem;
+    }
+
+    public void resize(int capacity) {
+        if (capacity < size)
+            throw new IllegalStateException("IndexedDaryHeap contains too many elements to fit in new capacity.");
+        this.capacity = capacity;
+        elem = Arrays.copyOf(elem, capacity);
+        prio = Arrays.copyOf(prio, capacity);
+        elemSlot = Arrays.copyOf(elemSlot, capacity);
+        buildTable();
+    }
+
+    /* HEAP OPERATIONS */
+
+    private void place(int i, T e, double p, int slot) {
+        elem[i] = e;
+        prio[i] = p;
+        elemSlot[i] = slot;
+        keyPos[slot] = i;
+    }
+
+    private void siftUp(int i, T e, double p, int slot) {
+        while (i > 0) {
+            int parent = (i - 1) / D;
+            if (prio[parent] <= p)
+                break;
+            place(i, elem[parent], prio[parent], elemSlot[parent]);
+            i = parent;
+        }
+        place(i, e, p, slot);
+    }
+
+    private void siftDown(int i, T e, double p, int slot) {
+        while (true) {
+            int first = i * D + 1;
+            if (first >= size)
+                break;
+            int last = Math.min(first + D, size);
+            int best = first;
+            for (int child = first + 1; child < last; child++) {
+                if (prio[child] < prio[best])
+                    best = child;
+            }
+            if (prio[best] >= p)
+                break;
+            place(i, elem[best], prio[best], elemSlot[best]);
+            i = best;
+        }
+        place(i, e, p, slot);
+    }
+
+    /** Sift the given element, which is going into heap position i, up or down as needed. */
+    private void moveTo(int i, T e, double p, int slot) {
+        if (i > 0 && prio[(i - 1) / D] > p)
+            siftUp(i, e, p, slot);
+        else
+            siftDown(i, e, p, slot);
+    }
+
+    private void removeAt(int i) {
+        deleteKey(elemSlot[i]);
+        size -= 1;
+        T lastElem = elem[size];
+        double lastPrio = prio[size];
+        int lastSlot = elemSlot[size];
+        elem[size] = null;
+        if (i < size)
+            moveTo(i, lastElem, lastPrio, lastSlot);
+    }
+
+    /* IDENTITY TABLE OPERATIONS */
+
+    private void buildTable() {
+        int length = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        keys = new Object[length];
+        keyPos = new int[length];
+        mask = length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = addKey(elem[i]);
+            keyPos[slot] = i;
+            elemSlot[i] = slot;
+        }
+    }
+
+    private int hash(Object o) {
+        int h = System.identityHashCode(o);
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int find(Object o) {
+        for (int i = hash(o); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == o)
+                return i;
+        }
+        return -1;
+    }
+
+    private int addKey(Object o) {
+        int i = hash(o);
+        while (keys[i] != null)
+            i = (i + 1) & mask;
+        keys[i] = o;
+        return i;
+    }
+
+    /** Linear probing deletion: shift back later entries of the probe run that would become unreachable. */
+    private void deleteKey(int i) {
+        keys[i] = null;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            Object k = keys[j];
+            if (k == null)
+                return;
+            int h = hash(k);
+            boolean reachable = (i <= j) ? (i < h && h <= j) : (i < h || h <= j);
+            if (!reachable) {
+                keys[i] = k;
+                keyPos[i] = keyPos[j];
+                elemSlot[keyPos[i]] = i;
+                keys[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private static class IndexedDaryHeapFactory implements OTPPriorityQueueFactory {
+        @Override
+        public <T> OTPPriorityQueue<T> create(int maxSize) {
+            return new IndexedDaryHeap<T>(maxSize);
+        }
+    }
+}
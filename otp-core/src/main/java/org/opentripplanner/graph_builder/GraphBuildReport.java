@@ -0,0 +1,96 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The time and memory taken by each stage of a graph build, saved as JSON next to the graph.
+ * Heap deltas are the change in heap use between the start and end of a stage, including garbage
+ * and, when stages overlap, the allocations of the other stages; they are meant to spot the
+ * stages that keep large structures, not to account for every byte.
+ */
+public class GraphBuildReport {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public static class Stage {
+        /** The builder class */
+        public String builder;
+        /** What the builder provides */
+        public List<String> provides;
+        /** Start time in milliseconds since the start of the build */
+        public long startMillis;
+        public long wallMillis;
+        /**
+         * CPU time of the thread that ran the stage only, -1 if the JVM does not measure it. Work a
+         * builder hands to other threads is not included.
+         */
+        public long stageThreadCpuMillis;
+        public long heapDeltaBytes;
+        public String thread;
+    }
+
+    /** Number of threads the builders were run on */
+    public int builderThreads;
+
+    public long totalWallMillis;
+
+    public List<Stage> stages = new ArrayList<Stage>();
+
+    private final transient long buildStart = System.currentTimeMillis();
+
+    /** Run a builder stage on the current thread, recording its costs. */
+    Stage profile(GraphBuilder builder, Runnable stage) {
+        Stage report = new Stage();
+        report.builder = builder.getClass().getName();
+        report.provides = builder.provides();
+        report.thread = Thread.currentThread().getName();
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        long cpuStart = cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+        long heapStart = usedHeap();
+        long start = System.currentTimeMillis();
+        report.startMillis = start - buildStart;
+        stage.run();
+        report.wallMillis = System.currentTimeMillis() - start;
+        report.stageThreadCpuMillis = cpuTime ? (threads.getCurrentThreadCpuTime() - cpuStart) / 1000000 : -1;
+        report.heapDeltaBytes = usedHeap() - heapStart;
+        synchronized (this) {
+            stages.add(report);
+        }
+        return report;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    void finish() {
+        totalWallMillis = System.currentTimeMillis() - buildStart;
+    }
+
+    public void save(File file) throws IOException {
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, this);
+    }
+}
@@ -16,13 +16,23 @@ package org.opentripplanner.graph_builder;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import lombok.Getter;
 import lombok.Setter;
 
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.graph_builder.services.GraphBuilder;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.CompactGraphFile;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
@@ -30,6 +40,8 @@ import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class GraphBuilderTask implements Runnable {
     
     private static Logger LOG = LoggerFactory.getLogger(GraphBuilderTask.class); 
@@ -50,6 +62,30 @@ public class GraphBuilderTask implements Runnable {
     @Setter
     private boolean serializeGraph = true;
 
+    /**
+     * Save the graph in the compact format, with memory-mappable street edge geometries. The rest
+     * of the graph is serialized as usual.
+     */
+    @Setter
+    private boolean compactGraphFile = false;
+
+    /**
+     * The number of threads running graph builders. With more than one, a builder starts as soon
+     * as the builders before it that it depends on are done: those providing its prerequisites,
+     * and those touching the same parts of the graph according to ConcurrentGraphBuilder. Builders
+     * that do not implement ConcurrentGraphBuilder still run alone, in list order.
+     */
+    @Setter
+    private int builderThreads = 1;
+
+    /** Where to save the build report, by default next to the serialized graph. */
+    @Setter
+    private File buildReportFile;
+
+    /** The time and memory taken by each builder in the last run */
+    @Getter
+    private GraphBuildReport buildReport;
+
     public void addGraphBuilder(GraphBuilder loader) {
         _graphBuilders.add(loader);
     }
@@ -136,14 +172,25 @@ public class GraphBuilderTask implements Runnable {
             builder.checkInputs();
         }
         
+        buildReport = new GraphBuildReport();
+        buildReport.builderThreads = builderThreads;
         HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
-        for (GraphBuilder load : _graphBuilders)
-            load.buildGraph(graph, extra);
+        if (builderThreads > 1) {
+            runConcurrently(extra);
+        } else {
+            for (GraphBuilder load : _graphBuilders)
+                runBuilder(load, extra);
+        }
+        buildReport.finish();
+        saveBuildReport();
 
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
-                graph.save(graphFile);
+                if (compactGraphFile)
+                    CompactGraphFile.save(graph, graphFile);
+                else
+                    graph.save(graphFile);
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
@@ -153,4 +200,112 @@ public class GraphBuilderTask implements Runnable {
         }
         
     }
+
+    private void runBuilder(final GraphBuilder builder, final HashMap<Class<?>, Object> extra) {
+        GraphBuildReport.Stage stage = buildReport.profile(builder, new Runnable() {
+            @Override
+            public void run() {
+                builder.buildGraph(graph, extra);
+            }
+        });
+        LOG.info("{} done in {} s ({} s CPU on the stage thread)",
+                builder.getClass().getSimpleName(), stage.wallMillis / 1000.0,
+                stage.stageThreadCpuMillis / 1000.0);
+    }
+
+    /** @return whether builder j, later in the list than builder i, must wait for i to finish */
+    static boolean dependsOn(GraphBuilder j, GraphBuilder i) {
+        if (!(i instanceof ConcurrentGraphBuilder) || !(j instanceof ConcurrentGraphBuilder))
+            return true;
+        if (!Collections.disjoint(i.provides(), j.getPrerequisites()))
+            return true;
+        ConcurrentGraphBuilder ci = (ConcurrentGraphBuilder) i;
+        ConcurrentGraphBuilder cj = (ConcurrentGraphBuilder) j;
+        List<String> touchedByJ = new ArrayList<String>(cj.reads());
+        touchedByJ.addAll(cj.writes());
+        List<String> touchedByI = new ArrayList<String>(ci.reads());
+        touchedByI.addAll(ci.writes());
+        return !Collections.disjoint(ci.writes(), touchedByJ)
+                || !Collections.disjoint(cj.writes(), touchedByI);
+    }
+
+    /**
+     * Run the builders on builderThreads threads, each one as soon as all the builders it depends
+     * on are done. Dependencies only go from a builder to earlier ones, so this gives the same
+     * graph as running them in list order.
+     */
+    private void runConcurrently(final HashMap<Class<?>, Object> extra) {
+        int n = _graphBuilders.size();
+        boolean[][] waitsFor = new boolean[n][n];
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < j; i++)
+                waitsFor[j][i] = dependsOn(_graphBuilders.get(j), _graphBuilders.get(i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(builderThreads,
+                new ThreadFactoryBuilder().setNameFormat("graph-builder-%d").build());
+        CompletionService<Integer> ecs = new ExecutorCompletionService<Integer>(executor);
+        boolean[] started = new boolean[n];
+        boolean[] done = new boolean[n];
+        int nRunning = 0;
+        int nDone = 0;
+        Throwable failure = null;
+        try {
+            while (nDone < n) {
+                for (int j = 0; j < n && failure == null; j++) {
+                    if (started[j])
+                        continue;
+                    boolean ready = true;
+                    for (int i = 0; i < j && ready; i++)
+                        ready = done[i] || !waitsFor[j][i];
+                    if (!ready)
+                        continue;
+                    final int stage = j;
+                    final GraphBuilder builder = _graphBuilders.get(j);
+                    LOG.info("starting {}", builder.getClass().getSimpleName());
+                    ecs.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            runBuilder(builder, extra);
+                        }
+                    }, stage);
+                    started[j] = true;
+                    nRunning++;
+                }
+                if (nRunning == 0)
+                    break; // only after a failure, since builder 0 never waits
+                Future<Integer> finished = ecs.take();
+                nRunning--;
+                try {
+                    done[finished.get()] = true;
+                    nDone++;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("graph build interrupted", e);
+        }
+        executor.shutdown();
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure != null)
+            throw new RuntimeException(failure);
+    }
+
+    private void saveBuildReport() {
+        File reportFile = buildReportFile;
+        if (reportFile == null && serializeGraph)
+            reportFile = new File(graphFile.getParentFile(), "build-report.json");
+        if (reportFile == null)
+            return;
+        try {
+            buildReport.save(reportFile);
+            LOG.info("Build report saved to {}", reportFile);
+        } catch (IOException e) {
+            LOG.warn("Cannot save build report to {}: {}", reportFile, e.toString());
+        }
+    }
 }
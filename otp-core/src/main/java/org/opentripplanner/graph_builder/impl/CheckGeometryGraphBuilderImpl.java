@@ -23,7 +23,7 @@ import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.gbannotation.BogusEdgeGeometry;
 import org.opentripplanner.gbannotation.BogusVertexGeometry;
 import org.opentripplanner.gbannotation.VertexShapeError;
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.routing.edgetype.HopEdge;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
@@ -40,7 +40,7 @@ import com.vividsolutions.jts.geom.Geometry;
  * This is mainly good for debugging, but probably worth keeping on for production
  * because the cost is small compared to the pain of debugging.
  */
-public class CheckGeometryGraphBuilderImpl implements GraphBuilder {
+public class CheckGeometryGraphBuilderImpl implements ConcurrentGraphBuilder {
 
 
     private DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
@@ -54,6 +54,14 @@ public class CheckGeometryGraphBuilderImpl implements GraphBuilder {
     public List<String> getPrerequisites() {
         return Arrays.asList("streets");
     }
+
+    public List<String> reads() {
+        return Arrays.asList("streets", "transit");
+    }
+
+    public List<String> writes() {
+        return Collections.emptyList();
+    }
     
     private static final Logger LOG = LoggerFactory.getLogger(CheckGeometryGraphBuilderImpl.class);
     private static final double MAX_VERTEX_SHAPE_ERROR = 150;
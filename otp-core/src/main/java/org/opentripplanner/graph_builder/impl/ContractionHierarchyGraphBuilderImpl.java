@@ -0,0 +1,81 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import lombok.Setter;
+
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.contraction.ContractionProfile;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Add a ContractionHierarchySet to a graph, with one hierarchy per profile, for use by the
+ * ContractionPathService. Street edges must not change after this builder has run, so it should
+ * come after transit stops are linked to the streets and elevation data is applied.
+ */
+public class ContractionHierarchyGraphBuilderImpl implements ConcurrentGraphBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyGraphBuilderImpl.class);
+
+    @Setter
+    private List<ContractionProfile> profiles = new ArrayList<ContractionProfile>();
+
+    public ContractionHierarchyGraphBuilderImpl() {
+    }
+
+    public ContractionHierarchyGraphBuilderImpl(List<ContractionProfile> profiles) {
+        this.profiles = profiles;
+    }
+
+    public List<String> provides() {
+        return Arrays.asList("contraction");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    public List<String> reads() {
+        return Arrays.asList("streets");
+    }
+
+    public List<String> writes() {
+        return Arrays.asList("contraction");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet();
+        for (ContractionProfile profile : profiles) {
+            LOG.info("Building contraction hierarchy for {}...", profile);
+            hierarchies.add(new ContractionHierarchy(graph, profile));
+        }
+        graph.putService(ContractionHierarchySet.class, hierarchies);
+        LOG.info("Done building contraction hierarchies.");
+    }
+
+    @Override
+    public void checkInputs() {
+        //no inputs
+    }
+}
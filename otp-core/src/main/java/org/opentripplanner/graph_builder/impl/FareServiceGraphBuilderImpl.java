@@ -18,7 +18,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.routing.services.ChainedFareService;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.FareService;
@@ -27,7 +27,7 @@ import org.opentripplanner.routing.services.FareService;
  * Builds a street graph from OpenStreetMap data.
  * 
  */
-public class FareServiceGraphBuilderImpl implements GraphBuilder {
+public class FareServiceGraphBuilderImpl implements ConcurrentGraphBuilder {
 
     private ChainedFareService service;
 
@@ -52,6 +52,16 @@ public class FareServiceGraphBuilderImpl implements GraphBuilder {
         return Collections.emptyList();
     }
 
+    @Override
+    public List<String> reads() {
+        return Arrays.asList("fares");
+    }
+
+    @Override
+    public List<String> writes() {
+        return Arrays.asList("fares");
+    }
+
     @Override
     public void checkInputs() {
         // nothing to do
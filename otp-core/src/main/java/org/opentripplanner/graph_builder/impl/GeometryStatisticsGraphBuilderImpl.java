@@ -23,7 +23,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
@@ -35,7 +35,7 @@ import com.vividsolutions.jts.geom.LineString;
  * Print statistics on geometry data for a graph (number of geometry, average number of points, size
  * distribution, etc...)
  */
-public class GeometryStatisticsGraphBuilderImpl implements GraphBuilder {
+public class GeometryStatisticsGraphBuilderImpl implements ConcurrentGraphBuilder {
 
     private DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
 
@@ -52,6 +52,14 @@ public class GeometryStatisticsGraphBuilderImpl implements GraphBuilder {
         return Arrays.asList("streets");
     }
 
+    public List<String> reads() {
+        return Arrays.asList("streets", "transit");
+    }
+
+    public List<String> writes() {
+        return Collections.emptyList();
+    }
+
     private static final Logger LOG = LoggerFactory
             .getLogger(GeometryStatisticsGraphBuilderImpl.class);
 
@@ -18,7 +18,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -29,7 +29,7 @@ import org.slf4j.LoggerFactory;
  * Check the every vertex and edge in the graph to make sure the edge lists and from/to
  * members are coherent, and that there are no edgeless vertices. Primarily intended for debugging.
  */
-public class GraphCoherencyChecker implements GraphBuilder {
+public class GraphCoherencyChecker implements ConcurrentGraphBuilder {
 
 
     /** An set of ids which identifies what stages this graph builder provides (i.e. streets, elevation, transit) */
@@ -41,6 +41,14 @@ public class GraphCoherencyChecker implements GraphBuilder {
     public List<String> getPrerequisites() {
         return Arrays.asList("streets");
     }
+
+    public List<String> reads() {
+        return Arrays.asList("streets", "transit");
+    }
+
+    public List<String> writes() {
+        return Collections.emptyList();
+    }
     
     private static final Logger LOG = LoggerFactory.getLogger(GraphCoherencyChecker.class);
 
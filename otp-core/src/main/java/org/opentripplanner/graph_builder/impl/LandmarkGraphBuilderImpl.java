@@ -0,0 +1,74 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import lombok.Setter;
+
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTables;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Add LandmarkTables to a graph, for use by the LandmarkRemainingWeightHeuristic. Each landmark
+ * costs two ints per vertex. This builder should run once the street network is complete.
+ */
+public class LandmarkGraphBuilderImpl implements ConcurrentGraphBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkGraphBuilderImpl.class);
+
+    /** The number of landmarks. More landmarks give tighter bounds but take more memory. */
+    @Setter
+    private int landmarks = 16;
+
+    public LandmarkGraphBuilderImpl() {
+    }
+
+    public LandmarkGraphBuilderImpl(int landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    public List<String> provides() {
+        return Arrays.asList("landmarks");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    public List<String> reads() {
+        return Arrays.asList("streets");
+    }
+
+    public List<String> writes() {
+        return Arrays.asList("landmarks");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        LOG.info("Computing distance tables for {} landmarks...", landmarks);
+        graph.putService(LandmarkTables.class, new LandmarkTables(graph, landmarks));
+        LOG.info("Done computing landmark tables.");
+    }
+
+    @Override
+    public void checkInputs() {
+        //no inputs
+    }
+}
@@ -26,7 +26,7 @@ import lombok.Setter;
 
 import org.opentripplanner.common.IterableLibrary;
 import org.opentripplanner.graph_builder.impl.stopsAlerts.IStopTester;
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.LoggerFactory;
@@ -36,7 +36,7 @@ import org.slf4j.LoggerFactory;
  * The output is a list of stops, some of the stops attributes (coordinates and etc.) and the criteria it satisfies.
  */
 
-public class StopsAlerts implements GraphBuilder {
+public class StopsAlerts implements ConcurrentGraphBuilder {
 
     private static org.slf4j.Logger LOG = LoggerFactory.getLogger(StopsAlerts.class);
 
@@ -81,6 +81,16 @@ public class StopsAlerts implements GraphBuilder {
         return Arrays.asList("transit","streets");
     }
 
+    @Override
+    public List<String> reads() {
+        return Arrays.asList("transit", "streets");
+    }
+
+    @Override
+    public List<String> writes() {
+        return Collections.emptyList();
+    }
+
     @Override
     public void checkInputs() {
         if(logFile.isEmpty())
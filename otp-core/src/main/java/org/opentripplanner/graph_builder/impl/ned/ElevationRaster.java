@@ -0,0 +1,159 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl.ned;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.operation.MathTransform2D;
+
+/**
+ * The samples of a GridCoverage2D copied into a memory-mapped file, in square tiles of
+ * TILE_SIZE x TILE_SIZE pixels so that the samples around a street are a few pages apart rather
+ * than one raster row apart. A raster is read-only once built; each thread samples it through its
+ * own {@link Reader}, which interpolates bilinearly between pixel centers like the Interpolator2D
+ * it replaces, without going through the shared coverage.
+ */
+public class ElevationRaster {
+
+    private static final int TILE_BITS = 6;
+
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    private final int cols;
+
+    private final int rows;
+
+    private final int tilesX;
+
+    /** From world coordinates to pixel coordinates, with integer coordinates at pixel centers. */
+    private final AffineTransform worldToGrid;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Copy the first band of a coverage into a temporary file in the given directory (the system
+     * temporary directory if null). The file is deleted once mapped, or on exit where the platform
+     * does not allow that.
+     *
+     * @throws IllegalArgumentException if the grid of the coverage is not affine, or the raster
+     *         does not fit in a single mapping.
+     */
+    public ElevationRaster(GridCoverage2D coverage, File directory) throws IOException {
+        MathTransform2D gridToWorld = coverage.getGridGeometry().getGridToCRS2D(
+                PixelOrientation.CENTER);
+        if (!(gridToWorld instanceof AffineTransform))
+            throw new IllegalArgumentException("not an affine grid: " + gridToWorld);
+        try {
+            worldToGrid = ((AffineTransform) gridToWorld).createInverse();
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalArgumentException(e);
+        }
+        RenderedImage image = coverage.getRenderedImage();
+        cols = image.getWidth();
+        rows = image.getHeight();
+        tilesX = (cols + TILE_MASK) >> TILE_BITS;
+        int tilesY = (rows + TILE_MASK) >> TILE_BITS;
+        long bytes = 4L * tilesX * tilesY * TILE_SIZE * TILE_SIZE;
+        if (bytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("raster too large to map: " + cols + "x" + rows);
+
+        File file = File.createTempFile("elevation", ".raster", directory);
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(bytes);
+            buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, bytes);
+        } finally {
+            raf.close();
+        }
+        file.delete();
+
+        // copy image tile by image tile, which are decoded only once each this way
+        FloatBuffer floats = buffer.asFloatBuffer();
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+        for (int ty = 0; ty < image.getNumYTiles(); ty++) {
+            for (int tx = 0; tx < image.getNumXTiles(); tx++) {
+                Raster tile = image.getTile(image.getMinTileX() + tx, image.getMinTileY() + ty);
+                int x0 = Math.max(tile.getMinX(), minX);
+                int y0 = Math.max(tile.getMinY(), minY);
+                int x1 = Math.min(tile.getMinX() + tile.getWidth(), minX + cols);
+                int y1 = Math.min(tile.getMinY() + tile.getHeight(), minY + rows);
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        floats.put(index(x - minX, y - minY), tile.getSampleFloat(x, y, 0));
+                    }
+                }
+            }
+        }
+    }
+
+    private int index(int col, int row) {
+        int tile = (row >> TILE_BITS) * tilesX + (col >> TILE_BITS);
+        return (tile << (2 * TILE_BITS)) + ((row & TILE_MASK) << TILE_BITS) + (col & TILE_MASK);
+    }
+
+    /** A new reader over this raster, for use by a single thread. */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    public class Reader {
+
+        private final FloatBuffer floats = buffer.asFloatBuffer();
+
+        private final double[] point = new double[2];
+
+        /**
+         * @return the bilinearly interpolated sample at the given world coordinates, or NaN if
+         *         they are outside of the raster.
+         */
+        public double sample(double x, double y) {
+            point[0] = x;
+            point[1] = y;
+            worldToGrid.transform(point, 0, point, 0, 1);
+            double gx = point[0];
+            double gy = point[1];
+            if (!(gx >= -0.5 && gx <= cols - 0.5 && gy >= -0.5 && gy <= rows - 0.5))
+                return Double.NaN;
+            // clamp to the centers of the edge pixels
+            gx = Math.min(Math.max(gx, 0), cols - 1);
+            gy = Math.min(Math.max(gy, 0), rows - 1);
+            int col = Math.max(0, Math.min((int) gx, cols - 2));
+            int row = Math.max(0, Math.min((int) gy, rows - 2));
+            double fx = gx - col;
+            double fy = gy - row;
+            int col1 = Math.min(col + 1, cols - 1);
+            int row1 = Math.min(row + 1, rows - 1);
+            double top = floats.get(index(col, row)) * (1 - fx) + floats.get(index(col1, row)) * fx;
+            double bottom = floats.get(index(col, row1)) * (1 - fx)
+                    + floats.get(index(col1, row1)) * fx;
+            return top * (1 - fy) + bottom * fy;
+        }
+    }
+
+}
@@ -13,12 +13,20 @@
 
 package org.opentripplanner.graph_builder.impl.ned;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.InterpolationBilinear;
 
@@ -32,6 +40,7 @@ import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.gbannotation.ElevationFlattened;
 import org.opentripplanner.graph_builder.impl.extra_elevation_data.ElevationPoint;
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.graph_builder.services.GraphBuilder;
 import org.opentripplanner.graph_builder.services.ned.NEDGridCoverageFactory;
 import org.opentripplanner.routing.edgetype.EdgeWithElevation;
@@ -41,6 +50,7 @@ import org.opentripplanner.routing.graph.Vertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -52,10 +62,16 @@ import com.vividsolutions.jts.geom.Geometry;
  * measured from the start, and the y-coord representing the sampled elevation at that point (both
  * in meters).
  * 
+ * Profiles are sampled on several threads when the coverage is made of grid coverages: each
+ * raster is copied once into a memory-mapped {@link ElevationRaster}, the edges are sorted by the
+ * cell of the first point of their geometry and handed out in batches of neighbouring edges, and
+ * each thread samples through its own readers rather than through the shared coverage, whose
+ * interpolators are not thread-safe. The profiles are set on the edges on the calling thread.
+ * 
  * @author demory, novalis (missing elevation interp)
  * 
  */
-public class NEDGraphBuilderImpl implements GraphBuilder {
+public class NEDGraphBuilderImpl implements ConcurrentGraphBuilder {
     private static final Logger log = LoggerFactory.getLogger(NEDGraphBuilderImpl.class);
 
     private NEDGridCoverageFactory gridCoverageFactory;
@@ -70,6 +86,18 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
 
     private DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
 
+    /** The number of threads sampling profiles, 1 to sample them all on the calling thread. */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /** Where the rasters are mapped while sampling, the system temporary directory if null. */
+    private File rasterDirectory;
+
+    /** The size in degrees of the cells by which edges are grouped before sampling. */
+    private static final double CELL_SIZE_DEGREES = 0.02;
+
+    /** The number of edges a thread samples before taking more. */
+    private static final int BATCH_SIZE = 1000;
+
     public NEDGraphBuilderImpl() { /* This makes me a "bean" */ };
     
     public NEDGraphBuilderImpl(NEDGridCoverageFactory factory) {
@@ -83,6 +111,14 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
     public List<String> getPrerequisites() {
         return Arrays.asList("streets");
     }
+
+    public List<String> reads() {
+        return Arrays.asList("streets");
+    }
+
+    public List<String> writes() {
+        return Arrays.asList("streets");
+    }
     
     public void setGridCoverageFactory(NEDGridCoverageFactory factory) {
         gridCoverageFactory = factory;
@@ -92,6 +128,14 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
         distanceBetweenSamplesM = distance;
     }
 
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setRasterDirectory(File rasterDirectory) {
+        this.rasterDirectory = rasterDirectory;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
@@ -103,29 +147,183 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
         coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
                 (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
         log.info("setting street elevation profiles from NED data...");
-        List<EdgeWithElevation> edgesWithElevation = new ArrayList<EdgeWithElevation>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        List<EdgeWithElevation> edges = new ArrayList<EdgeWithElevation>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof EdgeWithElevation) {
-                    EdgeWithElevation edgeWithElevation = (EdgeWithElevation) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0)
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
+                    edges.add((EdgeWithElevation) ee);
                 }
             }
         }
+        if (threads <= 1 || !processEdgesInParallel(graph, gridCov, edges)) {
+            int nProcessed = 0;
+            for (EdgeWithElevation edge : edges) {
+                processEdge(graph, edge);
+                nProcessed += 1;
+                if (nProcessed % 50000 == 0)
+                    log.info("set elevation on {}/{} edges", nProcessed, edges.size());
+            }
+        }
+
+        List<EdgeWithElevation> edgesWithElevation = new ArrayList<EdgeWithElevation>();
+        for (EdgeWithElevation edge : edges) {
+            if (edge.getElevationProfile() != null && !edge.isElevationFlattened()) {
+                edgesWithElevation.add(edge);
+            }
+        }
 
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
         assignMissingElevations(graph, edgesWithElevation, extraElevation);
     }
 
+    /**
+     * Sample the profiles of the edges on several threads, then set them on the calling thread.
+     * 
+     * @return false if the coverage cannot be mapped, in which case no profile has been set
+     */
+    private boolean processEdgesInParallel(Graph graph, Coverage gridCov,
+            final List<EdgeWithElevation> edges) {
+        final List<VerticalDatum> datums;
+        final List<GridCoverage2D> regions = new ArrayList<GridCoverage2D>();
+        if (gridCov instanceof UnifiedGridCoverage) {
+            datums = ((UnifiedGridCoverage) gridCov).getDatums();
+            for (Coverage region : ((UnifiedGridCoverage) gridCov).getRegions()) {
+                if (!(region instanceof GridCoverage2D))
+                    return false;
+                regions.add((GridCoverage2D) region);
+            }
+        } else if (gridCov instanceof GridCoverage2D) {
+            datums = null;
+            regions.add((GridCoverage2D) gridCov);
+        } else {
+            return false;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("ned-sampler-%d").setDaemon(true).build());
+        try {
+            // copy the rasters, one per thread at a time
+            List<Future<ElevationRaster>> mapped = new ArrayList<Future<ElevationRaster>>();
+            for (final GridCoverage2D region : regions) {
+                mapped.add(executor.submit(new Callable<ElevationRaster>() {
+                    @Override
+                    public ElevationRaster call() throws IOException {
+                        return new ElevationRaster(region, rasterDirectory);
+                    }
+                }));
+            }
+            final List<ElevationRaster> rasters = new ArrayList<ElevationRaster>();
+            for (Future<ElevationRaster> future : mapped) {
+                rasters.add(future.get());
+            }
+
+            // sort the edges by cell, keeping their index in the low bits
+            final long[] order = new long[edges.size()];
+            for (int i = 0; i < order.length; i++) {
+                Coordinate c = edges.get(i).getGeometry().getCoordinate();
+                long cellX = (long) Math.floor((c.x + 180) / CELL_SIZE_DEGREES);
+                long cellY = (long) Math.floor((c.y + 90) / CELL_SIZE_DEGREES);
+                order[i] = ((cellY * (long) (360 / CELL_SIZE_DEGREES) + cellX) << 32) | i;
+            }
+            Arrays.sort(order);
+
+            final PackedCoordinateSequence[] profiles = new PackedCoordinateSequence[order.length];
+            final AtomicInteger nextBatch = new AtomicInteger();
+            final AtomicInteger nProcessed = new AtomicInteger();
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        RasterSampler sampler = new RasterSampler(rasters, datums);
+                        int start;
+                        while ((start = nextBatch.getAndAdd(BATCH_SIZE)) < order.length) {
+                            int end = Math.min(start + BATCH_SIZE, order.length);
+                            for (int k = start; k < end; k++) {
+                                int i = (int) order[k];
+                                EdgeWithElevation ee = edges.get(i);
+                                if (ee.getElevationProfile() == null)
+                                    profiles[i] = getElevationProfile(ee.getGeometry(), sampler);
+                            }
+                            int n = nProcessed.addAndGet(end - start);
+                            if (n / 50000 != (n - end + start) / 50000)
+                                log.info("sampled elevation on {}/{} edges", n, order.length);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+
+            for (int i = 0; i < profiles.length; i++) {
+                if (profiles[i] == null)
+                    continue;
+                EdgeWithElevation ee = edges.get(i);
+                if (ee.setElevationProfile(profiles[i], false)) {
+                    log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
+                }
+            }
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException || e.getCause() instanceof IllegalArgumentException) {
+                log.warn("cannot map elevation rasters, sampling on a single thread: {}",
+                        e.getCause().getMessage());
+                return false;
+            }
+            throw new RuntimeException("elevation sampling failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("elevation sampling interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Something elevations can be read from by a single thread. */
+    private interface ElevationSampler {
+        double getElevation(double x, double y);
+    }
+
+    /**
+     * Samples the mapped rasters with readers of its own, adding the height of the vertical datum
+     * the same way UnifiedGridCoverage does.
+     */
+    private static class RasterSampler implements ElevationSampler {
+
+        private final List<ElevationRaster.Reader> readers = new ArrayList<ElevationRaster.Reader>();
+
+        private final List<VerticalDatum> datums;
+
+        RasterSampler(List<ElevationRaster> rasters, List<VerticalDatum> datums) {
+            for (ElevationRaster raster : rasters) {
+                readers.add(raster.reader());
+            }
+            this.datums = datums;
+        }
+
+        @Override
+        public double getElevation(double x, double y) {
+            for (ElevationRaster.Reader reader : readers) {
+                double elevation = reader.sample(x, y);
+                if (Double.isNaN(elevation))
+                    continue;
+                if (datums == null)
+                    return elevation;
+                for (VerticalDatum datum : datums) {
+                    if (datum.covers(x, y)) {
+                        return elevation + datum.interpolatedHeight(x, y);
+                    }
+                }
+                log.error("Failed to convert elevation at " + y + ", " + x + " from NAVD88 to NAD83");
+                return elevation;
+            }
+            /* outside of the coverage, like getElevation */
+            return 0;
+        }
+    }
+
     class ElevationRepairState {
         /* This uses an intuitionist approach to elevation inspection */
         public EdgeWithElevation backEdge;
@@ -330,7 +528,27 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
         if (ee.getElevationProfile() != null) {
             return; /* already set up */
         }
-        Geometry g = ee.getGeometry();
+        PackedCoordinateSequence elevPCS = getElevationProfile(ee.getGeometry(),
+                new ElevationSampler() {
+                    @Override
+                    public double getElevation(double x, double y) {
+                        return NEDGraphBuilderImpl.this.getElevation(x, y);
+                    }
+                });
+
+        if(ee.setElevationProfile(elevPCS, false)) {
+            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
+        }
+    }
+
+    /**
+     * Samples the elevation every distanceBetweenSamplesM meters along a geometry.
+     * 
+     * @param g the geometry of the edge
+     * @param sampler where elevations are read from
+     * @return the elevation profile
+     */
+    private PackedCoordinateSequence getElevationProfile(Geometry g, ElevationSampler sampler) {
         Coordinate[] coords = g.getCoordinates();
 
         List<Coordinate> coordList = new LinkedList<Coordinate>();
@@ -343,7 +561,7 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
         }
 
         // initial sample (x = 0)
-        coordList.add(new Coordinate(0, getElevation(coords[0])));
+        coordList.add(new Coordinate(0, sampler.getElevation(coords[0].x, coords[0].y)));
 
         // loop for edge-internal samples
         for (double x = distanceBetweenSamplesM; x < edgeLenM; x += distanceBetweenSamplesM) {
@@ -353,20 +571,16 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
             }
 
             Coordinate internal = getPointAlongEdge(coords, edgeLenM, x / edgeLenM);
-            coordList.add(new Coordinate(x, getElevation(internal)));
+            coordList.add(new Coordinate(x, sampler.getElevation(internal.x, internal.y)));
         }
 
         // final sample (x = edge length)
-        coordList.add(new Coordinate(edgeLenM, getElevation(coords[coords.length - 1])));
+        Coordinate last = coords[coords.length - 1];
+        coordList.add(new Coordinate(edgeLenM, sampler.getElevation(last.x, last.y)));
 
         // construct the PCS
         Coordinate coordArr[] = new Coordinate[coordList.size()];
-        PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
-                coordList.toArray(coordArr));
-
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        return new PackedCoordinateSequence.Double(coordList.toArray(coordArr));
     }
 
     /**
@@ -414,16 +628,6 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
         return new Coordinate(x1 + (pctAlongSeg * (x2 - x1)), y1 + (pctAlongSeg * (y2 - y1)));
     }
 
-    /**
-     * Method for retrieving the elevation at a given Coordinate.
-     * 
-     * @param c the coordinate (NAD83)
-     * @return elevation in meters
-     */
-    private double getElevation(Coordinate c) {
-        return getElevation(c.x, c.y);
-    }
-
     /**
      * Method for retrieving the elevation at a given (x, y) pair.
      * 
@@ -0,0 +1,170 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl.osm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Setter;
+
+import org.opentripplanner.common.LongIntHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An OSMNodeStore for large extracts. Most OSM nodes only carry a position, so untagged nodes are
+ * reduced to an id-to-slot entry in a primitive hash map and two doubles in a coordinate array;
+ * lookups return a new OSMNode built from them. The few tagged nodes are kept as objects.
+ * 
+ * The coordinates are stored in fixed-size chunks, on the heap by default, or in a temporary file
+ * that is memory-mapped (and thus off the Java heap) when a directory is set. Either way this takes
+ * about 40 bytes per untagged node. The store must be closed once the nodes are no longer needed,
+ * which releases the chunks and deletes the temporary file.
+ */
+public class CompactOSMNodeStore implements OSMNodeStore, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactOSMNodeStore.class);
+
+    private static final int CHUNK_BITS = 20;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS; // nodes
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final LongIntHashMap slots = new LongIntHashMap(1 << 16, -1);
+
+    /* lat and lon of each slot, alternately */
+    private final List<DoubleBuffer> chunks = new ArrayList<DoubleBuffer>();
+
+    private final Map<Long, OSMNode> taggedNodes = new HashMap<Long, OSMNode>();
+
+    private int nSlots = 0;
+
+    /**
+     * Keep the coordinates in a memory-mapped temporary file in this directory, rather than on the
+     * heap.
+     */
+    @Setter
+    private File directory;
+
+    private File file;
+
+    private FileChannel channel;
+
+    @Override
+    public void put(OSMNode node) {
+        long id = node.getId();
+        if (node.getTags() != null && !node.getTags().isEmpty()) {
+            taggedNodes.put(id, node);
+            return;
+        }
+        int slot = slots.get(id);
+        if (slot < 0) {
+            slot = nSlots++;
+            slots.put(id, slot);
+        }
+        DoubleBuffer chunk = getChunk(slot >>> CHUNK_BITS);
+        int i = (slot & CHUNK_MASK) * 2;
+        chunk.put(i, node.getLat());
+        chunk.put(i + 1, node.getLon());
+    }
+
+    @Override
+    public OSMNode get(long id) {
+        if (!taggedNodes.isEmpty()) {
+            OSMNode node = taggedNodes.get(id);
+            if (node != null)
+                return node;
+        }
+        int slot = slots.get(id);
+        if (slot < 0)
+            return null;
+        DoubleBuffer chunk = chunks.get(slot >>> CHUNK_BITS);
+        int i = (slot & CHUNK_MASK) * 2;
+        OSMNode node = new OSMNode();
+        node.setId(id);
+        node.setLat(chunk.get(i));
+        node.setLon(chunk.get(i + 1));
+        return node;
+    }
+
+    @Override
+    public boolean containsKey(long id) {
+        return slots.containsKey(id) || taggedNodes.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return slots.size() + taggedNodes.size();
+    }
+
+    private DoubleBuffer getChunk(int index) {
+        while (chunks.size() <= index) {
+            chunks.add(allocateChunk(chunks.size()));
+        }
+        return chunks.get(index);
+    }
+
+    private DoubleBuffer allocateChunk(int index) {
+        long bytes = CHUNK_SIZE * 2L * 8;
+        if (directory == null)
+            return DoubleBuffer.allocate(CHUNK_SIZE * 2);
+        try {
+            if (channel == null) {
+                file = File.createTempFile("osm-nodes", ".bin", directory);
+                file.deleteOnExit();
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                LOG.info("Storing OSM node coordinates in {}", file);
+            }
+            // the mapping grows the file as needed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, index * bytes, bytes);
+            return buffer.asDoubleBuffer();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map the OSM node coordinate file.", e);
+        }
+    }
+
+    /**
+     * Forget all nodes and delete the temporary file, if any. The mapped chunks are only unmapped
+     * once they are garbage collected, but no longer hold the file open.
+     */
+    @Override
+    public void close() throws IOException {
+        slots.clear();
+        chunks.clear();
+        taggedNodes.clear();
+        nSlots = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+                if (!file.delete())
+                    LOG.warn("Could not delete the OSM node coordinate file {}", file);
+                file = null;
+            }
+        }
+    }
+
+}
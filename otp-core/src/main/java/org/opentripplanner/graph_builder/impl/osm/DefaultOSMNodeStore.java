@@ -0,0 +1,48 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl.osm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * Keeps the OSM nodes as they are in a HashMap. Fast, but needs well over 100 bytes per node.
+ */
+public class DefaultOSMNodeStore implements OSMNodeStore {
+
+    private Map<Long, OSMNode> nodes = new HashMap<Long, OSMNode>();
+
+    @Override
+    public void put(OSMNode node) {
+        nodes.put(node.getId(), node);
+    }
+
+    @Override
+    public OSMNode get(long id) {
+        return nodes.get(id);
+    }
+
+    @Override
+    public boolean containsKey(long id) {
+        return nodes.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+}
@@ -0,0 +1,34 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl.osm;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * Holds the OSM nodes kept while building the street graph, by id. Implementations may return a
+ * new OSMNode instance on each lookup; OSMNodes are equal when their ids are.
+ */
+public interface OSMNodeStore {
+
+    /** Store a node, replacing any node with the same id. */
+    public void put(OSMNode node);
+
+    /** @return the node with the given id, or null if there is none. */
+    public OSMNode get(long id);
+
+    public boolean containsKey(long id);
+
+    public int size();
+
+}
@@ -13,6 +13,8 @@
 
 package org.opentripplanner.graph_builder.impl.osm;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,6 +30,7 @@ import lombok.Setter;
 
 import org.geotools.geometry.Envelope2D;
 import org.opentripplanner.common.DisjointSet;
+import org.opentripplanner.common.LongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.TurnRestrictionType;
@@ -190,6 +193,13 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
     @Setter
     private OSMPlainStreetEdgeFactory edgeFactory = new DefaultOSMPlainStreetEdgeFactory();
 
+    /**
+     * Where the OSM nodes are kept while building. Use a {@link CompactOSMNodeStore} for large
+     * extracts. A store that is Closeable is closed when the build is done.
+     */
+    @Setter
+    private OSMNodeStore nodeStore = new DefaultOSMNodeStore();
+
     /**
      * If true, disallow zero floors and add 1 to non-negative numeric floors, as is generally done in the United States. This does not affect floor
      * names from level maps.
@@ -253,12 +263,23 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         Handler handler = new Handler(graph);
-        for (OpenStreetMapProvider provider : _providers) {
-            LOG.info("Gathering OSM from provider: " + provider);
-            provider.readOSM(handler);
+        try {
+            for (OpenStreetMapProvider provider : _providers) {
+                LOG.info("Gathering OSM from provider: " + provider);
+                provider.readOSM(handler);
+            }
+            LOG.info("Building street graph from OSM");
+            handler.buildGraph(extra);
+        } finally {
+            // the nodes are only needed while building
+            if (nodeStore instanceof Closeable) {
+                try {
+                    ((Closeable) nodeStore).close();
+                } catch (IOException e) {
+                    LOG.warn("Could not close the OSM node store", e);
+                }
+            }
         }
-        LOG.info("Building street graph from OSM");
-        handler.buildGraph(extra);
     }
 
     @SuppressWarnings("unchecked")
@@ -277,7 +298,7 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
 
         private static final String levelnodeLabelFormat = nodeLabelFormat + ":level:%s";
 
-        private Map<Long, OSMNode> _nodes = new HashMap<Long, OSMNode>();
+        private OSMNodeStore _nodes = nodeStore;
 
         private Map<Long, OSMWay> _ways = new HashMap<Long, OSMWay>();
 
@@ -297,9 +318,9 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
 
         private Set<OSMWithTags> _processedAreas = new HashSet<OSMWithTags>();
 
-        private Set<Long> _nodesWithNeighbors = new HashSet<Long>();
+        private LongHashSet _nodesWithNeighbors = new LongHashSet();
 
-        private Set<Long> _areaNodes = new HashSet<Long>();
+        private LongHashSet _areaNodes = new LongHashSet();
 
         private Multimap<Long, TurnRestrictionTag> turnRestrictionsByFromWay = ArrayListMultimap.create();
 
@@ -762,10 +783,8 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
                 processBikeRentalNodes();
             }
 
-            // Remove all simple islands
-            HashSet<Long> _keep = new HashSet<Long>(_nodesWithNeighbors);
-            _keep.addAll(_areaNodes);
-            _nodes.keySet().retainAll(_keep);
+            // Simple islands were removed as nodes were loaded: only nodes with neighbors or in
+            // areas are kept (see addNode).
 
             // figure out which nodes that are actually intersections
             initIntersectionNodes();
@@ -1963,7 +1982,7 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
             if (_nodes.containsKey(node.getId()))
                 return;
 
-            _nodes.put(node.getId(), node);
+            _nodes.put(node);
 
             if (_nodes.size() % 100000 == 0)
                 LOG.debug("nodes=" + _nodes.size());
@@ -2133,7 +2152,7 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
 
         }
 
-        private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+        private void markNodesForKeeping(Collection<OSMWay> osmWays, LongHashSet nodeSet) {
             for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext(); ) {
                 OSMWay way = it.next();
                 // Since the way is kept, update nodes-with-neighbors
@@ -25,7 +25,7 @@ import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.T2;
 import org.opentripplanner.common.pqueue.BinHeap;
-import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
 import org.opentripplanner.routing.algorithm.GenericDijkstra;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
@@ -51,7 +51,7 @@ import org.slf4j.LoggerFactory;
 import java.util.*;
 import java.util.Map.Entry;
 
-public class RaptorDataBuilder implements GraphBuilder {
+public class RaptorDataBuilder implements ConcurrentGraphBuilder {
 
     private static final Logger log = LoggerFactory.getLogger(RaptorDataBuilder.class);
 
@@ -824,6 +824,16 @@ public class RaptorDataBuilder implements GraphBuilder {
         return Arrays.asList("transitIndex");
     }
 
+    @Override
+    public List<String> reads() {
+        return Arrays.asList("streets", "transit", "transitIndex");
+    }
+
+    @Override
+    public List<String> writes() {
+        return Arrays.asList("raptor");
+    }
+
     @Override
     public void checkInputs() {
 
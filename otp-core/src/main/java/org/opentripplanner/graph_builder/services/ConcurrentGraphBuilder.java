@@ -0,0 +1,33 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.services;
+
+import java.util.List;
+
+/**
+ * A graph builder that declares which parts of the graph it reads and modifies, so that a
+ * GraphBuilderTask with several builder threads may run it at the same time as other such
+ * builders. Parts are named like the stages in provides(): "streets" for street vertices and
+ * edges, "transit" for transit vertices and edges, and the name of the stage providing a graph
+ * service, such as "fares", for that service. Two concurrent builders overlap only when neither
+ * modifies a part the other touches. They must not add or remove vertices, nor modify the extra
+ * map passed to buildGraph. Builders not implementing this interface run alone.
+ */
+public interface ConcurrentGraphBuilder extends GraphBuilder {
+    /** The parts of the graph this builder reads */
+    public List<String> reads();
+
+    /** The parts of the graph this builder modifies, including the services it puts */
+    public List<String> writes();
+}
@@ -61,4 +61,18 @@ public class OSMNode extends OSMWithTags {
         return hasTag("highway") && "traffic_signals".equals(getTag("highway"));
     }
 
+    /**
+     * Nodes are identified by their OSM id, so that a node store may hand out a new instance each
+     * time a node is looked up (see OSMNodeStore).
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof OSMNode && ((OSMNode) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+
 }
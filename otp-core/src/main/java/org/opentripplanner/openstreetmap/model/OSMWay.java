@@ -16,23 +16,33 @@
 
 package org.opentripplanner.openstreetmap.model;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.google.common.primitives.Longs;
+
 public class OSMWay extends OSMWithTags {
 
-    private List<Long> _nodes = new ArrayList<Long>();
+    private static final long[] NO_NODES = new long[0];
+
+    /* node ids are kept unboxed, ways referencing most of the nodes of a large extract */
+    private long[] _nodes = NO_NODES;
+
+    private int _nNodes = 0;
 
     public void addNodeRef(OSMNodeRef nodeRef) {
-        _nodes.add(nodeRef.getRef());
+        addNodeRef(nodeRef.getRef());
     }
 
     public void addNodeRef(long nodeRef) {
-        _nodes.add(nodeRef);
+        if (_nNodes == _nodes.length)
+            _nodes = Arrays.copyOf(_nodes, Math.max(4, _nNodes * 2));
+        _nodes[_nNodes++] = nodeRef;
     }
 
+    /** @return a view of the ids of the nodes of this way, in order. */
     public List<Long> getNodeRefs() {
-        return _nodes;
+        return Longs.asList(_nodes).subList(0, _nNodes);
     }
 
     public String toString() {
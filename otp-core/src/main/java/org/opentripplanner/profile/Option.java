@@ -23,6 +23,12 @@ public class Option {
         }
     }
 
+    /** An option with the given travel times rather than the sum of its rides. */
+    public Option (Ride ride, Stats stats) {
+        this(ride);
+        this.stats = stats;
+    }
+
     public String getSummary() {
         StringBuilder sb = new StringBuilder();
         sb.append("routes ");
@@ -38,6 +38,7 @@ import com.vividsolutions.jts.index.strtree.STRtree;
 public class ProfileData {
 
     public static final double WALK_RADIUS = 500; // meters
+    public static final double WALK_SPEED = 1.33; // meters per second
     private static final Logger LOG = LoggerFactory.getLogger(ProfileData.class);
 
     @AllArgsConstructor
@@ -65,6 +66,8 @@ public class ProfileData {
         int[] min, avg, max;
         List<Stop> stops;
         Route route;
+        /** The table trip patterns merged into this one, for their timetables. */
+        List<TableTripPattern> tripPatterns = Lists.newArrayList();
         
         public Pattern (Collection<TableTripPattern> ttps) {
             TableTripPattern first = ttps.iterator().next();
@@ -84,6 +87,7 @@ public class ProfileData {
                     LOG.error("mismatched route");
                     continue;
                 }
+                tripPatterns.add(ttp);
                 int nTrips = ttp.getTrips().size();
                 for (int i = 0; i < nTrips; ++i) {
                     TripTimes tt = ttp.getTripTimes(i);
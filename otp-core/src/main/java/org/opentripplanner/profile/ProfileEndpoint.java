@@ -1,14 +1,24 @@
 package org.opentripplanner.profile;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import javax.inject.Singleton;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
 
 import lombok.Setter;
 
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.GraphService;
 
 import com.sun.jersey.api.core.InjectParam;
@@ -18,12 +28,20 @@ import com.sun.jersey.api.spring.Autowire;
 public class ProfileEndpoint {
 
     @Setter @InjectParam private GraphService graphService;
-    private static ProfileData data = null;
+    /** The profile data and the timetable of the last requested date, for one graph instance. */
+    private static volatile Cache cache = null;
+    /** Hours may go past 24, as in GTFS, for service running after midnight. */
+    private static final Pattern TIME = Pattern.compile("(\\d{1,2}):([0-5]\\d)");
     
+    /**
+     * With startTime and endTime (HH:MM) the options are those leaving in that window on the
+     * given date (YYYY-MM-DD, today by default), found with range-RAPTOR.
+     */
     @GET
     @Produces({ MediaType.APPLICATION_JSON })
     public Response profileRoute(@QueryParam("from") String from, 
                                @QueryParam("to")   String to,
+                               @QueryParam("date") String date,
                                @QueryParam("startTime") String startTime, 
                                @QueryParam("endTime")   String endTime) {
         String[] fromCoords = from.split(",");
@@ -33,11 +51,73 @@ public class ProfileEndpoint {
         double toLat   = Double.parseDouble(toCoords[0]);
         double toLon   = Double.parseDouble(toCoords[1]);
 
-        if (data == null) 
-            data = new ProfileData(graphService.getGraph());
+        Graph graph = graphService.getGraph();
+        Cache c = cache;
+        if (c == null || c.graph != graph) {
+            c = new Cache(graph, new ProfileData(graph), null);
+            cache = c;
+        }
+        ProfileData data = c.data;
+        if (startTime != null && endTime != null) {
+            int fromTime = secondsSinceMidnight("startTime", startTime);
+            int toTime = secondsSinceMidnight("endTime", endTime);
+            if (toTime <= fromTime)
+                throw badRequest("endTime must be after startTime");
+            ServiceDate serviceDate = new ServiceDate();
+            if (date != null) {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+                format.setLenient(false);
+                format.setTimeZone(graph.getTimeZone());
+                try {
+                    serviceDate = new ServiceDate(format.parse(date));
+                } catch (ParseException e) {
+                    throw badRequest("date must be YYYY-MM-DD: " + date);
+                }
+            }
+            ProfileTimetable tt = c.timetable;
+            if (tt == null || !tt.getServiceDay().getServiceDate().equals(serviceDate)) {
+                // the date was read in the graph's time zone, so its midnight is taken there too
+                ServiceDay serviceDay = new ServiceDay(graph, serviceDate,
+                        graph.getCalendarService(), graph.getTimeZone());
+                tt = new ProfileTimetable(data, serviceDay, ProfileData.WALK_SPEED);
+                cache = new Cache(graph, data, tt);
+            }
+            RangeRaptorRouter router = new RangeRaptorRouter(data, tt);
+            return new Response(router.route(fromLat, fromLon, toLat, toLon, fromTime, toTime));
+        }
         ProfileRouter router = new ProfileRouter (data);
         Response response = new Response (router.route(fromLat, fromLon, toLat, toLon));
         return response;
     }
+
+    /** @return the seconds since midnight of a time given as HH:MM */
+    private static int secondsSinceMidnight(String param, String time) {
+        Matcher matcher = TIME.matcher(time);
+        if (!matcher.matches())
+            throw badRequest(param + " must be HH:MM: " + time);
+        return Integer.parseInt(matcher.group(1)) * 3600 + Integer.parseInt(matcher.group(2)) * 60;
+    }
+
+    private static WebApplicationException badRequest(String message) {
+        return new WebApplicationException(javax.ws.rs.core.Response.status(Status.BAD_REQUEST)
+                .entity(message).build());
+    }
+
+    /** Replaced as a whole, so that a timetable is never paired with another graph's data. */
+    private static class Cache {
+
+        final Graph graph;
+
+        final ProfileData data;
+
+        /** null until a request for a time window has been made on this graph */
+        final ProfileTimetable timetable;
+
+        Cache(Graph graph, ProfileData data, ProfileTimetable timetable) {
+            this.graph = graph;
+            this.data = data;
+            this.timetable = timetable;
+        }
+    }
     
 }
@@ -0,0 +1,203 @@
+package org.opentripplanner.profile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.AllArgsConstructor;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+
+package org.opentripplanner.profile;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.model.P2;
+import org.opentripplanner.profile.ProfileData.Pattern;
+import org.opentripplanner.profile.ProfileData.Transfer;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+import com.beust.jcommander.internal.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The patterns and transfers of a ProfileData flattened into arrays for one service day, for
+ * round-based searches. Stops and patterns are numbered; times are in seconds since midnight of
+ * the service day. Read-only once built, so shared by all searches on that day.
+ */
+public class ProfileTimetable {
+
+    @Getter private final ServiceDay serviceDay;
+
+    final Stop[] stops;
+
+    final Map<Stop, Integer> stopIndex = Maps.newHashMap();
+
+    final Pattern[] patterns;
+
+    /** The stop indexes of each pattern, in order. */
+    final int[][] patternStops;
+
+    /** For each pattern, the departure of trip t from stop position s at [t * nStops + s]. */
+    final int[][] departures;
+
+    /** For each pattern, the arrival of trip t at stop position s at [t * nStops + s]. */
+    final int[][] arrivals;
+
+    final int[] nTrips;
+
+    /** The patterns serving each stop. */
+    final int[][] patternsForStop;
+
+    /** The stops within walking distance of each stop, and the time to walk there. */
+    final int[][] transferStops;
+
+    final int[][] transferTimes;
+
+    /**
+     * @param walkSpeed in meters per second, to turn transfer distances into times
+     */
+    public ProfileTimetable(ProfileData data, ServiceDay serviceDay, double walkSpeed) {
+        this.serviceDay = serviceDay;
+        stops = data.patternsForStop.keySet().toArray(new Stop[0]);
+        for (int s = 0; s < stops.length; s++) {
+            stopIndex.put(stops[s], s);
+        }
+        // each pattern belongs to exactly one route
+        patterns = data.patternsForRoute.values().toArray(new Pattern[0]);
+        patternStops = new int[patterns.length][];
+        departures = new int[patterns.length][];
+        arrivals = new int[patterns.length][];
+        nTrips = new int[patterns.length];
+        List<List<Integer>> stopPatterns = Lists.newArrayList();
+        for (int s = 0; s < stops.length; s++) {
+            stopPatterns.add(Lists.<Integer> newArrayList());
+        }
+        for (int p = 0; p < patterns.length; p++) {
+            int nStops = patterns[p].stops.size();
+            patternStops[p] = new int[nStops];
+            for (int i = 0; i < nStops; i++) {
+                int s = stopIndex.get(patterns[p].stops.get(i));
+                patternStops[p][i] = s;
+                if (!stopPatterns.get(s).contains(p))
+                    stopPatterns.get(s).add(p);
+            }
+            indexTrips(p, serviceDay);
+        }
+        patternsForStop = new int[stops.length][];
+        for (int s = 0; s < stops.length; s++) {
+            patternsForStop[s] = toArray(stopPatterns.get(s));
+        }
+
+        // the closest transfer between two patterns may be between different pairs of stops
+        Map<P2<Integer>, Integer> distances = Maps.newHashMap();
+        for (Transfer tr : data.transfersForStop.values()) {
+            Integer s1 = stopIndex.get(tr.s1);
+            Integer s2 = stopIndex.get(tr.s2);
+            if (s1 == null || s2 == null || s1.equals(s2))
+                continue;
+            P2<Integer> key = new P2<Integer>(s1, s2);
+            Integer distance = distances.get(key);
+            if (distance == null || tr.distance < distance)
+                distances.put(key, tr.distance);
+        }
+        List<List<Integer>> targets = Lists.newArrayList();
+        List<List<Integer>> times = Lists.newArrayList();
+        for (int s = 0; s < stops.length; s++) {
+            targets.add(Lists.<Integer> newArrayList());
+            times.add(Lists.<Integer> newArrayList());
+        }
+        for (Map.Entry<P2<Integer>, Integer> entry : distances.entrySet()) {
+            int s1 = entry.getKey().getFirst();
+            targets.get(s1).add(entry.getKey().getSecond());
+            times.get(s1).add((int) (entry.getValue() / walkSpeed));
+        }
+        transferStops = new int[stops.length][];
+        transferTimes = new int[stops.length][];
+        for (int s = 0; s < stops.length; s++) {
+            transferStops[s] = toArray(targets.get(s));
+            transferTimes[s] = toArray(times.get(s));
+        }
+    }
+
+    /** Copy the times of the trips of a pattern running on the given day, by first departure. */
+    private void indexTrips(int p, ServiceDay serviceDay) {
+        final int nStops = patternStops[p].length;
+        List<TripTimes> running = Lists.newArrayList();
+        for (TableTripPattern ttp : patterns[p].tripPatterns) {
+            if (!serviceDay.serviceIdRunning(ttp.getServiceId()))
+                continue;
+            int n = ttp.getTrips().size();
+            for (int i = 0; i < n; i++) {
+                running.add(ttp.getTripTimes(i));
+            }
+        }
+        TripTimes[] trips = running.toArray(new TripTimes[running.size()]);
+        Arrays.sort(trips, new Comparator<TripTimes>() {
+            @Override
+            public int compare(TripTimes a, TripTimes b) {
+                return a.getDepartureTime(0) - b.getDepartureTime(0);
+            }
+        });
+        nTrips[p] = trips.length;
+        departures[p] = new int[trips.length * nStops];
+        arrivals[p] = new int[trips.length * nStops];
+        for (int t = 0; t < trips.length; t++) {
+            // hop s leaves stop s and arrives at stop s + 1
+            for (int s = 0; s < nStops; s++) {
+                departures[p][t * nStops + s] = s < nStops - 1 ? trips[t].getDepartureTime(s)
+                        : Integer.MAX_VALUE;
+                arrivals[p][t * nStops + s] = s > 0 ? trips[t].getArrivalTime(s - 1)
+                        : Integer.MIN_VALUE;
+            }
+        }
+    }
+
+    /**
+     * @return the first trip of the pattern leaving the stop at the given position at or after
+     *         the given time, or -1 if there is none. Trips of a pattern are assumed not to
+     *         overtake one another, as in TripTimes.binarySearchDepartures.
+     */
+    int findTrip(int p, int position, int time) {
+        int nStops = patternStops[p].length;
+        int lo = 0;
+        int hi = nTrips[p];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (departures[p][mid * nStops + position] < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo < nTrips[p] ? lo : -1;
+    }
+
+    int departure(int p, int trip, int position) {
+        return departures[p][trip * patternStops[p].length + position];
+    }
+
+    int arrival(int p, int trip, int position) {
+        return arrivals[p][trip * patternStops[p].length + position];
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] ret = new int[list.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = list.get(i);
+        }
+        return ret;
+    }
+
+}
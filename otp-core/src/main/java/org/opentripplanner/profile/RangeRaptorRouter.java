@@ -0,0 +1,402 @@
+package org.opentripplanner.profile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.AllArgsConstructor;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+
+package org.opentripplanner.profile;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import org.opentripplanner.profile.ProfileData.Pattern;
+import org.opentripplanner.profile.ProfileData.StopAtDistance;
+import org.opentripplanner.profile.ProfileRouter.QRide;
+import org.opentripplanner.profile.ProfileRouter.Ride;
+import org.opentripplanner.profile.ProfileRouter.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.beust.jcommander.internal.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Finds the options for leaving within a window of departure times with range-RAPTOR: one RAPTOR
+ * search per departure minute, from the latest to the earliest, keeping the arrival times of
+ * each round between searches since whatever could be reached leaving later can still be reached
+ * leaving earlier. A search then only has to scan the patterns serving stops it reaches earlier
+ * than before. Each option (a sequence of rides) found to be the fastest for its number of rides
+ * at some minute gets the min, average and max of its travel times over those minutes, waiting at
+ * the origin included.
+ *
+ * The window is split into time slices, each reusing its own arrival times. The slices are handed
+ * to a pool shared by all routers with a thread per core, and searched on the calling thread when
+ * no thread of the pool is idle, so concurrent requests do not start more threads than there are
+ * cores.
+ */
+@RequiredArgsConstructor
+public class RangeRaptorRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RangeRaptorRouter.class);
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private static final int N_CORES = Runtime.getRuntime().availableProcessors();
+
+    /** Takes a slice only if one of its threads is idle; otherwise the caller searches it. */
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(N_CORES, N_CORES, 60,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder()
+                    .setNameFormat("range-raptor-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        ((ThreadPoolExecutor) EXECUTOR).allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull ProfileData data;
+    @NonNull ProfileTimetable timetable;
+
+    /** The largest number of rides in an option. */
+    @Setter private int rounds = 3;
+
+    /** The time between departures searched, in seconds. */
+    @Setter private int step = 60;
+
+    /** In meters per second, for access and egress. */
+    @Setter private double walkSpeed = ProfileData.WALK_SPEED;
+
+    /** The number of time slices searched in parallel, 1 to search on the calling thread. */
+    @Setter private int threads = N_CORES;
+
+    /**
+     * @param fromTime the earliest departure, in seconds since midnight of the service day of the
+     *        timetable
+     * @param toTime the end of the departure window, exclusive
+     * @return the options found, fastest on average first
+     */
+    public List<Option> route(double fromLat, double fromLon, double toLat, double toLon,
+            int fromTime, int toTime) {
+        int[] access = walkTimes(data.closestPatterns(fromLon, fromLat));
+        int[] egress = walkTimes(data.closestPatterns(toLon, toLat));
+        int nDepartures = Math.max(0, (toTime - fromTime + step - 1) / step);
+        int nSlices = Math.max(1, Math.min(threads, nDepartures));
+        LOG.info("{} departures from {} in {} slices", nDepartures, fromTime, nSlices);
+
+        List<Sweep> sweeps = Lists.newArrayList();
+        for (int i = 0; i < nSlices; i++) {
+            // departures [first, last) of this slice
+            int first = fromTime + step * (int) ((long) nDepartures * i / nSlices);
+            int last = fromTime + step * (int) ((long) nDepartures * (i + 1) / nSlices);
+            sweeps.add(new Sweep(access, egress, first, last));
+        }
+        Map<String, Accumulator> options;
+        if (nSlices == 1) {
+            options = sweeps.get(0).call();
+        } else {
+            options = Maps.newHashMap();
+            List<Future<Map<String, Accumulator>>> futures = Lists.newArrayList();
+            try {
+                for (Sweep sweep : sweeps)
+                    futures.add(EXECUTOR.submit(sweep));
+                for (Future<Map<String, Accumulator>> future : futures)
+                    merge(options, future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                for (Future<Map<String, Accumulator>> future : futures)
+                    future.cancel(true);
+            }
+        }
+
+        List<Option> ret = Lists.newArrayList();
+        for (Accumulator acc : options.values()) {
+            ret.add(new Option(acc.ride, acc.stats()));
+        }
+        Collections.sort(ret, new Comparator<Option>() {
+            @Override
+            public int compare(Option a, Option b) {
+                return a.stats.avg - b.stats.avg;
+            }
+        });
+        LOG.info("{} options", ret.size());
+        return ret;
+    }
+
+    /** @return the walking time to each stop of the timetable, UNREACHED if not close by. */
+    private int[] walkTimes(Map<Pattern, StopAtDistance> closest) {
+        int[] times = new int[timetable.stops.length];
+        Arrays.fill(times, UNREACHED);
+        for (StopAtDistance sad : closest.values()) {
+            Integer s = timetable.stopIndex.get(sad.stop);
+            if (s != null)
+                times[s] = Math.min(times[s], (int) (sad.distance / walkSpeed));
+        }
+        return times;
+    }
+
+    private static void merge(Map<String, Accumulator> into, Map<String, Accumulator> from) {
+        for (Entry<String, Accumulator> entry : from.entrySet()) {
+            Accumulator acc = into.get(entry.getKey());
+            if (acc == null)
+                into.put(entry.getKey(), entry.getValue());
+            else
+                acc.add(entry.getValue());
+        }
+    }
+
+    /** The travel times of one option. */
+    private static class Accumulator {
+
+        final Ride ride;
+
+        int min = UNREACHED;
+
+        int max = 0;
+
+        long sum = 0;
+
+        int count = 0;
+
+        Accumulator(Ride ride) {
+            this.ride = ride;
+        }
+
+        void add(int time) {
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            sum += time;
+            count++;
+        }
+
+        void add(Accumulator other) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            count += other.count;
+        }
+
+        Stats stats() {
+            Stats stats = new Stats();
+            stats.min = min;
+            stats.avg = (int) (sum / count);
+            stats.max = max;
+            return stats;
+        }
+    }
+
+    /**
+     * The searches for the departures of one time slice, latest first. Arrival times are by
+     * round, that is by number of rides, and only improve from one departure to the next.
+     */
+    private class Sweep implements Callable<Map<String, Accumulator>> {
+
+        final int[] access, egress;
+
+        final int first, last;
+
+        final int nStops = timetable.stops.length;
+
+        /** The earliest arrival at each stop in each round, riding or walking. */
+        final int[][] arrival = new int[rounds + 1][nStops];
+
+        /** The earliest arrival at each stop in each round by a ride, before walking. */
+        final int[][] rideArrival = new int[rounds + 1][nStops];
+
+        /* the ride to each stop in each round */
+
+        final int[][] pattern = new int[rounds + 1][nStops];
+
+        final int[][] boardPosition = new int[rounds + 1][nStops];
+
+        final int[][] alightPosition = new int[rounds + 1][nStops];
+
+        /** The stop walked from after the ride, or -1 if there was no walk. */
+        final int[][] transferFrom = new int[rounds + 1][nStops];
+
+        /** The earliest arrival at the destination in each round, and the option arriving then. */
+        final int[] targetArrival = new int[rounds + 1];
+
+        final Ride[] targetRide = new Ride[rounds + 1];
+
+        final String[] targetKey = new String[rounds + 1];
+
+        /** The options counted at some minute, by their rides. */
+        final Map<String, Accumulator> options = Maps.newHashMap();
+
+        Sweep(int[] access, int[] egress, int first, int last) {
+            this.access = access;
+            this.egress = egress;
+            this.first = first;
+            this.last = last;
+            for (int k = 0; k <= rounds; k++) {
+                Arrays.fill(arrival[k], UNREACHED);
+                Arrays.fill(rideArrival[k], UNREACHED);
+            }
+            Arrays.fill(targetArrival, UNREACHED);
+        }
+
+        @Override
+        public Map<String, Accumulator> call() {
+            for (int departure = last - step; departure >= first; departure -= step) {
+                search(departure);
+                // an option counts at this minute if it is faster than all those with fewer rides
+                int best = UNREACHED;
+                for (int k = 1; k <= rounds; k++) {
+                    if (targetArrival[k] < best) {
+                        best = targetArrival[k];
+                        accumulator(k).add(targetArrival[k] - departure);
+                    }
+                }
+            }
+            return options;
+        }
+
+        private void search(int departure) {
+            BitSet marked = new BitSet(nStops);
+            for (int s = 0; s < nStops; s++) {
+                if (access[s] != UNREACHED && departure + access[s] < arrival[0][s]) {
+                    arrival[0][s] = departure + access[s];
+                    marked.set(s);
+                }
+            }
+            for (int k = 1; k <= rounds && !marked.isEmpty(); k++) {
+                // nothing arriving after the best arrival with as few rides can be of use
+                int bound = UNREACHED;
+                for (int j = 1; j <= k; j++)
+                    bound = Math.min(bound, targetArrival[j]);
+                BitSet reached = ride(k, marked, bound);
+                marked = walk(k, reached, bound);
+                for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                    if (egress[s] != UNREACHED && arrival[k][s] + egress[s] < targetArrival[k]) {
+                        targetArrival[k] = arrival[k][s] + egress[s];
+                        setTargetOption(k, s);
+                    }
+                }
+            }
+        }
+
+        /** Scan the patterns serving the marked stops, boarding at those stops only. */
+        private BitSet ride(int k, BitSet marked, int bound) {
+            BitSet patterns = new BitSet(timetable.patterns.length);
+            for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                for (int p : timetable.patternsForStop[s])
+                    patterns.set(p);
+            }
+            BitSet reached = new BitSet(nStops);
+            for (int p = patterns.nextSetBit(0); p >= 0; p = patterns.nextSetBit(p + 1)) {
+                int[] stops = timetable.patternStops[p];
+                int trip = -1;
+                int boardedAt = -1;
+                for (int pos = 0; pos < stops.length; pos++) {
+                    int s = stops[pos];
+                    if (trip >= 0) {
+                        int time = timetable.arrival(p, trip, pos);
+                        // a round is of no use where it does not improve on the previous one
+                        if (time < arrival[k][s] && time < arrival[k - 1][s] && time < bound) {
+                            arrival[k][s] = time;
+                            rideArrival[k][s] = time;
+                            pattern[k][s] = p;
+                            boardPosition[k][s] = boardedAt;
+                            alightPosition[k][s] = pos;
+                            transferFrom[k][s] = -1;
+                            reached.set(s);
+                        }
+                    }
+                    if (!marked.get(s) || pos == stops.length - 1)
+                        continue;
+                    if (trip >= 0 && arrival[k - 1][s] > timetable.departure(p, trip, pos))
+                        continue;
+                    int earlier = timetable.findTrip(p, pos, arrival[k - 1][s]);
+                    if (earlier >= 0 && (trip < 0 || earlier < trip)) {
+                        trip = earlier;
+                        boardedAt = pos;
+                    }
+                }
+            }
+            return reached;
+        }
+
+        /** Walk from the stops reached by a ride to nearby stops. */
+        private BitSet walk(int k, BitSet reached, int bound) {
+            BitSet marked = (BitSet) reached.clone();
+            for (int s = reached.nextSetBit(0); s >= 0; s = reached.nextSetBit(s + 1)) {
+                int[] targets = timetable.transferStops[s];
+                for (int i = 0; i < targets.length; i++) {
+                    int t = targets[i];
+                    int time = rideArrival[k][s] + timetable.transferTimes[s][i];
+                    if (time < arrival[k][t] && time < arrival[k - 1][t] && time < bound) {
+                        arrival[k][t] = time;
+                        transferFrom[k][t] = s;
+                        marked.set(t);
+                    }
+                }
+            }
+            return marked;
+        }
+
+        /** Make the option reaching the given stop in round k the one reaching the target. */
+        private void setTargetOption(int k, int s) {
+            int[][] legs = new int[k][];
+            for (int j = k; j > 0; j--) {
+                if (transferFrom[j][s] >= 0)
+                    s = transferFrom[j][s];
+                int p = pattern[j][s];
+                legs[j - 1] = new int[] { p, boardPosition[j][s], alightPosition[j][s] };
+                s = timetable.patternStops[p][boardPosition[j][s]];
+            }
+            StringBuilder key = new StringBuilder();
+            Ride ride = null;
+            for (int[] leg : legs) {
+                Pattern p = timetable.patterns[leg[0]];
+                ride = new Ride(new QRide(p.stops.get(leg[1]), p, ride, null), p.stops.get(leg[2]));
+                ride.stats = new Stats(p, leg[1], leg[2]);
+                key.append(ride.route.getId()).append(' ').append(ride.from.getId()).append(' ')
+                        .append(ride.to.getId()).append(';');
+            }
+            targetRide[k] = ride;
+            targetKey[k] = key.toString();
+        }
+
+        /**
+         * The accumulator of the option reaching the target in round k, made when the option is
+         * first counted rather than when it is found, since it may be replaced in the same round.
+         */
+        private Accumulator accumulator(int k) {
+            Accumulator acc = options.get(targetKey[k]);
+            if (acc == null) {
+                acc = new Accumulator(targetRide[k]);
+                options.put(targetKey[k], acc);
+            }
+            return acc;
+        }
+    }
+
+}
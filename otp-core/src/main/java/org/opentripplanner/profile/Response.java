@@ -21,5 +21,9 @@ public class Response {
     public Response (Iterable<Ride> options) {
         for (Ride option : options) addOption(option);
     }
+
+    public Response (List<Option> options) {
+        this.options = options;
+    }
     
 }
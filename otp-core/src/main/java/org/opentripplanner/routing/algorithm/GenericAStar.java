@@ -19,6 +19,7 @@ import java.util.List;
 import lombok.Setter;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
 import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
@@ -27,13 +28,17 @@ import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHe
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StatePool;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.DefaultShortestPathTreeFactory;
+import org.opentripplanner.routing.spt.DominatedStateListener;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTreeFactory;
 import org.opentripplanner.util.DateUtils;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
@@ -49,14 +54,28 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     private static final Logger LOG = LoggerFactory.getLogger(GenericAStar.class);
     private static final MonitoringStore store = MonitoringStoreFactory.getStore();
 
+    private static final MetricsRegistry metrics = MetricsRegistry.getRegistry();
+    private static final Histogram searchNanos = metrics.histogram("astar.searchNanos");
+    private static final Histogram verticesVisited = metrics.histogram("astar.verticesVisited");
+    private static final Histogram maxQueueSize = metrics.histogram("astar.maxQueueSize");
+
     private boolean verbose = false;
 
     private ShortestPathTreeFactory shortestPathTreeFactory = new DefaultShortestPathTreeFactory();
 
+    private OTPPriorityQueueFactory priorityQueueFactory = BinHeap.FACTORY;
+
     private TraverseVisitor traverseVisitor;
     
     /** The number of paths to attempt to find */
     @Setter private int nPaths = 1;
+
+    /**
+     * Edit traversal results in reused scratch States, so that those A* would not enqueue because
+     * of the request's weight or time limits are rejected without being allocated.
+     * See {@link StatePool}.
+     */
+    @Setter private boolean poolingStates = false;
     
     enum RunStatus {
 		RUNNING, STOPPED
@@ -69,6 +88,10 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 		RemainingWeightHeuristic heuristic;
 		public RoutingContext rctx;
 		public int nVisited;
+		public int nExtracted;
+		public int maxQueueSize;
+		public int nStatesCreated;
+		StatePool statePool;
 		public List<Object> targetAcceptedStates;
 		public RunStatus status;
 		private RoutingRequest options;
@@ -85,6 +108,14 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     public void setShortestPathTreeFactory(ShortestPathTreeFactory shortestPathTreeFactory) {
         this.shortestPathTreeFactory = shortestPathTreeFactory;
     }
+
+    /**
+     * Set the priority queue implementation. When the queue is an {@link IndexedDaryHeap}, States
+     * that the ShortestPathTree finds dominated are removed from the queue right away.
+     */
+    public void setPriorityQueueFactory(OTPPriorityQueueFactory priorityQueueFactory) {
+        this.priorityQueueFactory = priorityQueueFactory;
+    }
     
     /**
      * Compute SPT using default timeout and termination strategy.
@@ -106,6 +137,10 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     	RunState runState = new RunState( options, terminationStrategy );
     	
         runState.rctx = options.getRoutingContext();
+        if (poolingStates) {
+            runState.statePool = new StatePool();
+            runState.rctx.statePool = runState.statePool;
+        }
 
         // null checks on origin and destination vertices are already performed in setRoutingContext
         // options.rctx.check();
@@ -125,11 +160,21 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         // size = O(sqrt(|V|)) << |V|. For reference, a random, undirected search
         // on a uniform 2d grid will examine roughly sqrt(|V|) vertices before
         // reaching its target. 
-        OTPPriorityQueueFactory qFactory = BinHeap.FACTORY;
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = qFactory.create(initialSize);
+        runState.pq = priorityQueueFactory.create(initialSize);
         runState.pq.insert(initialState, 0);
+        if (runState.pq instanceof IndexedDaryHeap) {
+            // drop dominated states from the queue as soon as the SPT prunes them
+            @SuppressWarnings("unchecked")
+            final IndexedDaryHeap<State> heap = (IndexedDaryHeap<State>) runState.pq;
+            runState.spt.setDominatedStateListener(new DominatedStateListener() {
+                @Override
+                public void stateDominated(State s) {
+                    heap.remove(s);
+                }
+            });
+        }
 
 //        options = options.clone();
 //        /** max walk distance cannot be less than distances to nearest transit stops */
@@ -138,6 +183,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 //        options.setMaxWalkDistance(Math.max(options.getMaxWalkDistance(), rctx.getMinWalkDistance()));
 
         runState.nVisited = 0;
+        runState.nExtracted = 0;
+        runState.maxQueueSize = 1;
         
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -156,6 +203,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
         // get the lowest-weight state in the queue
         runState.u = runState.pq.extract_min();
+        runState.nExtracted += 1;
         
         // check that this state has not been dominated
         // and mark vertex as visited
@@ -183,6 +231,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             // returning NULL), the iteration is over. TODO Use this to board multiple trips.
             for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
                 // Could be: for (State v : traverseEdge...)
+                runState.nStatesCreated += 1;
 
                 if (traverseVisitor != null) {
                     traverseVisitor.visitEdge(edge, v);
@@ -230,6 +279,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                         traverseVisitor.visitEnqueue(v);
                     
                     runState.pq.insert(v, estimate);
+                    if (runState.pq.size() > runState.maxQueueSize)
+                        runState.maxQueueSize = runState.pq.size();
                 } 
             }
         }
@@ -243,6 +294,10 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
      */
     void runSearch(RunState runState, double relTimeout){
     	long abortTime = DateUtils.absoluteTimeout(relTimeout);
+        // the routing context may also carry an absolute deadline, the earlier of the two applies
+        long searchAbortTime = runState.rctx.searchAbortTime;
+        if (searchAbortTime > 0 && searchAbortTime < abortTime)
+            abortTime = searchAbortTime;
     	
         /* the core of the A* algorithm */
         while (!runState.pq.empty()) { // Until the priority queue is empty:
@@ -299,17 +354,54 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout,
             SearchTerminationStrategy terminationStrategy) {
 
+        long searchBeginTime = System.currentTimeMillis();
+        long start = metrics.startTime();
     	RunState runState = startSearch( options, terminationStrategy );
 
-    	runSearch( runState, relTimeout );
-        
+        try {
+            runSearch( runState, relTimeout );
+        } finally {
+            if (runState.statePool != null)
+                runState.rctx.statePool = null;
+        }
+        // do not keep the queue reachable from the finished tree
+        runState.spt.setDominatedStateListener(null);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("{}: visited {} states, extracted {}, max queue size {}, {} msec",
+                    runState.pq.getClass().getSimpleName(), runState.nVisited,
+                    runState.nExtracted, runState.maxQueueSize,
+                    System.currentTimeMillis() - searchBeginTime);
+        }
+        if (start != MetricsRegistry.DISABLED) {
+            searchNanos.recordElapsed(start);
+            verticesVisited.record(runState.nVisited);
+            maxQueueSize.record(runState.maxQueueSize);
+        }
         storeMemory();
+        storeAllocations(runState);
         return runState.spt;
     }
 
+    /**
+     * Count the States created and, when pooling, those rejected before being materialized and those
+     * sharing the StateData of their parent.
+     */
+    private void storeAllocations(RunState runState) {
+        store.addToLong("statesCreated", runState.nStatesCreated);
+        if (runState.statePool != null) {
+            store.addToLong("statesPruned", runState.statePool.getPruned());
+            store.addToLong("stateDataShared", runState.statePool.getSharedStateData());
+            store.addToLong("scratchStatesAllocated", runState.statePool.getScratchAllocated());
+        }
+    }
+
+    /**
+     * Record the heap in use, including garbage not yet collected. Collecting it first would stall
+     * the request for the duration of a full GC.
+     */
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
-            System.gc();
             long memoryUsed = Runtime.getRuntime().totalMemory() -
                     Runtime.getRuntime().freeMemory();
             store.setLongMax("memoryUsed", memoryUsed);
@@ -0,0 +1,96 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A remaining weight heuristic using the graph's LandmarkTables to bound the network distance to
+ * the target, which is never shorter than the straight-line distance used by the
+ * DefaultRemainingWeightHeuristic. The distance is converted to weight at the lowest weight per
+ * meter of the allowed modes, including the fastest car speed of the graph. Searches allowing
+ * transit or bicycles, and graphs without landmark tables, get the default heuristic.
+ */
+public class LandmarkRemainingWeightHeuristic implements RemainingWeightHeuristic {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DefaultRemainingWeightHeuristic euclidean = new DefaultRemainingWeightHeuristic();
+
+    private LandmarkTables tables;
+
+    private double weightPerMeter;
+
+    private int[] targetFrom;
+
+    private int[] targetTo;
+
+    @Override
+    public void initialize(State s, Vertex target) {
+        euclidean.initialize(s, target);
+        RoutingRequest options = s.getOptions();
+        TraverseModeSet modes = options.getModes();
+        tables = options.rctx.graph.getService(LandmarkTables.class);
+        // Bicycle and wheelchair weights shrink on downhill slopes, so distance does not bound them.
+        if (tables == null || modes.isTransit() || modes.getBicycle()
+                || options.wheelchairAccessible) {
+            tables = null;
+            return;
+        }
+        // the lowest weight per meter of street of any allowed mode
+        weightPerMeter = Double.POSITIVE_INFINITY;
+        if (modes.getWalk())
+            weightPerMeter = options.walkReluctance / options.getSpeed(TraverseMode.WALK);
+        if (modes.getDriving()) {
+            double carSpeed = Math.max(options.getSpeed(TraverseMode.CAR), tables.getMaxCarSpeed());
+            weightPerMeter = Math.min(weightPerMeter, 1 / carSpeed);
+        }
+        if (weightPerMeter == Double.POSITIVE_INFINITY) {
+            tables = null;
+            return;
+        }
+        if (options.optimize != OptimizeType.QUICK) {
+            // as in DefaultRemainingWeightHeuristic.getMaxSpeed
+            weightPerMeter /= 10;
+        }
+        targetFrom = tables.distancesFrom(target);
+        targetTo = tables.distancesTo(target);
+    }
+
+    @Override
+    public double computeForwardWeight(State s, Vertex target) {
+        if (tables == null)
+            return euclidean.computeForwardWeight(s, target);
+        return weightPerMeter * tables.lowerBound(s.getVertex(), targetFrom, targetTo, true);
+    }
+
+    @Override
+    public double computeReverseWeight(State s, Vertex target) {
+        if (tables == null)
+            return euclidean.computeReverseWeight(s, target);
+        return weightPerMeter * tables.lowerBound(s.getVertex(), targetFrom, targetTo, false);
+    }
+
+    @Override
+    public void reset() {}
+
+    @Override
+    public void doSomeWork() {}
+
+}
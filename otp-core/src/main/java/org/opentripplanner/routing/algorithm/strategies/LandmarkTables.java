@@ -0,0 +1,342 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.edgetype.HopEdge;
+import org.opentripplanner.routing.edgetype.OnboardEdge;
+import org.opentripplanner.routing.edgetype.PatternEdge;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.graph.VertexSlots;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Network distances in meters from and to a few landmark vertices, for every vertex of a graph.
+ * By the triangle inequality, the distance from any vertex s to any vertex t is at least
+ * d(L, t) - d(L, s) and d(s, L) - d(t, L) for every landmark L, which gives a much tighter lower
+ * bound on the remaining distance of a street search than the straight-line distance (the "ALT"
+ * technique, for A*, landmarks and triangle inequality).
+ *
+ * Distances are measured over all edges that can be used without boarding a transit vehicle,
+ * ignoring traversal permissions, so that they are lower bounds for any non-transit mode. Only
+ * street edges have a length; other edges such as transit links or elevators count as zero.
+ *
+ * The tables are indexed by position in the vertices array rather than by vertex index, because
+ * vertex indexes are reassigned when a graph is loaded.
+ */
+public class LandmarkTables implements Serializable {
+
+    private static final long serialVersionUID = 20131018L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkTables.class);
+
+    /** Table value of vertices that cannot be reached from or cannot reach a landmark. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** How many levels of temporary vertices to follow to reach a vertex of the tables. */
+    private static final int MAX_TEMPORARY_DEPTH = 3;
+
+    /** The vertices of the tables. vertices[i] is the vertex of slot i. */
+    private final Vertex[] vertices;
+
+    /** The slots of the landmark vertices. */
+    private final int[] landmarks;
+
+    /** fromLandmark[l][i] is the distance in whole meters from landmark l to the vertex of slot i. */
+    private final int[][] fromLandmark;
+
+    /** toLandmark[l][i] is the distance in whole meters to landmark l from the vertex of slot i. */
+    private final int[][] toLandmark;
+
+    /** The highest car speed of any street, in meters per second. */
+    private double maxCarSpeed = 0;
+
+    /** The slot of each vertex. Rebuilt after deserialization. */
+    private transient volatile VertexSlots slots;
+
+    /**
+     * Choose nLandmarks landmarks far apart in the graph, and compute the distances from and to
+     * each of them. Each landmark is the vertex farthest from all the previous ones, the first
+     * being the farthest from an arbitrary vertex.
+     */
+    public LandmarkTables(Graph graph, int nLandmarks) {
+        Collection<Vertex> graphVertices = graph.getVertices();
+        vertices = graphVertices.toArray(new Vertex[graphVertices.size()]);
+        int n = vertices.length;
+        for (Vertex v : vertices) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof PlainStreetEdge)
+                    maxCarSpeed = Math.max(maxCarSpeed, ((PlainStreetEdge) e).getCarSpeed());
+            }
+        }
+        int next = firstStreetSlot();
+        if (next < 0) {
+            LOG.warn("graph has no streets, landmark tables will be empty");
+            nLandmarks = 0;
+        }
+        landmarks = new int[nLandmarks];
+        fromLandmark = new int[nLandmarks][];
+        toLandmark = new int[nLandmarks][];
+        if (nLandmarks == 0)
+            return;
+        Adjacency forward = new Adjacency(true);
+        Adjacency backward = new Adjacency(false);
+        // distance from the nearest landmark chosen so far, driving the choice of the next one
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        double[] start = forward.distances(next);
+        next = farthest(start, null);
+        for (int l = 0; l < nLandmarks; l++) {
+            landmarks[l] = next;
+            double[] from = forward.distances(next);
+            fromLandmark[l] = quantize(from);
+            toLandmark[l] = quantize(backward.distances(next));
+            for (int i = 0; i < n; i++)
+                nearest[i] = Math.min(nearest[i], from[i]);
+            LOG.info("landmark {} is {}", l, vertices[next]);
+            next = farthest(nearest, start);
+        }
+    }
+
+    /** @return the highest car speed of any street of the graph, in meters per second */
+    public double getMaxCarSpeed() {
+        return maxCarSpeed;
+    }
+
+    public int getLandmarkCount() {
+        return landmarks.length;
+    }
+
+    /** @return the landmark vertices */
+    public Vertex[] getLandmarks() {
+        Vertex[] ret = new Vertex[landmarks.length];
+        for (int l = 0; l < landmarks.length; l++)
+            ret[l] = vertices[landmarks[l]];
+        return ret;
+    }
+
+    /**
+     * @return for each landmark, the distance in meters from the landmark to the vertex, or
+     * UNREACHABLE if it is not known.
+     */
+    public int[] distancesFrom(Vertex v) {
+        int[] ret = new int[landmarks.length];
+        for (int l = 0; l < landmarks.length; l++)
+            ret[l] = distance(l, v, true, 0);
+        return ret;
+    }
+
+    /**
+     * @return for each landmark, the distance in meters from the vertex to the landmark, or
+     * UNREACHABLE if it is not known.
+     */
+    public int[] distancesTo(Vertex v) {
+        int[] ret = new int[landmarks.length];
+        for (int l = 0; l < landmarks.length; l++)
+            ret[l] = distance(l, v, false, 0);
+        return ret;
+    }
+
+    /**
+     * @param targetFrom the distancesFrom of the target
+     * @param targetTo the distancesTo of the target
+     * @param forward true for a lower bound on the distance from v to the target, false for one
+     * on the distance from the target to v
+     * @return a lower bound in meters on the distance between v and the target
+     */
+    public double lowerBound(Vertex v, int[] targetFrom, int[] targetTo, boolean forward) {
+        int best = 0;
+        for (int l = 0; l < landmarks.length; l++) {
+            int from = distance(l, v, true, 0);
+            int to = distance(l, v, false, 0);
+            int bound;
+            if (from != UNREACHABLE && targetFrom[l] != UNREACHABLE) {
+                bound = forward ? targetFrom[l] - from : from - targetFrom[l];
+                if (bound > best)
+                    best = bound;
+            }
+            if (to != UNREACHABLE && targetTo[l] != UNREACHABLE) {
+                bound = forward ? to - targetTo[l] : targetTo[l] - to;
+                if (bound > best)
+                    best = bound;
+            }
+        }
+        // distances were rounded down to whole meters
+        return best > 0 ? best - 1 : 0;
+    }
+
+    /**
+     * @return the distance from (fromLandmark true) or to landmark l, or UNREACHABLE. Vertices
+     * that are not in the tables, such as the temporary endpoints of a search, are reached
+     * through their edges.
+     */
+    private int distance(int l, Vertex v, boolean fromLandmark, int depth) {
+        int slot = slot(v);
+        if (slot >= 0)
+            return fromLandmark ? this.fromLandmark[l][slot] : toLandmark[l][slot];
+        if (depth >= MAX_TEMPORARY_DEPTH)
+            return UNREACHABLE;
+        // the distance over the best edge, which is only exact if every neighbor is known
+        Collection<Edge> edges = fromLandmark ? v.getIncoming() : v.getOutgoing();
+        long best = UNREACHABLE;
+        for (Edge e : edges) {
+            if (!isUsable(e))
+                continue;
+            Vertex u = fromLandmark ? e.getFromVertex() : e.getToVertex();
+            int d = distance(l, u, fromLandmark, depth + 1);
+            if (d == UNREACHABLE)
+                return UNREACHABLE;
+            best = Math.min(best, d + (long) Math.floor(length(e)));
+        }
+        return (int) Math.min(best, UNREACHABLE);
+    }
+
+    private int slot(Vertex v) {
+        return slots().slot(v);
+    }
+
+    private VertexSlots slots() {
+        VertexSlots ret = slots;
+        if (ret == null) {
+            // built at most a few times if threads race, which is harmless
+            ret = new VertexSlots(vertices);
+            slots = ret;
+        }
+        return ret;
+    }
+
+    private int firstStreetSlot() {
+        for (int i = 0; i < vertices.length; i++) {
+            for (Edge e : vertices[i].getOutgoing()) {
+                if (e instanceof StreetEdge)
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the slot with the greatest finite distance, only considering slots reachable in
+     * the reference distances if any
+     */
+    private static int farthest(double[] distances, double[] reference) {
+        int best = -1;
+        for (int i = 0; i < distances.length; i++) {
+            if (distances[i] == Double.POSITIVE_INFINITY)
+                continue;
+            if (reference != null && reference[i] == Double.POSITIVE_INFINITY)
+                continue;
+            if (best < 0 || distances[i] > distances[best])
+                best = i;
+        }
+        return best;
+    }
+
+    private static int[] quantize(double[] distances) {
+        int[] ret = new int[distances.length];
+        for (int i = 0; i < distances.length; i++) {
+            double d = distances[i];
+            ret[i] = d >= UNREACHABLE ? UNREACHABLE : (int) Math.floor(d);
+        }
+        return ret;
+    }
+
+    /** @return whether a search can traverse the edge without boarding a transit vehicle */
+    private static boolean isUsable(Edge e) {
+        return !(e instanceof OnboardEdge || e instanceof PatternEdge || e instanceof HopEdge);
+    }
+
+    private static double length(Edge e) {
+        return e instanceof StreetEdge ? e.getDistance() : 0;
+    }
+
+    /** The usable edges of the graph in compressed rows, for running Dijkstra by slot. */
+    private class Adjacency {
+
+        final int[] start;
+
+        final int[] target;
+
+        final double[] length;
+
+        Adjacency(boolean forward) {
+            int n = vertices.length;
+            VertexSlots slots = slots();
+            start = new int[n + 1];
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                start[i] = m;
+                Collection<Edge> edges = forward ? vertices[i].getOutgoing()
+                        : vertices[i].getIncoming();
+                for (Edge e : edges) {
+                    if (isUsable(e))
+                        m++;
+                }
+            }
+            start[n] = m;
+            target = new int[m];
+            length = new double[m];
+            m = 0;
+            for (int i = 0; i < n; i++) {
+                Collection<Edge> edges = forward ? vertices[i].getOutgoing()
+                        : vertices[i].getIncoming();
+                for (Edge e : edges) {
+                    if (!isUsable(e))
+                        continue;
+                    Vertex u = forward ? e.getToVertex() : e.getFromVertex();
+                    target[m] = slots.slot(u);
+                    length[m] = length(e);
+                    m++;
+                }
+            }
+        }
+
+        /** @return the distance from (or to, if backward) the source to every slot */
+        double[] distances(int source) {
+            double[] dist = new double[vertices.length];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            boolean[] done = new boolean[vertices.length];
+            BinHeap<Integer> queue = new BinHeap<Integer>();
+            dist[source] = 0;
+            queue.insert(source, 0);
+            while (!queue.empty()) {
+                int i = queue.extract_min();
+                if (done[i])
+                    continue;
+                done[i] = true;
+                for (int k = start[i]; k < start[i + 1]; k++) {
+                    int j = target[k];
+                    if (j < 0 || done[j])
+                        continue;
+                    double d = dist[i] + length[k];
+                    if (d < dist[j]) {
+                        dist[j] = d;
+                        queue.insert(j, d);
+                    }
+                }
+            }
+            return dist;
+        }
+    }
+
+}
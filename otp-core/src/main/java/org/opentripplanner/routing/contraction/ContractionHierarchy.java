@@ -0,0 +1,667 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.ElevatorEdge;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.graph.VertexSlots;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A contraction hierarchy of the street network for one ContractionProfile. Vertices are
+ * contracted one by one in order of importance; contracting a vertex adds a shortcut arc between
+ * two of its neighbors whenever the path through it is the only shortest path between them. A
+ * shortest path query then only needs a bidirectional Dijkstra search relaxing arcs towards more
+ * important vertices, which settles a few hundred vertices rather than a large part of the graph.
+ *
+ * Arc weights are the weights of traversing each edge on its own with the profile's request.
+ * They do not include turn costs and turn restrictions, which depend on the previous edge, nor
+ * anything depending on the time of day: paths found here must be traversed again to get their
+ * real weight, and may not be traversable at all.
+ *
+ * Vertices are stored by position in the vertices array rather than by vertex index, because
+ * vertex indexes are reassigned when a graph is loaded.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 20131018L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchy.class);
+
+    /** The number of vertices a witness search settles before giving up and adding a shortcut. */
+    private static final int WITNESS_SEARCH_LIMIT = 500;
+
+    /** How many edges to follow from a temporary vertex to reach the vertices of the hierarchy. */
+    private static final int MAX_TEMPORARY_DEPTH = 4;
+
+    @Getter
+    private final ContractionProfile profile;
+
+    /** The vertices of the hierarchy. vertices[i] is the vertex of slot i. */
+    private final Vertex[] vertices;
+
+    /* The arcs of the hierarchy. An arc is either an edge of the graph, or a shortcut standing for
+     * the path over its first then its second arc. */
+
+    private int[] arcFrom;
+
+    private int[] arcTo;
+
+    private double[] arcWeight;
+
+    /** The edge of each arc, or null for shortcuts. */
+    private Edge[] arcEdge;
+
+    private int[] arcFirst;
+
+    private int[] arcSecond;
+
+    private int nArcs = 0;
+
+    /** The arcs leaving slot i towards more important slots are upArcs[upStart[i]...]. */
+    private int[] upStart;
+
+    private int[] upArcs;
+
+    /** The arcs entering slot i from more important slots are downArcs[downStart[i]...]. */
+    private int[] downStart;
+
+    private int[] downArcs;
+
+    @Getter
+    private int shortcutCount = 0;
+
+    /** The slot of each vertex. Rebuilt after deserialization. */
+    private transient volatile VertexSlots slots;
+
+    /** The request used to weigh the temporary edges of each query. */
+    private transient RoutingRequest request;
+
+    public ContractionHierarchy(Graph graph, ContractionProfile profile) {
+        this.profile = profile;
+        Collection<Vertex> graphVertices = graph.getVertices();
+        vertices = graphVertices.toArray(new Vertex[graphVertices.size()]);
+        new Builder().build();
+        LOG.info("contraction hierarchy for {}: {} vertices, {} arcs of which {} shortcuts",
+                profile, vertices.length, nArcs, shortcutCount);
+    }
+
+    /** @return whether the hierarchy contains the edge, or would be traversing it */
+    static boolean isStreet(Edge e) {
+        return e instanceof StreetEdge || e instanceof ElevatorEdge || e instanceof FreeEdge;
+    }
+
+    /**
+     * @return the weight of traversing the edge on its own with the profile's request, or
+     * infinity if it cannot be traversed.
+     */
+    public double weight(Edge e) {
+        RoutingRequest request = this.request;
+        if (request == null) {
+            request = profile.toRequest();
+            this.request = request;
+        }
+        return weight(e, request);
+    }
+
+    private static double weight(Edge e, RoutingRequest request) {
+        double best = Double.POSITIVE_INFINITY;
+        for (State s = e.traverse(new State(e.getFromVertex(), request)); s != null;
+                s = s.getNextResult()) {
+            best = Math.min(best, s.getWeight());
+        }
+        return best;
+    }
+
+    /**
+     * Find the shortest path between two vertices for the arc weights. Vertices outside the
+     * hierarchy, such as the temporary endpoints of a request, are connected to it through their
+     * edges.
+     *
+     * @return the edges of the path, or null if there is none
+     */
+    public List<Edge> getPath(Vertex from, Vertex to) {
+        Map<Integer, Access> sources = access(from, to, true);
+        Map<Integer, Access> targets = access(to, from, false);
+        Access direct = sources.remove(-1);
+        targets.remove(-1);
+
+        Search search = SEARCHES.get();
+        search.reset(vertices.length);
+        for (Map.Entry<Integer, Access> entry : sources.entrySet())
+            search.seed(true, entry.getKey(), entry.getValue().weight);
+        for (Map.Entry<Integer, Access> entry : targets.entrySet())
+            search.seed(false, entry.getKey(), entry.getValue().weight);
+        int meet = search(search);
+
+        if (meet < 0 || (direct != null && direct.weight <= search.best)) {
+            return direct == null ? null : direct.edges;
+        }
+        LinkedList<Edge> path = new LinkedList<Edge>();
+        List<Integer> arcs = new ArrayList<Integer>();
+        int slot = meet;
+        while (search.parent[0][slot] >= 0) {
+            int arc = search.parent[0][slot];
+            arcs.add(arc);
+            slot = arcFrom[arc];
+        }
+        Collections.reverse(arcs);
+        path.addAll(sources.get(slot).edges);
+        slot = meet;
+        while (search.parent[1][slot] >= 0) {
+            int arc = search.parent[1][slot];
+            arcs.add(arc);
+            slot = arcTo[arc];
+        }
+        for (int arc : arcs)
+            unpack(arc, path);
+        path.addAll(targets.get(slot).edges);
+        return path;
+    }
+
+    /** Append the edges of an arc to the path. */
+    private void unpack(int arc, List<Edge> path) {
+        LinkedList<Integer> stack = new LinkedList<Integer>();
+        stack.push(arc);
+        while (!stack.isEmpty()) {
+            int a = stack.pop();
+            if (arcEdge[a] != null) {
+                path.add(arcEdge[a]);
+            } else {
+                stack.push(arcSecond[a]);
+                stack.push(arcFirst[a]);
+            }
+        }
+    }
+
+    /** A path between a query endpoint and a slot of the hierarchy. */
+    private static class Access {
+
+        final double weight;
+
+        final List<Edge> edges;
+
+        Access(double weight, List<Edge> edges) {
+            this.weight = weight;
+            this.edges = edges;
+        }
+    }
+
+    /**
+     * Find the slots of the hierarchy that can be reached from (or reach, if backward) the
+     * vertex, following edges through vertices outside the hierarchy only. A path reaching the
+     * other endpoint of the query that way is returned under the slot -1.
+     */
+    private Map<Integer, Access> access(Vertex vertex, Vertex other, boolean forward) {
+        Map<Integer, Access> ret = new HashMap<Integer, Access>();
+        int slot = slot(vertex);
+        if (slot >= 0) {
+            ret.put(slot, new Access(0, Collections.<Edge> emptyList()));
+            return ret;
+        }
+        Map<Vertex, Double> dist = new HashMap<Vertex, Double>();
+        Map<Vertex, Edge> parent = new HashMap<Vertex, Edge>();
+        Map<Vertex, Integer> depth = new HashMap<Vertex, Integer>();
+        BinHeap<Vertex> queue = new BinHeap<Vertex>();
+        dist.put(vertex, 0.0);
+        depth.put(vertex, 0);
+        queue.insert(vertex, 0);
+        while (!queue.empty()) {
+            double d = queue.peek_min_key();
+            Vertex u = queue.extract_min();
+            if (d > dist.get(u))
+                continue;
+            slot = slot(u);
+            if (slot >= 0 || u == other) {
+                LinkedList<Edge> edges = new LinkedList<Edge>();
+                for (Vertex v = u; v != vertex;) {
+                    Edge e = parent.get(v);
+                    if (forward) {
+                        edges.addFirst(e);
+                        v = e.getFromVertex();
+                    } else {
+                        edges.addLast(e);
+                        v = e.getToVertex();
+                    }
+                }
+                ret.put(slot >= 0 ? slot : -1, new Access(d, edges));
+                continue;
+            }
+            if (depth.get(u) >= MAX_TEMPORARY_DEPTH)
+                continue;
+            for (Edge e : forward ? u.getOutgoing() : u.getIncoming()) {
+                if (!isStreet(e))
+                    continue;
+                Vertex v = forward ? e.getToVertex() : e.getFromVertex();
+                double dv = d + weight(e);
+                Double old = dist.get(v);
+                if (old == null || dv < old) {
+                    dist.put(v, dv);
+                    parent.put(v, e);
+                    depth.put(v, depth.get(u) + 1);
+                    queue.insert(v, dv);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private int slot(Vertex v) {
+        return slots().slot(v);
+    }
+
+    private VertexSlots slots() {
+        VertexSlots ret = slots;
+        if (ret == null) {
+            // built at most a few times if threads race, which is harmless
+            ret = new VertexSlots(vertices);
+            slots = ret;
+        }
+        return ret;
+    }
+
+    private static final ThreadLocal<Search> SEARCHES = new ThreadLocal<Search>() {
+        @Override
+        protected Search initialValue() {
+            return new Search();
+        }
+    };
+
+    /**
+     * The state of a bidirectional query, kept between queries of a thread so that its arrays
+     * are only cleared where they were used. Side 0 searches forward, side 1 backward.
+     */
+    private static class Search {
+
+        double[][] dist = new double[2][0];
+
+        int[][] parent = new int[2][0];
+
+        int[] touched = new int[16];
+
+        int nTouched = 0;
+
+        BinHeap<Integer>[] queues;
+
+        double best;
+
+        @SuppressWarnings("unchecked")
+        Search() {
+            queues = new BinHeap[] { new BinHeap<Integer>(), new BinHeap<Integer>() };
+        }
+
+        void reset(int n) {
+            if (dist[0].length != n) {
+                for (int side = 0; side < 2; side++) {
+                    dist[side] = new double[n];
+                    parent[side] = new int[n];
+                    Arrays.fill(dist[side], Double.POSITIVE_INFINITY);
+                }
+            } else {
+                for (int k = 0; k < nTouched; k++) {
+                    int i = touched[k];
+                    dist[0][i] = dist[1][i] = Double.POSITIVE_INFINITY;
+                }
+            }
+            nTouched = 0;
+            queues[0].reset();
+            queues[1].reset();
+            best = Double.POSITIVE_INFINITY;
+        }
+
+        void seed(boolean forward, int slot, double weight) {
+            int side = forward ? 0 : 1;
+            if (weight < dist[side][slot]) {
+                touch(slot);
+                dist[side][slot] = weight;
+                parent[side][slot] = -1;
+                queues[side].insert(slot, weight);
+            }
+        }
+
+        void touch(int slot) {
+            if (dist[0][slot] == Double.POSITIVE_INFINITY
+                    && dist[1][slot] == Double.POSITIVE_INFINITY) {
+                if (nTouched == touched.length)
+                    touched = Arrays.copyOf(touched, nTouched * 2);
+                touched[nTouched++] = slot;
+            }
+        }
+    }
+
+    /** @return the slot where the best forward and backward paths meet, or -1 */
+    private int search(Search s) {
+        int meet = -1;
+        while (true) {
+            double min0 = s.queues[0].empty() ? Double.POSITIVE_INFINITY
+                    : s.queues[0].peek_min_key();
+            double min1 = s.queues[1].empty() ? Double.POSITIVE_INFINITY
+                    : s.queues[1].peek_min_key();
+            if (Math.min(min0, min1) >= s.best)
+                break;
+            int side = min0 <= min1 ? 0 : 1;
+            double d = side == 0 ? min0 : min1;
+            int u = s.queues[side].extract_min();
+            if (d > s.dist[side][u])
+                continue;
+            double other = s.dist[1 - side][u];
+            if (d + other < s.best) {
+                s.best = d + other;
+                meet = u;
+            }
+            int[] start = side == 0 ? upStart : downStart;
+            int[] arcs = side == 0 ? upArcs : downArcs;
+            for (int k = start[u]; k < start[u + 1]; k++) {
+                int arc = arcs[k];
+                int v = side == 0 ? arcTo[arc] : arcFrom[arc];
+                double dv = d + arcWeight[arc];
+                if (dv < s.dist[side][v]) {
+                    s.touch(v);
+                    s.dist[side][v] = dv;
+                    s.parent[side][v] = arc;
+                    s.queues[side].insert(v, dv);
+                }
+            }
+        }
+        return meet;
+    }
+
+    private int addArc(int from, int to, double weight, Edge edge, int first, int second) {
+        if (nArcs == arcFrom.length) {
+            int capacity = nArcs * 2;
+            arcFrom = Arrays.copyOf(arcFrom, capacity);
+            arcTo = Arrays.copyOf(arcTo, capacity);
+            arcWeight = Arrays.copyOf(arcWeight, capacity);
+            arcEdge = Arrays.copyOf(arcEdge, capacity);
+            arcFirst = Arrays.copyOf(arcFirst, capacity);
+            arcSecond = Arrays.copyOf(arcSecond, capacity);
+        }
+        arcFrom[nArcs] = from;
+        arcTo[nArcs] = to;
+        arcWeight[nArcs] = weight;
+        arcEdge[nArcs] = edge;
+        arcFirst[nArcs] = first;
+        arcSecond[nArcs] = second;
+        return nArcs++;
+    }
+
+    /** The contraction of the graph, with the adjacency lists it needs while contracting. */
+    private class Builder {
+
+        final int n = vertices.length;
+
+        final int[][] out = new int[n][];
+
+        final int[] outSize = new int[n];
+
+        final int[][] in = new int[n][];
+
+        final int[] inSize = new int[n];
+
+        final boolean[] contracted = new boolean[n];
+
+        /** The order in which the slots were contracted. */
+        final int[] rank = new int[n];
+
+        /** The number of contracted neighbors of each slot, which spreads contraction evenly. */
+        final int[] deleted = new int[n];
+
+        /* witness search state, cleared where used */
+
+        final double[] witness = new double[n];
+
+        final int[] witnessTouched = new int[n];
+
+        final BinHeap<Integer> witnessQueue = new BinHeap<Integer>();
+
+        void build() {
+            int capacity = 16;
+            arcFrom = new int[capacity];
+            arcTo = new int[capacity];
+            arcWeight = new double[capacity];
+            arcEdge = new Edge[capacity];
+            arcFirst = new int[capacity];
+            arcSecond = new int[capacity];
+            for (int i = 0; i < n; i++) {
+                out[i] = new int[2];
+                in[i] = new int[2];
+            }
+            Arrays.fill(witness, Double.POSITIVE_INFINITY);
+            VertexSlots slots = slots();
+            RoutingRequest request = profile.toRequest();
+            for (int i = 0; i < n; i++) {
+                for (Edge e : vertices[i].getOutgoing()) {
+                    if (!isStreet(e))
+                        continue;
+                    int j = slots.slot(e.getToVertex());
+                    if (j < 0 || j == i)
+                        continue;
+                    double w = weight(e, request);
+                    if (w < Double.POSITIVE_INFINITY)
+                        link(i, j, w, e, -1, -1);
+                }
+            }
+            LOG.info("contracting {} vertices with {} arcs...", n, nArcs);
+
+            BinHeap<Integer> queue = new BinHeap<Integer>(n);
+            for (int i = 0; i < n; i++)
+                queue.insert(i, priority(i));
+            int order = 0;
+            while (!queue.empty()) {
+                int v = queue.extract_min();
+                // priorities change as neighbors are contracted, so they are updated lazily
+                double p = priority(v);
+                if (!queue.empty() && p > queue.peek_min_key()) {
+                    queue.insert(v, p);
+                    continue;
+                }
+                contract(v, false);
+                contracted[v] = true;
+                rank[v] = order++;
+                for (int k = 0; k < outSize[v]; k++)
+                    deleted[arcTo[out[v][k]]]++;
+                for (int k = 0; k < inSize[v]; k++)
+                    deleted[arcFrom[in[v][k]]]++;
+                if (order % 100000 == 0)
+                    LOG.info("contracted {} vertices, {} shortcuts", order, shortcutCount);
+            }
+            trim();
+            index();
+        }
+
+        /** The edge difference of contracting v, plus the number of its contracted neighbors. */
+        double priority(int v) {
+            int degree = 0;
+            for (int k = 0; k < outSize[v]; k++) {
+                if (!contracted[arcTo[out[v][k]]])
+                    degree++;
+            }
+            for (int k = 0; k < inSize[v]; k++) {
+                if (!contracted[arcFrom[in[v][k]]])
+                    degree++;
+            }
+            return contract(v, true) - degree + deleted[v];
+        }
+
+        /**
+         * Add the shortcuts needed to contract v, or only count them when simulating.
+         * @return the number of shortcuts
+         */
+        int contract(int v, boolean simulate) {
+            int shortcuts = 0;
+            for (int a = 0; a < inSize[v]; a++) {
+                int inArc = in[v][a];
+                int u = arcFrom[inArc];
+                if (contracted[u])
+                    continue;
+                double maxOut = 0;
+                for (int b = 0; b < outSize[v]; b++) {
+                    int x = arcTo[out[v][b]];
+                    if (!contracted[x] && x != u)
+                        maxOut = Math.max(maxOut, arcWeight[out[v][b]]);
+                }
+                int nTouched = witnessSearch(u, v, arcWeight[inArc] + maxOut);
+                for (int b = 0; b < outSize[v]; b++) {
+                    int outArc = out[v][b];
+                    int x = arcTo[outArc];
+                    if (contracted[x] || x == u)
+                        continue;
+                    double w = arcWeight[inArc] + arcWeight[outArc];
+                    if (witness[x] <= w)
+                        continue;
+                    shortcuts++;
+                    if (!simulate && link(u, x, w, null, inArc, outArc))
+                        shortcutCount++;
+                }
+                for (int k = 0; k < nTouched; k++)
+                    witness[witnessTouched[k]] = Double.POSITIVE_INFINITY;
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Dijkstra from u over uncontracted slots other than v, up to the given weight or the
+         * witness search limit, leaving the distances found in witness.
+         * @return the number of slots whose witness distance was set
+         */
+        int witnessSearch(int u, int v, double limit) {
+            int nTouched = 0;
+            int settled = 0;
+            witnessQueue.reset();
+            witness[u] = 0;
+            witnessTouched[nTouched++] = u;
+            witnessQueue.insert(u, 0);
+            while (!witnessQueue.empty() && settled < WITNESS_SEARCH_LIMIT) {
+                double d = witnessQueue.peek_min_key();
+                int i = witnessQueue.extract_min();
+                if (d > witness[i])
+                    continue;
+                if (d > limit)
+                    break;
+                settled++;
+                for (int k = 0; k < outSize[i]; k++) {
+                    int arc = out[i][k];
+                    int j = arcTo[arc];
+                    if (j == v || contracted[j])
+                        continue;
+                    double dj = d + arcWeight[arc];
+                    if (dj < witness[j]) {
+                        if (witness[j] == Double.POSITIVE_INFINITY)
+                            witnessTouched[nTouched++] = j;
+                        witness[j] = dj;
+                        witnessQueue.insert(j, dj);
+                    }
+                }
+            }
+            return nTouched;
+        }
+
+        /**
+         * Add an arc from i to j unless there already is one at most as heavy. A heavier one is
+         * dropped from the adjacency lists, but kept in the arcs as shortcuts may use it.
+         * @return whether the arc was added
+         */
+        boolean link(int i, int j, double w, Edge e, int first, int second) {
+            for (int k = 0; k < outSize[i]; k++) {
+                int arc = out[i][k];
+                if (arcTo[arc] != j)
+                    continue;
+                if (arcWeight[arc] <= w)
+                    return false;
+                out[i][k] = out[i][--outSize[i]];
+                for (int l = 0; l < inSize[j]; l++) {
+                    if (in[j][l] == arc) {
+                        in[j][l] = in[j][--inSize[j]];
+                        break;
+                    }
+                }
+                break;
+            }
+            int arc = addArc(i, j, w, e, first, second);
+            if (outSize[i] == out[i].length)
+                out[i] = Arrays.copyOf(out[i], outSize[i] * 2);
+            out[i][outSize[i]++] = arc;
+            if (inSize[j] == in[j].length)
+                in[j] = Arrays.copyOf(in[j], inSize[j] * 2);
+            in[j][inSize[j]++] = arc;
+            return true;
+        }
+
+        void trim() {
+            arcFrom = Arrays.copyOf(arcFrom, nArcs);
+            arcTo = Arrays.copyOf(arcTo, nArcs);
+            arcWeight = Arrays.copyOf(arcWeight, nArcs);
+            arcEdge = Arrays.copyOf(arcEdge, nArcs);
+            arcFirst = Arrays.copyOf(arcFirst, nArcs);
+            arcSecond = Arrays.copyOf(arcSecond, nArcs);
+        }
+
+        /** Keep the arcs of the adjacency lists that lead to more important slots. */
+        void index() {
+            upStart = new int[n + 1];
+            downStart = new int[n + 1];
+            int nUp = 0;
+            int nDown = 0;
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < outSize[i]; k++) {
+                    if (rank[arcTo[out[i][k]]] > rank[i])
+                        nUp++;
+                }
+                for (int k = 0; k < inSize[i]; k++) {
+                    if (rank[arcFrom[in[i][k]]] > rank[i])
+                        nDown++;
+                }
+            }
+            upArcs = new int[nUp];
+            downArcs = new int[nDown];
+            nUp = 0;
+            nDown = 0;
+            for (int i = 0; i < n; i++) {
+                upStart[i] = nUp;
+                downStart[i] = nDown;
+                for (int k = 0; k < outSize[i]; k++) {
+                    if (rank[arcTo[out[i][k]]] > rank[i])
+                        upArcs[nUp++] = out[i][k];
+                }
+                for (int k = 0; k < inSize[i]; k++) {
+                    if (rank[arcFrom[in[i][k]]] > rank[i])
+                        downArcs[nDown++] = in[i][k];
+                }
+            }
+            upStart[n] = nUp;
+            downStart[n] = nDown;
+        }
+    }
+
+}
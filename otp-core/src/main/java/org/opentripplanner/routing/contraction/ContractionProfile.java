@@ -0,0 +1,118 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.io.Serializable;
+
+import lombok.Getter;
+
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+
+/**
+ * A fixed street routing profile: a set of non-transit modes and an optimization type, with the
+ * default speeds and reluctances of a RoutingRequest and no turn costs. Edge weights only depend
+ * on the profile, so they can be precomputed into a ContractionHierarchy. Requests that change any
+ * parameter affecting street weights do not match the profile.
+ */
+public class ContractionProfile implements Serializable {
+
+    private static final long serialVersionUID = 20131018L;
+
+    @Getter
+    private final TraverseModeSet modes;
+
+    @Getter
+    private final OptimizeType optimize;
+
+    private final double walkSpeed;
+
+    private final double bikeSpeed;
+
+    private final double carSpeed;
+
+    private final double walkReluctance;
+
+    private final double stairsReluctance;
+
+    private final double triangleTimeFactor;
+
+    private final double triangleSlopeFactor;
+
+    private final double triangleSafetyFactor;
+
+    public ContractionProfile(TraverseModeSet modes, OptimizeType optimize) {
+        if (modes.isTransit())
+            throw new IllegalArgumentException("contraction profiles cannot include transit");
+        if (modes.getDriving() && (modes.getWalk() || modes.getBicycle()))
+            throw new IllegalArgumentException("contraction profiles cannot mix driving with "
+                    + "walking or cycling");
+        this.modes = modes.clone();
+        this.optimize = optimize;
+        RoutingRequest request = new RoutingRequest();
+        walkSpeed = request.getWalkSpeed();
+        bikeSpeed = request.getBikeSpeed();
+        carSpeed = request.getCarSpeed();
+        walkReluctance = request.walkReluctance;
+        stairsReluctance = request.stairsReluctance;
+        triangleTimeFactor = request.triangleTimeFactor;
+        triangleSlopeFactor = request.triangleSlopeFactor;
+        triangleSafetyFactor = request.triangleSafetyFactor;
+    }
+
+    /**
+     * Parse a profile of the form MODES[:OPTIMIZE], for instance "CAR", "WALK" or
+     * "BICYCLE,WALK:SAFE". The optimization type defaults to QUICK.
+     */
+    public static ContractionProfile parse(String profile) {
+        String[] parts = profile.split(":");
+        if (parts.length > 2)
+            throw new IllegalArgumentException("bad contraction profile " + profile);
+        OptimizeType optimize = parts.length == 2 ? OptimizeType.valueOf(parts[1])
+                : OptimizeType.QUICK;
+        return new ContractionProfile(new TraverseModeSet(parts[0]), optimize);
+    }
+
+    /** @return a request with the parameters of this profile, for computing edge weights */
+    public RoutingRequest toRequest() {
+        return new RoutingRequest(modes.clone(), optimize);
+    }
+
+    /**
+     * @return whether the street weights of a request are those of this profile. Wheelchair
+     * requests never match, as they depend on the maximum slope, and neither do requests with
+     * turn costs, which depend on the previous edge and are not in the hierarchy's arc weights.
+     */
+    public boolean matches(RoutingRequest options) {
+        return options.getModes().getMask() == modes.getMask()
+                && options.optimize == optimize
+                && !options.wheelchairAccessible
+                && options.turnReluctance == 0
+                && options.getWalkSpeed() == walkSpeed
+                && options.getBikeSpeed() == bikeSpeed
+                && options.getCarSpeed() == carSpeed
+                && options.walkReluctance == walkReluctance
+                && options.stairsReluctance == stairsReluctance
+                && (optimize != OptimizeType.TRIANGLE
+                        || (options.triangleTimeFactor == triangleTimeFactor
+                        && options.triangleSlopeFactor == triangleSlopeFactor
+                        && options.triangleSafetyFactor == triangleSafetyFactor));
+    }
+
+    public String toString() {
+        return modes.getAsStr() + ":" + optimize;
+    }
+
+}
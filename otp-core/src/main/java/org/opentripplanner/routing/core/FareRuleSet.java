@@ -46,6 +46,18 @@ public class FareRuleSet implements Serializable {
         routes.add(route);
     }
 
+    public Set<AgencyAndId> getRoutes() {
+        return routes;
+    }
+
+    public Set<P2<String>> getOriginDestinations() {
+        return originDestinations;
+    }
+
+    public Set<String> getContains() {
+        return contains;
+    }
+
     public boolean matches(String startZone, String endZone, Set<String> zonesVisited,
             Set<AgencyAndId> routesVisited) {
         //check for matching origin/destination, if this ruleset has any origin/destination restrictions
@@ -14,6 +14,7 @@
 package org.opentripplanner.routing.core;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -66,6 +67,11 @@ public class RoutingContext implements Cloneable {
 
     private static RemainingWeightHeuristicFactory heuristicFactory = new DefaultRemainingWeightHeuristicFactoryImpl();
 
+    /** Set the factory providing the heuristic of every non-batch search from now on. */
+    public static void setHeuristicFactory(RemainingWeightHeuristicFactory factory) {
+        heuristicFactory = factory;
+    }
+
     /* FINAL FIELDS */
 
     public RoutingRequest opt; // not final so we can reverse-clone
@@ -108,6 +114,12 @@ public class RoutingContext implements Cloneable {
      */
     public ArrayList<ServiceDay> serviceDays;
 
+    /**
+     * The serviceIds running on any of the serviceDays. Built completely before it is published
+     * through this single volatile field, so concurrent readers never see a partial union.
+     */
+    private volatile ServicesRunning servicesRunning;
+
     /**
      * The search will be aborted if it is still running after this time (in milliseconds since the epoch). A negative or zero value implies no limit.
      * This provides an absolute timeout, whereas the maxComputationTime is relative to the beginning of an individual search. While the two might
@@ -125,6 +137,9 @@ public class RoutingContext implements Cloneable {
 
     /** Indicates that the search timed out or was otherwise aborted. */
     public boolean aborted;
+
+    /** Scratch States for the search currently using this context, if it pools them. */
+    public StatePool statePool;
     
     /* CONSTRUCTORS */
 
@@ -321,6 +336,30 @@ public class RoutingContext implements Cloneable {
 
     /* INSTANCE METHODS */
 
+    /**
+     * Make a shallow copy of this context for running another search on a variant of the same
+     * request (e.g. with banned trips) concurrently with this one. The copy shares the temporary
+     * edges, service days and debug output of this context, but has its own remaining weight
+     * heuristic, which holds per-search state, and its own abort flag. Only the original context
+     * should be destroyed.
+     */
+    public RoutingContext copyForConcurrentSearch(RoutingRequest opt) {
+        try {
+            RoutingContext copy = (RoutingContext) super.clone();
+            copy.opt = opt;
+            copy.aborted = false;
+            copy.statePool = null;
+            if (opt.batch)
+                copy.remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
+            else
+                copy.remainingWeightHeuristic = heuristicFactory.getInstanceForSearch(opt);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            /* this will never happen since we implement Cloneable */
+            throw new RuntimeException(e);
+        }
+    }
+
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
 
@@ -366,12 +405,69 @@ public class RoutingContext implements Cloneable {
         // This should be a valid way to find yesterday and tomorrow,
         // since DST changes more than one hour after midnight in US/EU.
         // But is this true everywhere?
+        ServiceDayCache cache = graph.getServiceDayCache();
         for (String agency : graph.getAgencyIds()) {
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time - SEC_IN_DAY,
-                    calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time, calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time + SEC_IN_DAY,
-                    calendarService, agency));
+            addIfNotExists(this.serviceDays, serviceDay(cache, time - SEC_IN_DAY, agency));
+            addIfNotExists(this.serviceDays, serviceDay(cache, time, agency));
+            addIfNotExists(this.serviceDays, serviceDay(cache, time + SEC_IN_DAY, agency));
+        }
+        this.servicesRunning = new ServicesRunning(this.serviceDays);
+    }
+
+    private ServiceDay serviceDay(ServiceDayCache cache, long time, String agency) {
+        // the graph's cache only holds ServiceDays of the graph's own calendar
+        if (cache != null && calendarService == graph.getCalendarService())
+            return cache.get(time, agency);
+        return new ServiceDay(graph, time, calendarService, agency);
+    }
+
+    /**
+     * Check whether a serviceId runs on any of the serviceDays, without looking at each of them.
+     * Boarding edges use this to reject patterns with no service before searching timetables.
+     * The union is computed in setServiceDays; it is only rebuilt (into a new object) when a caller
+     * has installed its own serviceDays list or changed its length.
+     */
+    public boolean serviceIdRunningOnAnyDay(int serviceId) {
+        ArrayList<ServiceDay> days = serviceDays;
+        ServicesRunning running = servicesRunning;
+        if (running == null || !running.isFor(days)) {
+            running = new ServicesRunning(days);
+            servicesRunning = running;
+        }
+        return running.includes(serviceId);
+    }
+
+    /** An immutable union of the serviceIds running on a list of ServiceDays. */
+    private static final class ServicesRunning {
+
+        private final ArrayList<ServiceDay> days;
+
+        private final int count;
+
+        /** null if some day may not answer from its bitset, so each of them must be checked. */
+        private final BitSet running;
+
+        ServicesRunning(ArrayList<ServiceDay> days) {
+            BitSet union = new BitSet();
+            for (ServiceDay sd : days) {
+                if (sd.getClass() != ServiceDay.class) {
+                    // a subclass may not answer from its bitset
+                    union = null;
+                    break;
+                }
+                union.or(sd.serviceIdsRunning);
+            }
+            this.days = days;
+            this.count = days.size();
+            this.running = union;
+        }
+
+        boolean isFor(ArrayList<ServiceDay> days) {
+            return days == this.days && days.size() == count;
+        }
+
+        boolean includes(int serviceId) {
+            return running == null || running.get(serviceId);
         }
     }
 
@@ -44,11 +44,21 @@ public class ServiceDay implements Serializable {
      * serviceIds running on that day.
      */
     public ServiceDay(Graph graph, long time, CalendarService cs, String agencyId) {
-        TimeZone timeZone = cs.getTimeZoneForAgencyId(agencyId);
-        GregorianCalendar calendar = new GregorianCalendar(timeZone);
-        calendar.setTime(new Date(time * 1000));
+        this(graph, serviceDateFor(time, cs, agencyId), cs, agencyId);
+    }
 
-        serviceDate = new ServiceDate(calendar);
+    /* 
+     * make a ServiceDay for the given date in the given agency's time zone.
+     */
+    public ServiceDay(Graph graph, ServiceDate serviceDate, CalendarService cs, String agencyId) {
+        this(graph, serviceDate, cs, cs.getTimeZoneForAgencyId(agencyId));
+    }
+
+    /* 
+     * make a ServiceDay for the given date in the given time zone.
+     */
+    public ServiceDay(Graph graph, ServiceDate serviceDate, CalendarService cs, TimeZone timeZone) {
+        this.serviceDate = serviceDate;
         Date d = serviceDate.getAsDate(timeZone);
         this.midnight = d.getTime() / 1000;
         serviceIdsRunning = new BitSet(cs.getServiceIds().size());
@@ -62,6 +72,17 @@ public class ServiceDay implements Serializable {
         }
     }
 
+    /* 
+     * Return the date, in the given agency's time zone, of the given time in seconds since 
+     * the epoch.
+     */
+    public static ServiceDate serviceDateFor(long time, CalendarService cs, String agencyId) {
+        TimeZone timeZone = cs.getTimeZoneForAgencyId(agencyId);
+        GregorianCalendar calendar = new GregorianCalendar(timeZone);
+        calendar.setTime(new Date(time * 1000));
+        return new ServiceDate(calendar);
+    }
+
     /* 
      * Does the given serviceId run on this ServiceDay?
      */
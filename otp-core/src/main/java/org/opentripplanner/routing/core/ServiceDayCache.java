@@ -0,0 +1,90 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.routing.graph.Graph;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Keeps the ServiceDays of recently requested (agency, date) pairs of a Graph, so that routing
+ * requests do not each scan the calendar for the service ids running on the days they span.
+ * ServiceDays are never modified once made, so the cached ones are shared between requests.
+ */
+public class ServiceDayCache extends CacheLoader<ServiceDayCache.Key, ServiceDay> {
+
+    /** Enough for a few weeks of dates for a few dozen agencies. */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final Graph graph;
+
+    private final CalendarService calendarService;
+
+    private final LoadingCache<Key, ServiceDay> cache;
+
+    public ServiceDayCache(Graph graph, CalendarService calendarService) {
+        this(graph, calendarService, DEFAULT_MAX_SIZE);
+    }
+
+    public ServiceDayCache(Graph graph, CalendarService calendarService, int maxSize) {
+        this.graph = graph;
+        this.calendarService = calendarService;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).build(this);
+    }
+
+    /** @return the ServiceDay of the given agency including the given time */
+    public ServiceDay get(long time, String agencyId) {
+        ServiceDate serviceDate = ServiceDay.serviceDateFor(time, calendarService, agencyId);
+        return cache.getUnchecked(new Key(agencyId, serviceDate));
+    }
+
+    @Override
+    public ServiceDay load(Key key) {
+        return new ServiceDay(graph, key.serviceDate, calendarService, key.agencyId);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    static class Key {
+
+        final String agencyId;
+
+        final ServiceDate serviceDate;
+
+        Key(String agencyId, ServiceDate serviceDate) {
+            this.agencyId = agencyId;
+            this.serviceDate = serviceDate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return agencyId.equals(other.agencyId) && serviceDate.equals(other.serviceDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return agencyId.hashCode() * 31 + serviceDate.hashCode();
+        }
+    }
+
+}
@@ -128,6 +128,10 @@ public class State implements Cloneable {
         stateData.routeSequence = new AgencyAndId[0];
     }
 
+    /** An empty State, to be filled in with {@link #copyFrom(State)}. Used by {@link StatePool}. */
+    State() {
+    }
+
     /**
      * Create a state editor to produce a child of this state, which will be the result of
      * traversing the given edge.
@@ -149,6 +153,19 @@ public class State implements Cloneable {
         return ret;
     }
 
+    /** Overwrite all fields of this State with those of another one, like clone() does. */
+    void copyFrom(State o) {
+        this.time = o.time;
+        this.weight = o.weight;
+        this.vertex = o.vertex;
+        this.backState = o.backState;
+        this.backEdge = o.backEdge;
+        this.next = o.next;
+        this.stateData = o.stateData;
+        this.walkDistance = o.walkDistance;
+        this.pathParserStates = o.pathParserStates;
+    }
+
     /*
      * FIELD ACCESSOR METHODS States are immutable, so they have only get methods. The corresponding
      * set methods are in StateEditor.
@@ -54,6 +54,9 @@ public class StateEditor {
     private boolean defectiveTraversal = false;
 
     private boolean traversingBackward;
+
+    /** The pool the child was taken from when it is a scratch State, otherwise null. */
+    private StatePool pool;
     
     // we use our own set of notes and only replace the child notes if they're different
     private Set<Alert> notes = null;
@@ -68,7 +71,14 @@ public class StateEditor {
     }
 
     public StateEditor(State parent, Edge e) {
-        child = parent.clone();
+        RoutingContext rctx = parent.stateData.opt.rctx;
+        if (rctx != null && rctx.statePool != null && parent.getClass() == State.class) {
+            // subclasses of State cannot be copied into a scratch State
+            pool = rctx.statePool;
+            child = pool.acquire(parent);
+        } else {
+            child = parent.clone();
+        }
         child.backState = parent;
         child.backEdge = e;
         // We clear child.next here, since it could have already been set in the
@@ -118,6 +128,9 @@ public class StateEditor {
      * modifications will be applied to the previously created state. Reusing the state editor to
      * make several states would modify an existing state somewhere earlier in the search, messing
      * up the shortest path tree.
+     * 
+     * When the search uses a {@link StatePool}, results that are over the weight limit or past the
+     * worst time allowed by the request are rejected here, before a new State is allocated.
      */
     public State makeState() {
         // check that this editor has not been used already
@@ -127,7 +140,7 @@ public class StateEditor {
         // if something was flagged incorrect, do not make a new state
         if (defectiveTraversal) {
             LOG.error("Defective traversal flagged on edge " + child.backEdge);
-            return null;
+            return discard();
         }
 
         if (child.backState != null) {
@@ -141,15 +154,19 @@ public class StateEditor {
                     : (child.getTimeDeltaSeconds() < 0)) {
                 LOG.trace("Time was incremented the wrong direction during state editing. {}",
                         child.backEdge);
-                return null;
+                return discard();
+            }
+
+            if (pool != null && pool.prune(child)) {
+                return discard();
             }
 
             if(!applyPatches()) {
-                return null;
+                return discard();
             }
         }
         if ( ! parsePath(this.child))
-        	return null;
+        	return discard();
         
         // copy the notes if need be, keeping in mind they may both be null
         if (this.notes != child.stateData.notes) {
@@ -158,9 +175,23 @@ public class StateEditor {
         }
         
         spawned = true;
+        if (pool != null) {
+            child = pool.materialize(child);
+            pool = null;
+        }
         return child;
     }
 
+    /** Give a rejected scratch State back to its pool. @return null */
+    private State discard() {
+        if (pool != null) {
+            pool.release(child);
+            pool = null;
+            spawned = true;
+        }
+        return null;
+    }
+
     public boolean weHaveWalkedTooFar(RoutingRequest options) {
         // Only apply limit in transit-only case
         if (!options.getModes().isTransit())
@@ -282,16 +313,22 @@ public class StateEditor {
     /* Basic Setters */
 
     public void setTripTimes(TripTimes tripTimes) {
+        if (tripTimes == child.stateData.tripTimes)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.tripTimes = tripTimes;
     }
 
     public void setTripId(AgencyAndId tripId) {
+        if (tripId == child.stateData.tripId)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.tripId = tripId;
     }
 
     public void setPreviousTrip(Trip previousTrip) {
+        if (previousTrip == child.stateData.previousTrip)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.previousTrip = previousTrip;
     }
@@ -363,11 +400,16 @@ public class StateEditor {
     }
 
     public void setEverBoarded(boolean everBoarded) {
+        if (child.stateData.everBoarded)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.everBoarded = true;
     }
 
     public void setBikeRenting(boolean bikeRenting) {
+        if (bikeRenting == child.stateData.usingRentedBike && child.stateData.nonTransitMode
+                == (bikeRenting ? TraverseMode.BICYCLE : TraverseMode.WALK))
+            return;
         cloneStateDataAsNeeded();
         child.stateData.usingRentedBike = bikeRenting;
         if (bikeRenting) {
@@ -378,6 +420,9 @@ public class StateEditor {
     }
     
     public void setCarParked(boolean carParked) {
+        if (carParked == child.stateData.carParked && child.stateData.nonTransitMode
+                == (carParked ? TraverseMode.WALK : TraverseMode.CAR))
+            return;
         cloneStateDataAsNeeded();
         child.stateData.carParked = carParked;
         if (carParked) {
@@ -389,6 +434,8 @@ public class StateEditor {
     }
 
     public void setPreviousStop(Stop previousStop) {
+        if (previousStop == child.stateData.previousStop)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.previousStop = previousStop;
     }
@@ -567,20 +614,28 @@ public class StateEditor {
     }
 
     public void setLastPattern(TripPattern pattern) {
+        if (pattern == child.stateData.lastPattern)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.lastPattern = pattern;
     }
     public void setOptions(RoutingRequest options) {
+        if (options == child.stateData.opt)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.opt = options;
     }
 
     public void setServiceDay(ServiceDay day) {
+        if (day == child.stateData.serviceDay)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.serviceDay = day;
     }
 
     public void setBikeRentalNetwork(Set<String> networks) {
+        if (networks == child.stateData.bikeRentalNetworks)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.bikeRentalNetworks = networks;
     }
@@ -0,0 +1,101 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.Arrays;
+
+/**
+ * Scratch States for a single search. When a search has a pool, a StateEditor edits a reused scratch
+ * State instead of a fresh clone of its parent, and only copies it into a new State when
+ * makeState() accepts it. Traversal results that are over the weight limit or past the worst
+ * allowed time are rejected before anything is allocated for them.
+ *
+ * Scratch States that are never returned (an edge may abandon its editor without calling
+ * makeState) are simply left to the garbage collector. A pool is used by one search at a time and
+ * is not thread-safe.
+ */
+public class StatePool {
+
+    private State[] free = new State[8];
+
+    private int nFree = 0;
+
+    /** number of scratch States this pool had to allocate */
+    private long nScratchAllocated = 0;
+
+    /** number of traversal results rejected before being materialized */
+    private long nPruned = 0;
+
+    /** number of materialized States sharing the StateData of their back state */
+    private long nSharedStateData = 0;
+
+    /** @return a scratch State holding a copy of the given parent's fields */
+    State acquire(State parent) {
+        State scratch;
+        if (nFree > 0) {
+            scratch = free[--nFree];
+            free[nFree] = null;
+        } else {
+            scratch = new State();
+            nScratchAllocated += 1;
+        }
+        scratch.copyFrom(parent);
+        return scratch;
+    }
+
+    void release(State scratch) {
+        // do not keep parts of the search reachable from the pool
+        scratch.backState = null;
+        scratch.stateData = null;
+        if (nFree == free.length)
+            free = Arrays.copyOf(free, nFree * 2);
+        free[nFree++] = scratch;
+    }
+
+    /**
+     * @return true if the given candidate State can be rejected before it is materialized, because
+     *         A* would not enqueue it anyway.
+     */
+    boolean prune(State candidate) {
+        RoutingRequest opt = candidate.stateData.opt;
+        boolean exceeded = candidate.exceedsWeightLimit(opt.maxWeight)
+                || (opt.isArriveBy() ? candidate.getTimeSeconds() < opt.worstTime
+                        : candidate.getTimeSeconds() > opt.worstTime);
+        if (exceeded)
+            nPruned += 1;
+        return exceeded;
+    }
+
+    /** @return a new State with the fields of the scratch State, which is returned to the pool. */
+    State materialize(State scratch) {
+        State state = scratch.clone();
+        if (state.backState != null && state.stateData == state.backState.stateData)
+            nSharedStateData += 1;
+        release(scratch);
+        return state;
+    }
+
+    public long getScratchAllocated() {
+        return nScratchAllocated;
+    }
+
+    public long getPruned() {
+        return nPruned;
+    }
+
+    public long getSharedStateData() {
+        return nSharedStateData;
+    }
+
+}
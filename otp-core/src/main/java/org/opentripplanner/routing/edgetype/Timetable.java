@@ -16,8 +16,13 @@ package org.opentripplanner.routing.edgetype;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import lombok.Getter;
 
@@ -32,6 +37,7 @@ import org.opentripplanner.routing.trippattern.CanceledTripTimes;
 import org.opentripplanner.routing.trippattern.DecayingDelayTripTimes;
 import org.opentripplanner.routing.trippattern.ScheduledTripTimes;
 import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.trippattern.TripTimesColumns;
 import org.opentripplanner.routing.trippattern.TripUpdateList;
 import org.opentripplanner.routing.trippattern.UpdatedTripTimes;
 import org.slf4j.Logger;
@@ -58,6 +64,19 @@ public class Timetable implements Serializable {
      */
     private static final int INDEX_THRESHOLD = 16;
 
+    /**
+     * An updated Timetable is re-indexed incrementally if at most one in this many of its trips
+     * were updated, and fully re-sorted otherwise. Merging costs O(n + k log k) per hop against
+     * O(n log n) for sorting, so it pays off until most trips have moved.
+     */
+    private static final int REINDEX_FRACTION = 2;
+
+    /**
+     * Whether finishing a scheduled Timetable moves the times of its trips into TripTimesColumns.
+     * Must be set before graphs are built or loaded.
+     */
+    private static volatile boolean columnar = false;
+
     /** 
      * This creates a circular reference between trippatterns and timetables. 
      * Be careful during serialization. 
@@ -85,6 +104,37 @@ public class Timetable implements Serializable {
     private transient TripTimes[][] arrivalsIndex = null;
     private transient TripTimes[][] departuresIndex = null;
 
+    /**
+     * The indexes of the timetable this one was copied from, or of this timetable before it was
+     * updated, and the TripTimes they were built from. The trips replaced since then are marked
+     * in updatedTrips. finish() uses them to re-index only the updated trips. All null when there
+     * is no such index.
+     */
+    private transient TripTimes[][] baseArrivalsIndex = null;
+    private transient TripTimes[][] baseDeparturesIndex = null;
+    private transient TripTimes[] baseTripTimes = null;
+    private transient BitSet updatedTrips = null;
+
+    /**
+     * The scheduled times of the trips in per-hop columns, shared with the Timetables copied from
+     * this one, or null if each trip keeps its own times (see {@link #setColumnar(boolean)}).
+     */
+    private TripTimesColumns columns = null;
+
+    /**
+     * The trips whose times are not read from the columns: those updated in realtime, and those
+     * added after the columns were built. Null if there are none.
+     */
+    private transient BitSet overrides = null;
+
+    /**
+     * The indexes of a Timetable whose times are in columns: for each hop, the positions of the
+     * trips sorted by arrival (departure) time, shared like the TripTimes indexes. Null if the
+     * Timetable has no columns or has not been indexed.
+     */
+    private transient int[][] arrivalsOrder = null;
+    private transient int[][] departuresOrder = null;
+
     /** For each hop, the best running time. This serves to provide lower bounds on traversal time. */
     private transient int bestRunningTimes[];
     
@@ -105,12 +155,42 @@ public class Timetable implements Serializable {
     
     /** 
      * Copy constructor: create an un-indexed Timetable with the same TripTimes as the 
-     * specified timetable. 
+     * specified timetable. The source must not be indexed concurrently: TimetableResolver copies
+     * and finishes timetables under the same lock, so its index is either complete or absent.
      */
     private Timetable (Timetable tt, ServiceDate serviceDate) {
         tripTimes = new ArrayList<TripTimes>(tt.tripTimes);
         this.serviceDate = serviceDate;
         this.pattern = tt.pattern;
+        this.columns = tt.columns;
+        // read both indexes once, so that the base index is a consistent pair
+        TripTimes[][] arrivals = tt.arrivalsIndex;
+        TripTimes[][] departures = tt.departuresIndex;
+        if (arrivals != null && departures != null)
+            setBaseIndex(arrivals, departures);
+    }
+
+    public static void setColumnar(boolean columnar) {
+        Timetable.columnar = columnar;
+    }
+
+    public static boolean isColumnar() {
+        return columnar;
+    }
+
+    /** Keep the given (read-only) indexes, built from the current TripTimes, for re-indexing. */
+    private void setBaseIndex(TripTimes[][] arrivals, TripTimes[][] departures) {
+        baseArrivalsIndex = arrivals;
+        baseDeparturesIndex = departures;
+        baseTripTimes = tripTimes.toArray(new TripTimes[tripTimes.size()]);
+        updatedTrips = new BitSet();
+    }
+
+    private void clearBaseIndex() {
+        baseArrivalsIndex = null;
+        baseDeparturesIndex = null;
+        baseTripTimes = null;
+        updatedTrips = null;
     }
     
     /** 
@@ -124,43 +204,276 @@ public class Timetable implements Serializable {
     
     /**
      * Produces 2D index arrays that are stop-major and sorted, allowing binary search at any 
-     * given stop. It is of course inefficient to call this after updating only one or two 
-     * trips in a pattern since we can usually get by with swapping only the new trip into the 
-     * existing already-sorted lists. But let's see realistically how resource-intensive this 
-     * is before optimizing it.
+     * given stop.
      */
-    private void index() {
+    void index() {
         int nHops = pattern.getHopCount();
-        arrivalsIndex = new TripTimes[nHops][];
-        departuresIndex = new TripTimes[nHops][];
-        boolean departuresFifo = true;
-        boolean arrivalsMatchDepartures = true;
+        TripTimes[][] arrivals = new TripTimes[nHops][];
+        TripTimes[][] departures = new TripTimes[nHops][];
         for (int hop = 0; hop < nHops; hop++) {
             // copy canonical TripTimes List into new arrays
-            arrivalsIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
-            departuresIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
+            arrivals[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
+            departures[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
             // TODO: STOP VS HOP
-            Arrays.sort(arrivalsIndex[hop], new TripTimes.ArrivalsComparator(hop));
-            Arrays.sort(departuresIndex[hop], new TripTimes.DeparturesComparator(hop));
+            Arrays.sort(arrivals[hop], new TripTimes.ArrivalsComparator(hop));
+            Arrays.sort(departures[hop], new TripTimes.DeparturesComparator(hop));
+        }
+        setIndex(arrivals, departures);
+    }
+
+    /**
+     * Produces the same indexes as index() from the base indexes, by merging the sorted updated
+     * trips into each sorted array without their old versions instead of sorting it again. This
+     * takes one linear pass per hop, plus sorting the updated trips.
+     * @return false if the base indexes cannot be used, in which case nothing was done
+     */
+    boolean reindex() {
+        if (baseDeparturesIndex == null || baseTripTimes.length != tripTimes.size())
+            return false;
+        int nHops = pattern.getHopCount();
+        int nUpdated = updatedTrips.cardinality();
+        Set<TripTimes> oldTimes = Collections.newSetFromMap(
+                new IdentityHashMap<TripTimes, Boolean>(nUpdated * 2));
+        TripTimes[] newTimes = new TripTimes[nUpdated];
+        int n = 0;
+        for (int t = updatedTrips.nextSetBit(0); t >= 0; t = updatedTrips.nextSetBit(t + 1)) {
+            if (baseTripTimes[t] == tripTimes.get(t))
+                continue;
+            oldTimes.add(baseTripTimes[t]);
+            newTimes[n++] = tripTimes.get(t);
+        }
+        if (oldTimes.size() != n)
+            return false;
+        newTimes = Arrays.copyOf(newTimes, n);
+        TripTimes[][] arrivals = new TripTimes[nHops][];
+        TripTimes[][] departures = new TripTimes[nHops][];
+        for (int hop = 0; hop < nHops; hop++) {
+            arrivals[hop] = mergeTrips(baseIndex(baseArrivalsIndex, hop), oldTimes, newTimes,
+                    new TripTimes.ArrivalsComparator(hop));
+            departures[hop] = mergeTrips(baseIndex(baseDeparturesIndex, hop), oldTimes, newTimes,
+                    new TripTimes.DeparturesComparator(hop));
+            if (arrivals[hop] == null || departures[hop] == null)
+                return false;
+        }
+        setIndex(arrivals, departures);
+        return true;
+    }
+
+    private static TripTimes[] baseIndex(TripTimes[][] index, int hop) {
+        return index.length == 1 ? index[0] : index[hop];
+    }
+
+    /**
+     * @return a copy of the sorted array where the old TripTimes are replaced by the new ones at
+     * their sorted positions, or null if an old TripTimes is missing from the array. New TripTimes
+     * go after the equal elements of the array, and keep their given order among themselves.
+     */
+    private static TripTimes[] mergeTrips(TripTimes[] sorted, Set<TripTimes> oldTimes,
+            TripTimes[] newTimes, Comparator<TripTimes> comparator) {
+        TripTimes[] added = newTimes.clone();
+        Arrays.sort(added, comparator); // stable
+        TripTimes[] ret = new TripTimes[sorted.length];
+        int n = 0;
+        int a = 0;
+        int removed = 0;
+        for (TripTimes tt : sorted) {
+            if (oldTimes.contains(tt)) {
+                removed++;
+                continue;
+            }
+            // the array only fills up early if an old TripTimes was missing
+            while (a < added.length && comparator.compare(added[a], tt) < 0) {
+                if (n == ret.length)
+                    return null;
+                ret[n++] = added[a++];
+            }
+            if (n == ret.length)
+                return null;
+            ret[n++] = tt;
+        }
+        if (removed != oldTimes.size())
+            return null;
+        while (a < added.length)
+            ret[n++] = added[a++];
+        return ret;
+    }
+
+    /** Install per-hop sorted indexes, sharing the arrays of hops that are sorted alike. */
+    private void setIndex(TripTimes[][] arrivals, TripTimes[][] departures) {
+        int nHops = departures.length;
+        boolean departuresFifo = true;
+        boolean arrivalsMatchDepartures = true;
+        for (int hop = 0; hop < nHops; hop++) {
             if (hop > 0) {
-                if (Arrays.equals(departuresIndex[hop], departuresIndex[hop - 1]))
-                    departuresIndex[hop] = departuresIndex[hop - 1];
+                if (Arrays.equals(departures[hop], departures[hop - 1]))
+                    departures[hop] = departures[hop - 1];
                 else
                     departuresFifo = false;
             }
-            if (Arrays.equals(departuresIndex[hop], arrivalsIndex[hop]))
-                arrivalsIndex[hop] = departuresIndex[hop];
+            if (Arrays.equals(departures[hop], arrivals[hop]))
+                arrivals[hop] = departures[hop];
             else
                 arrivalsMatchDepartures = false;
         }
         if (departuresFifo) {
             //LOG.debug("Compressing FIFO Timetable index.");
-            departuresIndex = Arrays.copyOf(departuresIndex, 1);
+            departures = Arrays.copyOf(departures, 1);
         }
         if (arrivalsMatchDepartures) {
             //LOG.debug("Reusing departures index where arrivals index is identical.");
-            arrivalsIndex = departuresIndex;
+            arrivals = departures;
+        }
+        arrivalsIndex = arrivals;
+        departuresIndex = departures;
+    }
+
+    /** @return the departures index, for tests. Null if this timetable is not indexed. */
+    TripTimes[][] getDeparturesIndex() {
+        return departuresIndex;
+    }
+
+    /** @return the arrivals index, for tests. Null if this timetable is not indexed. */
+    TripTimes[][] getArrivalsIndex() {
+        return arrivalsIndex;
+    }
+
+    /**
+     * Move the scheduled times of all trips into columns, replacing their ScheduledTripTimes.
+     * Nothing is done if a trip has been updated or does not have the hops of the pattern.
+     */
+    private void toColumns() {
+        int nHops = pattern.getHopCount();
+        for (TripTimes tt : tripTimes) {
+            if (!tt.isScheduled() || tt.getNumHops() != nHops)
+                return;
+        }
+        columns = new TripTimesColumns(tripTimes, nHops);
+        for (int t = 0; t < tripTimes.size(); t++) {
+            tripTimes.set(t, columns.getTripTimes(t));
+        }
+    }
+
+    /**
+     * Produces the indexes of a Timetable whose times are in columns: per hop, the trip positions
+     * sorted by time, which are searched without dereferencing the TripTimes of the trips.
+     */
+    private void indexColumns() {
+        int nHops = pattern.getHopCount();
+        int nTrips = tripTimes.size();
+        BitSet updated = new BitSet();
+        for (int t = 0; t < nTrips; t++) {
+            if (t >= columns.size() || tripTimes.get(t) != columns.getTripTimes(t))
+                updated.set(t);
         }
+        overrides = updated.isEmpty() ? null : updated;
+        // sorting the times with the trip positions in the low bits keeps equal times in trip
+        // order, as the stable sort of index() does
+        long[] keys = new long[nTrips];
+        int[][] arrivals = new int[nHops][];
+        int[][] departures = new int[nHops][];
+        for (int hop = 0; hop < nHops; hop++) {
+            for (int t = 0; t < nTrips; t++)
+                keys[t] = ((long) departureTime(t, hop) << 32) | t;
+            departures[hop] = sortedTrips(keys);
+            for (int t = 0; t < nTrips; t++)
+                keys[t] = ((long) arrivalTime(t, hop) << 32) | t;
+            arrivals[hop] = sortedTrips(keys);
+        }
+        boolean departuresFifo = true;
+        boolean arrivalsMatchDepartures = true;
+        for (int hop = 0; hop < nHops; hop++) {
+            if (hop > 0) {
+                if (Arrays.equals(departures[hop], departures[hop - 1]))
+                    departures[hop] = departures[hop - 1];
+                else
+                    departuresFifo = false;
+            }
+            if (Arrays.equals(departures[hop], arrivals[hop]))
+                arrivals[hop] = departures[hop];
+            else
+                arrivalsMatchDepartures = false;
+        }
+        if (departuresFifo)
+            departures = Arrays.copyOf(departures, 1);
+        if (arrivalsMatchDepartures)
+            arrivals = departures;
+        arrivalsIndex = null;
+        departuresIndex = null;
+        arrivalsOrder = arrivals;
+        departuresOrder = departures;
+    }
+
+    private static int[] sortedTrips(long[] keys) {
+        Arrays.sort(keys);
+        int[] ret = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            ret[i] = (int) keys[i];
+        return ret;
+    }
+
+    private int departureTime(int trip, int hop) {
+        BitSet o = overrides;
+        if (o != null && o.get(trip))
+            return tripTimes.get(trip).getDepartureTime(hop);
+        return columns.getDepartureTime(trip, hop);
+    }
+
+    private int arrivalTime(int trip, int hop) {
+        BitSet o = overrides;
+        if (o != null && o.get(trip))
+            return tripTimes.get(trip).getArrivalTime(hop);
+        return columns.getArrivalTime(trip, hop);
+    }
+
+    /** Same as {@link TripTimes#binarySearchDepartures}, over trip positions sorted by departure. */
+    int searchDepartures(int[] sorted, int hop, int key) {
+        int low = 0;
+        int hi = sorted.length - 1;
+        int mid = 0;
+        while (low <= hi) {
+            mid = (low + hi) >>> 1;
+            final int d = departureTime(sorted[mid], hop);
+            if (d == key)
+                return mid;
+            else if (d > key)
+                hi = mid - 1;
+            else
+                low = ++mid;
+        }
+        return mid;
+    }
+
+    /** Same as {@link TripTimes#binarySearchArrivals}, over trip positions sorted by arrival. */
+    int searchArrivals(int[] sorted, int hop, int key) {
+        int low = 0;
+        int hi = sorted.length - 1;
+        int mid = hi;
+        while (low <= hi) {
+            mid = (low + hi) >>> 1;
+            final int d = arrivalTime(sorted[mid], hop);
+            if (d == key)
+                return mid;
+            else if (d < key)
+                low = mid + 1;
+            else
+                hi = --mid;
+        }
+        return mid;
+    }
+
+    /** @return the columns holding the scheduled times, null if the trips hold their own. */
+    TripTimesColumns getColumns() {
+        return columns;
+    }
+
+    /** @return the departures index of a columnar timetable, for tests. Null if not indexed. */
+    int[][] getDeparturesOrder() {
+        return departuresOrder;
+    }
+
+    /** @return the arrivals index of a columnar timetable, for tests. Null if not indexed. */
+    int[][] getArrivalsOrder() {
+        return arrivalsOrder;
     }
     
     /** 
@@ -178,6 +491,9 @@ public class Timetable implements Serializable {
      */
     protected TripTimes getNextTrip(int stopIndex, int time, State state0, ServiceDay sd,
             boolean haveBicycle, boolean boarding) {
+        int[][] orderIndex = boarding ? departuresOrder : arrivalsOrder;
+        if (orderIndex != null)
+            return getNextColumnTrip(orderIndex, stopIndex, time, state0, sd, haveBicycle, boarding);
         TripTimes bestTrip = null;
         int index;
         TripTimes[][] tableIndex = boarding ? departuresIndex : arrivalsIndex;
@@ -233,6 +549,40 @@ public class Timetable implements Serializable {
         }
         return bestTrip;
     }
+
+    /**
+     * getNextTrip() for an indexed timetable whose times are in columns. The binary search and
+     * the accessibility flags only read the columns (and the TripTimes of updated trips), so only
+     * the TripTimes of the trips that could be boarded are dereferenced.
+     */
+    private TripTimes getNextColumnTrip(int[][] orderIndex, int stopIndex, int time,
+            State state0, ServiceDay sd, boolean haveBicycle, boolean boarding) {
+        Stop currentStop = pattern.getStop(stopIndex);
+        boolean wheelchair = state0.getOptions().wheelchairAccessible;
+        int hop = boarding ? stopIndex : stopIndex - 1;
+        int[] sorted = orderIndex.length == 1 ? orderIndex[0] : orderIndex[hop];
+        int nColumns = columns.size();
+        if (boarding) {
+            for (int index = searchDepartures(sorted, hop, time); index < sorted.length; index++) {
+                int trip = sorted[index];
+                if (trip < nColumns && !columns.isAccessible(trip, wheelchair, haveBicycle))
+                    continue;
+                TripTimes tt = tripTimes.get(trip);
+                if (tt.tripAcceptable(state0, currentStop, sd, haveBicycle, stopIndex, boarding))
+                    return tt;
+            }
+        } else {
+            for (int index = searchArrivals(sorted, hop, time); index >= 0; index--) {
+                int trip = sorted[index];
+                if (trip < nColumns && !columns.isAccessible(trip, wheelchair, haveBicycle))
+                    continue;
+                TripTimes tt = tripTimes.get(trip);
+                if (tt.tripAcceptable(state0, currentStop, sd, haveBicycle, stopIndex, boarding))
+                    return tt;
+            }
+        }
+        return null;
+    }
     
     /** Gets the departure time for a given hop on a given trip */
     public int getDepartureTime(int hop, int trip) {
@@ -263,6 +613,8 @@ public class Timetable implements Serializable {
     public void finish() {
         int nHops = pattern.getHopCount();
         int nTrips = tripTimes.size();
+        if (columnar && columns == null && serviceDate == null && nTrips > 0)
+            toColumns();
         bestRunningTimes = new int[nHops];
         boolean nullArrivals = false; // TODO: should scan through triptimes?
         if ( ! nullArrivals) {
@@ -289,13 +641,26 @@ public class Timetable implements Serializable {
             }
         }
         /* In large timetables, index stoptimes to allow binary searches over trips. */
-        if (nTrips > INDEX_THRESHOLD) {
-            LOG.trace("indexing pattern with {} trips", nTrips);
-            index(); 
+        if (nTrips > INDEX_THRESHOLD && columns != null) {
+            LOG.trace("indexing columns of pattern with {} trips", nTrips);
+            indexColumns();
+        } else if (nTrips > INDEX_THRESHOLD) {
+            // Re-sorting everything is cheaper once many trips have moved.
+            if (updatedTrips != null && updatedTrips.cardinality() <= nTrips / REINDEX_FRACTION
+                    && reindex()) {
+                LOG.trace("re-indexed {} trips in pattern with {} trips",
+                        updatedTrips.cardinality(), nTrips);
+            } else {
+                LOG.trace("indexing pattern with {} trips", nTrips);
+                index();
+            }
         } else {
             arrivalsIndex = null;
             departuresIndex = null;
+            arrivalsOrder = null;
+            departuresOrder = null;
         }
+        clearBaseIndex();
         /* Detect trip overlap modulo 24 hours. Allows departure search optimizations. */
         minDepart = Integer.MAX_VALUE;
         maxArrive = Integer.MIN_VALUE;
@@ -427,7 +792,18 @@ public class Timetable implements Serializable {
                 }
             }
             // Update succeeded, save the new TripTimes back into this Timetable.
+            if (departuresIndex != null) {
+                // the index no longer matches: keep it as a base for finish() to re-index
+                setBaseIndex(arrivalsIndex, departuresIndex);
+                arrivalsIndex = null;
+                departuresIndex = null;
+            }
+            // columnar timetables are searched linearly until finish() indexes them again
+            arrivalsOrder = null;
+            departuresOrder = null;
             this.tripTimes.set(tripIndex, newTimes);
+            if (updatedTrips != null)
+                updatedTrips.set(tripIndex);
             return true;
         } catch (Exception e) { // prevent server from dying while debugging
             e.printStackTrace();
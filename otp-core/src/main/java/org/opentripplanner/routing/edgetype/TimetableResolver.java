@@ -15,15 +15,16 @@ package org.opentripplanner.routing.edgetype;
 
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.PersistentHashMap;
 import org.opentripplanner.routing.trippattern.TripUpdateList;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,10 +51,13 @@ public class TimetableResolver {
     
     private static final Logger LOG = LoggerFactory.getLogger(TimetableResolver.class);
 
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
+    private static final MetricsRegistry metrics = MetricsRegistry.getRegistry();
+    private static final Histogram commitNanos = metrics.histogram("timetables.commitNanos");
+
+    // A persistent map, so that a snapshot shares it with the buffer it was committed from and
+    // each update only copies the path to the modified pattern.
     // The SortedSet members are copy-on-write
-    private HashMap<TableTripPattern, SortedSet<Timetable>> timetables = new HashMap<TableTripPattern, SortedSet<Timetable>>(); 
+    private PersistentHashMap<TableTripPattern, SortedSet<Timetable>> timetables = PersistentHashMap.empty();
     
     /** A set of all timetables which have been modified and are waiting to be indexed. */
     private Set<Timetable> dirty = new HashSet<Timetable>();
@@ -102,7 +106,7 @@ public class TimetableResolver {
                 if(old.getServiceDate() != null)
                     sortedTimetables.remove(old);
                 sortedTimetables.add(tt);
-                timetables.put(pattern, sortedTimetables);
+                timetables = timetables.plus(pattern, sortedTimetables);
                 dirty.add(tt);
             }
             return tt.update(tripUpdateList);
@@ -110,21 +114,20 @@ public class TimetableResolver {
     }
 
     /**
-     * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms). 
-     * It is perhaps better to index timetables as they are changed to avoid experiencing all 
-     * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
-     * the same timetable in rapid succession. This compromise is expressed by the 
-     * maxSnapshotFrequency property of StoptimeUpdater. The indexing could be made much more 
-     * efficient as well.
+     * Committing does not copy anything: the snapshot shares the persistent pattern map of this
+     * buffer. Its cost is that of indexing the timetables modified since the last commit. This is
+     * done while holding the lock, because the next update to a committed timetable copies it and
+     * reuses its index as the base of an incremental reindex.
+     * Re-indexing when receiving multiple updates for the same timetable in rapid succession is
+     * avoided by the maxSnapshotFrequency property of TimetableSnapshotSource.
      * @return an immutable copy of this TimetableResolver with all updates applied
      */
     public TimetableResolver commit() {
         return commit(false);
     }
     
-    @SuppressWarnings("unchecked")
     public TimetableResolver commit(boolean force) {
+        long start = metrics.startTime();
         TimetableResolver ret = new TimetableResolver();
         // synchronization prevents updates while commit/snapshot in progress
         synchronized(this) {
@@ -132,12 +135,13 @@ public class TimetableResolver {
                 throw new ConcurrentModificationException("This TimetableResolver is read-only.");
             if (!force && !this.isDirty())
                 return null;
-            for (Timetable tt : dirty)
+            ret.timetables = this.timetables;
+            for (Timetable tt : this.dirty)
                 tt.finish(); // summarize, index, etc. the new timetables
-            ret.timetables = (HashMap<TableTripPattern, SortedSet<Timetable>>) this.timetables.clone();
-            this.dirty.clear();
+            this.dirty = new HashSet<Timetable>();
         }
         ret.dirty = null; // mark the snapshot as henceforth immutable
+        commitNanos.recordElapsed(start);
         return ret;
     }
 
@@ -150,8 +154,7 @@ public class TimetableResolver {
                 throw new ConcurrentModificationException("This TimetableResolver is read-only.");
             
             boolean modified = false;
-            for (Iterator<TableTripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-                TableTripPattern pattern = it.next();
+            for (TableTripPattern pattern : timetables.keys()) {
                 SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
                 SortedSet<Timetable> toKeepTimetables = new TreeSet<Timetable>(new SortedTimetableComparator());
                 for(Timetable timetable : sortedTimetables) {
@@ -163,9 +166,9 @@ public class TimetableResolver {
                 }
                 
                 if(toKeepTimetables.isEmpty()) {
-                    it.remove();
-                } else {
-                    timetables.put(pattern, toKeepTimetables);
+                    timetables = timetables.minus(pattern);
+                } else if(toKeepTimetables.size() < sortedTimetables.size()) {
+                    timetables = timetables.plus(pattern, toKeepTimetables);
                 }
             }
             
@@ -206,6 +206,9 @@ public class TransitBoardAlight extends TablePatternEdge implements OnboardEdge
             if (!options.getModes().get(modeMask)) {
                 return null;
             }
+            if (!rctx.serviceIdRunningOnAnyDay(getPattern().getServiceId())) {
+                return null; // no trip on this pattern runs yesterday, today or tomorrow
+            }
             // TODO: assuming all trips within a pattern have the same route and agency,
             // we could check route and agency up front ("is pattern suitable") up front, rather than
             // below after the trip search.
@@ -369,10 +372,8 @@ public class TransitBoardAlight extends TablePatternEdge implements OnboardEdge
             if (!options.getModes().get(modeMask)) {
                 return Double.POSITIVE_INFINITY;
             }
-            int serviceId = getPattern().getServiceId();
-            for (ServiceDay sd : options.rctx.serviceDays)
-                if (sd.serviceIdRunning(serviceId))
-                    return 0;
+            if (options.rctx.serviceIdRunningOnAnyDay(getPattern().getServiceId()))
+                return 0;
             return Double.POSITIVE_INFINITY;
         } else {
             return 0;
@@ -79,7 +79,14 @@ public class LinkRequest {
      * Sets result to true if the links were successfully added, otherwise false
      */
     public void connectVertexToStreets(BikeRentalStationVertex v) {
-        Collection<StreetVertex> nearbyStreetVertices = getNearbyStreetVertices(v, null, null);
+        connectVertexToStreets(v, findCandidate(linker, v, null, null));
+    }
+
+    /**
+     * Link a bike rental station to the streets found by {@link #findCandidate}.
+     */
+    public void connectVertexToStreets(BikeRentalStationVertex v, Candidate candidate) {
+        Collection<StreetVertex> nearbyStreetVertices = getNearbyStreetVertices(candidate);
         if (nearbyStreetVertices == null) {
             result = false;
         } else {
@@ -99,7 +106,80 @@ public class LinkRequest {
     }
 
     /**
-     * For the given vertex, find or create some vertices nearby in the street network.
+     * What a search of the street index found near a vertex: either street vertices to link to
+     * directly, or a bundle of edges to split. Nothing is modified while finding it, so the
+     * candidates of many vertices can be found by several threads at once and linked afterwards.
+     */
+    public static class Candidate {
+
+        final Vertex vertex;
+
+        /** The vertices to link to without splitting anything, or null. */
+        final List<StreetVertex> vertices;
+
+        /** The bundle of coincident edges to split, or null. */
+        final List<StreetEdge> edges;
+
+        /** Whether the bundle was caught endwise, in which case vertices holds its end. */
+        final boolean endwise;
+
+        Candidate(Vertex vertex, List<StreetVertex> vertices, List<StreetEdge> edges,
+                boolean endwise) {
+            this.vertex = vertex;
+            this.vertices = vertices;
+            this.edges = edges;
+            this.endwise = endwise;
+        }
+
+        public Vertex getVertex() {
+            return vertex;
+        }
+
+        /** @return true if nothing was found near the vertex */
+        public boolean isEmpty() {
+            return vertices == null && edges == null;
+        }
+
+        /** @return true if linking the vertex splits an edge */
+        public boolean splits() {
+            return edges != null;
+        }
+    }
+
+    /**
+     * Search the street index for the vertices or edges near a vertex. This only reads the index,
+     * which is not updated by the linker, and may be called by several threads at once.
+     */
+    static Candidate findCandidate(NetworkLinkerLibrary linker, Vertex v,
+            Collection<Edge> nearbyRouteEdges, RoutingRequest options) {
+        Coordinate coordinate = v.getCoordinate();
+
+        /* is there a bundle of edges nearby to use or split? */
+        GenericLocation location = new GenericLocation(coordinate);
+        TraversalRequirements reqs = new TraversalRequirements(options);
+        CandidateEdgeBundle edges = linker.index.getClosestEdges(location, reqs, null, nearbyRouteEdges, true);
+        if (edges == null || edges.size() < 1) {
+            // no edges were found nearby, or a bidirectional/loop bundle of edges was not identified
+            LOG.debug("found too few edges: {} {}", v.getName(), v.getCoordinate());
+            return new Candidate(v, null, null, false);
+        }
+        // if the bundle was caught endwise (T intersections and dead ends), 
+        // get the intersection instead.
+        if (edges.endwise()) {
+            return new Candidate(v, Arrays.asList(edges.endwiseVertex), null, true);
+        }
+        /* is the stop right at an intersection? */
+        StreetVertex atIntersection = linker.index.getIntersectionAt(coordinate);
+        if (atIntersection != null) {
+            // if so, the stop can be linked directly to all vertices at the intersection
+            if (edges.getScore() > linker.getDistanceLibrary().distance(atIntersection.getCoordinate(), coordinate))
+                return new Candidate(v, Arrays.asList(atIntersection), null, false);
+        }
+        return new Candidate(v, null, edges.toEdgeList(), false);
+    }
+
+    /**
+     * For the vertex of a candidate, find or create some vertices nearby in the street network.
      * Once the vertices are found they are remembered, and subsequent calls to this 
      * method with the same Vertex argument will return the same collection of vertices. 
      * This method is potentially called multiple times with the same Vertex as an argument, 
@@ -108,43 +188,28 @@ public class LinkRequest {
      * Used by both the network linker and for adding temporary "extra" edges at the origin 
      * and destination of a search.
      */
-    private Collection<StreetVertex> getNearbyStreetVertices(Vertex v, Collection<Edge> nearbyRouteEdges, RoutingRequest options) {
+    private Collection<StreetVertex> getNearbyStreetVertices(Candidate candidate) {
+        Vertex v = candidate.vertex;
         Collection<StreetVertex> existing = linker.splitVertices.get(v);
         if (existing != null)
             return existing;
 
+        if (candidate.isEmpty()) {
+            return null;
+        }
+        if (candidate.endwise) {
+            linker.splitVertices.put(v, candidate.vertices);
+            return candidate.vertices;
+        }
+        if (candidate.vertices != null) {
+            return candidate.vertices;
+        }
         String vertexLabel;
         if (v instanceof TransitVertex)
             vertexLabel = "link for " + ((TransitVertex)v).getStopId();
         else
             vertexLabel = "link for " + v;
-        Coordinate coordinate = v.getCoordinate();
-
-        /* is there a bundle of edges nearby to use or split? */
-        GenericLocation location = new GenericLocation(coordinate);
-        TraversalRequirements reqs = new TraversalRequirements(options);
-        CandidateEdgeBundle edges = linker.index.getClosestEdges(location, reqs, null, nearbyRouteEdges, true);
-        if (edges == null || edges.size() < 1) {
-            // no edges were found nearby, or a bidirectional/loop bundle of edges was not identified
-            LOG.debug("found too few edges: {} {}", v.getName(), v.getCoordinate());
-            return null;
-        }
-        // if the bundle was caught endwise (T intersections and dead ends), 
-        // get the intersection instead.
-        if (edges.endwise()) {
-            List<StreetVertex> list = Arrays.asList(edges.endwiseVertex);
-            linker.splitVertices.put(v, list);
-            return list;
-        } else {
-            /* is the stop right at an intersection? */
-            StreetVertex atIntersection = linker.index.getIntersectionAt(coordinate);
-            if (atIntersection != null) {
-                // if so, the stop can be linked directly to all vertices at the intersection
-                if (edges.getScore() > distanceLibrary.distance(atIntersection.getCoordinate(), coordinate))
-                    return Arrays.asList(atIntersection);
-            }
-            return getSplitterVertices(vertexLabel, edges.toEdgeList(), coordinate);
-        }
+        return getSplitterVertices(vertexLabel, candidate.edges, v.getCoordinate());
     }
 
     /** 
@@ -345,6 +410,14 @@ public class LinkRequest {
     }
 
     public void connectVertexToStreets(TransitStop v, boolean wheelchairAccessible) {
+        connectVertexToStreets(v, wheelchairAccessible, findCandidate(linker, v));
+    }
+
+    /**
+     * Search the street index for the vertices or edges near a transit stop, preferring the edges
+     * used by its routes. May be called by several threads at once.
+     */
+    static Candidate findCandidate(NetworkLinkerLibrary linker, TransitStop v) {
         List<Edge> nearbyEdges = null;
         if (linker.edgesForRoute != null && linker.transitIndex != null) {
             nearbyEdges = new ArrayList<Edge>();
@@ -358,7 +431,15 @@ public class LinkRequest {
         TraverseModeSet modes = v.getModes().clone();
         modes.setMode(TraverseMode.WALK, true);
         RoutingRequest request = new RoutingRequest(modes);
-        Collection<StreetVertex> nearbyStreetVertices = getNearbyStreetVertices(v, nearbyEdges, request);
+        return findCandidate(linker, v, nearbyEdges, request);
+    }
+
+    /**
+     * Link a transit stop to the streets found by {@link #findCandidate}.
+     */
+    public void connectVertexToStreets(TransitStop v, boolean wheelchairAccessible,
+            Candidate candidate) {
+        Collection<StreetVertex> nearbyStreetVertices = getNearbyStreetVertices(candidate);
         if (nearbyStreetVertices == null) {
             result = false;
         } else {
@@ -17,6 +17,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.opentripplanner.common.IterableLibrary;
 import org.opentripplanner.common.model.P2;
@@ -36,6 +42,16 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Links transit stops and bike rental stations to the street network in two phases. The street
+ * index is searched for every vertex first, on several threads since the index is not modified by
+ * linking. The links are then made one vertex at a time in the order of the graph's vertices,
+ * splitting edges as needed; when an earlier vertex has already split the edge a later one was
+ * found on, the later vertex is linked to the nearest of the pieces, so the result does not
+ * depend on how the searches were scheduled.
+ */
 public class NetworkLinker {
 
     private static Logger LOG = LoggerFactory.getLogger(NetworkLinker.class);
@@ -44,6 +60,12 @@ public class NetworkLinker {
 
     private NetworkLinkerLibrary networkLinkerLibrary;
 
+    /** The number of threads searching the street index, 1 to search on the calling thread. */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /** The number of vertices a thread searches for at a time. */
+    private static final int BATCH_SIZE = 500;
+
     public NetworkLinker(Graph graph, HashMap<Class<?>,Object> extra) {
         this.graph = graph;
         this.networkLinkerLibrary = new NetworkLinkerLibrary(graph, extra);
@@ -56,6 +78,10 @@ public class NetworkLinker {
         this(graph, new HashMap<Class<?>, Object>());
     }
 
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     /**
      * Link the transit network to the street network. Connect each transit vertex to the nearest
      * Street edge with a StreetTransitLink.
@@ -69,6 +95,7 @@ public class NetworkLinker {
         ArrayList<Vertex> vertices = new ArrayList<Vertex>();
         vertices.addAll(graph.getVertices());
 
+        List<TransitStop> stops = new ArrayList<TransitStop>();
         for (TransitStop ts : IterableLibrary.filter(vertices, TransitStop.class)) {
             // if the street is already linked there is no need to linked it again,
             // could happened if using the prune isolated island
@@ -83,12 +110,28 @@ public class NetworkLinker {
             // only connect transit stops that (a) are entrances, or (b) have no associated
             // entrances
             if (ts.isEntrance() || !ts.hasEntrances()) {
-                boolean wheelchairAccessible = ts.hasWheelchairEntrance();
-                if (!networkLinkerLibrary.connectVertexToStreets(ts, wheelchairAccessible).getResult()) {
-                    LOG.warn(graph.addBuilderAnnotation(new StopUnlinked(ts)));
-                }
+                stops.add(ts);
             }
         }
+        long t0 = System.currentTimeMillis();
+        LinkRequest.Candidate[] candidates = findCandidates(stops);
+        long t1 = System.currentTimeMillis();
+        Set<Set<StreetEdge>> splitEdges = new HashSet<Set<StreetEdge>>();
+        int nShared = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            TransitStop ts = stops.get(i);
+            if (candidates[i].splits() && !splitEdges.add(new HashSet<StreetEdge>(candidates[i].edges)))
+                nShared++;
+            boolean wheelchairAccessible = ts.hasWheelchairEntrance();
+            if (!networkLinkerLibrary.connectVertexToStreets(ts, wheelchairAccessible, candidates[i]).getResult()) {
+                LOG.warn(graph.addBuilderAnnotation(new StopUnlinked(ts)));
+            }
+        }
+        long t2 = System.currentTimeMillis();
+        LOG.info("linked {} stops: searched the street index in {} ms, split {} street edge "
+                + "bundles in {} ms ({} stops on a bundle already split by another)",
+                stops.size(), t1 - t0, splitEdges.size(), t2 - t1, nShared);
+
         //remove replaced edges
         for (HashSet<StreetEdge> toRemove : networkLinkerLibrary.replacements.keySet()) {
             for (StreetEdge edge : toRemove) {
@@ -116,11 +159,77 @@ public class NetworkLinker {
         FindMaxWalkDistances.find(graph);
         
         LOG.debug("Linking bike rental stations...");
+        List<BikeRentalStationVertex> stations = new ArrayList<BikeRentalStationVertex>();
         for (BikeRentalStationVertex brsv : IterableLibrary.filter(vertices,
                 BikeRentalStationVertex.class)) {
-            if (!networkLinkerLibrary.connectVertexToStreets(brsv).getResult()) {
+            stations.add(brsv);
+        }
+        t0 = System.currentTimeMillis();
+        candidates = findCandidates(stations);
+        t1 = System.currentTimeMillis();
+        for (int i = 0; i < candidates.length; i++) {
+            BikeRentalStationVertex brsv = stations.get(i);
+            if (!networkLinkerLibrary.connectVertexToStreets(brsv, candidates[i]).getResult()) {
                 LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked(brsv)));
             }
         }
+        t2 = System.currentTimeMillis();
+        if (!stations.isEmpty()) {
+            LOG.info("linked {} bike rental stations: searched the street index in {} ms, "
+                    + "linked in {} ms", stations.size(), t1 - t0, t2 - t1);
+        }
+    }
+
+    /**
+     * Search the street index for each of the vertices, on several threads when there are enough
+     * of them.
+     * 
+     * @return the candidates in the order of the vertices
+     */
+    private LinkRequest.Candidate[] findCandidates(final List<? extends Vertex> vertices) {
+        final LinkRequest.Candidate[] candidates = new LinkRequest.Candidate[vertices.size()];
+        if (threads <= 1 || vertices.size() <= BATCH_SIZE) {
+            for (int i = 0; i < candidates.length; i++) {
+                candidates[i] = findCandidate(vertices.get(i));
+            }
+            return candidates;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("network-linker-%d").setDaemon(true)
+                        .build());
+        try {
+            List<Future<?>> batches = new ArrayList<Future<?>>();
+            for (int start = 0; start < candidates.length; start += BATCH_SIZE) {
+                final int first = start;
+                final int end = Math.min(start + BATCH_SIZE, candidates.length);
+                batches.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = first; i < end; i++) {
+                            candidates[i] = findCandidate(vertices.get(i));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("network linking interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return candidates;
+    }
+
+    private LinkRequest.Candidate findCandidate(Vertex v) {
+        if (v instanceof TransitStop)
+            return networkLinkerLibrary.findCandidate((TransitStop) v);
+        return networkLinkerLibrary.findCandidate((BikeRentalStationVertex) v);
     }
 }
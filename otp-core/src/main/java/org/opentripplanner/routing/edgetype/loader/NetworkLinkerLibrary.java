@@ -97,6 +97,43 @@ public class NetworkLinkerLibrary {
         return request;
     }
 
+    /**
+     * Search the street index for where a transit stop would be linked, without linking it. The
+     * index is not modified by linking, so this may be called by several threads at once.
+     */
+    public LinkRequest.Candidate findCandidate(TransitStop v) {
+        return LinkRequest.findCandidate(this, v);
+    }
+
+    /**
+     * Search the street index for where a bike rental station would be linked, without linking
+     * it. May be called by several threads at once.
+     */
+    public LinkRequest.Candidate findCandidate(BikeRentalStationVertex v) {
+        return LinkRequest.findCandidate(this, v, null, null);
+    }
+
+    /**
+     * Link a transit stop where a previous search of the index found it should be, splitting
+     * edges as needed. Candidates must be linked one at a time.
+     */
+    public LinkRequest connectVertexToStreets(TransitStop v, boolean wheelchairAccessible,
+            LinkRequest.Candidate candidate) {
+        LinkRequest request = new LinkRequest(this);
+        request.connectVertexToStreets(v, wheelchairAccessible, candidate);
+        return request;
+    }
+
+    /**
+     * Link a bike rental station where a previous search of the index found it should be.
+     */
+    public LinkRequest connectVertexToStreets(BikeRentalStationVertex v,
+            LinkRequest.Candidate candidate) {
+        LinkRequest request = new LinkRequest(this);
+        request.connectVertexToStreets(v, candidate);
+        return request;
+    }
+
 //    /**
 //     * Add edges from street locations to the target vertex.
 //     * 
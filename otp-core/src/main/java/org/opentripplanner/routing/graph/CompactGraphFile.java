@@ -0,0 +1,327 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.MappedCoordinateSequence;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * A versioned graph file format in which the geometries of the PlainStreetEdges are stored as flat
+ * arrays that are memory-mapped when the graph is loaded, rather than going through Java
+ * serialization. Nothing else is mapped: the vertices and their coordinates, the edges and their
+ * endpoints, the geometries of other edge types and the timetables are still serialized as in
+ * Graph.save(), and the indices are rebuilt after loading as usual. The gain is therefore in heap
+ * size and in sharing street geometries between JVMs, not in loading time.
+ *
+ * Layout (all values big-endian):
+ * <pre>
+ * header     long magic "OTPGRAPH", int format version, int number of geometries,
+ *            long number of coordinates, long offsets position, long coordinates position,
+ *            long objects position (padded to HEADER_SIZE bytes)
+ * offsets    int[nGeometries + 1], index of the first coordinate of each geometry
+ * coords     double[2 * nCoordinates], x and y of each coordinate
+ * objects    the usual Java serialization stream of Graph.save(), in which each packed edge
+ *            geometry is replaced by a reference into the coordinate arrays
+ * </pre>
+ *
+ * When loading, the geometries become LineStrings over {@link MappedCoordinateSequence}s reading
+ * directly from the mapped file, so their coordinates do not take heap space and several JVMs
+ * serving the same graph file share those pages through the OS page cache.
+ *
+ * Files in this format are recognized by their magic number, so they can be loaded anywhere a
+ * serialized Graph.obj is expected (see {@link Graph#load(File, LoadLevel)}).
+ */
+public class CompactGraphFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactGraphFile.class);
+
+    /** "OTPGRAPH" in ASCII */
+    private static final long MAGIC = 0x4f54504752415048L;
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    /** Check whether a file starts with the compact graph magic number. */
+    public static boolean isCompactGraphFile(File file) throws IOException {
+        if (file.length() < HEADER_SIZE)
+            return false;
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readLong() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Check whether a stream starts with the compact graph magic number, leaving the stream
+     * position unchanged. The stream must support mark/reset.
+     */
+    public static boolean isCompactGraphStream(InputStream is) throws IOException {
+        is.mark(8);
+        try {
+            return new DataInputStream(is).readLong() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            is.reset();
+        }
+    }
+
+    /**
+     * Save a graph in the compact format. Geometry sections larger than what a single mapped buffer
+     * can address (2GB) are not supported; in that case the graph is written with plain
+     * serialization, which all loaders still accept.
+     */
+    public static void save(Graph graph, File file) throws IOException {
+        // collect the distinct street geometries (other edge types often compute theirs on the fly)
+        Map<LineString, Integer> geometryIndex = new IdentityHashMap<LineString, Integer>();
+        List<LineString> geometries = new ArrayList<LineString>();
+        long nCoordinates = 0;
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (!(e instanceof PlainStreetEdge))
+                    continue;
+                LineString geometry = e.getGeometry();
+                if (geometry == null || geometryIndex.containsKey(geometry))
+                    continue;
+                geometryIndex.put(geometry, geometries.size());
+                geometries.add(geometry);
+                nCoordinates += geometry.getNumPoints();
+            }
+        }
+        int nGeometries = geometries.size();
+        long offsetsPosition = HEADER_SIZE;
+        long coordinatesPosition = align(offsetsPosition + 4L * (nGeometries + 1));
+        long objectsPosition = coordinatesPosition + 16 * nCoordinates;
+        if (objectsPosition > Integer.MAX_VALUE) {
+            LOG.warn("Edge geometries too large for a compact graph file, using plain serialization.");
+            graph.save(file);
+            return;
+        }
+        LOG.info("Writing compact graph {}: {} geometries, {} coordinates", file, nGeometries,
+                nCoordinates);
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeLong(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(nGeometries);
+            out.writeLong(nCoordinates);
+            out.writeLong(offsetsPosition);
+            out.writeLong(coordinatesPosition);
+            out.writeLong(objectsPosition);
+            pad(out, HEADER_SIZE);
+            int offset = 0;
+            for (LineString geometry : geometries) {
+                out.writeInt(offset);
+                offset += geometry.getNumPoints();
+            }
+            out.writeInt(offset);
+            pad(out, coordinatesPosition);
+            for (LineString geometry : geometries) {
+                CoordinateSequence sequence = geometry.getCoordinateSequence();
+                for (int i = 0; i < sequence.size(); i++) {
+                    out.writeDouble(sequence.getX(i));
+                    out.writeDouble(sequence.getY(i));
+                }
+            }
+            out.flush();
+            ObjectOutputStream objects = new GeometryPackingOutputStream(os, geometryIndex);
+            graph.save(objects);
+            objects.close();
+        } catch (RuntimeException e) {
+            os.close();
+            file.delete(); // remove half-written file
+            throw e;
+        } catch (IOException e) {
+            os.close();
+            file.delete();
+            throw e;
+        }
+    }
+
+    /** Load a compact graph file, memory-mapping its geometry sections. */
+    public static Graph load(File file, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        LOG.info("Reading compact graph " + file.getAbsolutePath() + " ...");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            long objectsPosition = readHeader(header);
+            // the mapping stays valid after the channel is closed
+            ByteBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY, 0, objectsPosition);
+            channel.position(objectsPosition);
+            InputStream objects = new BufferedInputStream(Channels.newInputStream(channel));
+            return load(columns, objects, level, indexFactory);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Load a compact graph from a stream, for instance a classpath resource. The geometry sections
+     * are read onto the heap since there is no file to map.
+     */
+    public static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        byte[] bytes = ByteStreams.toByteArray(is);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long objectsPosition = readHeader(buffer);
+        InputStream objects = new ByteArrayInputStream(bytes, (int) objectsPosition,
+                bytes.length - (int) objectsPosition);
+        return load(buffer, objects, level, indexFactory);
+    }
+
+    private static Graph load(ByteBuffer columns, InputStream objects, LoadLevel level,
+            StreetVertexIndexFactory indexFactory) throws IOException, ClassNotFoundException {
+        int nGeometries = columns.getInt(12);
+        int nCoordinates = (int) columns.getLong(16);
+        int offsetsPosition = (int) columns.getLong(24);
+        int coordinatesPosition = (int) columns.getLong(32);
+        IntBuffer offsets = slice(columns, offsetsPosition, 4 * (nGeometries + 1)).asIntBuffer();
+        DoubleBuffer coordinates = slice(columns, coordinatesPosition, 16 * nCoordinates)
+                .asDoubleBuffer();
+        LOG.debug("{} geometries with {} coordinates mapped", nGeometries, nCoordinates);
+        return Graph.load(new GeometryResolvingInputStream(objects, offsets, coordinates), level,
+                indexFactory);
+    }
+
+    /** Check the header and return the position of the object section. */
+    private static long readHeader(ByteBuffer header) throws IOException {
+        if (header.getLong(0) != MAGIC)
+            throw new IOException("Not a compact graph file.");
+        int version = header.getInt(8);
+        if (version != FORMAT_VERSION) {
+            LOG.error("Compact graph format version {} is not supported by this OTP (version {}).",
+                    version, FORMAT_VERSION);
+            throw new IOException("Unsupported compact graph format version " + version);
+        }
+        return header.getLong(40);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + length);
+        return duplicate.slice();
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static void pad(DataOutputStream out, long position) throws IOException {
+        while (out.size() < position)
+            out.writeByte(0);
+    }
+
+    /** Stands in for a packed edge geometry in the object section. */
+    private static class GeometryRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int index;
+
+        GeometryRef(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class GeometryPackingOutputStream extends ObjectOutputStream {
+
+        private final Map<LineString, Integer> geometryIndex;
+
+        GeometryPackingOutputStream(OutputStream out, Map<LineString, Integer> geometryIndex)
+                throws IOException {
+            super(out);
+            this.geometryIndex = geometryIndex;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof LineString) {
+                Integer index = geometryIndex.get(obj);
+                if (index != null)
+                    return new GeometryRef(index);
+            }
+            return obj;
+        }
+    }
+
+    private static class GeometryResolvingInputStream extends ObjectInputStream {
+
+        private final IntBuffer offsets;
+
+        private final DoubleBuffer coordinates;
+
+        GeometryResolvingInputStream(InputStream in, IntBuffer offsets, DoubleBuffer coordinates)
+                throws IOException {
+            super(in);
+            this.offsets = offsets;
+            this.coordinates = coordinates;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof GeometryRef) {
+                int index = ((GeometryRef) obj).index;
+                int first = offsets.get(index);
+                int size = offsets.get(index + 1) - first;
+                return GeometryUtils.getGeometryFactory().createLineString(
+                        new MappedCoordinateSequence(coordinates, first, size));
+            }
+            return obj;
+        }
+    }
+
+}
@@ -56,6 +56,7 @@ import org.opentripplanner.gbannotation.GraphBuilderAnnotation;
 import org.opentripplanner.gbannotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
+import org.opentripplanner.routing.core.ServiceDayCache;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.TableTripPattern;
@@ -91,7 +92,8 @@ public class Graph implements Serializable {
 
     private long transitServiceEnds = 0;
 
-    private Map<Class<?>, Object> _services = new HashMap<Class<?>, Object>();
+    /** Concurrent, as graph builders may run in parallel */
+    private Map<Class<?>, Object> _services = new ConcurrentHashMap<Class<?>, Object>();
 
     private TransferTable transferTable = new TransferTable();
 
@@ -102,6 +104,8 @@ public class Graph implements Serializable {
     
     private transient CalendarService calendarService;
 
+    private transient volatile ServiceDayCache serviceDayCache;
+
     private boolean debugData = true;
 
     private transient Map<Integer, Vertex> vertexById;
@@ -254,6 +258,8 @@ public class Graph implements Serializable {
 
     @SuppressWarnings("unchecked")
     public <T> T putService(Class<T> serviceType, T service) {
+        if (service == null)
+            return (T) _services.remove(serviceType);
         return (T) _services.put(serviceType, service);
     }
 
@@ -423,7 +429,7 @@ public class Graph implements Serializable {
      * If the graphBuilderAnnotations field of this graph is null, the annotation is not actually saved, but the message is still returned. This
      * allows annotation registration to be turned off, saving memory and disk space when the user is not interested in annotations.
      */
-    public String addBuilderAnnotation(GraphBuilderAnnotation gba) {
+    public synchronized String addBuilderAnnotation(GraphBuilderAnnotation gba) {
         String ret = gba.getMessage();
         if (this.graphBuilderAnnotations != null)
             this.graphBuilderAnnotations.add(gba);
@@ -441,6 +447,8 @@ public class Graph implements Serializable {
     }
 
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
+        if (CompactGraphFile.isCompactGraphFile(file))
+            return CompactGraphFile.load(file, level, new DefaultStreetVertexIndexFactory());
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
         ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
@@ -656,6 +664,19 @@ public class Graph implements Serializable {
         return this.calendarService;
     }
 
+    /** @return a cache of the ServiceDays of this graph's calendar, or null if it has none. */
+    public ServiceDayCache getServiceDayCache() {
+        ServiceDayCache cache = serviceDayCache;
+        if (cache == null) {
+            CalendarService cs = getCalendarService();
+            if (cs == null)
+                return null;
+            cache = new ServiceDayCache(this, cs);
+            serviceDayCache = cache;
+        }
+        return cache;
+    }
+
     public int removeEdgelessVertices() {
         int removed = 0;
         List<Vertex> toRemove = new LinkedList<Vertex>();
@@ -17,11 +17,14 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -40,6 +43,12 @@ import org.opentripplanner.util.NonLocalizedString;
 /**
  * A vertex in the graph. Each vertex has a longitude/latitude location, as well as a set of
  * incoming and outgoing edges.
+ * 
+ * The edge lists are plain arrays that are replaced rather than modified, so searches can read them
+ * without locking. Edges touching a temporary vertex (one created for a single request, outside of
+ * any graph) are kept apart from the permanent edges of the graph: adding or removing them only
+ * replaces the (usually empty) temporary array, using compare-and-set rather than a lock, and never
+ * copies the permanent edge list.
  */
 public abstract class Vertex implements Serializable, Cloneable {
     private static final long serialVersionUID = MavenVersion.VERSION.getUID();
@@ -64,9 +73,31 @@ public abstract class Vertex implements Serializable, Cloneable {
     
     private double distanceToNearestTransitStop = 0;
 
-    private transient Set<Edge> incoming = new CopyOnWriteArraySet<Edge>();
+    private static final Edge[] NO_EDGES = new Edge[0];
 
-    private transient Set<Edge> outgoing = new CopyOnWriteArraySet<Edge>();
+    private static final EdgeSnapshot NO_EDGE_VIEW = new EdgeSnapshot(NO_EDGES, NO_EDGES);
+
+    /*
+     * Edge lists are immutable arrays, replaced on each modification. The permanent edges are kept
+     * wrapped in a read-only view so that getOutgoing/getIncoming can hand that view out without
+     * allocating while no temporary edges are attached.
+     */
+    private transient volatile EdgeSnapshot incoming = NO_EDGE_VIEW;
+
+    private transient volatile EdgeSnapshot outgoing = NO_EDGE_VIEW;
+
+    private transient volatile Edge[] temporaryIncoming = NO_EDGES;
+
+    private transient volatile Edge[] temporaryOutgoing = NO_EDGES;
+
+    private static final AtomicReferenceFieldUpdater<Vertex, Edge[]> TEMPORARY_INCOMING =
+            AtomicReferenceFieldUpdater.newUpdater(Vertex.class, Edge[].class, "temporaryIncoming");
+
+    private static final AtomicReferenceFieldUpdater<Vertex, Edge[]> TEMPORARY_OUTGOING =
+            AtomicReferenceFieldUpdater.newUpdater(Vertex.class, Edge[].class, "temporaryOutgoing");
+
+    /* created outside of any graph for a single request; deserialized vertices are never temporary */
+    private final transient boolean temporary;
 
     
     /* PUBLIC CONSTRUCTORS */
@@ -77,6 +108,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         this.y = y;
         this.index = maxIndex  ++;
         // null graph means temporary vertex
+        this.temporary = (g == null);
         if (g != null)
             g.addVertex(this);
         this.name = new NonLocalizedString("(no name provided)");
@@ -108,61 +140,215 @@ public abstract class Vertex implements Serializable, Cloneable {
     /* FIELD ACCESSOR METHODS : READ/WRITE */
 
     public void addOutgoing(Edge ee) {
-        if (outgoing.contains(ee)) {
-            LOG.error("repeatedly added edge {} to vertex {}", ee, this);
+        if (isTemporaryEdge(ee)) {
+            if (!addTemporary(TEMPORARY_OUTGOING, ee))
+                LOG.error("repeatedly added edge {} to vertex {}", ee, this);
         } else {
-            outgoing.add(ee);
+            synchronized (this) {
+                if (indexOf(outgoing.edges, ee) >= 0 || indexOf(temporaryOutgoing, ee) >= 0) {
+                    LOG.error("repeatedly added edge {} to vertex {}", ee, this);
+                } else {
+                    outgoing = view(append(outgoing.edges, ee));
+                }
+            }
         }
     }
 
     public boolean removeOutgoing(Edge ee) {
-        if (!outgoing.contains(ee)) {
-            LOG.error("Removing edge which isn't connected to this vertex");
+        boolean removed = removeTemporary(TEMPORARY_OUTGOING, ee);
+        if (!removed) {
+            synchronized (this) {
+                Edge[] edges = outgoing.edges;
+                int i = indexOf(edges, ee);
+                if (i >= 0) {
+                    outgoing = view(without(edges, i));
+                    removed = true;
+                }
+            }
         }
-        boolean removed = outgoing.remove(ee);
-        if (outgoing.contains(ee)) {
-            LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
+        if (!removed) {
+            LOG.error("Removing edge which isn't connected to this vertex");
         }
         return removed;
     }
 
     /** Get a collection containing all the edges leading from this vertex to other vertices. */
     public Collection<Edge> getOutgoing() {
-        return outgoing;
+        return withTemporary(outgoing, temporaryOutgoing);
     }
 
     public void addIncoming(Edge ee) {
-        if (incoming.contains(ee)) {
-            LOG.error("repeatedly added edge {} to vertex {}", ee, this);
+        if (isTemporaryEdge(ee)) {
+            if (!addTemporary(TEMPORARY_INCOMING, ee))
+                LOG.error("repeatedly added edge {} to vertex {}", ee, this);
         } else {
-            incoming.add(ee);
+            synchronized (this) {
+                if (indexOf(incoming.edges, ee) >= 0 || indexOf(temporaryIncoming, ee) >= 0) {
+                    LOG.error("repeatedly added edge {} to vertex {}", ee, this);
+                } else {
+                    incoming = view(append(incoming.edges, ee));
+                }
+            }
         }
     }
 
     public boolean removeIncoming(Edge ee) {
-        if (!incoming.contains(ee)) {
-            LOG.error("Removing edge which isn't connected to this vertex");
+        boolean removed = removeTemporary(TEMPORARY_INCOMING, ee);
+        if (!removed) {
+            synchronized (this) {
+                Edge[] edges = incoming.edges;
+                int i = indexOf(edges, ee);
+                if (i >= 0) {
+                    incoming = view(without(edges, i));
+                    removed = true;
+                }
+            }
         }
-        boolean removed = incoming.remove(ee);
-        if (incoming.contains(ee)) {
-            LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
+        if (!removed) {
+            LOG.error("Removing edge which isn't connected to this vertex");
         }
         return removed;
     }
 
     /** Get a collection containing all the edges leading from other vertices to this vertex. */
     public Collection<Edge> getIncoming() {
-        return incoming;
+        return withTemporary(incoming, temporaryIncoming);
     }
 
     @XmlTransient
     public int getDegreeOut() {
-        return outgoing.size();
+        return outgoing.edges.length + temporaryOutgoing.length;
     }
 
     @XmlTransient
     public int getDegreeIn() {
-        return incoming.size();
+        return incoming.edges.length + temporaryIncoming.length;
+    }
+
+    /** @return true if this vertex was created for a single request rather than as part of a graph. */
+    public boolean isTemporary() {
+        return temporary;
+    }
+
+    private static boolean isTemporaryEdge(Edge e) {
+        Vertex from = e.getFromVertex();
+        Vertex to = e.getToVertex();
+        return (from != null && from.temporary) || (to != null && to.temporary);
+    }
+
+    /** @return false if the edge was already present */
+    private boolean addTemporary(AtomicReferenceFieldUpdater<Vertex, Edge[]> list, Edge e) {
+        while (true) {
+            Edge[] edges = list.get(this);
+            if (indexOf(edges, e) >= 0)
+                return false;
+            if (list.compareAndSet(this, edges, append(edges, e)))
+                return true;
+        }
+    }
+
+    /** @return false if the edge was not present */
+    private boolean removeTemporary(AtomicReferenceFieldUpdater<Vertex, Edge[]> list, Edge e) {
+        while (true) {
+            Edge[] edges = list.get(this);
+            int i = indexOf(edges, e);
+            if (i < 0)
+                return false;
+            if (list.compareAndSet(this, edges, without(edges, i)))
+                return true;
+        }
+    }
+
+    private static EdgeSnapshot view(Edge[] edges) {
+        return edges.length == 0 ? NO_EDGE_VIEW : new EdgeSnapshot(edges, NO_EDGES);
+    }
+
+    /** The cached view of the permanent edges, or a new one that also covers the temporary edges. */
+    private static EdgeSnapshot withTemporary(EdgeSnapshot permanent, Edge[] temporaryEdges) {
+        if (temporaryEdges.length == 0)
+            return permanent;
+        return new EdgeSnapshot(permanent.edges, temporaryEdges);
+    }
+
+    private static int indexOf(Edge[] edges, Edge e) {
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i] == e)
+                return i;
+        }
+        return -1;
+    }
+
+    private static Edge[] append(Edge[] edges, Edge e) {
+        Edge[] result = Arrays.copyOf(edges, edges.length + 1);
+        result[edges.length] = e;
+        return result;
+    }
+
+    private static Edge[] without(Edge[] edges, int i) {
+        if (edges.length == 1)
+            return NO_EDGES;
+        Edge[] result = new Edge[edges.length - 1];
+        System.arraycopy(edges, 0, result, 0, i);
+        System.arraycopy(edges, i + 1, result, i, result.length - i);
+        return result;
+    }
+
+    /**
+     * A read-only view of the permanent and temporary edge arrays of a vertex as they were when the
+     * view was created; later changes to the vertex do not affect it.
+     */
+    private static final class EdgeSnapshot extends AbstractCollection<Edge> {
+
+        private final Edge[] edges;
+
+        private final Edge[] temporaryEdges;
+
+        EdgeSnapshot(Edge[] edges, Edge[] temporaryEdges) {
+            this.edges = edges;
+            this.temporaryEdges = temporaryEdges;
+        }
+
+        @Override
+        public Iterator<Edge> iterator() {
+            return new Iterator<Edge>() {
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < edges.length + temporaryEdges.length;
+                }
+
+                @Override
+                public Edge next() {
+                    if (i < edges.length)
+                        return edges[i++];
+                    if (i < edges.length + temporaryEdges.length)
+                        return temporaryEdges[i++ - edges.length];
+                    throw new NoSuchElementException();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return edges.length + temporaryEdges.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            for (Edge e : edges)
+                if (e == o)
+                    return true;
+            for (Edge e : temporaryEdges)
+                if (e == o)
+                    return true;
+            return false;
+        }
     }
     
     // TODO: this is a candidate for no-arg message-passing style
@@ -278,8 +464,10 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-        this.incoming = new CopyOnWriteArraySet<Edge>();
-        this.outgoing = new CopyOnWriteArraySet<Edge>();
+        this.incoming = NO_EDGE_VIEW;
+        this.outgoing = NO_EDGE_VIEW;
+        this.temporaryIncoming = NO_EDGES;
+        this.temporaryOutgoing = NO_EDGES;
         index = maxIndex++;
     }
 
@@ -329,20 +517,24 @@ public abstract class Vertex implements Serializable, Cloneable {
      * they contained from this vertex's neighbors.
      */
     public void removeAllEdges() {
-        for (Edge e : outgoing) {
+        for (Edge e : getOutgoing()) {
             Vertex target = e.getToVertex();
             if (target != null) {
                 target.removeIncoming(e);
             }
         }
-        for (Edge e : incoming) {
+        for (Edge e : getIncoming()) {
             Vertex source = e.getFromVertex();
             if (source != null) {
                 source.removeOutgoing(e);
             }
         }
-        incoming = new CopyOnWriteArraySet<Edge>();
-        outgoing = new CopyOnWriteArraySet<Edge>();
+        synchronized (this) {
+            incoming = NO_EDGE_VIEW;
+            outgoing = NO_EDGE_VIEW;
+        }
+        temporaryIncoming = NO_EDGES;
+        temporaryOutgoing = NO_EDGES;
     }
 
 
@@ -0,0 +1,52 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.util.Arrays;
+
+/**
+ * Finds the position ("slot") of a vertex in an array of vertices, for precomputed tables that
+ * store one entry per vertex of that array. The tables cannot be indexed by vertex index directly,
+ * because vertex indexes are reassigned when a graph is loaded; this lookup is built from the
+ * current indexes instead, and should be kept in a transient field and rebuilt after loading.
+ * 
+ * Immutable, and thus safe to share between threads once built.
+ */
+public class VertexSlots {
+
+    private final Vertex[] vertices;
+
+    /** The slot of each vertex by vertex index, or -1 */
+    private final int[] slots;
+
+    public VertexSlots(Vertex[] vertices) {
+        this.vertices = vertices;
+        int max = 0;
+        for (Vertex v : vertices)
+            max = Math.max(max, v.getIndex() + 1);
+        slots = new int[max];
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < vertices.length; i++)
+            slots[vertices[i].getIndex()] = i;
+    }
+
+    /** @return the slot of the vertex, or -1 if it is not in the array (e.g. it is temporary) */
+    public int slot(Vertex v) {
+        int index = v.getIndex();
+        if (index >= slots.length || slots[index] < 0 || vertices[slots[index]] != v)
+            return -1;
+        return slots[index];
+    }
+
+}
@@ -0,0 +1,112 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.pathparser.BasicPathParser;
+import org.opentripplanner.routing.pathparser.NoThruTrafficPathParser;
+import org.opentripplanner.routing.pathparser.PathParser;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.PathService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * This path service answers street-only requests for a single itinerary matching one of the
+ * graph's contraction hierarchies with a bidirectional search of that hierarchy, and chains all
+ * other requests to another path service. The edges found are traversed again with the request, which gives the
+ * path its real times and weights including turn costs; when that fails, for instance because of
+ * a turn restriction, the request is also chained.
+ */
+public class ContractionPathService implements PathService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionPathService.class);
+
+    @Autowired
+    public GraphService graphService;
+
+    @Getter @Setter
+    private PathService chainedPathService;
+
+    @Override
+    public List<GraphPath> getPaths(RoutingRequest options) {
+        Graph graph = graphService.getGraph(options.getRouterId());
+        ContractionHierarchySet hierarchies = graph.getService(ContractionHierarchySet.class);
+        ContractionHierarchy hierarchy = hierarchies == null ? null
+                : hierarchies.forRequest(options);
+        // the hierarchy only knows the shortest path, so alternatives come from the chained service
+        // (which also searches for several street-only itineraries)
+        if (hierarchy == null || options.getStartingTransitTripId() != null
+                || (options.intermediatePlaces != null && !options.intermediatePlaces.isEmpty())
+                || options.numItineraries > 1) {
+            return chainedPathService.getPaths(options);
+        }
+        boolean ownContext = options.rctx == null;
+        if (ownContext) {
+            options.setRoutingContext(graph);
+            options.rctx.pathParsers = new PathParser[] { new BasicPathParser(),
+                    new NoThruTrafficPathParser() };
+        }
+        try {
+            List<Edge> edges = hierarchy.getPath(options.rctx.fromVertex, options.rctx.toVertex);
+            if (edges == null) {
+                return Collections.emptyList();
+            }
+            State state = traverse(options, edges);
+            if (state == null) {
+                LOG.debug("path from the contraction hierarchy is not traversable, chaining request");
+                return chainedPathService.getPaths(options);
+            }
+            return Collections.singletonList(new GraphPath(state, true));
+        } finally {
+            // remove the temporary edges linking the endpoints of a context created here
+            if (ownContext)
+                options.rctx.destroy();
+        }
+    }
+
+    /**
+     * Traverse the edges from the origin of the request, backward for arrive-by requests.
+     * @return the final state, or null if an edge cannot be traversed
+     */
+    private State traverse(RoutingRequest options, List<Edge> edges) {
+        State state = new State(options);
+        boolean arriveBy = options.isArriveBy();
+        ListIterator<Edge> it = edges.listIterator(arriveBy ? edges.size() : 0);
+        while (arriveBy ? it.hasPrevious() : it.hasNext()) {
+            Edge e = arriveBy ? it.previous() : it.next();
+            state = e.traverse(state);
+            if (state == null)
+                return null;
+        }
+        if (state.getVertex() != options.rctx.target || !state.allPathParsersAccept())
+            return null;
+        return state;
+    }
+
+}
@@ -39,9 +39,15 @@ import org.opentripplanner.routing.edgetype.PatternHop;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.services.FareService;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /** A set of edges on a single route, with associated information for calculating fares */
 class Ride {
     
@@ -113,6 +119,28 @@ class Ride {
         builder.append(")");
         return builder.toString();
     }
+
+    /** Rides are equal when they cost the same in any sequence, whichever path they belong to. */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Ride))
+            return false;
+        Ride other = (Ride) o;
+        return Objects.equal(route, other.route) && Objects.equal(zones, other.zones)
+                && Objects.equal(startZone, other.startZone)
+                && Objects.equal(endZone, other.endZone)
+                && startTime == other.startTime && endTime == other.endTime
+                && startDistance == other.startDistance && endDistance == other.endDistance
+                && Objects.equal(classifier, other.classifier)
+                && Objects.equal(firstStop, other.firstStop)
+                && Objects.equal(lastStop, other.lastStop);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(route, startZone, endZone, startTime, endTime, firstStop,
+                lastStop);
+    }
 }
 
 /**
@@ -130,9 +158,24 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultFareServiceImpl.class);
 
+    private static final MetricsRegistry metrics = MetricsRegistry.getRegistry();
+    private static final Histogram fareNanos = metrics.histogram("fare.calculateNanos");
+
     protected HashMap<AgencyAndId, FareRuleSet> fareRules;
 
     protected HashMap<AgencyAndId, FareAttribute> fareAttributes;
+
+    /** How many ride sequences to remember the cost of. */
+    private static final int COST_CACHE_SIZE = 10000;
+
+    /** The fare rules indexed for lookup, built on first use. */
+    private transient volatile FareRuleIndex fareRuleIndex;
+
+    /**
+     * The costs of recent ride sequences. Itineraries returned for one request tend to share
+     * rides, and so do the sub-sequences the dynamic program of getLowestCost tries.
+     */
+    private transient volatile Cache<List<Ride>, Float> costCache;
     
     // Each entry is <max time, cents at that time>; the list is sorted in
     // ascending time order
@@ -253,7 +296,9 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
                 fareAttributes.values().iterator().next().getCurrencyType());
             wrappedCurrency = new WrappedCurrency(currency);
         }
+        long start = metrics.startTime();
         float lowestCost = getLowestCost(rides);
+        fareNanos.recordElapsed(start);
         if (lowestCost != Float.POSITIVE_INFINITY) {
             int fractionDigits = 2;
             if (currency != null)
@@ -291,7 +336,36 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
         return resultTable[0][rides.size() - 1];
     }
     
+    /**
+     * @return the cost of the ride sequence as a single fare, remembered across calls since it
+     * only depends on the rides.
+     */
     protected float calculateCost(List<Ride> rides) {
+        Cache<List<Ride>, Float> costCache = this.costCache;
+        if (costCache == null) {
+            costCache = CacheBuilder.newBuilder().maximumSize(COST_CACHE_SIZE).build();
+            this.costCache = costCache;
+        }
+        // copy, as the rides may be a view of a longer list
+        List<Ride> key = new ArrayList<Ride>(rides);
+        Float cost = costCache.getIfPresent(key);
+        if (cost == null) {
+            cost = computeCost(key);
+            costCache.put(key, cost);
+        }
+        return cost;
+    }
+
+    private FareRuleIndex getFareRuleIndex() {
+        FareRuleIndex index = fareRuleIndex;
+        if (index == null) {
+            index = new FareRuleIndex(fareRules, fareAttributes);
+            fareRuleIndex = index;
+        }
+        return index;
+    }
+
+    private float computeCost(List<Ride> rides) {
         Set<String> zones = new HashSet<String>();
         Set<AgencyAndId> routes = new HashSet<AgencyAndId>();
         int transfersUsed = -1;
@@ -336,33 +410,10 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
         }
         
         // find the best fare that matches this set of rides
-        for (AgencyAndId fareId : fareAttributes.keySet()) {
-        	// fares also don't really have an agency id, they will have the per-feed default id
-            if ( ! fareId.getAgencyId().equals(feedId))
-                continue;
-            FareRuleSet ruleSet = fareRules.get(fareId);
-            if (ruleSet == null || ruleSet.matches(startZone, endZone, zones, routes)) {
-                FareAttribute attribute = fareAttributes.get(fareId);
-                if (attribute.isTransfersSet() && attribute.getTransfers() < transfersUsed) {
-                    continue;
-                }
-                // assume transfers are evaluated at boarding time,
-                // as trimet does
-                if (attribute.isTransferDurationSet() && 
-                    tripTime > attribute.getTransferDuration()) {
-                    continue;
-                }
-                if (attribute.isJourneyDurationSet() && 
-                    journeyTime > attribute.getJourneyDuration()) {
-                    continue;
-                }
-                float newFare = attribute.getPrice();
-                if (newFare < bestFare) {
-                    bestAttribute = attribute;
-                    bestFare = newFare;
-                }
-            }
-        }
+        bestAttribute = getFareRuleIndex().getBestFare(feedId, startZone, endZone, zones, routes,
+                transfersUsed, tripTime, journeyTime);
+        if (bestAttribute != null)
+            bestFare = bestAttribute.getPrice();
         LOG.debug("{} best for {}", bestAttribute, rides);
         if (bestFare == Float.POSITIVE_INFINITY) {
             if (fareAttributes.isEmpty())
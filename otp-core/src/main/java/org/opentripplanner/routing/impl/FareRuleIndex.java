@@ -0,0 +1,178 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.opentripplanner.common.model.P2;
+import org.opentripplanner.routing.core.FareRuleSet;
+
+/**
+ * The fare rules of each feed indexed by route, origin-destination pair and set of contained
+ * zones, with the fares of a feed numbered in order of increasing price. The fares whose rules
+ * match a ride sequence are found by intersecting a few bitsets rather than by testing every
+ * FareRuleSet, and the cheapest applicable fare is the first one passing the transfer and
+ * duration checks.
+ */
+class FareRuleIndex {
+
+    private final Map<String, FeedIndex> feeds = new HashMap<String, FeedIndex>();
+
+    FareRuleIndex(Map<AgencyAndId, FareRuleSet> fareRules,
+            Map<AgencyAndId, FareAttribute> fareAttributes) {
+        // fares also don't really have an agency id, they have the per-feed default id
+        Map<String, List<AgencyAndId>> fareIdsByFeed = new HashMap<String, List<AgencyAndId>>();
+        for (AgencyAndId fareId : fareAttributes.keySet()) {
+            List<AgencyAndId> fareIds = fareIdsByFeed.get(fareId.getAgencyId());
+            if (fareIds == null) {
+                fareIds = new ArrayList<AgencyAndId>();
+                fareIdsByFeed.put(fareId.getAgencyId(), fareIds);
+            }
+            fareIds.add(fareId);
+        }
+        for (Map.Entry<String, List<AgencyAndId>> entry : fareIdsByFeed.entrySet()) {
+            feeds.put(entry.getKey(), new FeedIndex(entry.getValue(), fareRules, fareAttributes));
+        }
+    }
+
+    /**
+     * @return the cheapest fare of the feed whose rules match the ride sequence, or null if there
+     * is none. Ties go to the fare coming first in the fare attributes map.
+     */
+    FareAttribute getBestFare(String feedId, String startZone, String endZone,
+            Set<String> zones, Set<AgencyAndId> routes, int transfersUsed, long tripTime,
+            long journeyTime) {
+        FeedIndex feed = feeds.get(feedId);
+        if (feed == null)
+            return null;
+        BitSet candidates = feed.candidates(startZone, endZone, zones, routes);
+        for (int f = candidates.nextSetBit(0); f >= 0; f = candidates.nextSetBit(f + 1)) {
+            FareAttribute attribute = feed.attributes[f];
+            if (attribute.isTransfersSet() && attribute.getTransfers() < transfersUsed) {
+                continue;
+            }
+            // assume transfers are evaluated at boarding time,
+            // as trimet does
+            if (attribute.isTransferDurationSet() &&
+                tripTime > attribute.getTransferDuration()) {
+                continue;
+            }
+            if (attribute.isJourneyDurationSet() &&
+                journeyTime > attribute.getJourneyDuration()) {
+                continue;
+            }
+            return attribute;
+        }
+        return null;
+    }
+
+    /** The fares of one feed. Bit f of each set stands for attributes[f]. */
+    private static class FeedIndex {
+
+        final FareAttribute[] attributes;
+
+        /** Fares without origin-destination, containment or route restrictions. */
+        final BitSet anyOriginDestination = new BitSet();
+
+        final BitSet anyContains = new BitSet();
+
+        final BitSet anyRoute = new BitSet();
+
+        final Map<P2<String>, BitSet> byOriginDestination = new HashMap<P2<String>, BitSet>();
+
+        final Map<Set<String>, BitSet> byContains = new HashMap<Set<String>, BitSet>();
+
+        final Map<AgencyAndId, BitSet> byRoute = new HashMap<AgencyAndId, BitSet>();
+
+        FeedIndex(List<AgencyAndId> fareIds, Map<AgencyAndId, FareRuleSet> fareRules,
+                final Map<AgencyAndId, FareAttribute> fareAttributes) {
+            // a stable sort, so that ties keep the order in which fares used to be tried
+            Collections.sort(fareIds, new Comparator<AgencyAndId>() {
+                @Override
+                public int compare(AgencyAndId a, AgencyAndId b) {
+                    return Float.compare(fareAttributes.get(a).getPrice(),
+                            fareAttributes.get(b).getPrice());
+                }
+            });
+            attributes = new FareAttribute[fareIds.size()];
+            for (int f = 0; f < attributes.length; f++) {
+                attributes[f] = fareAttributes.get(fareIds.get(f));
+                FareRuleSet ruleSet = fareRules.get(fareIds.get(f));
+                if (ruleSet == null || ruleSet.getOriginDestinations().isEmpty()) {
+                    anyOriginDestination.set(f);
+                } else {
+                    for (P2<String> od : ruleSet.getOriginDestinations())
+                        set(byOriginDestination, od, f);
+                }
+                if (ruleSet == null || ruleSet.getContains().isEmpty()) {
+                    anyContains.set(f);
+                } else {
+                    set(byContains, ruleSet.getContains(), f);
+                }
+                if (ruleSet == null || ruleSet.getRoutes().isEmpty()) {
+                    anyRoute.set(f);
+                } else {
+                    for (AgencyAndId route : ruleSet.getRoutes())
+                        set(byRoute, route, f);
+                }
+            }
+        }
+
+        private static <K> void set(Map<K, BitSet> index, K key, int f) {
+            BitSet fares = index.get(key);
+            if (fares == null) {
+                fares = new BitSet();
+                index.put(key, fares);
+            }
+            fares.set(f);
+        }
+
+        /** The same conditions as FareRuleSet.matches, for all the fares at once. */
+        BitSet candidates(String startZone, String endZone, Set<String> zones,
+                Set<AgencyAndId> routes) {
+            BitSet ret = (BitSet) anyOriginDestination.clone();
+            or(ret, byOriginDestination.get(new P2<String>(startZone, endZone)));
+            or(ret, byOriginDestination.get(new P2<String>(startZone, null)));
+            or(ret, byOriginDestination.get(new P2<String>(null, startZone)));
+
+            BitSet contains = (BitSet) anyContains.clone();
+            or(contains, byContains.get(zones));
+            ret.and(contains);
+
+            for (AgencyAndId route : routes) {
+                if (ret.isEmpty())
+                    break;
+                BitSet allowed = (BitSet) anyRoute.clone();
+                or(allowed, byRoute.get(route));
+                ret.and(allowed);
+            }
+            return ret;
+        }
+
+        private static void or(BitSet set, BitSet other) {
+            if (other != null)
+                set.or(other);
+        }
+    }
+
+}
@@ -13,6 +13,7 @@
 
 package org.opentripplanner.routing.impl;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -33,6 +34,7 @@ import lombok.Setter;
 import org.geotools.referencing.factory.DeferredAuthorityFactory;
 import org.geotools.util.WeakCollectionCleaner;
 import org.opentripplanner.routing.error.GraphNotFoundException;
+import org.opentripplanner.routing.graph.CompactGraphFile;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.services.GraphService;
@@ -147,6 +149,7 @@ public class GraphServiceFileImpl implements GraphService {
 
         LOG.debug("graph file for routerId '{}' is at {}", routerId, graphFileName);
         InputStream is = null;
+        File graphFile = null;
         final String CLASSPATH_PREFIX = "classpath:/";
         if (graphFileName.startsWith(CLASSPATH_PREFIX)) {
             // look for graph on classpath
@@ -156,7 +159,7 @@ public class GraphServiceFileImpl implements GraphService {
         } else {
             // look for graph in filesystem
             try {
-                File graphFile = new File(graphFileName);
+                graphFile = new File(graphFileName);
                 is = new FileInputStream(graphFile);
             } catch (IOException ex) {
                 is = null;
@@ -172,7 +175,16 @@ public class GraphServiceFileImpl implements GraphService {
         LOG.info("Loading graph...");
         Graph graph = null;
         try {
-            graph = Graph.load(new ObjectInputStream(is), loadLevel, indexFactory);
+            // detect the compact format (memory-mapped geometries), otherwise use plain serialization
+            is = new BufferedInputStream(is);
+            if (!CompactGraphFile.isCompactGraphStream(is)) {
+                graph = Graph.load(new ObjectInputStream(is), loadLevel, indexFactory);
+            } else if (graphFile != null) {
+                is.close();
+                graph = CompactGraphFile.load(graphFile, loadLevel, indexFactory);
+            } else {
+                graph = CompactGraphFile.load(is, loadLevel, indexFactory);
+            }
         } catch (Exception ex) {
             LOG.error("Exception while loading graph from {}.", graphFileName);
             ex.printStackTrace();
@@ -0,0 +1,30 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.opentripplanner.routing.services.StreetVertexIndexService;
+
+/**
+ * Indexes graphs with a {@link GridStreetVertexIndexServiceImpl}.
+ */
+public class GridStreetVertexIndexFactory implements StreetVertexIndexFactory {
+
+    @Override
+    public StreetVertexIndexService newIndex(Graph g) {
+        return new GridStreetVertexIndexServiceImpl(g);
+    }
+
+}
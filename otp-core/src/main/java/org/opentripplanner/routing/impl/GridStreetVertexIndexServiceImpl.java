@@ -0,0 +1,481 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import static org.opentripplanner.common.IterableLibrary.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A StreetVertexIndexService answering its spatial queries from flat hash grids instead of JTS
+ * trees. The grids, and a table of all street edge segments, are built once in setup() and are
+ * read-only afterwards.
+ *
+ * Each indexed item (edge envelope, intersection or transit stop) is listed in the grid cells it
+ * covers. Cells are hashed into a fixed number of buckets stored as a single array of item indexes,
+ * so a query reads a few contiguous runs of ints. Edges are then filtered with the same planar
+ * distance as {@link CandidateEdge}, computed on the segment table, so getClosestEdges only builds
+ * CandidateEdges for the edges that are actually within the search radius.
+ *
+ * Results are the same as those of {@link StreetVertexIndexServiceImpl}, though possibly in a
+ * different order.
+ */
+public class GridStreetVertexIndexServiceImpl extends StreetVertexIndexServiceImpl {
+
+    /** Width and height of a grid cell in degrees, about the growth step of getClosestEdges. */
+    public static final double CELL_SIZE = 0.001;
+
+    /** Edges covering more cells than this are kept in a list scanned by every query. */
+    private static final int MAX_EDGE_CELLS = 256;
+
+    /* These are set in setup(), which runs from the superclass constructor: no initializers. */
+
+    private StreetEdge[] edges;
+
+    /** minX, minY, maxX, maxY of each edge */
+    private double[] edgeEnvelopes;
+
+    /** index of the first segment of each edge in the segment table, plus an end index */
+    private int[] edgeSegments;
+
+    /** x0, y0, x1, y1 of each segment of each edge */
+    private double[] segments;
+
+    private HashGrid edgeGrid;
+
+    /** edges too large to be listed in the grid */
+    private int[] largeEdges;
+
+    private Vertex[] intersections;
+
+    private HashGrid intersectionGrid;
+
+    private TransitStop[] stops;
+
+    private HashGrid stopGrid;
+
+    public GridStreetVertexIndexServiceImpl(Graph graph) {
+        super(graph);
+    }
+
+    public GridStreetVertexIndexServiceImpl(Graph graph, DistanceLibrary distanceLibrary) {
+        super(graph, distanceLibrary);
+    }
+
+    /**
+     * The grids cannot be updated in place, so they are rebuilt from the current graph, as the
+     * superclass rebuilds its trees.
+     */
+    @Override
+    public void setup_modifiable() {
+        setup();
+    }
+
+    @Override
+    public void setup() {
+        List<StreetEdge> edgeList = new ArrayList<StreetEdge>();
+        List<Vertex> intersectionList = new ArrayList<Vertex>();
+        List<TransitStop> stopList = new ArrayList<TransitStop>();
+        int nSegments = 0;
+        for (Vertex v : graph.getVertices()) {
+            for (StreetEdge e : filter(v.getOutgoing(), StreetEdge.class)) {
+                if (e.getGeometry() == null)
+                    continue;
+                edgeList.add(e);
+                nSegments += e.getGeometry().getNumPoints() - 1;
+            }
+            if (v instanceof TransitStop) {
+                // same rule as the superclass: entrances, or stops without entrances
+                TransitStop ts = (TransitStop) v;
+                if (ts.isEntrance() || !ts.hasEntrances())
+                    stopList.add(ts);
+            }
+            if (v instanceof IntersectionVertex)
+                intersectionList.add(v);
+        }
+
+        edges = edgeList.toArray(new StreetEdge[edgeList.size()]);
+        edgeEnvelopes = new double[edges.length * 4];
+        edgeSegments = new int[edges.length + 1];
+        segments = new double[nSegments * 4];
+        HashGrid.Builder edgeGridBuilder = new HashGrid.Builder(edges.length);
+        IntList large = new IntList();
+        int s = 0;
+        for (int i = 0; i < edges.length; i++) {
+            Envelope env = edges[i].getGeometry().getEnvelopeInternal();
+            edgeEnvelopes[i * 4] = env.getMinX();
+            edgeEnvelopes[i * 4 + 1] = env.getMinY();
+            edgeEnvelopes[i * 4 + 2] = env.getMaxX();
+            edgeEnvelopes[i * 4 + 3] = env.getMaxY();
+            edgeSegments[i] = s;
+            CoordinateSequence coords = edges[i].getGeometry().getCoordinateSequence();
+            for (int j = 0; j < coords.size() - 1; j++, s++) {
+                segments[s * 4] = coords.getX(j);
+                segments[s * 4 + 1] = coords.getY(j);
+                segments[s * 4 + 2] = coords.getX(j + 1);
+                segments[s * 4 + 3] = coords.getY(j + 1);
+            }
+            if (cellCount(env) > MAX_EDGE_CELLS)
+                large.add(i);
+            else
+                edgeGridBuilder.add(env, i);
+        }
+        edgeSegments[edges.length] = s;
+        edgeGrid = edgeGridBuilder.build();
+        largeEdges = large.toArray();
+
+        intersections = intersectionList.toArray(new Vertex[intersectionList.size()]);
+        intersectionGrid = pointGrid(intersections);
+        stops = stopList.toArray(new TransitStop[stopList.size()]);
+        stopGrid = pointGrid(stops);
+
+        LOG.info("Grid index: {} edges ({} segments, {} outside the grid), {} intersections, "
+                + "{} transit stops", edges.length, nSegments, largeEdges.length,
+                intersections.length, stops.length);
+    }
+
+    private static HashGrid pointGrid(Vertex[] vertices) {
+        HashGrid.Builder builder = new HashGrid.Builder(vertices.length);
+        for (int i = 0; i < vertices.length; i++)
+            builder.add(new Envelope(vertices[i].getCoordinate()), i);
+        return builder.build();
+    }
+
+    @Override
+    protected Iterable<StreetEdge> getCandidateEdges(Envelope envelope, Coordinate coordinate,
+            double radius) {
+        final List<StreetEdge> result = new ArrayList<StreetEdge>();
+        final double px = coordinate.x;
+        final double py = coordinate.y;
+        final double xscale = Math.cos(py * Math.PI / 180);
+        final double radius2 = radius * radius;
+        final Envelope queryEnvelope = envelope;
+        final IntSet seen = new IntSet();
+        IntVisitor visitor = new IntVisitor() {
+            @Override
+            public void visit(int e) {
+                if (!seen.add(e) || !intersects(e, queryEnvelope))
+                    return;
+                for (int s = edgeSegments[e]; s < edgeSegments[e + 1]; s++) {
+                    if (distance2(s, px, py, xscale) < radius2) {
+                        result.add(edges[e]);
+                        return;
+                    }
+                }
+            }
+        };
+        edgeGrid.query(envelope, visitor);
+        for (int e : largeEdges)
+            visitor.visit(e);
+        return result;
+    }
+
+    @Override
+    public Collection<StreetEdge> getEdgesForEnvelope(final Envelope envelope) {
+        final List<StreetEdge> result = new ArrayList<StreetEdge>();
+        final IntSet seen = new IntSet();
+        IntVisitor visitor = new IntVisitor() {
+            @Override
+            public void visit(int e) {
+                if (seen.add(e) && intersects(e, envelope))
+                    result.add(edges[e]);
+            }
+        };
+        edgeGrid.query(envelope, visitor);
+        for (int e : largeEdges)
+            visitor.visit(e);
+        return result;
+    }
+
+    @Override
+    public Collection<Vertex> getVerticesForEnvelope(Envelope envelope) {
+        return pointsInEnvelope(intersections, intersectionGrid, envelope);
+    }
+
+    @Override
+    public StreetVertex getIntersectionAt(Coordinate coordinate, double distanceError) {
+        Envelope envelope = new Envelope(coordinate);
+        envelope.expandBy(distanceError * 2);
+        StreetVertex nearest = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (Vertex v : pointsInEnvelope(intersections, intersectionGrid, envelope)) {
+            double distance = coordinate.distance(v.getCoordinate());
+            if (distance < distanceError && distance < bestDistance) {
+                bestDistance = distance;
+                nearest = (StreetVertex) v;
+            }
+        }
+        return nearest;
+    }
+
+    @Override
+    public List<Vertex> getLocalTransitStops(Coordinate c, double distance) {
+        List<Vertex> results = new ArrayList<Vertex>();
+        for (TransitStop stop : getNearbyTransitStops(c, distance, true))
+            results.add(stop);
+        return results;
+    }
+
+    @Override
+    public List<TransitStop> getNearbyTransitStops(Coordinate coordinate, double radius) {
+        return getNearbyTransitStops(coordinate, radius, false);
+    }
+
+    private List<TransitStop> getNearbyTransitStops(Coordinate coordinate, double radius,
+            boolean inclusive) {
+        Envelope envelope = new Envelope(coordinate);
+        envelope.expandBy(SphericalDistanceLibrary.metersToDegrees(radius));
+        List<TransitStop> out = pointsInEnvelope(stops, stopGrid, envelope);
+        int n = 0;
+        for (TransitStop stop : out) {
+            double d = distanceLibrary.distance(stop.getCoordinate(), coordinate);
+            if (d < radius || (inclusive && d == radius))
+                out.set(n++, stop);
+        }
+        return out.subList(0, n);
+    }
+
+    @Override
+    public List<TransitStop> getNearbyTransitStops(Coordinate coordinateOne,
+            Coordinate coordinateTwo) {
+        return pointsInEnvelope(stops, stopGrid, new Envelope(coordinateOne, coordinateTwo));
+    }
+
+    /** @return the points of the given array, indexed in the given grid, inside the envelope */
+    private static <T extends Vertex> List<T> pointsInEnvelope(final T[] points, HashGrid grid,
+            final Envelope envelope) {
+        final List<T> result = new ArrayList<T>();
+        // a point is listed in a single cell, so it is visited at most once
+        grid.query(envelope, new IntVisitor() {
+            @Override
+            public void visit(int i) {
+                if (envelope.contains(points[i].getCoordinate()))
+                    result.add(points[i]);
+            }
+        });
+        return result;
+    }
+
+    private boolean intersects(int e, Envelope env) {
+        return !(edgeEnvelopes[e * 4] > env.getMaxX() || edgeEnvelopes[e * 4 + 2] < env.getMinX()
+                || edgeEnvelopes[e * 4 + 1] > env.getMaxY() || edgeEnvelopes[e * 4 + 3] < env
+                .getMinY());
+    }
+
+    /** Squared planar distance from a point to a segment, with x scaled as in CandidateEdge. */
+    private double distance2(int s, double px, double py, double xscale) {
+        double x0 = segments[s * 4];
+        double y0 = segments[s * 4 + 1];
+        double x1 = segments[s * 4 + 2];
+        double y1 = segments[s * 4 + 3];
+        double frac = GeometryUtils.segmentFraction(x0, y0, x1, y1, px, py, xscale);
+        double dx = (x0 + frac * (x1 - x0) - px) * xscale;
+        double dy = y0 + frac * (y1 - y0) - py;
+        return dx * dx + dy * dy;
+    }
+
+    private static int cell(double ordinate) {
+        return (int) Math.floor(ordinate / CELL_SIZE);
+    }
+
+    private static long cellCount(Envelope env) {
+        return (cell(env.getMaxX()) - cell(env.getMinX()) + 1L)
+                * (cell(env.getMaxY()) - cell(env.getMinY()) + 1L);
+    }
+
+    private static interface IntVisitor {
+        void visit(int i);
+    }
+
+    /**
+     * Grid cells hashed into a power-of-two number of buckets. The items of bucket b are
+     * entries[bucketStart[b]] to entries[bucketStart[b + 1] - 1]. Items of different cells may share
+     * a bucket. A query visits each bucket once, but an item covering several cells may be visited
+     * several times.
+     */
+    private static class HashGrid {
+
+        final int mask;
+
+        final int[] bucketStart;
+
+        final int[] entries;
+
+        HashGrid(int mask, int[] bucketStart, int[] entries) {
+            this.mask = mask;
+            this.bucketStart = bucketStart;
+            this.entries = entries;
+        }
+
+        static int bucket(int cx, int cy, int mask) {
+            int h = cx * 0x9E3779B1 + cy * 0x85EBCA6B;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        void query(Envelope envelope, IntVisitor visitor) {
+            int cx0 = cell(envelope.getMinX());
+            int cx1 = cell(envelope.getMaxX());
+            int cy0 = cell(envelope.getMinY());
+            int cy1 = cell(envelope.getMaxY());
+            if ((cx1 - cx0 + 1L) * (cy1 - cy0 + 1L) > mask + 1) {
+                // more cells than buckets: cheaper to scan everything once
+                for (int i = 0; i < entries.length; i++)
+                    visitor.visit(entries[i]);
+                return;
+            }
+            int[] buckets = new int[(cx1 - cx0 + 1) * (cy1 - cy0 + 1)];
+            int n = 0;
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int cy = cy0; cy <= cy1; cy++)
+                    buckets[n++] = bucket(cx, cy, mask);
+            }
+            Arrays.sort(buckets);
+            for (int j = 0; j < n; j++) {
+                int b = buckets[j];
+                if (j > 0 && b == buckets[j - 1])
+                    continue;
+                for (int i = bucketStart[b]; i < bucketStart[b + 1]; i++)
+                    visitor.visit(entries[i]);
+            }
+        }
+
+        static class Builder {
+
+            final int mask;
+
+            final IntList buckets = new IntList();
+
+            final IntList items = new IntList();
+
+            Builder(int expectedItems) {
+                int n = Integer.highestOneBit(Math.max(expectedItems, 16) - 1) << 1;
+                mask = Math.min(n, 1 << 24) - 1;
+            }
+
+            void add(Envelope env, int item) {
+                for (int cx = cell(env.getMinX()); cx <= cell(env.getMaxX()); cx++) {
+                    for (int cy = cell(env.getMinY()); cy <= cell(env.getMaxY()); cy++) {
+                        buckets.add(bucket(cx, cy, mask));
+                        items.add(item);
+                    }
+                }
+            }
+
+            /** Counting sort of the items by bucket. */
+            HashGrid build() {
+                int[] bucketStart = new int[mask + 2];
+                for (int i = 0; i < buckets.size; i++)
+                    bucketStart[buckets.values[i] + 1]++;
+                for (int b = 0; b <= mask; b++)
+                    bucketStart[b + 1] += bucketStart[b];
+                int[] fill = Arrays.copyOf(bucketStart, mask + 1);
+                int[] entries = new int[items.size];
+                for (int i = 0; i < items.size; i++)
+                    entries[fill[buckets.values[i]]++] = items.values[i];
+                return new HashGrid(mask, bucketStart, entries);
+            }
+        }
+    }
+
+    private static class IntList {
+
+        int[] values = new int[16];
+
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * The edges already seen by one query, so that each is reported once. An open-addressing set
+     * of non-negative ints, sized by the number of edges the query actually visits rather than by
+     * the graph.
+     */
+    private static class IntSet {
+
+        private static final int FREE = -1;
+
+        int[] keys = newTable(32);
+
+        int size = 0;
+
+        private static int[] newTable(int capacity) {
+            int[] table = new int[capacity];
+            Arrays.fill(table, FREE);
+            return table;
+        }
+
+        private static int slot(int value, int mask) {
+            int h = value * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        /** @return true if the value was not in the set yet */
+        boolean add(int value) {
+            int mask = keys.length - 1;
+            int i = slot(value, mask);
+            for (;; i = (i + 1) & mask) {
+                int k = keys[i];
+                if (k == value)
+                    return false;
+                if (k == FREE)
+                    break;
+            }
+            keys[i] = value;
+            if (++size * 2 > keys.length)
+                rehash();
+            return true;
+        }
+
+        private void rehash() {
+            int[] old = keys;
+            keys = newTable(old.length * 2);
+            int mask = keys.length - 1;
+            for (int k : old) {
+                if (k == FREE)
+                    continue;
+                int i = slot(k, mask);
+                while (keys[i] != FREE)
+                    i = (i + 1) & mask;
+                keys[i] = k;
+            }
+        }
+    }
+
+}
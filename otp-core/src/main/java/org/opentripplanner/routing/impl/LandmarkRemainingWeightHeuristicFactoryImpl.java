@@ -0,0 +1,33 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.services.RemainingWeightHeuristicFactory;
+
+/**
+ * Returns a landmark heuristic for every search. It behaves as the Euclidean heuristic for
+ * transit searches and on graphs built without landmark tables.
+ */
+public class LandmarkRemainingWeightHeuristicFactoryImpl 
+    implements RemainingWeightHeuristicFactory {
+
+    @Override
+    public RemainingWeightHeuristic getInstanceForSearch(RoutingRequest opt) {
+        return new LandmarkRemainingWeightHeuristic();
+    }
+
+}
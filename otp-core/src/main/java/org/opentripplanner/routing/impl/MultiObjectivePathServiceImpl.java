@@ -267,9 +267,12 @@ public class MultiObjectivePathServiceImpl implements PathService {
         return paths;
     }
 
+    /**
+     * Record the heap in use, including garbage not yet collected. Collecting it first would stall
+     * the request for the duration of a full GC.
+     */
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
-            System.gc();
             long memoryUsed = Runtime.getRuntime().totalMemory() -
                     Runtime.getRuntime().freeMemory();
             store.setLongMax("memoryUsed", memoryUsed);
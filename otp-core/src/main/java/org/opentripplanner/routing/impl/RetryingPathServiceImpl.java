@@ -18,6 +18,14 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -33,6 +41,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class RetryingPathServiceImpl implements PathService {
 
     private static final Logger LOG = LoggerFactory.getLogger(RetryingPathServiceImpl.class);
@@ -49,6 +59,11 @@ public class RetryingPathServiceImpl implements PathService {
 
     private double firstPathTimeout = 0; // seconds
     private double multiPathTimeout = 0; // seconds
+
+    private static final long DEADLINE_GRACE_MSEC = 100;
+
+    /** Runs the alternative itinerary searches, null when they are searched one after another. */
+    private volatile ExecutorService executor;
     
     /** Give up on searching for itineraries after this many seconds have elapsed. */
     public void setTimeout (double seconds) {
@@ -76,11 +91,31 @@ public class RetryingPathServiceImpl implements PathService {
         multiPathTimeout = seconds;
     }
 
+    /**
+     * Search for the alternative itineraries (beyond the first one) on this many threads at once.
+     * Values of 1 or less, the default, search for them one after another.
+     */
+    public synchronized void setParallelism (int parallelism) {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (parallelism > 1) {
+            // The queue is bounded so that a burst of requests cannot pile up unbounded work;
+            // when it is full the requesting thread runs the search itself.
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(parallelism * 4),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("retrying-path-service-%d").build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+    }
+
     @Override
     public List<GraphPath> getPaths(RoutingRequest options) {
 
-        ArrayList<GraphPath> paths = new ArrayList<GraphPath>();
-
         // make sure the options has a routing context *before* cloning it (otherwise you get
         // orphan RoutingContexts leaving temporary edges in the graph until GC)
         if (options.rctx == null) {
@@ -89,6 +124,13 @@ public class RetryingPathServiceImpl implements PathService {
                     new NoThruTrafficPathParser() };
         }
 
+        ExecutorService executor = this.executor;
+        if (executor != null) {
+            return getPathsConcurrently(options, executor);
+        }
+
+        ArrayList<GraphPath> paths = new ArrayList<GraphPath>();
+
         long searchBeginTime = System.currentTimeMillis();
         
         // The list of options specifying various modes, banned routes, etc to try for multiple
@@ -199,6 +241,155 @@ public class RetryingPathServiceImpl implements PathService {
         return paths;
     }
 
+    /**
+     * Find the first itinerary as in the sequential search, then search for the alternatives in
+     * waves: every new transit itinerary yields a variant of the request with its trips banned, and
+     * all variants of a wave run concurrently on the executor. The alternatives share one deadline,
+     * multiPathTimeout after the beginning of the search, and are bounded in weight and time by the
+     * first itinerary, so that hopeless variants give up early rather than hold up the response.
+     */
+    private List<GraphPath> getPathsConcurrently(RoutingRequest options, ExecutorService executor) {
+
+        ArrayList<GraphPath> paths = new ArrayList<GraphPath>();
+        long searchBeginTime = System.currentTimeMillis();
+
+        /* Find the first itinerary, relaxing the walk limit if there is none. */
+        double maxWalk = options.getMaxWalkDistance();
+        double initialMaxWalk = maxWalk;
+        List<GraphPath> firstPaths;
+        while (true) {
+            options.setMaxWalkDistance(maxWalk);
+            ShortestPathTree spt = sptService.getShortestPathTree(options, firstPathTimeout);
+            if (spt == null) {
+                LOG.warn("Aborting search, no paths found.");
+                return null;
+            }
+            firstPaths = spt.getPaths();
+            if (!firstPaths.isEmpty() || options.rctx.aborted)
+                break;
+            if (maxWalk > initialMaxWalk * MAX_WALK_MULTIPLE || maxWalk >= Double.MAX_VALUE)
+                break;
+            maxWalk *= 2;
+            LOG.debug("No paths were found, doubled walk distance to {}", maxWalk);
+        }
+        if (firstPaths.isEmpty()) {
+            return null;
+        }
+        LOG.debug("END FIRST SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+
+        /* The worst trip we are willing to accept is at most twice as bad or twice as long. */
+        GraphPath firstPath = firstPaths.get(0);
+        long duration = firstPath.getDuration();
+        long maxTime = firstPath.getStartTime()
+                + MAX_TIME_FACTOR * (options.isArriveBy() ? -duration : duration);
+        double maxWeight = firstPath.getWeight() * MAX_WEIGHT_FACTOR;
+        LOG.debug("Max time set to {}, max weight set to {}", maxTime, maxWeight);
+
+        long deadline = multiPathTimeout > 0 ? searchBeginTime + (long) (multiPathTimeout * 1000)
+                : Long.MAX_VALUE;
+        List<RoutingRequest> tried = new ArrayList<RoutingRequest>();
+        List<RoutingRequest> wave = new ArrayList<RoutingRequest>();
+        tried.add(options);
+        maxWalk = accumulatePaths(paths, firstPaths, options, maxWalk, tried, wave);
+
+        while (paths.size() < options.numItineraries && !wave.isEmpty() && !options.rctx.aborted) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                LOG.debug("Deadline reached with {} paths.", paths.size());
+                break;
+            }
+            final double timeout = deadline == Long.MAX_VALUE ? 0 : remaining / 1000.0;
+            List<Future<ShortestPathTree>> futures = new ArrayList<Future<ShortestPathTree>>();
+            for (RoutingRequest variant : wave) {
+                final RoutingRequest currOptions = variant;
+                currOptions.setMaxWalkDistance(maxWalk);
+                currOptions.maxWeight = maxWeight;
+                currOptions.worstTime = maxTime;
+                currOptions.rctx = options.rctx.copyForConcurrentSearch(currOptions);
+                futures.add(executor.submit(new Callable<ShortestPathTree>() {
+                    @Override
+                    public ShortestPathTree call() {
+                        return sptService.getShortestPathTree(currOptions, timeout);
+                    }
+                }));
+            }
+            LOG.debug("BEGIN WAVE of {} subsearches", wave.size());
+
+            /* Collect results in submission order, so the outcome does not depend on timing. */
+            List<RoutingRequest> searched = wave;
+            wave = new ArrayList<RoutingRequest>();
+            for (int i = 0; i < futures.size(); i++) {
+                RoutingRequest currOptions = searched.get(i);
+                ShortestPathTree spt = getBeforeDeadline(futures.get(i), deadline);
+                if (currOptions.rctx.aborted || spt == null) {
+                    // timed out or failed: keep the paths of the other subsearches, but stop retrying
+                    options.rctx.aborted = true;
+                }
+                if (spt == null)
+                    continue;
+                maxWalk = accumulatePaths(paths, spt.getPaths(), currOptions, maxWalk, tried, wave);
+            }
+            LOG.debug("END WAVE ({} msec total), {} / {} itineraries",
+                    System.currentTimeMillis() - searchBeginTime, paths.size(),
+                    options.numItineraries);
+        }
+        // We order the list of returned paths by the time of arrival or departure (not path duration)
+        Collections.sort(paths, new PathComparator(options.isArriveBy()));
+        return paths;
+    }
+
+    /**
+     * Add the paths not already present to the results, and queue a variant of the request with
+     * the trips of each new transit path banned.
+     * 
+     * @return the walk distance limit for subsequent searches
+     */
+    private double accumulatePaths(List<GraphPath> paths, List<GraphPath> newPaths,
+            RoutingRequest currOptions, double maxWalk, List<RoutingRequest> tried,
+            List<RoutingRequest> wave) {
+        for (GraphPath path : newPaths) {
+            if (paths.contains(path))
+                continue;
+            if (path.getWalkDistance() > maxWalk) {
+                maxWalk = path.getWalkDistance() * 1.25;
+            }
+            paths.add(path);
+            LOG.debug("New trips: {}", path.getTrips());
+            // a non-transit trip would only cause a useless retry
+            if (path.getTrips().isEmpty())
+                continue;
+            RoutingRequest newOptions = currOptions.clone();
+            for (AgencyAndId trip : path.getTrips()) {
+                newOptions.banTrip(trip);
+            }
+            if (!tried.contains(newOptions)) {
+                tried.add(newOptions);
+                wave.add(newOptions);
+            }
+        }
+        return maxWalk;
+    }
+
+    /** @return the result of the search, or null if it failed or did not finish in time. */
+    private ShortestPathTree getBeforeDeadline(Future<ShortestPathTree> future, long deadline) {
+        try {
+            if (deadline == Long.MAX_VALUE)
+                return future.get();
+            // searches check the deadline themselves, allow them a little time to wind down
+            long wait = Math.max(deadline - System.currentTimeMillis(), 0) + DEADLINE_GRACE_MSEC;
+            return future.get(wait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Subsearch did not stop at the deadline, cancelling it.");
+            future.cancel(true);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.warn("Subsearch failed: {}", e.getCause().toString());
+        }
+        return null;
+    }
+
     public GraphService getGraphService() {
         return graphService;
     }
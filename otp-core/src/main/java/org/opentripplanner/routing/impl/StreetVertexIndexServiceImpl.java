@@ -56,6 +56,9 @@ import org.opentripplanner.util.I18NString;
 import org.opentripplanner.util.LocalizedString;
 import org.opentripplanner.util.NonLocalizedString;
 import org.opentripplanner.util.ResourceBundleSingleton;
+import org.opentripplanner.util.monitoring.Counter;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 
 /**
  * Indexes all edges and transit vertices of the graph spatially. Has a variety of query methods used during network linking and trip planning.
@@ -99,6 +102,11 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
 
     static final Logger LOG = LoggerFactory.getLogger(StreetVertexIndexServiceImpl.class);
 
+    private static final MetricsRegistry metrics = MetricsRegistry.getRegistry();
+    private static final Histogram linkNanos = metrics.histogram("streets.linkNanos");
+    private static final Counter links = metrics.counter("streets.links");
+    private static final Counter linkFailures = metrics.counter("streets.linkFailures");
+
     public StreetVertexIndexServiceImpl(Graph graph) {
         this.graph = graph;
         setup();
@@ -152,6 +160,8 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
             }
         }
         transitStopTree.build();
+        // build now rather than on the first query, so that queries never modify the index
+        intersectionTree.build();
     }
 
     /**
@@ -346,7 +356,7 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
                 return candidateEdges; // empty list
             }
 
-            Iterable<StreetEdge> nearbyEdges = edgeTree.query(envelope);
+            Iterable<StreetEdge> nearbyEdges = getCandidateEdges(envelope, coordinate, radius);
             if (nearbyEdges != null) {
                 nearbyEdges = Iterables.concat(nearbyEdges, extraStreets);
             }
@@ -401,6 +411,18 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
         return best;
     }
 
+    /**
+     * Find the indexed street edges that getClosestEdges should consider at the given search radius.
+     * Edges returned here are checked again, so this may return more edges than needed but not
+     * fewer: it must include every edge whose envelope intersects the envelope and that is closer to
+     * the coordinate than the radius (as measured by {@link CandidateEdge}).
+     */
+    @SuppressWarnings("unchecked")
+    protected Iterable<StreetEdge> getCandidateEdges(Envelope envelope, Coordinate coordinate,
+            double radius) {
+        return edgeTree.query(envelope);
+    }
+
     @Override
     public CandidateEdgeBundle getClosestEdges(GenericLocation location, TraversalRequirements reqs) {
         return getClosestEdges(location, reqs, null, null, false);
@@ -502,10 +524,22 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
     public Vertex getVertexForLocation(GenericLocation loc, RoutingRequest options, Vertex other) {
         Coordinate c = loc.getCoordinate();
         if (c != null) {
-            if (other instanceof StreetLocation) {
-                return getClosestVertex(loc, options, ((StreetLocation) other).getExtra());
-            } else {
-                return getClosestVertex(loc, options);
+            long start = metrics.startTime();
+            Vertex linked = null;
+            try {
+                if (other instanceof StreetLocation) {
+                    linked = getClosestVertex(loc, options, ((StreetLocation) other).getExtra());
+                } else {
+                    linked = getClosestVertex(loc, options);
+                }
+                return linked;
+            } finally {
+                if (start != MetricsRegistry.DISABLED) {
+                    links.increment();
+                    if (linked == null)
+                        linkFailures.increment();
+                }
+                linkNanos.recordElapsed(start);
             }
         }
 
@@ -0,0 +1,446 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.routing.algorithm.GenericDijkstra;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTreeFactory;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+/**
+ * A round-based search over RaptorData which, unlike {@link RaptorSearch}, keeps a single best
+ * arrival time per stop and round rather than a Pareto set of RaptorStates. Arrival times and the
+ * information needed to rebuild a path are kept in arrays indexed by RaptorStop.index, the stops
+ * improved in a round and the routes to scan in the next one are tracked with bitsets, and
+ * RaptorStates are only created for the paths found, which {@link Raptor} then turns into
+ * GraphPaths as usual. Walking between stops is still a search of the street graph from all the
+ * stops reached in a round at once.
+ *
+ * The result is one path per number of boardings, for each number of boardings that arrives
+ * earlier than all paths with fewer. Only depart-after searches are supported, and interlined
+ * trips are found as transfers at the stop they share.
+ */
+public class ArrayRaptorSearch {
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** Reached by transit rather than by walking; in walkFrom. */
+    private static final int BY_TRANSIT = -2;
+
+    /** Walked from the origin; in walkFrom. */
+    private static final int FROM_ORIGIN = -1;
+
+    /** The key of the extension holding the stop index a walk started from. */
+    private static final String SOURCE_STOP = "raptorStop";
+
+    /**
+     * The routes of RaptorData numbered, with the stops of each route and the routes of each stop
+     * as indexes. Read-only, so shared by all searches over the same data.
+     */
+    public static class Tables {
+
+        final RaptorData data;
+
+        final RaptorRoute[] routes;
+
+        final int[][] routeStops;
+
+        final int[][] routesForStop;
+
+        public Tables(RaptorData data) {
+            this.data = data;
+            routes = data.routes.toArray(new RaptorRoute[data.routes.size()]);
+            IdentityHashMap<RaptorRoute, Integer> routeIndex = new IdentityHashMap<RaptorRoute, Integer>();
+            routeStops = new int[routes.length][];
+            for (int r = 0; r < routes.length; r++) {
+                routeIndex.put(routes[r], r);
+                routeStops[r] = new int[routes[r].getNStops()];
+                for (int i = 0; i < routeStops[r].length; i++) {
+                    routeStops[r][i] = routes[r].stops[i].index;
+                }
+            }
+            routesForStop = new int[data.stops.length][];
+            for (int s = 0; s < routesForStop.length; s++) {
+                List<RaptorRoute> stopRoutes = data.routesForStop[s];
+                if (stopRoutes == null) {
+                    routesForStop[s] = new int[0];
+                    continue;
+                }
+                routesForStop[s] = new int[stopRoutes.size()];
+                for (int i = 0; i < routesForStop[s].length; i++) {
+                    routesForStop[s][i] = routeIndex.get(stopRoutes.get(i));
+                }
+            }
+        }
+    }
+
+    private final Tables tables;
+
+    private final RoutingRequest options;
+
+    private final RoutingRequest walkOptions;
+
+    private final int nStops;
+
+    private final int nRounds;
+
+    /** The earliest arrival at each stop in any round so far. */
+    private final int[] bestArrival;
+
+    private final boolean[] banned;
+
+    /* per round, by stop: the earliest arrival including walking, and how it was reached */
+
+    private final int[][] arrival;
+
+    private final double[][] walkDistance;
+
+    private final int[][] walkFrom;
+
+    private final State[][] walkPath;
+
+    /* per round, by stop: the earliest arrival by transit, and the trip it was on */
+
+    private final int[][] transitArrival;
+
+    private final double[][] transitWalkDistance;
+
+    private final int[][] transitRoute;
+
+    private final int[][] boardPosition;
+
+    private final int[][] boardStop;
+
+    private final int[][] transitPattern;
+
+    private final TripTimes[][] transitTripTimes;
+
+    private final ServiceDay[][] transitServiceDay;
+
+    private final AgencyAndId[][] transitTripId;
+
+    /* per round: the earliest arrival at the target */
+
+    private final int[] targetArrival;
+
+    private final State[] targetPath;
+
+    private int bestTargetArrival = UNREACHED;
+
+    /**
+     * @param options the request, with its routing context set
+     * @param walkOptions the request used for walking between stops, without transit modes
+     */
+    public ArrayRaptorSearch(Tables tables, RoutingRequest options, RoutingRequest walkOptions) {
+        if (options.isArriveBy())
+            throw new IllegalArgumentException("arrive-by searches are not supported");
+        this.tables = tables;
+        this.options = options;
+        this.walkOptions = walkOptions;
+        nStops = tables.data.stops.length;
+        nRounds = options.getMaxTransfers() + 2;
+
+        bestArrival = new int[nStops];
+        Arrays.fill(bestArrival, UNREACHED);
+        banned = new boolean[nStops];
+        if (!options.getBannedStops().isEmpty() || !options.getBannedStopsHard().isEmpty()) {
+            for (RaptorStop stop : tables.data.stops) {
+                banned[stop.index] = options.getBannedStops().matches(stop.stopVertex.getStop())
+                        || options.getBannedStopsHard().matches(stop.stopVertex.getStop());
+            }
+        }
+
+        // rows are allocated as rounds are reached
+        arrival = new int[nRounds][];
+        walkDistance = new double[nRounds][];
+        walkFrom = new int[nRounds][];
+        walkPath = new State[nRounds][];
+        transitArrival = new int[nRounds][];
+        transitWalkDistance = new double[nRounds][];
+        transitRoute = new int[nRounds][];
+        boardPosition = new int[nRounds][];
+        boardStop = new int[nRounds][];
+        transitPattern = new int[nRounds][];
+        transitTripTimes = new TripTimes[nRounds][];
+        transitServiceDay = new ServiceDay[nRounds][];
+        transitTripId = new AgencyAndId[nRounds][];
+        targetArrival = new int[nRounds];
+        Arrays.fill(targetArrival, UNREACHED);
+        targetPath = new State[nRounds];
+    }
+
+    /**
+     * Run all rounds.
+     *
+     * @return a state at the target for each path found, with its parents back to the origin
+     */
+    public List<RaptorState> search() {
+        allocateRound(0);
+        BitSet marked = new BitSet(nStops);
+        State origin = new MaxWalkState(options.rctx.origin, walkOptions);
+        walk(0, Collections.singletonList(origin), marked);
+
+        for (int round = 1; round < nRounds && !marked.isEmpty(); round++) {
+            allocateRound(round);
+            BitSet reached = scanRoutes(round, marked);
+            marked = new BitSet(nStops);
+            walk(round, startWalks(round, reached, marked), marked);
+        }
+
+        List<RaptorState> paths = new ArrayList<RaptorState>();
+        int earliest = UNREACHED;
+        for (int round = 0; round < nRounds; round++) {
+            if (targetArrival[round] < earliest) {
+                earliest = targetArrival[round];
+                paths.add(targetState(round));
+            }
+        }
+        return paths;
+    }
+
+    private void allocateRound(int round) {
+        arrival[round] = new int[nStops];
+        Arrays.fill(arrival[round], UNREACHED);
+        walkDistance[round] = new double[nStops];
+        walkFrom[round] = new int[nStops];
+        walkPath[round] = new State[nStops];
+        if (round == 0)
+            return;
+        transitArrival[round] = new int[nStops];
+        transitWalkDistance[round] = new double[nStops];
+        transitRoute[round] = new int[nStops];
+        boardPosition[round] = new int[nStops];
+        boardStop[round] = new int[nStops];
+        transitPattern[round] = new int[nStops];
+        transitTripTimes[round] = new TripTimes[nStops];
+        transitServiceDay[round] = new ServiceDay[nStops];
+        transitTripId[round] = new AgencyAndId[nStops];
+    }
+
+    /**
+     * Ride every route serving a stop improved in the previous round.
+     *
+     * @return the stops whose arrival time was improved
+     */
+    private BitSet scanRoutes(int round, BitSet marked) {
+        BitSet routesToScan = new BitSet(tables.routes.length);
+        for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+            for (int r : tables.routesForStop[s]) {
+                routesToScan.set(r);
+            }
+        }
+        // alight slack is added on arrival, so transfers only pay the rest
+        int boardSlack = round == 1 ? options.getBoardSlack()
+                : (options.getTransferSlack() - options.getAlightSlack());
+        int alightSlack = options.getAlightSlack();
+        int[] previous = arrival[round - 1];
+        BitSet reached = new BitSet(nStops);
+
+        for (int r = routesToScan.nextSetBit(0); r >= 0; r = routesToScan.nextSetBit(r + 1)) {
+            RaptorRoute route = tables.routes[r];
+            int[] stops = tables.routeStops[r];
+            TripTimes trip = null;
+            ServiceDay serviceDay = null;
+            AgencyAndId tripId = null;
+            int pattern = -1;
+            int boardedAt = -1;
+            for (int pos = 0; pos < stops.length; pos++) {
+                int s = stops[pos];
+                if (banned[s])
+                    continue;
+                if (trip != null && route.boards[0][pattern].getPattern().canAlight(pos)) {
+                    int time = (int) serviceDay.time(route.getAlightTime(trip, pos)) + alightSlack;
+                    if (time < bestArrival[s] && time < bestTargetArrival) {
+                        bestArrival[s] = time;
+                        transitArrival[round][s] = time;
+                        transitRoute[round][s] = r;
+                        boardPosition[round][s] = boardedAt;
+                        boardStop[round][s] = stops[boardedAt];
+                        transitPattern[round][s] = pattern;
+                        transitTripTimes[round][s] = trip;
+                        transitServiceDay[round][s] = serviceDay;
+                        transitTripId[round][s] = tripId;
+                        transitWalkDistance[round][s] = walkDistance[round - 1][stops[boardedAt]];
+                        reached.set(s);
+                    }
+                }
+                if (pos == stops.length - 1 || !marked.get(s))
+                    continue;
+                // can an earlier trip than the one we are on be caught here?
+                int readyTime = previous[s] + boardSlack;
+                long departure = trip == null ? Long.MAX_VALUE : serviceDay.time(route
+                        .getBoardTime(trip, pos));
+                if (readyTime > departure)
+                    continue;
+                RaptorBoardSpec spec = route.getTripIndex(options, readyTime, pos);
+                if (spec == null)
+                    continue;
+                if (spec.serviceDay.time(route.getBoardTime(spec.tripTimes, pos)) < departure) {
+                    trip = spec.tripTimes;
+                    serviceDay = spec.serviceDay;
+                    tripId = spec.tripId;
+                    pattern = spec.patternIndex;
+                    boardedAt = pos;
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Record the stops reached by transit in this round and make the states walks start from.
+     */
+    private List<State> startWalks(int round, BitSet reached, BitSet marked) {
+        double minWalk = options.rctx.target == null ? 0
+                : options.rctx.target.getDistanceToNearestTransitStop();
+        List<State> starts = new ArrayList<State>();
+        for (int s = reached.nextSetBit(0); s >= 0; s = reached.nextSetBit(s + 1)) {
+            int time = transitArrival[round][s];
+            arrival[round][s] = time;
+            walkDistance[round][s] = transitWalkDistance[round][s];
+            walkFrom[round][s] = BY_TRANSIT;
+            marked.set(s);
+            if (minWalk + walkDistance[round][s] > options.getMaxWalkDistance())
+                continue;
+            RaptorStop stop = tables.data.stops[s];
+            Vertex vertex = stop.arriveVertex != null ? stop.arriveVertex : stop.stopVertex;
+            StateEditor editor = new MaxWalkState.MaxWalkStateEditor(walkOptions, vertex);
+            editor.setStartTimeSeconds(options.dateTime);
+            editor.setTimeSeconds(time);
+            editor.setNumBoardings(round);
+            editor.setWalkDistance(walkDistance[round][s]);
+            editor.setExtension(SOURCE_STOP, s);
+            editor.setOptions(walkOptions);
+            // order the walks from all stops by time
+            editor.incrementWeight(time - options.dateTime);
+            starts.add(editor.makeState());
+        }
+        return starts;
+    }
+
+    /**
+     * Walk from all the given states at once, recording the stops reached earlier than before
+     * and the target.
+     */
+    private void walk(int round, List<State> starts, BitSet marked) {
+        if (starts.isEmpty())
+            return;
+        final List<State> others = starts.subList(1, starts.size());
+        GenericDijkstra dijkstra = new GenericDijkstra(walkOptions);
+        dijkstra.setPriorityQueueFactory(new RaptorSearch.PrefilledPriorityQueueFactory(others));
+        dijkstra.setShortestPathTreeFactory(new ShortestPathTreeFactory() {
+            @Override
+            public ShortestPathTree create(RoutingRequest options) {
+                ShortestPathTree spt = new BasicShortestPathTree(options);
+                for (State state : others) {
+                    spt.add(state);
+                }
+                return spt;
+            }
+        });
+        ShortestPathTree spt = dijkstra.getShortestPathTree(starts.get(0));
+
+        Vertex target = walkOptions.rctx.target;
+        for (State state : spt.getAllStates()) {
+            Vertex vertex = state.getVertex();
+            int time = (int) state.getTimeSeconds();
+            if (vertex == target) {
+                if (time < targetArrival[round]) {
+                    targetArrival[round] = time;
+                    targetPath[round] = state;
+                    bestTargetArrival = Math.min(bestTargetArrival, time);
+                }
+                continue;
+            }
+            if (!(vertex instanceof TransitStop))
+                continue;
+            RaptorStop stop = tables.data.raptorStopsForStopId.get(((TransitStop) vertex)
+                    .getStopId());
+            if (stop == null || banned[stop.index])
+                continue;
+            int s = stop.index;
+            if (time >= bestArrival[s] || time >= bestTargetArrival)
+                continue;
+            Integer source = (Integer) state.getExtension(SOURCE_STOP);
+            bestArrival[s] = time;
+            arrival[round][s] = time;
+            walkDistance[round][s] = state.getWalkDistance();
+            walkFrom[round][s] = source == null ? FROM_ORIGIN : source;
+            walkPath[round][s] = state;
+            marked.set(s);
+        }
+    }
+
+    /** The state at the target in the given round, with its parents. */
+    private RaptorState targetState(int round) {
+        State path = targetPath[round];
+        Integer source = (Integer) path.getExtension(SOURCE_STOP);
+        RaptorState state = source == null ? new RaptorState(options) : new RaptorState(
+                transitState(round, source));
+        state.nBoardings = round;
+        state.walkPath = path;
+        state.arrivalTime = (int) path.getTimeSeconds();
+        state.walkDistance = path.getWalkDistance();
+        state.weight = path.getWeight();
+        return state;
+    }
+
+    /** The state of having arrived at a stop in the given round, walking or not. */
+    private RaptorState arrivalState(int round, int s) {
+        if (walkFrom[round][s] == BY_TRANSIT)
+            return transitState(round, s);
+        RaptorState state = walkFrom[round][s] == FROM_ORIGIN ? new RaptorState(options)
+                : new RaptorState(transitState(round, walkFrom[round][s]));
+        state.nBoardings = round;
+        state.walkPath = walkPath[round][s];
+        state.arrivalTime = arrival[round][s];
+        state.walkDistance = walkDistance[round][s];
+        state.stop = tables.data.stops[s];
+        return state;
+    }
+
+    /** The state of having arrived at a stop by transit in the given round. */
+    private RaptorState transitState(int round, int s) {
+        RaptorState state = new RaptorState(arrivalState(round - 1, boardStop[round][s]));
+        RaptorRoute route = tables.routes[transitRoute[round][s]];
+        state.nBoardings = round;
+        state.route = route;
+        state.boardStop = tables.data.stops[boardStop[round][s]];
+        state.boardStopSequence = boardPosition[round][s];
+        state.patternIndex = transitPattern[round][s];
+        state.tripTimes = transitTripTimes[round][s];
+        state.serviceDay = transitServiceDay[round][s];
+        state.tripId = transitTripId[round][s];
+        state.arrivalTime = transitArrival[round][s];
+        state.walkDistance = transitWalkDistance[round][s];
+        state.stop = tables.data.stops[s];
+        return state;
+    }
+
+}
@@ -83,6 +83,13 @@ public class Raptor implements PathService {
      */
     private double shortPathCutoff = 10000;
 
+    /**
+     * Whether depart-after searches use ArrayRaptorSearch rather than RaptorSearch.
+     */
+    private boolean arraySearch = false;
+
+    private ArrayRaptorSearch.Tables cachedTables;
+
     @PostConstruct
     public void setup() {
         shortPathService.setGraphService(graphService);
@@ -146,6 +153,12 @@ public class Raptor implements PathService {
         TraverseModeSet modes = options.getModes().clone();
         modes.setTransit(false);
         walkOptions.setModes(modes);
+
+        if (arraySearch && !options.isArriveBy()) {
+            return buildPaths(data, options,
+                    arraySearch(data, options, walkOptions, initialWalk));
+        }
+
         RaptorSearch search = new RaptorSearch(data, options);
 
         if (data.maxTransitRegions != null) {
@@ -267,6 +280,63 @@ public class Raptor implements PathService {
 
         } while (targetStates.size() < options.getNumItineraries());
 
+        return buildPaths(data, options, targetStates);
+    }
+
+    /**
+     * Find paths with ArrayRaptorSearch, widening the walk as above until something is found and
+     * banning the trips used to find more itineraries. Banning trips leaves walk-only paths
+     * unchanged, so those are only kept from the first pass. Like the search above, no further
+     * pass is started once multiPathTimeout has elapsed and some paths have been found.
+     */
+    private List<RaptorState> arraySearch(RaptorData data, RoutingRequest options,
+            RoutingRequest walkOptions, double initialWalk) {
+        ArrayRaptorSearch.Tables tables = cachedTables;
+        if (tables == null || tables.data != data) {
+            tables = new ArrayRaptorSearch.Tables(data);
+            cachedTables = tables;
+        }
+        long searchBeginTime = System.currentTimeMillis();
+        List<RaptorState> targetStates = new ArrayList<RaptorState>();
+        boolean firstPass = true;
+        while (targetStates.size() < options.getNumItineraries()) {
+            long elapsed = System.currentTimeMillis() - searchBeginTime;
+            if (elapsed > multiPathTimeout * 1000 && multiPathTimeout > 0
+                    && targetStates.size() > 0)
+                break;
+
+            List<RaptorState> found = new ArrayRaptorSearch(tables, options, walkOptions).search();
+            while (found.isEmpty() && options.getMaxWalkDistance() < initialWalk * MAX_WALK_MULTIPLE
+                    && initialWalk < Double.MAX_VALUE) {
+                options = options.clone();
+                walkOptions = walkOptions.clone();
+                options.setMaxWalkDistance(options.getMaxWalkDistance() * 2);
+                walkOptions.setMaxWalkDistance(options.getMaxWalkDistance());
+                found = new ArrayRaptorSearch(tables, options, walkOptions).search();
+            }
+
+            options = options.clone();
+            walkOptions = walkOptions.clone();
+            boolean banned = false;
+            for (RaptorState state : found) {
+                List<AgencyAndId> trips = state.getTrips();
+                if (trips.isEmpty() && !firstPass)
+                    continue; // already found by the first pass
+                targetStates.add(state);
+                for (AgencyAndId trip : trips) {
+                    options.banTrip(trip);
+                    banned = true;
+                }
+            }
+            if (!banned)
+                break; // nothing found, or only walking; searching more won't help
+            firstPass = false;
+        }
+        return targetStates;
+    }
+
+    private List<GraphPath> buildPaths(RaptorData data, RoutingRequest options,
+            List<RaptorState> targetStates) {
         collectRoutesUsed(data, options, targetStates);
 
         if (targetStates.isEmpty()) {
@@ -749,4 +819,16 @@ public class Raptor implements PathService {
         this.shortPathCutoff = shortPathCutoff;
     }
 
+    public boolean isArraySearch() {
+        return arraySearch;
+    }
+
+    public void setArraySearch(boolean arraySearch) {
+        this.arraySearch = arraySearch;
+    }
+
+    public void setGraphService(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
 }
@@ -704,7 +704,7 @@ public class RaptorSearch {
         return true;
     }
 
-    class PrefilledPriorityQueueFactory implements OTPPriorityQueueFactory {
+    static class PrefilledPriorityQueueFactory implements OTPPriorityQueueFactory {
 
         private List<? extends State> startPoints;
 
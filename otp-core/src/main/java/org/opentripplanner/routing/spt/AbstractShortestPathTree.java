@@ -29,6 +29,8 @@ import org.opentripplanner.routing.graph.Vertex;
 public abstract class AbstractShortestPathTree implements ShortestPathTree {
 
     public final RoutingRequest options;
+
+    protected DominatedStateListener dominatedStateListener;
     
     protected AbstractShortestPathTree () {
         this.options = null;
@@ -74,4 +76,15 @@ public abstract class AbstractShortestPathTree implements ShortestPathTree {
         return options;
     }
 
+    @Override
+    public void setDominatedStateListener(DominatedStateListener listener) {
+        this.dominatedStateListener = listener;
+    }
+
+    /** To be called by subclasses when they drop a State they had previously accepted. */
+    protected void dominated(State s) {
+        if (dominatedStateListener != null)
+            dominatedStateListener.stateDominated(s);
+    }
+
 }
@@ -84,6 +84,10 @@ public class BasicShortestPathTree extends AbstractShortestPathTree {
         State existing = states.get(here);
         if (existing == null || state.betterThan(existing)) {
             states.put(here, state);
+            // visit() still accepts replaced states when the new state's back edge has turn
+            // restrictions, so those must not be reported as dominated
+            if (existing != null && !hasExplicitTurnRestrictions(state.getBackEdge()))
+                dominated(existing);
             return true;
         } else {
             final Edge backEdge = existing.getBackEdge();
@@ -129,6 +133,11 @@ public class BasicShortestPathTree extends AbstractShortestPathTree {
         return (s == existing);
     }
 
+    private static boolean hasExplicitTurnRestrictions(Edge edge) {
+        return edge instanceof PlainStreetEdge
+                && ((PlainStreetEdge) edge).hasExplicitTurnRestrictions();
+    }
+
     @Override
     public int getVertexCount() {
         return states.size();
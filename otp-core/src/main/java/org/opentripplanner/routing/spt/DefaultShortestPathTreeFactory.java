@@ -8,17 +8,33 @@ import org.opentripplanner.routing.core.RoutingRequest;
  * Creates a MultiShortestPathTree for any transit, bike/walk (Bike rental) or car/walk (P+R) trips,
  * otherwise uses BasicShortestPathTree.
  * 
+ * When indexed is set, the multi-state trees are IndexedMultiShortestPathTrees, which store their
+ * states in arrays addressed by vertex index instead of identity hash maps.
+ * 
  * @author avi
  */
 public class DefaultShortestPathTreeFactory implements ShortestPathTreeFactory {
 
+    private boolean indexed = false;
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
     @Override
     public ShortestPathTree create(RoutingRequest options) {
         ShortestPathTree spt = null;
         if (options.getModes().isTransit() || options.getModes().getWalk()
                 && options.getModes().getBicycle() || options.getModes().getWalk()
                 && options.getModes().getCar()) {
-            spt = new MultiShortestPathTree(options);
+            if (indexed)
+                spt = new IndexedMultiShortestPathTree(options);
+            else
+                spt = new MultiShortestPathTree(options);
         } else {
             spt = new BasicShortestPathTree(options);
         }
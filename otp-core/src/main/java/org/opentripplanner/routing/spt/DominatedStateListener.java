@@ -0,0 +1,28 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import org.opentripplanner.routing.core.State;
+
+/**
+ * Receives the States that a {@link ShortestPathTree} drops because a newly added State dominates
+ * them. A search whose priority queue supports removal can use this to take such States out of the
+ * queue immediately, rather than waiting for {@link ShortestPathTree#visit(State)} to reject them.
+ */
+public interface DominatedStateListener {
+
+    /** Called when a State previously accepted by {@link ShortestPathTree#add(State)} is dropped. */
+    public void stateDominated(State s);
+
+}
@@ -86,6 +86,8 @@ public class EarliestArrivalShortestPathTree extends AbstractShortestPathTree {
         State existing = states.get(here);
         if (existing == null || earlier (state, existing)) {
             states.put(here, state);
+            if (existing != null)
+                dominated(existing);
             return true;
         } else {
             // !! turn restriction code removed
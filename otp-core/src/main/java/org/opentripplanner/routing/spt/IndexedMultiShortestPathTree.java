@@ -0,0 +1,196 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A multi-state ShortestPathTree with the same domination semantics as MultiShortestPathTree, but
+ * whose per-vertex Pareto sets are stored in a dense array addressed by vertex index rather than in
+ * an IdentityHashMap of ArrayLists.
+ *
+ * Each Pareto set is a small State array packed from the start and terminated by a null (or by the
+ * end of the array). Most vertices only ever hold one or two states, so this avoids allocating a map
+ * entry and an ArrayList per reached vertex. The top-level array is sized to Vertex.getMaxIndex()
+ * when the tree is created, and grown if a temporary vertex with a higher index is reached.
+ *
+ * Allocating and clearing an array covering the whole graph has a fixed cost, so this tree pays off
+ * for searches that reach a large part of the graph (batch / analyst searches, long transit trips)
+ * rather than for short point-to-point street searches.
+ */
+public class IndexedMultiShortestPathTree extends AbstractShortestPathTree {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    public static final ShortestPathTreeFactory FACTORY = new FactoryImpl();
+
+    private static final int INITIAL_SET_CAPACITY = 2;
+
+    /** Pareto-optimal states at each vertex, indexed by vertex index. Null if the vertex was not reached. */
+    private State[][] stateSets;
+
+    private int vertexCount = 0;
+
+    public IndexedMultiShortestPathTree(RoutingRequest options) {
+        super(options);
+        stateSets = new State[Vertex.getMaxIndex()][];
+    }
+
+    /****
+     * {@link ShortestPathTree} Interface
+     ****/
+
+    @Override
+    public boolean add(State newState) {
+        int index = newState.getVertex().getIndex();
+        if (index >= stateSets.length) {
+            // a vertex created after this tree was sized, typically a temporary one
+            stateSets = Arrays.copyOf(stateSets, Math.max(index + 1, Vertex.getMaxIndex()));
+        }
+        State[] states = stateSets[index];
+        if (states == null) {
+            states = new State[INITIAL_SET_CAPACITY];
+            states[0] = newState;
+            stateSets[index] = states;
+            vertexCount += 1;
+            return true;
+        }
+        // Compact the set in place, dropping the states that the new state dominates.
+        // Once the new state is known to be dominated, remaining states are kept untouched.
+        boolean rejected = false;
+        int n = 0;
+        int i = 0;
+        for (; i < states.length && states[i] != null; i++) {
+            State oldState = states[i];
+            if (!rejected) {
+                // order is important, because in the case of a tie
+                // we want to reject the new state
+                if (oldState.dominates(newState))
+                    rejected = true;
+                else if (newState.dominates(oldState)) {
+                    dominated(oldState);
+                    continue;
+                }
+            }
+            states[n++] = oldState;
+        }
+        for (int j = n; j < i; j++)
+            states[j] = null;
+        if (rejected)
+            return false;
+        if (n == states.length) {
+            states = Arrays.copyOf(states, states.length * 2);
+            stateSets[index] = states;
+        }
+        states[n] = newState;
+        return true;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        State[] states = getStateSet(dest);
+        if (states == null)
+            return null;
+        State ret = null;
+        for (State s : states) {
+            if (s == null)
+                break;
+            if ((ret == null || s.betterThan(ret)) && s.isFinal() && s.allPathParsersAccept()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        State[] states = getStateSet(dest);
+        if (states == null)
+            return null;
+        // copy, because the underlying array is compacted in place as the search continues
+        return Arrays.asList(Arrays.copyOf(states, setSize(states)));
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Check that a state coming out of the queue is still in the Pareto-optimal set for its vertex.
+     * See {@link MultiShortestPathTree#visit(State)}.
+     */
+    @Override
+    public boolean visit(State state) {
+        State[] states = getStateSet(state.getVertex());
+        if (states == null)
+            return false;
+        for (State s : states) {
+            if (s == null)
+                break;
+            if (s == state)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        ArrayList<State> allStates = new ArrayList<State>();
+        for (State[] states : stateSets) {
+            if (states == null)
+                continue;
+            for (State s : states) {
+                if (s == null)
+                    break;
+                allStates.add(s);
+            }
+        }
+        return allStates;
+    }
+
+    public String toString() {
+        return "IndexedMultiSPT(" + vertexCount + " vertices)";
+    }
+
+    private State[] getStateSet(Vertex v) {
+        int index = v.getIndex();
+        if (index >= stateSets.length)
+            return null;
+        return stateSets[index];
+    }
+
+    private static int setSize(State[] states) {
+        int n = 0;
+        while (n < states.length && states[n] != null)
+            n++;
+        return n;
+    }
+
+    private static final class FactoryImpl implements ShortestPathTreeFactory {
+        @Override
+        public ShortestPathTree create(RoutingRequest options) {
+            return new IndexedMultiShortestPathTree(options);
+        }
+    }
+
+}
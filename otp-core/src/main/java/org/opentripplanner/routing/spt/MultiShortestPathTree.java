@@ -64,8 +64,10 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
             // we want to reject the new state
             if (oldState.dominates(newState))
                 return false;
-            if (newState.dominates(oldState))
+            if (newState.dominates(oldState)) {
                 it.remove();
+                dominated(oldState);
+            }
         }
         states.add(newState);
         return true;
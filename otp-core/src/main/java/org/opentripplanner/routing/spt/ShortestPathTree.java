@@ -114,4 +114,10 @@ public interface ShortestPathTree {
     /** Visit a vertex after it has been settled */
     public void postVisit(State u);
 
+    /**
+     * Register a listener to be told about States that this tree drops after having accepted them,
+     * because a newly added State dominates them. May be null to remove the listener.
+     */
+    public void setDominatedStateListener(DominatedStateListener listener);
+
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.trippattern;
+
+import org.opentripplanner.common.MavenVersion;
+
+/**
+ * The scheduled times of one trip, read from the {@link TripTimesColumns} of its Timetable instead
+ * of arrays of its own. It is a ScheduledTripTimes, so realtime updates can wrap it as usual.
+ */
+public class ColumnarTripTimes extends ScheduledTripTimes {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    private final TripTimesColumns columns;
+
+    /** position of this trip in the columns */
+    private final int index;
+
+    ColumnarTripTimes(TripTimesColumns columns, int index) {
+        super(columns.getTrip(index));
+        this.columns = columns;
+        this.index = index;
+    }
+
+    @Override
+    public int getNumHops() {
+        return columns.getNumHops();
+    }
+
+    @Override
+    public int getDepartureTime(int hop) {
+        return columns.getDepartureTime(index, hop);
+    }
+
+    @Override
+    public int getArrivalTime(int hop) {
+        return columns.getArrivalTime(index, hop);
+    }
+
+    @Override
+    public String getHeadsign(int hop) {
+        return columns.getHeadsign(index, hop);
+    }
+
+    /** The columns are already as compact as they can be. */
+    @Override
+    public boolean compact() {
+        return false;
+    }
+
+    public String toString() {
+        return "ColumnarTripTimes\n" + dumpTimes();
+    }
+
+}
@@ -77,6 +77,15 @@ public class ScheduledTripTimes extends TripTimes implements Serializable {
         this.compact();
     }
     
+    /**
+     * Constructor for subclasses that keep their times elsewhere, and must then override all the
+     * methods reading them.
+     */
+    protected ScheduledTripTimes(Trip trip) {
+        this.trip = trip;
+        this.headsigns = null;
+    }
+
     /** 
      * @return either an array of headsigns (one for each stop on this trip) or null if the 
      * headsign is the same at all stops (including null) and can be found in the Trip object. 
@@ -0,0 +1,159 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.trippattern;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.gtfs.BikeAccess;
+
+import com.google.common.base.Objects;
+
+/**
+ * The scheduled times of all the trips of a Timetable, stored by hop rather than by trip: one
+ * contiguous int array per hop holds the departure (arrival) times of every trip at that hop, in
+ * the order of the trips in the Timetable. Trips and their accessibility flags are kept in parallel
+ * arrays. The {@link ColumnarTripTimes} of each trip only hold its position in these arrays.
+ *
+ * Like the arrays of a compacted ScheduledTripTimes, the arrival arrays are left out when no trip
+ * dwells at any stop; the departures then have one more array holding the final arrivals.
+ *
+ * Columns are never modified once built. Realtime updates wrap the ColumnarTripTimes of a trip like
+ * any other ScheduledTripTimes, so updated Timetables share the columns of the scheduled one and
+ * only hold TripTimes objects for the trips that were updated.
+ */
+public final class TripTimesColumns implements Serializable {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    /** Flag set for trips that are wheelchair accessible. */
+    public static final byte WHEELCHAIR_ACCESSIBLE = 1;
+
+    /** Flag set for trips on which bicycles are allowed. */
+    public static final byte BICYCLE_ALLOWED = 2;
+
+    private final Trip[] trips;
+
+    private final byte[] flags;
+
+    /** Per-trip headsigns (one per stop), null for trips showing their trip headsign throughout. */
+    private final String[][] headsigns;
+
+    /** Departure times, indexed by hop and then by trip. */
+    private final int[][] departures;
+
+    /** Arrival times, indexed by hop and then by trip. Null if all dwell times are zero. */
+    private final int[][] arrivals;
+
+    private final ColumnarTripTimes[] tripTimes;
+
+    /**
+     * Copy the given trip times into columns.
+     * @param scheduled the trip times to copy, which must all have nHops hops
+     */
+    public TripTimesColumns(List<? extends TripTimes> scheduled, int nHops) {
+        int nTrips = scheduled.size();
+        trips = new Trip[nTrips];
+        flags = new byte[nTrips];
+        headsigns = new String[nTrips][];
+        boolean dwells = false;
+        for (TripTimes tt : scheduled) {
+            for (int hop = 1; hop < nHops && !dwells; hop++) {
+                dwells = tt.getDwellTime(hop) != 0;
+            }
+        }
+        departures = new int[dwells ? nHops : nHops + 1][nTrips];
+        arrivals = dwells ? new int[nHops][nTrips] : null;
+        for (int t = 0; t < nTrips; t++) {
+            TripTimes tt = scheduled.get(t);
+            Trip trip = tt.getTrip();
+            trips[t] = trip;
+            if (trip.getWheelchairAccessible() == 1)
+                flags[t] |= WHEELCHAIR_ACCESSIBLE;
+            if (BikeAccess.fromTrip(trip) == BikeAccess.ALLOWED)
+                flags[t] |= BICYCLE_ALLOWED;
+            headsigns[t] = stopHeadsigns(tt, nHops);
+            for (int hop = 0; hop < nHops; hop++) {
+                departures[hop][t] = tt.getDepartureTime(hop);
+                if (dwells)
+                    arrivals[hop][t] = tt.getArrivalTime(hop);
+            }
+            if (!dwells)
+                departures[nHops][t] = tt.getArrivalTime(nHops - 1);
+        }
+        tripTimes = new ColumnarTripTimes[nTrips];
+        for (int t = 0; t < nTrips; t++) {
+            tripTimes[t] = new ColumnarTripTimes(this, t);
+        }
+    }
+
+    /** @return the headsign at each stop, or null if they are all the trip headsign. */
+    private static String[] stopHeadsigns(TripTimes tt, int nHops) {
+        String tripHeadsign = tt.getTrip().getTripHeadsign();
+        String[] ret = new String[nHops + 1];
+        boolean same = true;
+        for (int stop = 0; stop <= nHops; stop++) {
+            ret[stop] = tt.getHeadsign(stop);
+            same &= Objects.equal(ret[stop], tripHeadsign);
+        }
+        return same ? null : ret;
+    }
+
+    /** @return the number of trips in these columns */
+    public int size() {
+        return trips.length;
+    }
+
+    /** @return the number of hops of the trips */
+    public int getNumHops() {
+        return arrivals == null ? departures.length - 1 : departures.length;
+    }
+
+    /** @return the TripTimes reading the times of the given trip from these columns */
+    public ColumnarTripTimes getTripTimes(int trip) {
+        return tripTimes[trip];
+    }
+
+    public Trip getTrip(int trip) {
+        return trips[trip];
+    }
+
+    public int getDepartureTime(int trip, int hop) {
+        return departures[hop][trip];
+    }
+
+    public int getArrivalTime(int trip, int hop) {
+        if (arrivals == null)
+            return departures[hop + 1][trip];
+        return arrivals[hop][trip];
+    }
+
+    public String getHeadsign(int trip, int stop) {
+        String[] hs = headsigns[trip];
+        return hs == null ? trips[trip].getTripHeadsign() : hs[stop];
+    }
+
+    /**
+     * @return false if the trip is certainly not acceptable for a request needing wheelchair
+     * accessibility or bringing a bicycle, without looking at its Trip.
+     */
+    public boolean isAccessible(int trip, boolean wheelchair, boolean bicycle) {
+        byte f = flags[trip];
+        return (!wheelchair || (f & WHEELCHAIR_ACCESSIBLE) != 0)
+                && (!bicycle || (f & BICYCLE_ALLOWED) != 0);
+    }
+
+}
@@ -65,6 +65,26 @@ public class CommandLineParameters {
     @Parameter(names = { "-m", "--inMemory"},
     description = "pass the graph to the server in-memory after building it, without saving to disk")
     boolean inMemory;
+
+    @Parameter(names = {"--landmarks"}, validateWith = PositiveInteger.class,
+    description = "precompute street distances to this many landmarks for the landmark heuristic")
+    Integer landmarks;
+
+    @Parameter(names = {"--landmarkHeuristic"},
+    description = "guide non-transit searches with landmark distances, on graphs that have them")
+    boolean landmarkHeuristic;
+
+    @Parameter(names = {"--contractionProfiles"}, variableArity = true,
+    description = "build contraction hierarchies for these street profiles, e.g. CAR BICYCLE:SAFE")
+    List<String> contractionProfiles;
+
+    @Parameter(names = {"--contraction"},
+    description = "answer street-only requests without turn costs (turnReluctance 0) with the graph's contraction hierarchies")
+    boolean contraction;
+
+    @Parameter(names = {"--builderThreads"}, validateWith = PositiveInteger.class,
+    description = "run independent graph builders concurrently on this many threads")
+    int builderThreads = 1;
     
     @Parameter(names = {"--noTransit"},
     description = "skip all transit input files (GTFS)")
@@ -86,10 +106,30 @@ public class CommandLineParameters {
     description = "skip all street input files (OSM)")
     boolean noStreets;
 
+    @Parameter(names = {"--compactOsmNodes"},
+    description = "keep untagged OSM nodes as packed coordinates while building, for large extracts")
+    boolean compactOsmNodes;
+
+    @Parameter(names = {"--osmNodeDirectory"}, validateWith = ReadWriteDirectory.class,
+    description = "keep packed OSM node coordinates in a memory-mapped file in this directory (implies --compactOsmNodes)")
+    File osmNodeDirectory;
+
     @Parameter(names = {"--noEmbedConfig"},
     description = "Skip embedding config in graph (Embed.properties)")
     boolean noEmbedConfig = false;
 
+    @Parameter(names = {"--compactGraph"},
+    description = "save the graph with the geometries of its street edges in a memory-mappable section (the rest of the graph is serialized as usual)")
+    boolean compactGraph;
+
+    @Parameter(names = {"--gridIndex"},
+    description = "index the streets of loaded graphs with hash grids rather than trees")
+    boolean gridIndex;
+
+    @Parameter(names = {"--columnarTimetables"},
+    description = "store the scheduled times of built or loaded graphs in per-stop arrays shared by all trips of a pattern")
+    boolean columnarTimetables;
+
     @Parameter(names = {"--transitIndex"},
     description = "build a transit index for GTFS data")
     boolean transitIndex;
@@ -109,6 +149,10 @@ public class CommandLineParameters {
             description = "path to graph directory")
     String graphDirectory;
     
+    @Parameter(names = {"--searchThreads"}, validateWith = PositiveInteger.class,
+    description = "search for alternative itineraries concurrently on this many threads")
+    int searchThreads = 1;
+
     @Parameter( names = { "-l", "--longDistance"}, 
             description = "use an algorithm tailored for long-distance routing")
     boolean longDistance = false;
@@ -18,13 +18,16 @@ import org.opentripplanner.analyst.request.SampleGridRenderer;
 import org.opentripplanner.api.ws.PlanGenerator;
 import org.opentripplanner.api.ws.services.MetadataService;
 import org.opentripplanner.graph_builder.GraphBuilderTask;
+import org.opentripplanner.graph_builder.impl.ContractionHierarchyGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.EmbeddedConfigGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.GtfsGraphBuilderImpl;
+import org.opentripplanner.graph_builder.impl.LandmarkGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.PruneFloatingIslands;
 import org.opentripplanner.graph_builder.impl.StreetlessStopLinker;
 import org.opentripplanner.graph_builder.impl.TransitToStreetNetworkGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.ned.NEDGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.ned.NEDGridCoverageFactoryImpl;
+import org.opentripplanner.graph_builder.impl.osm.CompactOSMNodeStore;
 import org.opentripplanner.graph_builder.impl.osm.DefaultWayPropertySetSource;
 import org.opentripplanner.graph_builder.impl.osm.OpenStreetMapGraphBuilderImpl;
 import org.opentripplanner.graph_builder.impl.transit_index.TransitIndexBuilder;
@@ -35,12 +38,18 @@ import org.opentripplanner.graph_builder.services.ned.NEDGridCoverageFactory;
 import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.contraction.ContractionProfile;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.Timetable;
 import org.opentripplanner.routing.impl.DefaultFareServiceFactory;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.ContractionPathService;
 import org.opentripplanner.routing.impl.DefaultRemainingWeightHeuristicFactoryImpl;
 import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
 import org.opentripplanner.routing.impl.GraphServiceImpl;
+import org.opentripplanner.routing.impl.GridStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.LandmarkRemainingWeightHeuristicFactoryImpl;
 import org.opentripplanner.routing.impl.RetryingPathServiceImpl;
 import org.opentripplanner.routing.impl.LongDistancePathService;
 import org.opentripplanner.routing.services.GraphService;
@@ -65,6 +74,13 @@ public class OTPConfigurator {
     
     public OTPConfigurator (CommandLineParameters params) {
         this.params = params;
+        if (params.landmarkHeuristic) {
+            RoutingContext.setHeuristicFactory(new LandmarkRemainingWeightHeuristicFactoryImpl());
+        }
+        if (params.columnarTimetables) {
+            // scheduled timetables are converted when finished, as graphs are built or loaded
+            Timetable.setColumnar(true);
+        }
     }
 
     /** 
@@ -100,7 +116,16 @@ public class OTPConfigurator {
             RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
             pathService.setFirstPathTimeout(10.0);
             pathService.setMultiPathTimeout(1.0);
-            cpf.bind(PathService.class, pathService);
+            pathService.setParallelism(params.searchThreads);
+            if (params.contraction) {
+                // bound under its own class so that it is still injected
+                cpf.bind(RetryingPathServiceImpl.class, pathService);
+                ContractionPathService contractionPathService = new ContractionPathService();
+                contractionPathService.setChainedPathService(pathService);
+                cpf.bind(PathService.class, contractionPathService);
+            } else {
+                cpf.bind(PathService.class, pathService);
+            }
             cpf.bind(RemainingWeightHeuristicFactory.class, 
                     new DefaultRemainingWeightHeuristicFactoryImpl()); 
         }
@@ -140,6 +165,9 @@ public class OTPConfigurator {
                 graphService.setDefaultRouterId(params.routerIds.get(0));
                 graphService.setAutoRegister(params.routerIds);
             }
+            if (params.gridIndex) {
+                graphService.setIndexFactory(new GridStreetVertexIndexFactory());
+            }
             this.graphService = graphService;
         }
     }
@@ -204,6 +232,11 @@ public class OTPConfigurator {
             OpenStreetMapGraphBuilderImpl osmBuilder = new OpenStreetMapGraphBuilderImpl(osmProviders); 
             DefaultWayPropertySetSource defaultWayPropertySetSource = new DefaultWayPropertySetSource();
             osmBuilder.setDefaultWayPropertySetSource(defaultWayPropertySetSource);
+            if (params.compactOsmNodes || params.osmNodeDirectory != null) {
+                CompactOSMNodeStore nodeStore = new CompactOSMNodeStore();
+                nodeStore.setDirectory(params.osmNodeDirectory);
+                osmBuilder.setNodeStore(nodeStore);
+            }
             graphBuilder.addGraphBuilder(osmBuilder);
             graphBuilder.addGraphBuilder(new PruneFloatingIslands());            
         }
@@ -249,7 +282,19 @@ public class OTPConfigurator {
             GraphBuilder nedBuilder = new NEDGraphBuilderImpl(ngcf);
             graphBuilder.addGraphBuilder(nedBuilder);
         }
+        if (params.landmarks != null && hasOSM) {
+            graphBuilder.addGraphBuilder(new LandmarkGraphBuilderImpl(params.landmarks));
+        }
+        if (params.contractionProfiles != null && hasOSM) {
+            List<ContractionProfile> profiles = new ArrayList<ContractionProfile>();
+            for (String profile : params.contractionProfiles) {
+                profiles.add(ContractionProfile.parse(profile));
+            }
+            graphBuilder.addGraphBuilder(new ContractionHierarchyGraphBuilderImpl(profiles));
+        }
         graphBuilder.setSerializeGraph( ! params.inMemory);
+        graphBuilder.setCompactGraphFile(params.compactGraph);
+        graphBuilder.setBuilderThreads(params.builderThreads);
         return graphBuilder;
     }
 
@@ -161,6 +161,28 @@ public class GraphUpdaterManager {
         future.get();
     }
 
+    /**
+     * Run a graph writer runnable repeatedly, on the same thread and under the same rules as
+     * execute, until the manager is stopped.
+     * 
+     * @param runnable is a graph writer runnable
+     * @param periodMillis is the time between the starts of two runs, in milliseconds
+     */
+    public void executePeriodically(final GraphWriterRunnable runnable, long periodMillis) {
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run(graph);
+                } catch (Exception e) {
+                    // an exception would cancel the later runs
+                    LOG.error("Error while running graph writer {}:", runnable.getClass().getName(),
+                            e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
     private Future<?> executeReturningFuture(final GraphWriterRunnable runnable) {
         // TODO: check for high water mark?
         Future<?> future = scheduler.submit(new Runnable() {
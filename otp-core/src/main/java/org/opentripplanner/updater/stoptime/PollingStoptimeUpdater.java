@@ -137,6 +137,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
                 if (purgeExpiredData != null) {
                     snapshotSource.setPurgeExpiredData(purgeExpiredData);
                 }
+                snapshotSource.scheduleCommits(updaterManager);
             }
         });
     }
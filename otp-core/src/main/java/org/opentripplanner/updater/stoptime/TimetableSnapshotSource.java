@@ -24,6 +24,10 @@ import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.TransitIndexService;
 import org.opentripplanner.routing.trippattern.TripUpdateList;
+import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterRunnable;
+import org.opentripplanner.util.monitoring.Gauge;
+import org.opentripplanner.util.monitoring.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,17 +45,21 @@ public class TimetableSnapshotSource {
     private int appliedBlockCount = 0;
 
     /** 
-     * If a timetable snapshot is requested less than this number of milliseconds after the previous 
-     * snapshot, just return the same one. Throttles the potentially resource-consuming task of 
-     * duplicating a TripPattern -> Timetable map and indexing the new Timetables.
+     * If a commit is due less than this number of milliseconds after the previous one, it is
+     * postponed to the next scheduled commit. Throttles the potentially resource-consuming task of
+     * indexing the new Timetables.
      */
     @Setter private int maxSnapshotFrequency = 1000; // msec    
 
     /** 
      * The last committed snapshot that was handed off to a routing thread. This snapshot may be
      * given to more than one routing thread if the maximum snapshot frequency is exceeded. 
+     * Published by a plain reference swap, so that routing threads can read it without locking.
      */
-    private TimetableResolver snapshot = null;
+    private volatile TimetableResolver snapshot = null;
+
+    /** When the current snapshot was committed, in milliseconds since the epoch. */
+    private volatile long snapshotCommitTime = -1;
     
     /** The working copy of the timetable resolver. Should not be visible to routing threads. */
     private TimetableResolver buffer = new TimetableResolver();
@@ -65,36 +73,78 @@ public class TimetableSnapshotSource {
     protected ServiceDate lastPurgeDate = null;
     
     protected long lastSnapshotTime = -1;
+
+    private boolean commitsScheduled = false;
     
     public TimetableSnapshotSource(Graph graph) {
         transitIndexService = graph.getService(TransitIndexService.class);
         if (transitIndexService == null)
             throw new RuntimeException(
                     "Real-time update need a TransitIndexService. Please setup one during graph building.");
+        // The commit latency is recorded by TimetableResolver as timetables.commitNanos
+        MetricsRegistry.getRegistry().gauge("timetables.snapshotAgeMillis", new Gauge() {
+            @Override
+            public long getValue() {
+                return getSnapshotAge();
+            }
+        });
     }
     
     /**
      * @return an up-to-date snapshot mapping TripPatterns to Timetables. This snapshot and the
      *         timetable objects it references are guaranteed to never change, so the requesting
      *         thread is provided a consistent view of all TripTimes. The routing thread need only
-     *         release its reference to the snapshot to release resources.
+     *         release its reference to the snapshot to release resources. Snapshots are only
+     *         committed by the updater thread, so this never waits or does any indexing.
      */
     public TimetableResolver getTimetableSnapshot() {
-        return getTimetableSnapshot(false);
+        return snapshot;
     }
-    
-    protected synchronized TimetableResolver getTimetableSnapshot(boolean force) {
+
+    /** @return the age of the current snapshot in milliseconds, or -1 if there is none */
+    public long getSnapshotAge() {
+        long committed = snapshotCommitTime;
+        return committed < 0 ? -1 : System.currentTimeMillis() - committed;
+    }
+
+    /**
+     * Make the graph updater manager commit the updates postponed by the maximum snapshot
+     * frequency, every maxSnapshotFrequency milliseconds on its writer thread. Only the first call
+     * has an effect. Must be called from a graph writer runnable.
+     */
+    public void scheduleCommits(GraphUpdaterManager updaterManager) {
+        if (commitsScheduled)
+            return;
+        commitsScheduled = true;
+        updaterManager.executePeriodically(new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+                commitIfDue(false);
+            }
+        }, Math.max(maxSnapshotFrequency, 100));
+    }
+
+    /**
+     * Commit the buffer into a new snapshot if it changed and the previous commit is old enough,
+     * or if forced. Must only be called from the updater thread, which is the only one touching
+     * the buffer.
+     * 
+     * @return the current snapshot
+     */
+    public TimetableResolver commitIfDue(boolean force) {
         long now = System.currentTimeMillis();
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
                 snapshot = buffer.commit(force);
+                snapshotCommitTime = System.currentTimeMillis();
+                LOG.debug("Committed snapshot in {} msec", snapshotCommitTime - now);
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
             lastSnapshotTime = System.currentTimeMillis();
         } else {
-            LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot);
+            LOG.debug("Snapshot frequency exceeded. Postponing commit of {}", buffer);
         }
         return snapshot;
     }
@@ -148,10 +198,10 @@ public class TimetableSnapshotSource {
         // Purge data if necessary (and force new snapshot if anything was purged)
         if(purgeExpiredData) {
             boolean modified = purgeExpiredData(); 
-            getTimetableSnapshot(modified);
+            commitIfDue(modified);
         }
         else {
-            getTimetableSnapshot(); 
+            commitIfDue(false); 
         }
 
     }
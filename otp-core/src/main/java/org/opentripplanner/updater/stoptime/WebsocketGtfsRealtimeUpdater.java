@@ -100,11 +100,13 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
             @Override
             public void run(Graph graph) {
                 // Only create a realtime data snapshot source if none exists already
-                if (graph.getTimetableSnapshotSource() == null) {
-                    TimetableSnapshotSource snapshotSource = new TimetableSnapshotSource(graph);
+                TimetableSnapshotSource snapshotSource = graph.getTimetableSnapshotSource();
+                if (snapshotSource == null) {
+                    snapshotSource = new TimetableSnapshotSource(graph);
                     // Add snapshot source to graph
                     graph.setTimetableSnapshotSource(snapshotSource);
                 }
+                snapshotSource.scheduleCommits(updaterManager);
             }
         });
     }
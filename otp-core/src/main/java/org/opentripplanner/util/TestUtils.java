@@ -13,6 +13,8 @@
  
 package org.opentripplanner.util;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
@@ -27,4 +29,17 @@ public class TestUtils {
     public static long toSeconds(GregorianCalendar time) {
         return time.getTimeInMillis() / 1000;
     }
+
+    /**
+     * @return the number of bytes allocated so far by the current thread, or -1 if the JVM does not
+     *         support per-thread allocation counters. Used to compare allocation rates in benchmarks.
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
 }
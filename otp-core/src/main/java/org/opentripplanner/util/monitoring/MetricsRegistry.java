@@ -0,0 +1,128 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package org.opentripplanner.util.monitoring;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Production telemetry: named counters and histograms shared by the whole server, meant to be
+ * updated on the request path. Unlike the MonitoringStore, it is safe for concurrent use without
+ * locks. Instrumented code looks up its metrics once, in static fields, and then only does work
+ * when the registry is enabled:
+ * 
+ * <pre>
+ * long start = metrics.startTime();
+ * ...
+ * SEARCH_NANOS.recordElapsed(start); // does nothing if the registry was disabled at start
+ * </pre>
+ * 
+ * so that a disabled registry costs a volatile read per measured phase. It is disabled by default
+ * and can be switched on with the otp.metrics system property or the monitoring web service.
+ */
+public class MetricsRegistry {
+
+    /** The start time returned when the registry is disabled. */
+    public static final long DISABLED = Long.MIN_VALUE;
+
+    private static final MetricsRegistry registry = new MetricsRegistry();
+
+    @Getter @Setter
+    private volatile boolean enabled = Boolean.getBoolean("otp.metrics");
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    public static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /** @return the counter with this name, created on first use */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = counters.putIfAbsent(name, counter);
+            if (existing != null)
+                counter = existing;
+        }
+        return counter;
+    }
+
+    /** @return the histogram with this name, created on first use */
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = histograms.putIfAbsent(name, histogram);
+            if (existing != null)
+                histogram = existing;
+        }
+        return histogram;
+    }
+
+    /** Report the value of this gauge under this name, replacing any gauge of the same name. */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /** @return System.nanoTime(), or DISABLED when the registry is disabled */
+    public long startTime() {
+        return enabled ? System.nanoTime() : DISABLED;
+    }
+
+    /** Zero all counters and histograms. Gauges are not affected. */
+    public void reset() {
+        for (Counter counter : counters.values())
+            counter.reset();
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+    /**
+     * @return the value of each counter and gauge, and the count, mean, median, 90th and 99th
+     *         percentiles and maximum of each histogram that recorded something, by name
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new TreeMap<String, Object>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getValue());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getCount() == 0)
+                continue;
+            Map<String, Number> summary = new TreeMap<String, Number>();
+            summary.put("count", histogram.getCount());
+            summary.put("mean", histogram.getMean());
+            summary.put("p50", histogram.getValueAtPercentile(50));
+            summary.put("p90", histogram.getValueAtPercentile(90));
+            summary.put("p99", histogram.getValueAtPercentile(99));
+            summary.put("max", histogram.getMax());
+            snapshot.put(entry.getKey(), summary);
+        }
+        return snapshot;
+    }
+
+}
@@ -13,12 +13,17 @@
 
 package org.opentripplanner.util.monitoring;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This supports the monitoring of various system properties, such as free memory.
@@ -27,6 +32,8 @@ import java.util.List;
  * tracking max values as well as a list of notes.  The use pattern, when monitoring is expensive,
  * is to check isMonitoring before computing anything.
  * 
+ * It is safe for concurrent use. For timings and other per-request values, see MetricsRegistry.
+ * 
  * TODO: allow registering special case monitoring for complex cases like long queries.
  * 
  * @author novalis
@@ -34,11 +41,13 @@ import java.util.List;
  */
 public class MonitoringStore {
 
-    private HashSet<String> monitoring = new HashSet<String>();
+    private Set<String> monitoring = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    private HashMap<String, Long> longs = new HashMap<String, Long>();
+    private ConcurrentMap<String, AtomicLong> longs = new ConcurrentHashMap<String, AtomicLong>();
 
-    private ListMultimap<String, String> notes = LinkedListMultimap.create();
+    private ListMultimap<String, String> notes = Multimaps
+            .synchronizedListMultimap(LinkedListMultimap.<String, String> create());
 
     public void addNote(String k, String v) {
         if (!monitoring.contains(k))
@@ -51,11 +60,14 @@ public class MonitoringStore {
     }
 
     public Long getLong(String k) {
-        return longs.get(k);
+        AtomicLong v = longs.get(k);
+        return v == null ? null : v.get();
     }
 
     public List<String> getNotes(String k) {
-        return notes.get(k);
+        synchronized (notes) {
+            return ImmutableList.copyOf(notes.get(k));
+        }
     }
 
     public boolean isMonitoring(String k) {
@@ -69,18 +81,34 @@ public class MonitoringStore {
     public void setLong(String k, long v) {
         if (!monitoring.contains(k))
             return;
-        longs.put(k, v);
+        AtomicLong value = longs.get(k);
+        if (value == null && (value = longs.putIfAbsent(k, new AtomicLong(v))) == null)
+            return;
+        value.set(v);
     }
 
-    public synchronized void setLongMax(String k, long v) {
+    public void setLongMax(String k, long v) {
         if (!monitoring.contains(k))
             return;
-        Long old = longs.get(k);
-        if (old == null || old < v) {
-            longs.put(k, v);
+        AtomicLong value = longs.get(k);
+        if (value == null && (value = longs.putIfAbsent(k, new AtomicLong(v))) == null)
+            return;
+        long old = value.get();
+        while (old < v && !value.compareAndSet(old, v)) {
+            old = value.get();
         }
     }
 
+    /** Add to a counter, which starts at zero. */
+    public void addToLong(String k, long delta) {
+        if (!monitoring.contains(k))
+            return;
+        AtomicLong value = longs.get(k);
+        if (value == null && (value = longs.putIfAbsent(k, new AtomicLong(delta))) == null)
+            return;
+        value.addAndGet(delta);
+    }
+
     public void stopMonitoring(String k) {
         monitoring.remove(k);
     }
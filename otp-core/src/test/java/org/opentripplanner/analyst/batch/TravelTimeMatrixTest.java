@@ -0,0 +1,70 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TravelTimeMatrixTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** Test that rows written across several mapped blocks read back in place */
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = temporaryFolder.newFile("matrix.bin");
+        int rows = 7, cols = 5;
+        // three rows per block, so the last block is partial
+        TravelTimeMatrix matrix = new TravelTimeMatrix(file, rows, cols, 3 * cols * 4, true);
+        int[] row = new int[cols];
+        for (int r = rows - 1; r >= 0; r--) {
+            for (int c = 0; c < cols; c++)
+                row[c] = r * 100 + c;
+            matrix.setRow(r, row);
+        }
+        matrix.close();
+        assertEquals(8 + 4L * rows * cols, file.length());
+
+        matrix = new TravelTimeMatrix(file);
+        assertEquals(rows, matrix.getRows());
+        assertEquals(cols, matrix.getCols());
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++)
+                assertEquals(r * 100 + c, matrix.get(r, c));
+        }
+        matrix.close();
+
+        // the file layout is plain big-endian ints, readable without this class
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        assertEquals(rows, in.readInt());
+        assertEquals(cols, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEquals(1, in.readInt());
+        in.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRowLength() throws Exception {
+        TravelTimeMatrix matrix = new TravelTimeMatrix(temporaryFolder.newFile("short.bin"), 2, 3);
+        matrix.setRow(0, new int[2]);
+    }
+
+}
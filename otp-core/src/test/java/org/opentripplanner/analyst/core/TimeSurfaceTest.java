@@ -0,0 +1,87 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.TestUtils;
+
+public class TimeSurfaceTest extends TestCase {
+
+    public void testSameResultsAsTree() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        Vertex origin = null;
+        for (int i = 0; origin == null; i++)
+            origin = graph.getVertex("TriMet_" + i);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.batch = true;
+        options.setRoutingContext(graph, origin, null);
+        ShortestPathTree spt = new GenericAStar().getShortestPathTree(options);
+        TimeSurface surface = new TimeSurface(spt);
+
+        assertEquals(options.dateTime, surface.dateTime);
+        int reached = 0;
+        for (Vertex v : graph.getVertices()) {
+            State s = spt.getState(v);
+            if (s == null) {
+                assertEquals(TimeSurface.UNREACHABLE, surface.getTime(v));
+                assertEquals(TimeSurface.UNREACHABLE_BOARDINGS, surface.getBoardings(v));
+                assertTrue(Float.isNaN(surface.getWalkDistance(v)));
+                continue;
+            }
+            reached++;
+            assertEquals(s.getActiveTime(), surface.getTime(v));
+            assertEquals(s.getNumBoardings(), surface.getBoardings(v));
+            assertEquals(s.getWalkDistance(), surface.getWalkDistance(v), 0.01);
+
+            // a sample at the vertex evaluates the same on the tree and on the surface
+            Sample sample = new Sample(v, 10, v, 20);
+            assertEquals(sample.eval(spt), sample.eval(surface));
+            assertEquals(sample.evalBoardings(spt), sample.evalBoardings(surface));
+        }
+        assertTrue(reached > 0);
+        assertEquals(reached, surface.getVertexCount());
+        options.cleanup();
+    }
+
+    /** Temporary vertices are outside the arrays sized for the graph, and still reported. */
+    public void testTemporaryVertices() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        Vertex origin = new IntersectionVertex(null, "temporary origin", -122.68, 45.52);
+        Vertex other = new IntersectionVertex(null, "temporary vertex", -122.68, 45.52);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.batch = true;
+        options.setRoutingContext(graph, origin, null);
+        TimeSurface surface = new TimeSurface(new GenericAStar().getShortestPathTree(options));
+
+        assertEquals(1, surface.getVertexCount());
+        assertEquals(0, surface.getTime(origin));
+        assertEquals(0, surface.getBoardings(origin));
+        assertEquals(0, surface.getWalkDistance(origin), 0.01);
+        assertEquals(TimeSurface.UNREACHABLE, surface.getTime(other));
+        assertEquals(TimeSurface.UNREACHABLE_BOARDINGS, surface.getBoardings(other));
+        assertTrue(Float.isNaN(surface.getWalkDistance(other)));
+    }
+
+}
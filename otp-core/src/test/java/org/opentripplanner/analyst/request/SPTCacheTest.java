@@ -0,0 +1,57 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.request;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+
+public class SPTCacheTest extends TestCase {
+
+    private RoutingRequest batchRequest(String name, long time) {
+        RoutingRequest req = new RoutingRequest();
+        req.batch = true;
+        req.from = new GenericLocation(name, "45.52,-122.68");
+        req.dateTime = time;
+        req.worstTime = time + 3600;
+        return req;
+    }
+
+    public void testNormalize() {
+        SPTCache cache = new SPTCache();
+        RoutingRequest a = batchRequest("a", 1000000020);
+        RoutingRequest b = batchRequest("b", 1000000035);
+        b.setNumItineraries(3);
+        assertFalse(a.equals(b));
+
+        RoutingRequest keyA = cache.normalize(a);
+        RoutingRequest keyB = cache.normalize(b);
+        assertEquals(keyA, keyB);
+        assertEquals(keyA.hashCode(), keyB.hashCode());
+        assertEquals(1000000020 - 1000000020 % 60, keyA.dateTime);
+        assertEquals(keyA.dateTime + 3600, keyA.worstTime);
+        // the original requests are not modified
+        assertEquals(1000000035, b.dateTime);
+        assertEquals("b", b.from.getName());
+
+        // the next bucket is a different key
+        RoutingRequest c = batchRequest("a", keyA.dateTime + 60);
+        assertFalse(keyA.equals(cache.normalize(c)));
+
+        cache.setTimeBucket(0);
+        assertEquals(1000000035, cache.normalize(b).dateTime);
+    }
+
+}
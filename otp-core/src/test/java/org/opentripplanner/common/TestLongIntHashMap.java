@@ -0,0 +1,64 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestLongIntHashMap extends TestCase {
+
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        Map<Long, Integer> reference = new HashMap<Long, Integer>();
+        for (int i = 0; i < 200000; i++) {
+            // sequential ids, negative ids, and the value used to mark free slots
+            long key;
+            switch (random.nextInt(3)) {
+            case 0:
+                key = random.nextInt(100000);
+                break;
+            case 1:
+                key = -random.nextInt(1000);
+                break;
+            default:
+                key = random.nextBoolean() ? Long.MIN_VALUE : random.nextLong();
+            }
+            int value = random.nextInt(1000000);
+            Integer previous = reference.put(key, value);
+            assertEquals(previous == null ? -1 : previous, map.put(key, value));
+        }
+        assertEquals(reference.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : reference.entrySet()) {
+            assertTrue(map.containsKey(entry.getKey()));
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+        }
+        assertFalse(map.containsKey(100001));
+        assertEquals(-1, map.get(100001));
+    }
+
+    public void testLongHashSet() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(5));
+        assertFalse(set.add(5));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertFalse(set.contains(6));
+        assertEquals(2, set.size());
+    }
+
+}
@@ -0,0 +1,102 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestPersistentHashMap extends TestCase {
+
+    /** A key with a chosen hash code, to force collisions. */
+    private static class Key {
+
+        final int id;
+
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).id == id;
+        }
+    }
+
+    public void testAgainstHashMap() {
+        checkAgainstHashMap(false);
+    }
+
+    public void testCollisions() {
+        checkAgainstHashMap(true);
+    }
+
+    private void checkAgainstHashMap(boolean collide) {
+        Random random = new Random(42);
+        Key[] keys = new Key[3000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = new Key(i, collide ? i % 50 : i * 0x9E3779B1);
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        Map<Key, Integer> reference = new HashMap<Key, Integer>();
+        List<PersistentHashMap<Key, Integer>> snapshots = new ArrayList<PersistentHashMap<Key, Integer>>();
+        List<Map<Key, Integer>> references = new ArrayList<Map<Key, Integer>>();
+        for (int i = 0; i < 50000; i++) {
+            Key key = keys[random.nextInt(keys.length)];
+            if (random.nextInt(3) == 0) {
+                map = map.minus(key);
+                reference.remove(key);
+            } else {
+                int value = random.nextInt(5);
+                map = map.plus(key, value);
+                reference.put(key, value);
+            }
+            assertEquals(reference.size(), map.size());
+            if (i % 5000 == 0) {
+                snapshots.add(map);
+                references.add(new HashMap<Key, Integer>(reference));
+            }
+        }
+        // earlier versions are unaffected by later updates
+        for (int s = 0; s < snapshots.size(); s++) {
+            PersistentHashMap<Key, Integer> snapshot = snapshots.get(s);
+            Map<Key, Integer> expected = references.get(s);
+            for (Key key : keys)
+                assertEquals(expected.get(key), snapshot.get(key));
+            assertEquals(expected.keySet(), new HashSet<Key>(snapshot.keys()));
+        }
+    }
+
+    public void testUnchanged() {
+        PersistentHashMap<String, String> map = PersistentHashMap.empty();
+        map = map.plus("a", "1");
+        assertSame(map, map.plus("a", "1"));
+        assertSame(map, map.minus("b"));
+        assertEquals(0, map.minus("a").size());
+        assertNull(map.minus("a").get("a"));
+    }
+
+}
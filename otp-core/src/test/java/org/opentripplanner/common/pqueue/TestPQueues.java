@@ -103,6 +103,51 @@ public class TestPQueues extends TestCase {
         assertEquals(1, binHeap.size());
     }
 
+    public void testIndexedDaryHeap() {
+        IndexedDaryHeap<String> heap = new IndexedDaryHeap<String>(10);
+        List<String> elems = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            String s = "e" + i;
+            elems.add(s);
+            heap.insert(s, 100 - i);
+        }
+        assertEquals(100, heap.size());
+        assertEquals("e99", heap.peek_min());
+        assertEquals(1, heap.peek_min_key(), 1e-4);
+
+        // remove the current minimum and an element from the middle of the heap
+        assertTrue(heap.remove(elems.get(99)));
+        assertTrue(heap.remove(elems.get(50)));
+        assertFalse(heap.remove(elems.get(50)));
+        assertFalse(heap.contains(elems.get(50)));
+        assertEquals(98, heap.size());
+        assertEquals(2, heap.getRemovedCount());
+        assertEquals("e98", heap.peek_min());
+
+        // decrease and increase keys
+        assertTrue(heap.rekey(elems.get(0), 0.5));
+        assertEquals("e0", heap.peek_min());
+        assertTrue(heap.rekey(elems.get(0), 1000));
+        assertEquals("e98", heap.peek_min());
+        heap.insert_or_dec_key(elems.get(0), 2000);
+        heap.insert_or_dec_key(elems.get(0), 0.25);
+        assertEquals(0.25, heap.peek_min_key(), 1e-4);
+        assertFalse(heap.rekey("absent", 1));
+
+        // elements come out in key order
+        double last = Double.NEGATIVE_INFINITY;
+        int n = 0;
+        while (!heap.empty()) {
+            double key = heap.peek_min_key();
+            assertTrue(key >= last);
+            last = key;
+            assertNotNull(heap.extract_min());
+            n++;
+        }
+        assertEquals(98, n);
+        assertNull(heap.extract_min());
+    }
+
     private List<OTPPriorityQueue<Integer>> makeQueues() {
         List<OTPPriorityQueue<Integer>> queues = new ArrayList<OTPPriorityQueue<Integer>>();
         queues.add(new PriorityQueueImpl<Integer>());
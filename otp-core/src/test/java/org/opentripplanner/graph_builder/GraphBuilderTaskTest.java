@@ -0,0 +1,165 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.graph_builder.services.ConcurrentGraphBuilder;
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.graph.Graph;
+
+import com.google.common.io.Files;
+
+public class GraphBuilderTaskTest extends TestCase {
+
+    /** The order in which builders started and finished */
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    private class TestBuilder implements GraphBuilder {
+        final String name;
+        final List<String> provides;
+        final List<String> prerequisites;
+
+        TestBuilder(String name, List<String> provides, List<String> prerequisites) {
+            this.name = name;
+            this.provides = provides;
+            this.prerequisites = prerequisites;
+        }
+
+        public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+            events.add("start " + name);
+            work();
+            events.add("end " + name);
+        }
+
+        void work() {
+        }
+
+        public List<String> provides() {
+            return provides;
+        }
+
+        public List<String> getPrerequisites() {
+            return prerequisites;
+        }
+
+        public void checkInputs() {
+        }
+    }
+
+    private class TestConcurrentBuilder extends TestBuilder implements ConcurrentGraphBuilder {
+        final List<String> reads;
+        final List<String> writes;
+
+        TestConcurrentBuilder(String name, List<String> provides, List<String> prerequisites,
+                List<String> reads, List<String> writes) {
+            super(name, provides, prerequisites);
+            this.reads = reads;
+            this.writes = writes;
+        }
+
+        public List<String> reads() {
+            return reads;
+        }
+
+        public List<String> writes() {
+            return writes;
+        }
+    }
+
+    private static List<String> none() {
+        return Collections.emptyList();
+    }
+
+    public void testDependsOn() {
+        GraphBuilder streets = new TestBuilder("streets", Arrays.asList("streets"), none());
+        ConcurrentGraphBuilder elevation = new TestConcurrentBuilder("elevation",
+                Arrays.asList("elevation"), Arrays.asList("streets"), Arrays.asList("streets"),
+                Arrays.asList("streets"));
+        ConcurrentGraphBuilder landmarks = new TestConcurrentBuilder("landmarks",
+                Arrays.asList("landmarks"), Arrays.asList("streets"), Arrays.asList("streets"),
+                Arrays.asList("landmarks"));
+        ConcurrentGraphBuilder contraction = new TestConcurrentBuilder("contraction",
+                Arrays.asList("contraction"), Arrays.asList("streets"), Arrays.asList("streets"),
+                Arrays.asList("contraction"));
+        ConcurrentGraphBuilder fares = new TestConcurrentBuilder("fares", Arrays.asList("fares"),
+                none(), Arrays.asList("fares"), Arrays.asList("fares"));
+        ConcurrentGraphBuilder needsLandmarks = new TestConcurrentBuilder("needsLandmarks",
+                none(), Arrays.asList("landmarks"), none(), none());
+
+        // builders that do not declare what they touch wait and are waited for
+        assertTrue(GraphBuilderTask.dependsOn(elevation, streets));
+        assertTrue(GraphBuilderTask.dependsOn(streets, fares));
+        // one writes what the other reads
+        assertTrue(GraphBuilderTask.dependsOn(landmarks, elevation));
+        assertTrue(GraphBuilderTask.dependsOn(elevation, landmarks));
+        // both only read the streets
+        assertFalse(GraphBuilderTask.dependsOn(contraction, landmarks));
+        assertFalse(GraphBuilderTask.dependsOn(fares, elevation));
+        // declared prerequisite
+        assertTrue(GraphBuilderTask.dependsOn(needsLandmarks, landmarks));
+        assertFalse(GraphBuilderTask.dependsOn(needsLandmarks, contraction));
+    }
+
+    public void testConcurrentRun() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        List<GraphBuilder> builders = new ArrayList<GraphBuilder>();
+        builders.add(new TestBuilder("streets", Arrays.asList("streets"), none()));
+        for (String name : new String[] { "landmarks", "contraction" }) {
+            builders.add(new TestConcurrentBuilder(name, Arrays.asList(name),
+                    Arrays.asList("streets"), Arrays.asList("streets"), Arrays.asList(name)) {
+                @Override
+                void work() {
+                    bothRunning.countDown();
+                    try {
+                        // only returns true if the other builder runs at the same time
+                        assertTrue(bothRunning.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        builders.add(new TestConcurrentBuilder("elevation", Arrays.asList("elevation"),
+                Arrays.asList("streets"), Arrays.asList("streets"), Arrays.asList("streets")));
+
+        File dir = Files.createTempDir();
+        GraphBuilderTask task = new GraphBuilderTask();
+        task.setGraphBuilders(builders);
+        task.setPath(dir);
+        task.setSerializeGraph(false);
+        task.setBuilderThreads(4);
+        File reportFile = new File(dir, "build-report.json");
+        task.setBuildReportFile(reportFile);
+        task.run();
+
+        assertEquals("start streets", events.get(0));
+        assertEquals("end streets", events.get(1));
+        assertEquals("start elevation", events.get(6));
+        assertEquals(4, task.getBuildReport().stages.size());
+        assertTrue(reportFile.length() > 0);
+        reportFile.delete();
+        dir.delete();
+    }
+
+}
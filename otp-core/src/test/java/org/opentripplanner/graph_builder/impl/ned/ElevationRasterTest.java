@@ -0,0 +1,154 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl.ned;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.media.jai.InterpolationBilinear;
+
+import junit.framework.TestCase;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.Interpolator2D;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.geometry.Envelope2D;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.geometry.Envelope;
+
+public class ElevationRasterTest extends TestCase {
+
+    /** A directory of GeoTIFF elevation tiles to benchmark sampling with, if set. */
+    private static final String BENCHMARK_TILES = "otp.ned.benchmarkTiles";
+
+    private Random random = new Random(42);
+
+    public void testSamplesLikeInterpolator() throws Exception {
+        // a raster of 150x100 pixels with more than one tile of the mapped file each way
+        float[][] samples = new float[100][150];
+        for (int row = 0; row < samples.length; row++) {
+            for (int col = 0; col < samples[row].length; col++) {
+                samples[row][col] = random.nextFloat() * 100;
+            }
+        }
+        Envelope2D envelope = new Envelope2D(DefaultGeographicCRS.WGS84, -122.5, 45.5, 0.15, 0.1);
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", samples, envelope);
+        GridCoverage2D interpolator = Interpolator2D.create(coverage, new InterpolationBilinear());
+        ElevationRaster.Reader reader = new ElevationRaster(coverage, null).reader();
+
+        double[] values = new double[1];
+        for (int i = 0; i < 1000; i++) {
+            // stay a pixel away from the border, where the interpolator may give up
+            double x = -122.5 + 0.001 + random.nextDouble() * 0.148;
+            double y = 45.5 + 0.001 + random.nextDouble() * 0.098;
+            interpolator.evaluate(new DirectPosition2D(x, y), values);
+            assertEquals(values[0], reader.sample(x, y), 0.001);
+        }
+        // pixel centers
+        assertEquals(samples[0][0], reader.sample(-122.4995, 45.5995), 0.001);
+        assertEquals(samples[99][149], reader.sample(-122.3505, 45.5005), 0.001);
+
+        assertTrue(Double.isNaN(reader.sample(-122.6, 45.55)));
+        assertTrue(Double.isNaN(reader.sample(-122.4, 45.7)));
+    }
+
+    /**
+     * Compares sampling random points of the tiles through the interpolated coverages on one
+     * thread with sampling them through mapped rasters on all processors. Only runs when a
+     * directory of tiles, such as the NED cache of a previous build, is given with
+     * -Dotp.ned.benchmarkTiles=...
+     */
+    public void testBenchmark() throws Exception {
+        String path = System.getProperty(BENCHMARK_TILES);
+        if (path == null)
+            return;
+        File[] files = new File(path).listFiles();
+        final List<GridCoverage2D> coverages = new ArrayList<GridCoverage2D>();
+        for (File file : files) {
+            if (file.getName().endsWith(".tif") || file.getName().endsWith(".tiff"))
+                coverages.add(Interpolator2D.create(
+                        new GeotiffGridCoverageFactoryImpl(file).getGridCoverage(),
+                        new InterpolationBilinear()));
+        }
+        assertFalse("no GeoTIFF tiles in " + path, coverages.isEmpty());
+
+        final int nSamples = 1000000;
+        final double[][] points = new double[nSamples][];
+        for (int i = 0; i < nSamples; i++) {
+            Envelope envelope = coverages.get(random.nextInt(coverages.size())).getEnvelope();
+            points[i] = new double[] {
+                    envelope.getMinimum(0) + random.nextDouble() * envelope.getSpan(0),
+                    envelope.getMinimum(1) + random.nextDouble() * envelope.getSpan(1) };
+        }
+
+        long t0 = System.currentTimeMillis();
+        double[] values = new double[1];
+        for (double[] point : points) {
+            for (GridCoverage2D coverage : coverages) {
+                if (coverage.getEnvelope2D().contains(point[0], point[1])) {
+                    coverage.evaluate(new DirectPosition2D(point[0], point[1]), values);
+                    break;
+                }
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        final List<ElevationRaster> rasters = new ArrayList<ElevationRaster>();
+        for (GridCoverage2D coverage : coverages) {
+            rasters.add(new ElevationRaster(coverage, null));
+        }
+        long t2 = System.currentTimeMillis();
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < nThreads; t++) {
+            final int first = t;
+            final int step = nThreads;
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    List<ElevationRaster.Reader> readers = new ArrayList<ElevationRaster.Reader>();
+                    for (ElevationRaster raster : rasters)
+                        readers.add(raster.reader());
+                    int found = 0;
+                    for (int i = first; i < nSamples; i += step) {
+                        for (ElevationRaster.Reader reader : readers) {
+                            if (!Double.isNaN(reader.sample(points[i][0], points[i][1]))) {
+                                found++;
+                                break;
+                            }
+                        }
+                    }
+                    return found;
+                }
+            }));
+        }
+        int found = 0;
+        for (Future<Integer> future : futures)
+            found += future.get();
+        executor.shutdown();
+        long t3 = System.currentTimeMillis();
+        assertTrue(found > nSamples * 0.99);
+        System.out.println(String.format(
+                "%d tiles, %d samples: coverage %d ms, mapping %d ms, %d threads %d ms",
+                coverages.size(), nSamples, t1 - t0, t2 - t1, nThreads, t3 - t2));
+    }
+
+}
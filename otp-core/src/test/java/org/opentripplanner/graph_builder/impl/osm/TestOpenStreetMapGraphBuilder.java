@@ -266,6 +266,45 @@ public class TestOpenStreetMapGraphBuilder extends TestCase {
                 namer.generateCreativeName(way));
     }
 
+    /**
+     * The compact node store, with its coordinates memory-mapped, must build the same graph as the
+     * default one.
+     */
+    @Test
+    public void testCompactNodeStore() throws Exception {
+        File file = new File(getClass().getResource("map.osm.gz").getFile());
+
+        Graph expected = new Graph();
+        OpenStreetMapGraphBuilderImpl loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(file);
+        loader.setProvider(provider);
+        loader.buildGraph(expected, extra);
+
+        Graph actual = new Graph();
+        loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        CompactOSMNodeStore nodeStore = new CompactOSMNodeStore();
+        nodeStore.setDirectory(new File(System.getProperty("java.io.tmpdir")));
+        loader.setNodeStore(nodeStore);
+        provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(file);
+        loader.setProvider(provider);
+        loader.buildGraph(actual, new HashMap<Class<?>, Object>());
+
+        // the builder releases the store once the graph is built
+        assertEquals(0, nodeStore.size());
+        assertEquals(expected.getVertices().size(), actual.getVertices().size());
+        assertEquals(expected.getEdges().size(), actual.getEdges().size());
+        for (Vertex v : expected.getVertices()) {
+            Vertex w = actual.getVertex(v.getLabel());
+            assertNotNull(w);
+            assertEquals(v.getCoordinate(), w.getCoordinate());
+            assertEquals(v.getDegreeOut(), w.getDegreeOut());
+        }
+    }
+
     // disabled pending discussion with author (AMB)
     // @Test
     // public void testMultipolygon() throws Exception {
@@ -0,0 +1,116 @@
+package org.opentripplanner.profile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.AllArgsConstructor;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+
+package org.opentripplanner.profile;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.profile.ProfileRouter.Stats;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.graph.Graph;
+
+import com.google.common.collect.Maps;
+
+public class RangeRaptorRouterTest extends TestCase {
+
+    private ProfileData data;
+
+    private ProfileTimetable timetable;
+
+    public void setUp() {
+        Graph graph = ConstantsForTests.buildGraph(ConstantsForTests.FAKE_GTFS);
+        data = new ProfileData(graph);
+        ServiceDay serviceDay = new ServiceDay(graph, new ServiceDate(2009, 8, 7),
+                graph.getCalendarService(), "agency");
+        timetable = new ProfileTimetable(data, serviceDay, ProfileData.WALK_SPEED);
+    }
+
+    private Stop stop(String id) {
+        for (Stop stop : timetable.stops) {
+            if (stop.getId().getId().equals(id))
+                return stop;
+        }
+        throw new IllegalArgumentException(id);
+    }
+
+    private List<Option> route(String from, String to, int fromTime, int toTime, int threads) {
+        RangeRaptorRouter router = new RangeRaptorRouter(data, timetable);
+        router.setThreads(threads);
+        return router.route(stop(from).getLat(), stop(from).getLon(), stop(to).getLat(),
+                stop(to).getLon(), fromTime, toTime);
+    }
+
+    public void testOneRide() {
+        // trip 1.3 leaves A at 8:00 and reaches C at 8:30, waited for from 7:50 to 7:59
+        List<Option> options = route("A", "C", 7 * 3600 + 50 * 60, 8 * 3600, 1);
+        assertEquals(1, options.size());
+        Option option = options.get(0);
+        assertEquals(1, option.getSegments().size());
+        assertEquals("1", option.getSegments().get(0).getRoute());
+        assertEquals("A", option.getSegments().get(0).getFrom());
+        assertEquals("C", option.getSegments().get(0).getTo());
+        assertEquals(31 * 60, option.getStats().getMin());
+        assertEquals(40 * 60, option.getStats().getMax());
+        assertEquals((31 + 40) * 60 / 2, option.getStats().getAvg());
+    }
+
+    public void testSlicesMatchSingleSweep() {
+        // routes 2 and 3 take turns from B to D between midnight and one
+        Map<String, Stats> single = stats(route("B", "D", 0, 3600, 1));
+        Map<String, Stats> sliced = stats(route("B", "D", 0, 3600, 4));
+        assertEquals(2, single.size());
+        assertEquals(single.keySet(), sliced.keySet());
+        for (String key : single.keySet()) {
+            assertEquals(single.get(key).getMin(), sliced.get(key).getMin());
+            assertEquals(single.get(key).getAvg(), sliced.get(key).getAvg());
+            assertEquals(single.get(key).getMax(), sliced.get(key).getMax());
+        }
+    }
+
+    private Map<String, Stats> stats(List<Option> options) {
+        Map<String, Stats> ret = Maps.newHashMap();
+        for (Option option : options) {
+            assertNull(ret.put(option.getSummary(), option.getStats()));
+        }
+        return ret;
+    }
+
+    public void testFindTrip() {
+        int p = -1;
+        for (int i = 0; i < timetable.patterns.length; i++) {
+            if (timetable.patterns[i].route.getId().getId().equals("1"))
+                p = i;
+        }
+        // trips 1.1, 1.2 and 1.3 leave A at 0:00, 0:20 and 8:00, and B at 0:10, 0:30 and 8:20
+        assertEquals(3, timetable.nTrips[p]);
+        assertEquals(0, timetable.findTrip(p, 0, 0));
+        assertEquals(1, timetable.findTrip(p, 0, 1));
+        assertEquals(1, timetable.findTrip(p, 0, 20 * 60));
+        assertEquals(2, timetable.findTrip(p, 0, 20 * 60 + 1));
+        assertEquals(2, timetable.findTrip(p, 0, 8 * 3600));
+        assertEquals(-1, timetable.findTrip(p, 0, 8 * 3600 + 1));
+        assertEquals(0, timetable.findTrip(p, 1, 0));
+        assertEquals(2, timetable.findTrip(p, 1, 8 * 3600));
+        assertEquals(2, timetable.findTrip(p, 1, 8 * 3600 + 20 * 60));
+        assertEquals(-1, timetable.findTrip(p, 1, 8 * 3600 + 20 * 60 + 1));
+        assertEquals(8 * 3600 + 30 * 60, timetable.arrival(p, 2, 2));
+    }
+
+}
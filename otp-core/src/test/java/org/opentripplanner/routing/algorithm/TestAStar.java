@@ -20,6 +20,7 @@ import junit.framework.TestCase;
 
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -29,6 +30,8 @@ import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.util.TestUtils;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 
 public class TestAStar extends TestCase {
     
@@ -93,6 +96,69 @@ public class TestAStar extends TestCase {
         assertNull(path);        
     }
 
+    public void testIndexedQueue() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        GenericAStar indexedAStar = new GenericAStar();
+        indexedAStar.setPriorityQueueFactory(IndexedDaryHeap.FACTORY);
+        Vertex airport = graph.getVertex("TriMet_10579");
+        String[] origins = { "TriMet_8371", "TriMet_6876", "TriMet_2003", "TriMet_13150" };
+        for (String origin : origins) {
+            if (graph.getVertex(origin) == null)
+                continue;
+            RoutingRequest options = new RoutingRequest();
+            options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+            options.setRoutingContext(graph, origin, airport.getLabel());
+            GraphPath expected = aStar.getShortestPathTree(options).getPath(airport, true);
+            GraphPath actual = indexedAStar.getShortestPathTree(options).getPath(airport, true);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertNotNull(actual);
+                assertEquals(expected.getWeight(), actual.getWeight(), 1e-6);
+            }
+        }
+    }
+
+    public void testPooledStates() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        GenericAStar pooledAStar = new GenericAStar();
+        pooledAStar.setPoolingStates(true);
+        MonitoringStore store = MonitoringStoreFactory.getStore();
+        store.monitor("statesCreated");
+        store.monitor("statesPruned");
+        Vertex airport = graph.getVertex("TriMet_10579");
+        long startTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        String[] origins = { "TriMet_8371", "TriMet_6876", "TriMet_2003", "TriMet_13150" };
+        for (String origin : origins) {
+            if (graph.getVertex(origin) == null)
+                continue;
+            RoutingRequest options = new RoutingRequest();
+            options.dateTime = startTime;
+            options.worstTime = startTime + 60 * 60;
+            options.setRoutingContext(graph, origin, airport.getLabel());
+            long bytes = TestUtils.allocatedBytes();
+            GraphPath expected = aStar.getShortestPathTree(options).getPath(airport, true);
+            long plainBytes = TestUtils.allocatedBytes() - bytes;
+            bytes = TestUtils.allocatedBytes();
+            GraphPath actual = pooledAStar.getShortestPathTree(options).getPath(airport, true);
+            long pooledBytes = TestUtils.allocatedBytes() - bytes;
+            System.out.printf("%s: %d bytes allocated, %d with pooled states%n", origin,
+                    plainBytes, pooledBytes);
+            assertNull(options.rctx.statePool);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertNotNull(actual);
+                assertEquals(expected.getWeight(), actual.getWeight(), 1e-6);
+                assertEquals(expected.getEndTime(), actual.getEndTime());
+            }
+        }
+        assertTrue(store.getLong("statesCreated") > 0);
+        assertTrue(store.getLong("statesPruned") > 0);
+        store.stopMonitoring("statesCreated");
+        store.stopMonitoring("statesPruned");
+    }
+
     public void testPerformance() throws Exception {
 
         Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
@@ -0,0 +1,131 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.graph_builder.impl.osm.DefaultWayPropertySetSource;
+import org.opentripplanner.graph_builder.impl.osm.OpenStreetMapGraphBuilderImpl;
+import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTables;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+public class TestLandmarkHeuristic extends TestCase {
+
+    private static Graph graph;
+
+    private static LandmarkTables tables;
+
+    private static List<Vertex> streetVertices;
+
+    private GenericAStar aStar = new GenericAStar();
+
+    public void setUp() {
+        if (graph != null)
+            return;
+        graph = new Graph();
+        OpenStreetMapGraphBuilderImpl loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(new File(getClass().getResource(
+                "/org/opentripplanner/graph_builder/impl/osm/NYC_small.osm.gz").getFile()));
+        loader.setProvider(provider);
+        loader.buildGraph(graph, new HashMap<Class<?>, Object>());
+        graph.rebuildVertexAndEdgeIndices();
+        tables = new LandmarkTables(graph, 8);
+        graph.putService(LandmarkTables.class, tables);
+        streetVertices = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            if (!v.getOutgoingStreetEdges().isEmpty())
+                streetVertices.add(v);
+        }
+    }
+
+    public void testLandmarks() {
+        assertEquals(8, tables.getLandmarkCount());
+        for (Vertex landmark : tables.getLandmarks()) {
+            assertNotNull(landmark);
+            int[] from = tables.distancesFrom(landmark);
+            int[] to = tables.distancesTo(landmark);
+            boolean self = false;
+            for (int l = 0; l < from.length; l++)
+                self |= from[l] == 0 && to[l] == 0;
+            assertTrue(self);
+        }
+    }
+
+    private GraphPath route(Vertex from, Vertex to, TraverseMode mode, boolean landmarks,
+            int[] visited) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(mode));
+        options.setRoutingContext(graph, from, to);
+        if (landmarks)
+            options.rctx.remainingWeightHeuristic = new LandmarkRemainingWeightHeuristic();
+        ShortestPathTree spt = aStar.getShortestPathTree(options);
+        visited[0] += spt.getVertexCount();
+        GraphPath path = spt.getPath(to, false);
+        options.cleanup();
+        return path;
+    }
+
+    /**
+     * The landmark bound never exceeds the street distance of a path, and routing with it finds
+     * paths as good as routing with the Euclidean heuristic while visiting fewer vertices.
+     */
+    public void testAgainstEuclidean() {
+        for (TraverseMode mode : new TraverseMode[] { TraverseMode.WALK, TraverseMode.CAR }) {
+            Random random = new Random(42);
+            int[] euclideanVisited = new int[1];
+            int[] landmarkVisited = new int[1];
+            int nPaths = 0;
+            for (int i = 0; i < 50; i++) {
+                Vertex from = streetVertices.get(random.nextInt(streetVertices.size()));
+                Vertex to = streetVertices.get(random.nextInt(streetVertices.size()));
+                GraphPath euclidean = route(from, to, mode, false, euclideanVisited);
+                GraphPath landmark = route(from, to, mode, true, landmarkVisited);
+                assertEquals(euclidean == null, landmark == null);
+                if (euclidean == null)
+                    continue;
+                nPaths++;
+                assertTrue(landmark.getWeight() <= euclidean.getWeight() + 0.001);
+                double distance = 0;
+                for (Edge e : landmark.edges) {
+                    if (e instanceof StreetEdge)
+                        distance += e.getDistance();
+                }
+                assertTrue(tables.lowerBound(from, tables.distancesFrom(to),
+                        tables.distancesTo(to), true) <= distance + 0.001);
+                assertTrue(tables.lowerBound(to, tables.distancesFrom(from),
+                        tables.distancesTo(from), false) <= distance + 0.001);
+            }
+            assertTrue(nPaths > 0);
+            assertTrue(landmarkVisited[0] <= euclideanVisited[0]);
+        }
+    }
+
+}
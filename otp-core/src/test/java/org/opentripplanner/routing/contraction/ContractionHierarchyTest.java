@@ -0,0 +1,234 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.graph_builder.impl.osm.DefaultWayPropertySetSource;
+import org.opentripplanner.graph_builder.impl.osm.OpenStreetMapGraphBuilderImpl;
+import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.ContractionPathService;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.impl.RetryingPathServiceImpl;
+import org.opentripplanner.routing.services.PathService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+public class ContractionHierarchyTest extends TestCase {
+
+    private static Graph graph;
+
+    private static ContractionHierarchySet hierarchies;
+
+    private static List<Vertex> streetVertices;
+
+    public void setUp() {
+        if (graph != null)
+            return;
+        graph = new Graph();
+        OpenStreetMapGraphBuilderImpl loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(new File(getClass().getResource(
+                "/org/opentripplanner/graph_builder/impl/osm/NYC_small.osm.gz").getFile()));
+        loader.setProvider(provider);
+        loader.buildGraph(graph, new HashMap<Class<?>, Object>());
+        graph.rebuildVertexAndEdgeIndices();
+        hierarchies = new ContractionHierarchySet();
+        hierarchies.add(new ContractionHierarchy(graph, ContractionProfile.parse("WALK")));
+        hierarchies.add(new ContractionHierarchy(graph, ContractionProfile.parse("CAR")));
+        graph.putService(ContractionHierarchySet.class, hierarchies);
+        streetVertices = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            if (!v.getOutgoingStreetEdges().isEmpty())
+                streetVertices.add(v);
+        }
+    }
+
+    public void testProfiles() {
+        ContractionProfile profile = ContractionProfile.parse("BICYCLE,WALK:SAFE");
+        assertEquals(OptimizeType.SAFE, profile.getOptimize());
+        assertTrue(profile.matches(new RoutingRequest(new TraverseModeSet("BICYCLE,WALK"),
+                OptimizeType.SAFE)));
+        assertFalse(profile.matches(new RoutingRequest(new TraverseModeSet("BICYCLE,WALK"),
+                OptimizeType.QUICK)));
+        RoutingRequest slow = new RoutingRequest(new TraverseModeSet("BICYCLE,WALK"),
+                OptimizeType.SAFE);
+        slow.setBikeSpeed(3);
+        assertFalse(profile.matches(slow));
+        try {
+            ContractionProfile.parse("WALK,BUS");
+            fail("transit profiles are not allowed");
+        } catch (IllegalArgumentException e) {
+        }
+
+        RoutingRequest noTurnCosts = new RoutingRequest(TraverseMode.CAR);
+        noTurnCosts.turnReluctance = 0;
+        assertNotNull(hierarchies.forRequest(noTurnCosts));
+        // turn costs are not in the arc weights
+        assertNull(hierarchies.forRequest(new RoutingRequest(TraverseMode.CAR)));
+        assertNull(hierarchies.forRequest(new RoutingRequest(TraverseMode.BICYCLE)));
+        assertNull(hierarchies.forRequest(new RoutingRequest()));
+    }
+
+    /** The shortest path for the arc weights, by a plain Dijkstra over the street edges. */
+    private static double dijkstra(ContractionHierarchy ch, Vertex from, Vertex to) {
+        Map<Vertex, Double> dist = new HashMap<Vertex, Double>();
+        BinHeap<Vertex> queue = new BinHeap<Vertex>();
+        dist.put(from, 0.0);
+        queue.insert(from, 0);
+        while (!queue.empty()) {
+            double d = queue.peek_min_key();
+            Vertex u = queue.extract_min();
+            if (d > dist.get(u))
+                continue;
+            if (u == to)
+                return d;
+            for (Edge e : u.getOutgoing()) {
+                if (!ContractionHierarchy.isStreet(e))
+                    continue;
+                double dv = d + ch.weight(e);
+                Double old = dist.get(e.getToVertex());
+                if (dv < Double.POSITIVE_INFINITY && (old == null || dv < old)) {
+                    dist.put(e.getToVertex(), dv);
+                    queue.insert(e.getToVertex(), dv);
+                }
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    public void testShortestPaths() {
+        for (ContractionHierarchy ch : hierarchies.getHierarchies()) {
+            Random random = new Random(42);
+            int nPaths = 0;
+            for (int i = 0; i < 100; i++) {
+                Vertex from = streetVertices.get(random.nextInt(streetVertices.size()));
+                Vertex to = streetVertices.get(random.nextInt(streetVertices.size()));
+                double expected = dijkstra(ch, from, to);
+                List<Edge> path = ch.getPath(from, to);
+                if (expected == Double.POSITIVE_INFINITY) {
+                    assertNull(path);
+                    continue;
+                }
+                assertNotNull(path);
+                nPaths++;
+                double weight = 0;
+                Vertex v = from;
+                for (Edge e : path) {
+                    assertSame(v, e.getFromVertex());
+                    weight += ch.weight(e);
+                    v = e.getToVertex();
+                }
+                assertSame(to, v);
+                assertEquals(expected, weight, 0.001);
+            }
+            assertTrue(nPaths > 0);
+        }
+    }
+
+    /**
+     * Without turn costs, which the hierarchy does not know, paths of the path service are as good
+     * as those of a full search, and it answers the same requests.
+     */
+    public void testPathServiceWithoutTurnCosts() {
+        comparePathService(true);
+    }
+
+    /** Default requests have turn costs, so they do not match a hierarchy and are chained. */
+    public void testPathServiceDefaultRequest() {
+        comparePathService(false);
+    }
+
+    private void comparePathService(boolean noTurnCosts) {
+        GenericAStar aStar = new GenericAStar();
+        RetryingPathServiceImpl chained = new RetryingPathServiceImpl();
+        chained.setGraphService(new GraphServiceBeanImpl(graph));
+        chained.setSptService(aStar);
+        ContractionPathService pathService = new ContractionPathService();
+        pathService.graphService = new GraphServiceBeanImpl(graph);
+        pathService.setChainedPathService(chained);
+
+        for (TraverseMode mode : new TraverseMode[] { TraverseMode.WALK, TraverseMode.CAR }) {
+            Random random = new Random(42);
+            int nPaths = 0;
+            for (int i = 0; i < 50; i++) {
+                Vertex from = streetVertices.get(random.nextInt(streetVertices.size()));
+                Vertex to = streetVertices.get(random.nextInt(streetVertices.size()));
+                if (from == to)
+                    continue;
+                RoutingRequest options = new RoutingRequest(mode);
+                options.setArriveBy(i % 2 == 0);
+                if (noTurnCosts)
+                    options.turnReluctance = 0;
+                options.setRoutingContext(graph, from, to);
+                ShortestPathTree spt = aStar.getShortestPathTree(options);
+                GraphPath expected = spt.getPath(options.rctx.target, true);
+                RoutingRequest chOptions = new RoutingRequest(mode);
+                chOptions.setArriveBy(i % 2 == 0);
+                if (noTurnCosts)
+                    chOptions.turnReluctance = 0;
+                chOptions.setNumItineraries(1);
+                assertEquals(noTurnCosts, hierarchies.forRequest(chOptions) != null);
+                chOptions.setRoutingContext(graph, from, to);
+                List<GraphPath> paths = pathService.getPaths(chOptions);
+                if (expected == null) {
+                    assertTrue(paths == null || paths.isEmpty());
+                    continue;
+                }
+                nPaths++;
+                assertFalse(paths.isEmpty());
+                GraphPath path = paths.get(0);
+                assertSame(from, path.states.getFirst().getVertex());
+                assertSame(to, path.states.getLast().getVertex());
+                assertEquals(expected.getWeight(), path.getWeight(), 0.001);
+            }
+            assertTrue(nPaths > 0);
+        }
+    }
+
+    /** Requests for several itineraries are chained, as the hierarchy only finds the shortest. */
+    public void testSeveralItinerariesChained() {
+        final List<GraphPath> chainedPaths = new ArrayList<GraphPath>();
+        ContractionPathService pathService = new ContractionPathService();
+        pathService.graphService = new GraphServiceBeanImpl(graph);
+        pathService.setChainedPathService(new PathService() {
+            @Override
+            public List<GraphPath> getPaths(RoutingRequest options) {
+                return chainedPaths;
+            }
+        });
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.setNumItineraries(3);
+        options.setRoutingContext(graph, streetVertices.get(0), streetVertices.get(1));
+        assertSame(chainedPaths, pathService.getPaths(options));
+    }
+
+}
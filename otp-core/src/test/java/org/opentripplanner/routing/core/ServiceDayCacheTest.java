@@ -0,0 +1,90 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.util.TestUtils;
+
+public class ServiceDayCacheTest extends TestCase {
+
+    private Graph graph;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+    }
+
+    public void testCache() {
+        CalendarService cs = graph.getCalendarService();
+        ServiceDayCache cache = graph.getServiceDayCache();
+        assertSame(cache, graph.getServiceDayCache());
+        long morning = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 8, 0, 0);
+        long evening = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 20, 0, 0);
+        long nextDay = TestUtils.dateInSeconds("America/New_York", 2009, 8, 8, 8, 0, 0);
+
+        ServiceDay sd = cache.get(morning, "agency");
+        assertSame(sd, cache.get(evening, "agency"));
+        ServiceDay expected = new ServiceDay(graph, morning, cs, "agency");
+        assertEquals(expected, sd);
+        assertEquals(expected.getServiceDate(), sd.getServiceDate());
+        assertEquals(expected.serviceIdsRunning, sd.serviceIdsRunning);
+        assertNotSame(sd, cache.get(nextDay, "agency"));
+        assertEquals(2, cache.size());
+
+        ServiceDayCache small = new ServiceDayCache(graph, cs, 1);
+        small.get(morning, "agency");
+        small.get(nextDay, "agency");
+        assertEquals(1, small.size());
+    }
+
+    public void testServiceIdRunningOnAnyDay() {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 0, 0, 0);
+        options.setRoutingContext(graph, "agency_A_depart", "agency_E_arrive");
+        RoutingContext rctx = options.rctx;
+        int nServices = graph.getCalendarService().getServiceIds().size();
+        boolean anyRunning = false;
+        for (int serviceId = 0; serviceId < nServices; serviceId++) {
+            boolean running = false;
+            for (ServiceDay sd : rctx.serviceDays)
+                running |= sd.serviceIdRunning(serviceId);
+            assertEquals(running, rctx.serviceIdRunningOnAnyDay(serviceId));
+            anyRunning |= running;
+        }
+        assertTrue(anyRunning);
+
+        // replacing the service days replaces the services running
+        rctx.serviceDays = new ArrayList<ServiceDay>();
+        assertFalse(rctx.serviceIdRunningOnAnyDay(0));
+        rctx.serviceDays.add(new ServiceDay.UniversalService(graph));
+        assertTrue(rctx.serviceIdRunningOnAnyDay(0));
+        options.cleanup();
+    }
+
+}
@@ -0,0 +1,232 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.opentripplanner.common.IterableLibrary.filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.trippattern.ColumnarTripTimes;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.trippattern.TripUpdateList;
+import org.opentripplanner.routing.trippattern.Update;
+import org.opentripplanner.routing.trippattern.Update.Status;
+import org.opentripplanner.routing.vertextype.TransitStopDepart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TimetableIndexTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimetableIndexTest.class);
+
+    private static TableTripPattern pattern;
+
+    @BeforeClass
+    public static void setUp() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        // the pattern with the most trips
+        for (TransitStopDepart tsd : filter(graph.getVertices(), TransitStopDepart.class)) {
+            for (TransitBoardAlight tba : filter(tsd.getOutgoing(), TransitBoardAlight.class)) {
+                if (tba.isBoarding() && (pattern == null
+                        || tba.getPattern().getTrips().size() > pattern.getTrips().size()))
+                    pattern = tba.getPattern();
+            }
+        }
+    }
+
+    /** Apply delays or cancellations to a few random trips of a copy of the scheduled timetable. */
+    private Timetable updatedCopy(Random random, int nUpdates) {
+        return updatedCopy(pattern.scheduledTimetable, random, nUpdates);
+    }
+
+    private Timetable updatedCopy(Timetable base, Random random, int nUpdates) {
+        Timetable tt = base.copy(new ServiceDate());
+        List<Trip> trips = pattern.getTrips();
+        for (int i = 0; i < nUpdates; i++) {
+            Trip trip = trips.get(random.nextInt(trips.size()));
+            TripUpdateList update;
+            if (random.nextInt(4) == 0) {
+                update = TripUpdateList.forCanceledTrip(trip.getId(), 0, new ServiceDate());
+            } else {
+                int stop = random.nextInt(pattern.getStops().size());
+                Update u = new Update(trip.getId(), pattern.getStop(stop).getId(), null,
+                        random.nextInt(3600), Status.PREDICTION, 0, new ServiceDate());
+                update = TripUpdateList.forUpdatedTrip(trip.getId(), 0, new ServiceDate(),
+                        Collections.singletonList(u));
+            }
+            assertTrue(tt.update(update));
+        }
+        return tt;
+    }
+
+    private static TripTimes[] hopIndex(TripTimes[][] index, int hop) {
+        return index.length == 1 ? index[0] : index[hop];
+    }
+
+    private static int[] hopOrder(int[][] index, int hop) {
+        return index.length == 1 ? index[0] : index[hop];
+    }
+
+    private static void assertSameOrder(TripTimes[] expected, TripTimes[] actual,
+            Comparator<TripTimes> comparator) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(0, comparator.compare(expected[i], actual[i]));
+            if (i > 0)
+                assertTrue(comparator.compare(actual[i - 1], actual[i]) <= 0);
+        }
+    }
+
+    @Test
+    public void testIncrementalIndexMatchesFullIndex() {
+        int nTrips = pattern.getTrips().size();
+        assertTrue(nTrips > 16);
+        assertNotNull(pattern.scheduledTimetable.getDeparturesIndex());
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            Timetable tt = updatedCopy(random, 1 + random.nextInt(Math.max(1, nTrips / 2)));
+            // an updated timetable is never searched through a stale index
+            assertNull(tt.getDeparturesIndex());
+            assertTrue(tt.reindex());
+            TripTimes[][] arrivals = tt.getArrivalsIndex();
+            TripTimes[][] departures = tt.getDeparturesIndex();
+            tt.index();
+            Set<TripTimes> all = new HashSet<TripTimes>();
+            for (int t = 0; t < nTrips; t++)
+                all.add(tt.getTripTimes(t));
+            for (int hop = 0; hop < pattern.getHopCount(); hop++) {
+                assertSameOrder(hopIndex(tt.getArrivalsIndex(), hop), hopIndex(arrivals, hop),
+                        new TripTimes.ArrivalsComparator(hop));
+                assertSameOrder(hopIndex(tt.getDeparturesIndex(), hop),
+                        hopIndex(departures, hop), new TripTimes.DeparturesComparator(hop));
+                assertEquals(all, new HashSet<TripTimes>(Arrays.asList(hopIndex(departures, hop))));
+            }
+        }
+    }
+
+    @Test
+    public void testColumns() {
+        Timetable scheduled = pattern.scheduledTimetable;
+        Timetable tt = scheduled.copy(null);
+        Timetable.setColumnar(true);
+        try {
+            tt.finish();
+        } finally {
+            Timetable.setColumnar(false);
+        }
+        assertNotNull(tt.getColumns());
+        assertNull(tt.getDeparturesIndex());
+        int nHops = pattern.getHopCount();
+        for (int t = 0; t < pattern.getTrips().size(); t++) {
+            TripTimes expected = scheduled.getTripTimes(t);
+            TripTimes actual = tt.getTripTimes(t);
+            assertTrue(actual instanceof ColumnarTripTimes);
+            assertSame(expected.getTrip(), actual.getTrip());
+            assertEquals(expected.getNumHops(), actual.getNumHops());
+            for (int hop = 0; hop < nHops; hop++) {
+                assertEquals(expected.getDepartureTime(hop), actual.getDepartureTime(hop));
+                assertEquals(expected.getArrivalTime(hop), actual.getArrivalTime(hop));
+            }
+            for (int stop = 0; stop <= nHops; stop++)
+                assertEquals(expected.getHeadsign(stop), actual.getHeadsign(stop));
+        }
+        Random random = new Random(42);
+        assertSameSearches(scheduled, tt, random);
+
+        // updated copies share the columns, and only hold TripTimes of their own for updates
+        Timetable expected = updatedCopy(scheduled, new Random(43), 10);
+        Timetable updated = updatedCopy(tt, new Random(43), 10);
+        assertNull(updated.getDeparturesOrder());
+        expected.finish();
+        updated.finish();
+        assertSame(tt.getColumns(), updated.getColumns());
+        int nScheduled = 0;
+        for (int t = 0; t < pattern.getTrips().size(); t++) {
+            if (updated.getTripTimes(t) == tt.getTripTimes(t))
+                nScheduled++;
+        }
+        assertTrue(nScheduled >= pattern.getTrips().size() - 10);
+        assertSameSearches(expected, updated, random);
+    }
+
+    /** Check that a columnar timetable is sorted and searched like a TripTimes-indexed one. */
+    private void assertSameSearches(Timetable expected, Timetable columnar, Random random) {
+        for (int hop = 0; hop < pattern.getHopCount(); hop++) {
+            TripTimes[] departures = hopIndex(expected.getDeparturesIndex(), hop);
+            TripTimes[] arrivals = hopIndex(expected.getArrivalsIndex(), hop);
+            int[] departureOrder = hopOrder(columnar.getDeparturesOrder(), hop);
+            int[] arrivalOrder = hopOrder(columnar.getArrivalsOrder(), hop);
+            assertEquals(departures.length, departureOrder.length);
+            for (int i = 0; i < departures.length; i++) {
+                assertEquals(departures[i].getDepartureTime(hop),
+                        columnar.getTripTimes(departureOrder[i]).getDepartureTime(hop));
+                assertEquals(arrivals[i].getArrivalTime(hop),
+                        columnar.getTripTimes(arrivalOrder[i]).getArrivalTime(hop));
+            }
+            for (int k = 0; k < 100; k++) {
+                int time = random.nextInt(30 * 3600);
+                assertEquals(TripTimes.binarySearchDepartures(departures, hop, time),
+                        columnar.searchDepartures(departureOrder, hop, time));
+                assertEquals(TripTimes.binarySearchArrivals(arrivals, hop, time),
+                        columnar.searchArrivals(arrivalOrder, hop, time));
+            }
+        }
+    }
+
+    /**
+     * Compare the time taken to re-sort updated timetables with re-indexing only their updates,
+     * for increasing numbers of updated trips.
+     */
+    @Test
+    public void testBenchmark() {
+        int nTrips = pattern.getTrips().size();
+        int nRounds = 500;
+        Random random = new Random(42);
+        for (int nUpdates = 1; nUpdates <= nTrips / 2; nUpdates *= 4) {
+            long full = 0;
+            long incremental = 0;
+            for (int round = 0; round < nRounds; round++) {
+                Timetable tt = updatedCopy(random, nUpdates);
+                long t0 = System.nanoTime();
+                assertTrue(tt.reindex());
+                long t1 = System.nanoTime();
+                tt.index();
+                long t2 = System.nanoTime();
+                incremental += t1 - t0;
+                full += t2 - t1;
+            }
+            LOG.info("Timetable with {} trips and {} hops, {} updates: full index {} us, "
+                    + "incremental {} us", nTrips, pattern.getHopCount(), nUpdates,
+                    full / nRounds / 1000, incremental / nRounds / 1000);
+        }
+    }
+
+}
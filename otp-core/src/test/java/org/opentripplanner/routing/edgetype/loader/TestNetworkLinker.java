@@ -0,0 +1,116 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype.loader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+public class TestNetworkLinker extends TestCase {
+
+    private static final int GRID_SIZE = 12;
+
+    private static final double SPACING = 0.002;
+
+    private static final int N_STOPS = 1500;
+
+    /**
+     * A grid of two-way streets with stops next to the east-west streets, several of them on the
+     * same block so that blocks are split more than once.
+     */
+    private Graph buildGraph() {
+        Graph graph = new Graph();
+        IntersectionVertex[][] grid = new IntersectionVertex[GRID_SIZE][GRID_SIZE];
+        for (int i = 0; i < GRID_SIZE; i++) {
+            for (int j = 0; j < GRID_SIZE; j++) {
+                grid[i][j] = new IntersectionVertex(graph, "corner " + i + " " + j,
+                        -122.6 + i * SPACING, 45.5 + j * SPACING);
+            }
+        }
+        for (int i = 0; i < GRID_SIZE; i++) {
+            for (int j = 0; j < GRID_SIZE; j++) {
+                if (i + 1 < GRID_SIZE)
+                    addStreet(grid[i][j], grid[i + 1][j]);
+                if (j + 1 < GRID_SIZE)
+                    addStreet(grid[i][j], grid[i][j + 1]);
+            }
+        }
+        Random random = new Random(42);
+        for (int s = 0; s < N_STOPS; s++) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", "stop" + s));
+            stop.setName("stop " + s);
+            stop.setLon(-122.6 + (random.nextInt(GRID_SIZE - 1) + 0.1 + random.nextDouble() * 0.8)
+                    * SPACING);
+            stop.setLat(45.5 + random.nextInt(GRID_SIZE) * SPACING + 0.00005);
+            new TransitStop(graph, stop);
+        }
+        return graph;
+    }
+
+    private void addStreet(IntersectionVertex a, IntersectionVertex b) {
+        double length = SPACING * 111000;
+        new PlainStreetEdge(a, b, GeometryUtils.makeLineString(a.getX(), a.getY(), b.getX(),
+                b.getY()), "street", length, StreetTraversalPermission.ALL, false);
+        new PlainStreetEdge(b, a, GeometryUtils.makeLineString(b.getX(), b.getY(), a.getX(),
+                a.getY()), "street", length, StreetTraversalPermission.ALL, true);
+    }
+
+    /** For each stop, the street vertices it is linked to. */
+    private Map<String, List<String>> link(int threads) {
+        Graph graph = buildGraph();
+        NetworkLinker linker = new NetworkLinker(graph);
+        linker.setThreads(threads);
+        linker.createLinkage();
+        Map<String, List<String>> links = new TreeMap<String, List<String>>();
+        for (TransitStop stop : IterableLibrary.filter(graph.getVertices(), TransitStop.class)) {
+            List<String> streets = new ArrayList<String>();
+            for (Edge e : stop.getOutgoing()) {
+                if (e instanceof StreetTransitLink) {
+                    streets.add(e.getToVertex().getLabel() + " " + e.getToVertex().getCoordinate());
+                }
+            }
+            Collections.sort(streets);
+            links.put(stop.getLabel(), streets);
+        }
+        return links;
+    }
+
+    public void testParallelLinkingIsDeterministic() {
+        Map<String, List<String>> sequential = link(1);
+        assertEquals(N_STOPS, sequential.size());
+        for (List<String> streets : sequential.values()) {
+            assertFalse(streets.isEmpty());
+        }
+        assertEquals(sequential, link(4));
+    }
+
+}
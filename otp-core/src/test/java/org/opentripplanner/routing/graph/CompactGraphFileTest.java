@@ -0,0 +1,135 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.DoubleBuffer;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.geometry.MappedCoordinateSequence;
+import org.opentripplanner.graph_builder.impl.osm.DefaultWayPropertySetSource;
+import org.opentripplanner.graph_builder.impl.osm.OpenStreetMapGraphBuilderImpl;
+import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+
+public class CompactGraphFileTest extends TestCase {
+
+    private Graph buildGraph() {
+        Graph graph = new Graph();
+        OpenStreetMapGraphBuilderImpl loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        File file = new File(getClass().getResource(
+                "/org/opentripplanner/graph_builder/impl/osm/map.osm.gz").getFile());
+        provider.setPath(file);
+        loader.setProvider(provider);
+        loader.buildGraph(graph, new HashMap<Class<?>, Object>());
+        return graph;
+    }
+
+    public void testRoundTrip() throws Exception {
+        Graph original = buildGraph();
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        CompactGraphFile.save(original, file);
+        assertTrue(CompactGraphFile.isCompactGraphFile(file));
+
+        Graph loaded = Graph.load(file, LoadLevel.FULL);
+        checkSameGraph(original, loaded, true);
+
+        // loading from a stream reads the geometries onto the heap
+        InputStream is = new FileInputStream(file);
+        Graph streamed = CompactGraphFile.load(is, LoadLevel.FULL,
+                new DefaultStreetVertexIndexFactory());
+        is.close();
+        checkSameGraph(original, streamed, true);
+    }
+
+    public void testPlainSerializationStillLoads() throws Exception {
+        Graph original = buildGraph();
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        original.save(file);
+        assertFalse(CompactGraphFile.isCompactGraphFile(file));
+        checkSameGraph(original, Graph.load(file, LoadLevel.FULL), false);
+    }
+
+    public void testMappedSequenceCopiesOnWrite() {
+        DoubleBuffer buffer = DoubleBuffer.wrap(new double[] { 0, 1, 2, 3, 4, 5 });
+        MappedCoordinateSequence first = new MappedCoordinateSequence(buffer, 0, 2);
+        MappedCoordinateSequence second = new MappedCoordinateSequence(buffer, 1, 2);
+        assertEquals(2.0, first.getX(1), 0.0);
+        first.setY(1, 10);
+        assertFalse(first.isMapped());
+        assertEquals(10.0, first.getY(1), 0.0);
+        assertEquals(2.0, first.getX(1), 0.0);
+        assertEquals(10.0, first.getCoordinate(1).y, 0.0);
+        assertEquals(10.0, first.expandEnvelope(new Envelope()).getMaxY(), 0.0);
+        // the shared buffer and the sequences over it are unchanged
+        assertEquals(3.0, buffer.get(3), 0.0);
+        assertTrue(second.isMapped());
+        assertEquals(3.0, second.getY(0), 0.0);
+    }
+
+    private void checkSameGraph(Graph expected, Graph actual, boolean mapped) {
+        assertEquals(expected.countVertices(), actual.countVertices());
+        assertEquals(expected.countEdges(), actual.countEdges());
+        int nStreetEdges = 0;
+        for (Vertex v : expected.getVertices()) {
+            Vertex w = actual.getVertex(v.getLabel());
+            assertNotNull(w);
+            assertEquals(v.getDegreeOut(), w.getDegreeOut());
+            for (Edge e : v.getOutgoing()) {
+                if (!(e instanceof PlainStreetEdge))
+                    continue;
+                PlainStreetEdge f = findEdge(w, (PlainStreetEdge) e);
+                assertNotNull(f);
+                LineString g0 = e.getGeometry();
+                LineString g1 = f.getGeometry();
+                assertEquals(g0.getNumPoints(), g1.getNumPoints());
+                for (int i = 0; i < g0.getNumPoints(); i++) {
+                    assertEquals(g0.getCoordinateN(i).x, g1.getCoordinateN(i).x, 0.0);
+                    assertEquals(g0.getCoordinateN(i).y, g1.getCoordinateN(i).y, 0.0);
+                }
+                assertEquals(g0.getEnvelopeInternal(), g1.getEnvelopeInternal());
+                assertEquals(mapped,
+                        g1.getCoordinateSequence() instanceof MappedCoordinateSequence);
+                nStreetEdges++;
+            }
+        }
+        assertTrue(nStreetEdges > 0);
+    }
+
+    private PlainStreetEdge findEdge(Vertex v, PlainStreetEdge e) {
+        for (Edge f : v.getOutgoing()) {
+            if (f instanceof PlainStreetEdge
+                    && f.getToVertex().getLabel().equals(e.getToVertex().getLabel())
+                    && ((PlainStreetEdge) f).getLength() == e.getLength()
+                    && ((PlainStreetEdge) f).back == e.back) {
+                return (PlainStreetEdge) f;
+            }
+        }
+        return null;
+    }
+
+}
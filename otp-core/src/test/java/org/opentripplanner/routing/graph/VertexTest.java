@@ -0,0 +1,156 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.impl.osm.DefaultWayPropertySetSource;
+import org.opentripplanner.graph_builder.impl.osm.OpenStreetMapGraphBuilderImpl;
+import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class VertexTest {
+
+    Graph _graph;
+
+    @Before
+    public void before() {
+        _graph = new Graph();
+    }
+
+    @Test
+    public void testTemporaryEdges() {
+        Vertex a = new SimpleConcreteVertex(_graph, "a", 47.669457, -122.387577);
+        Vertex b = new SimpleConcreteVertex(_graph, "b", 47.669462, -122.384739);
+        Vertex temp = new SimpleConcreteVertex(null, "temp", 47.669460, -122.386000);
+        Edge ab = new FreeEdge(a, b);
+        assertFalse(a.isTemporary());
+        assertTrue(temp.isTemporary());
+
+        Collection<Edge> before = a.getOutgoing();
+        // without temporary edges the view of the permanent edges is reused
+        assertSame(before, a.getOutgoing());
+        Edge aTemp = new FreeEdge(a, temp);
+        Edge tempB = new FreeEdge(temp, b);
+        assertEquals(2, a.getDegreeOut());
+        assertEquals(2, b.getDegreeIn());
+        assertTrue(a.getOutgoing().contains(ab));
+        assertTrue(a.getOutgoing().contains(aTemp));
+        // permanent edges come first
+        assertSame(ab, a.getOutgoing().iterator().next());
+        // views are snapshots
+        assertEquals(1, before.size());
+
+        Collection<Edge> during = b.getIncoming();
+        assertEquals(2, aTemp.detach() + tempB.detach());
+        assertEquals(1, a.getDegreeOut());
+        assertEquals(1, b.getDegreeIn());
+        assertFalse(a.getOutgoing().contains(aTemp));
+        assertEquals(2, during.size());
+        assertEquals(1, ab.detach());
+        assertTrue(b.getIncoming().isEmpty());
+    }
+
+    /**
+     * Route between random points of a small street graph on several threads at once. Each request
+     * splits streets, adding temporary edges to the permanent vertices next to its endpoints.
+     */
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final Graph graph = new Graph();
+        OpenStreetMapGraphBuilderImpl loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(new File(getClass().getResource(
+                "/org/opentripplanner/graph_builder/impl/osm/map.osm.gz").getFile()));
+        loader.setProvider(provider);
+        loader.buildGraph(graph, new HashMap<Class<?>, Object>());
+        graph.index(new DefaultStreetVertexIndexFactory());
+        int degreeSum = 0;
+        for (Vertex v : graph.getVertices())
+            degreeSum += v.getDegreeOut() + v.getDegreeIn();
+
+        final Envelope extent = graph.getExtent();
+        final int nRequests = 200;
+        for (int nThreads = 1; nThreads <= 8; nThreads *= 2) {
+            final AtomicInteger nPaths = new AtomicInteger();
+            final AtomicInteger failures = new AtomicInteger();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < nThreads; t++) {
+                final Random random = new Random(t);
+                threads.add(new Thread() {
+                    public void run() {
+                        GenericAStar aStar = new GenericAStar();
+                        for (int i = 0; i < nRequests; i++) {
+                            RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+                            options.from = randomLocation(random, extent);
+                            options.to = randomLocation(random, extent);
+                            try {
+                                options.setRoutingContext(graph);
+                                if (aStar.getShortestPathTree(options).getPath(
+                                        options.rctx.target, false) != null)
+                                    nPaths.incrementAndGet();
+                            } catch (RuntimeException e) {
+                                failures.incrementAndGet();
+                            } finally {
+                                if (options.rctx != null)
+                                    options.cleanup();
+                            }
+                        }
+                    }
+                });
+            }
+            long t0 = System.currentTimeMillis();
+            for (Thread thread : threads)
+                thread.start();
+            for (Thread thread : threads)
+                thread.join();
+            long elapsed = Math.max(System.currentTimeMillis() - t0, 1);
+            System.out.printf("%d threads: %d requests in %d msec, %.1f requests/sec (%d paths)%n",
+                    nThreads, nThreads * nRequests, elapsed, nThreads * nRequests * 1000.0
+                            / elapsed, nPaths.get());
+            assertTrue(nPaths.get() > 0);
+        }
+
+        // all temporary edges were removed again
+        int degreeSumAfter = 0;
+        for (Vertex v : graph.getVertices())
+            degreeSumAfter += v.getDegreeOut() + v.getDegreeIn();
+        assertEquals(degreeSum, degreeSumAfter);
+    }
+
+    private static GenericLocation randomLocation(Random random, Envelope extent) {
+        double lat = extent.getMinY() + random.nextDouble() * extent.getHeight();
+        double lon = extent.getMinX() + random.nextDouble() * extent.getWidth();
+        return new GenericLocation(lat, lon);
+    }
+
+}
@@ -0,0 +1,136 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.opentripplanner.routing.core.FareRuleSet;
+
+public class FareRuleIndexTest extends TestCase {
+
+    private static final String[] ZONES = { "1", "2", "3", "4" };
+
+    private static final int N_ROUTES = 4;
+
+    private HashMap<AgencyAndId, FareRuleSet> fareRules = new HashMap<AgencyAndId, FareRuleSet>();
+
+    private HashMap<AgencyAndId, FareAttribute> fareAttributes =
+            new HashMap<AgencyAndId, FareAttribute>();
+
+    private Random random = new Random(42);
+
+    private AgencyAndId route(int i) {
+        return new AgencyAndId("A", "route" + i);
+    }
+
+    public void setUp() {
+        for (int f = 0; f < 40; f++) {
+            // fares of the other feed must never match
+            AgencyAndId id = new AgencyAndId(f % 10 == 9 ? "G" : "F", "fare" + f);
+            FareAttribute attribute = new FareAttribute();
+            attribute.setId(id);
+            attribute.setPrice(1 + random.nextInt(8) * 0.25f);
+            if (random.nextBoolean())
+                attribute.setTransfers(random.nextInt(3));
+            if (random.nextInt(4) == 0)
+                attribute.setTransferDuration(1800 + random.nextInt(3600));
+            if (random.nextInt(4) == 0)
+                attribute.setJourneyDuration(3600 + random.nextInt(3600));
+            fareAttributes.put(id, attribute);
+            if (random.nextInt(5) == 0)
+                continue; // a fare without rules
+            FareRuleSet ruleSet = new FareRuleSet();
+            if (random.nextBoolean()) {
+                ruleSet.addOriginDestination(ZONES[random.nextInt(ZONES.length)],
+                        random.nextBoolean() ? ZONES[random.nextInt(ZONES.length)] : null);
+            }
+            if (random.nextInt(3) == 0) {
+                for (String zone : ZONES) {
+                    if (random.nextBoolean())
+                        ruleSet.addContains(zone);
+                }
+            }
+            if (random.nextBoolean()) {
+                for (int r = 0; r < N_ROUTES; r++) {
+                    if (random.nextBoolean())
+                        ruleSet.addRoute(route(r));
+                }
+            }
+            fareRules.put(id, ruleSet);
+        }
+    }
+
+    /** The cheapest matching fare, found by testing every rule set in turn. */
+    private FareAttribute bruteForce(String feedId, String startZone, String endZone,
+            Set<String> zones, Set<AgencyAndId> routes, int transfersUsed, long tripTime,
+            long journeyTime) {
+        FareAttribute best = null;
+        for (AgencyAndId fareId : fareAttributes.keySet()) {
+            if (!fareId.getAgencyId().equals(feedId))
+                continue;
+            FareRuleSet ruleSet = fareRules.get(fareId);
+            if (ruleSet != null && !ruleSet.matches(startZone, endZone, zones, routes))
+                continue;
+            FareAttribute attribute = fareAttributes.get(fareId);
+            if (attribute.isTransfersSet() && attribute.getTransfers() < transfersUsed)
+                continue;
+            if (attribute.isTransferDurationSet() && tripTime > attribute.getTransferDuration())
+                continue;
+            if (attribute.isJourneyDurationSet() && journeyTime > attribute.getJourneyDuration())
+                continue;
+            if (best == null || attribute.getPrice() < best.getPrice())
+                best = attribute;
+        }
+        return best;
+    }
+
+    public void testMatchesRuleSets() {
+        FareRuleIndex index = new FareRuleIndex(fareRules, fareAttributes);
+        int nMatched = 0;
+        for (int i = 0; i < 2000; i++) {
+            String startZone = ZONES[random.nextInt(ZONES.length)];
+            String endZone = ZONES[random.nextInt(ZONES.length)];
+            Set<String> zones = new HashSet<String>();
+            zones.add(startZone);
+            zones.add(endZone);
+            for (String zone : ZONES) {
+                if (random.nextInt(4) == 0)
+                    zones.add(zone);
+            }
+            Set<AgencyAndId> routes = new HashSet<AgencyAndId>();
+            int nRides = 1 + random.nextInt(3);
+            for (int r = 0; r < nRides; r++)
+                routes.add(route(random.nextInt(N_ROUTES)));
+            long tripTime = random.nextInt(7200);
+            long journeyTime = tripTime + random.nextInt(3600);
+            FareAttribute expected = bruteForce("F", startZone, endZone, zones, routes,
+                    nRides - 1, tripTime, journeyTime);
+            assertSame(expected, index.getBestFare("F", startZone, endZone, zones, routes,
+                    nRides - 1, tripTime, journeyTime));
+            if (expected != null)
+                nMatched++;
+        }
+        assertTrue(nMatched > 0);
+        assertNull(index.getBestFare("H", "1", "1", new HashSet<String>(),
+                new HashSet<AgencyAndId>(), 0, 0, 0));
+    }
+
+}
@@ -0,0 +1,205 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.TraversalRequirements;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class TestGridStreetVertexIndexServiceImpl extends TestCase {
+
+    private static final double X0 = -122.7, Y0 = 45.5;
+
+    /** Size of the street grid in blocks, and of a block in degrees. */
+    private static final int BLOCKS = 100;
+
+    private static final double BLOCK = 0.002;
+
+    private static final int CHECK_POINTS = 5000;
+
+    private static final int BENCHMARK_POINTS = 2000000;
+
+    private Graph graph;
+
+    private StreetVertexIndexServiceImpl treeIndex;
+
+    private GridStreetVertexIndexServiceImpl gridIndex;
+
+    @Override
+    public void setUp() {
+        graph = new Graph();
+        Random random = new Random(42);
+        IntersectionVertex[][] v = new IntersectionVertex[BLOCKS + 1][BLOCKS + 1];
+        for (int i = 0; i <= BLOCKS; i++) {
+            for (int j = 0; j <= BLOCKS; j++) {
+                v[i][j] = new IntersectionVertex(graph, "v" + i + "_" + j, X0 + i * BLOCK, Y0 + j
+                        * BLOCK);
+            }
+        }
+        for (int i = 0; i <= BLOCKS; i++) {
+            for (int j = 0; j <= BLOCKS; j++) {
+                // slightly bent streets, so that edges have several segments
+                if (i < BLOCKS)
+                    street(v[i][j], v[i + 1][j], random);
+                if (j < BLOCKS)
+                    street(v[i][j], v[i][j + 1], random);
+            }
+        }
+        // one long diagonal edge, kept outside the grid cells
+        street(v[0][0], v[BLOCKS][BLOCKS], random);
+
+        treeIndex = new StreetVertexIndexServiceImpl(graph);
+        gridIndex = new GridStreetVertexIndexServiceImpl(graph);
+    }
+
+    private void street(Vertex a, Vertex b, Random random) {
+        Coordinate ca = a.getCoordinate();
+        Coordinate cb = b.getCoordinate();
+        double mx = (ca.x + cb.x) / 2 + (random.nextDouble() - 0.5) * BLOCK / 10;
+        double my = (ca.y + cb.y) / 2 + (random.nextDouble() - 0.5) * BLOCK / 10;
+        new PlainStreetEdge(a, b, GeometryUtils.makeLineString(ca.x, ca.y, mx, my, cb.x, cb.y),
+                a.getLabel() + "-" + b.getLabel(), 200, StreetTraversalPermission.ALL, false);
+    }
+
+    private Coordinate randomPoint(Random random) {
+        // includes a margin outside the street grid
+        double size = (BLOCKS + 2) * BLOCK;
+        return new Coordinate(X0 - BLOCK + random.nextDouble() * size, Y0 - BLOCK
+                + random.nextDouble() * size);
+    }
+
+    /** The edges of a getCandidateEdges result that getClosestEdges would keep. */
+    private Set<StreetEdge> withinRadius(Iterable<StreetEdge> edges, Coordinate c, double radius) {
+        Set<StreetEdge> result = new HashSet<StreetEdge>();
+        GenericLocation location = new GenericLocation(c);
+        TraverseModeSet modes = new TraverseModeSet(TraverseMode.WALK);
+        for (StreetEdge e : edges) {
+            if (new CandidateEdge(e, location, 1, modes).getDistance() < radius)
+                result.add(e);
+        }
+        return result;
+    }
+
+    public void testCandidateEdges() {
+        Random random = new Random(1);
+        for (int i = 0; i < CHECK_POINTS; i++) {
+            Coordinate c = randomPoint(random);
+            double radius = (1 + random.nextInt(3)) * 0.001;
+            Envelope envelope = new Envelope(c);
+            envelope.expandBy(radius);
+            Set<StreetEdge> fromTree = withinRadius(treeIndex.getCandidateEdges(envelope, c,
+                    radius), c, radius);
+            Set<StreetEdge> fromGrid = new HashSet<StreetEdge>();
+            for (StreetEdge e : gridIndex.getCandidateEdges(envelope, c, radius))
+                assertTrue(fromGrid.add(e));
+            assertEquals(fromTree, fromGrid);
+        }
+    }
+
+    public void testClosestEdges() {
+        Random random = new Random(2);
+        TraversalRequirements reqs = new TraversalRequirements();
+        for (int i = 0; i < CHECK_POINTS; i++) {
+            GenericLocation location = new GenericLocation(randomPoint(random));
+            CandidateEdgeBundle fromTree = treeIndex.getClosestEdges(location, reqs);
+            CandidateEdgeBundle fromGrid = gridIndex.getClosestEdges(location, reqs);
+            assertEquals(new HashSet<StreetEdge>(fromTree.toEdgeList()),
+                    new HashSet<StreetEdge>(fromGrid.toEdgeList()));
+        }
+    }
+
+    public void testEnvelopeQueries() {
+        Random random = new Random(3);
+        for (int i = 0; i < CHECK_POINTS; i++) {
+            Envelope envelope = new Envelope(randomPoint(random), randomPoint(random));
+            if (envelope.getWidth() > 0.02 || envelope.getHeight() > 0.02)
+                envelope = new Envelope(envelope.centre());
+            envelope.expandBy(0.001);
+            assertEquals(new HashSet<StreetEdge>(treeIndex.getEdgesForEnvelope(envelope)),
+                    new HashSet<StreetEdge>(gridIndex.getEdgesForEnvelope(envelope)));
+            assertEquals(new HashSet<Vertex>(treeIndex.getVerticesForEnvelope(envelope)),
+                    new HashSet<Vertex>(gridIndex.getVerticesForEnvelope(envelope)));
+        }
+    }
+
+    public void testIntersectionAt() {
+        Random random = new Random(4);
+        for (int i = 0; i < CHECK_POINTS; i++) {
+            Coordinate c = randomPoint(random);
+            StreetVertex fromTree = treeIndex.getIntersectionAt(c, 0.0005);
+            StreetVertex fromGrid = gridIndex.getIntersectionAt(c, 0.0005);
+            assertEquals(fromTree, fromGrid);
+        }
+        Coordinate corner = new Coordinate(X0 + 3 * BLOCK, Y0 + 7 * BLOCK);
+        assertEquals("v3_7", gridIndex.getIntersectionAt(corner, 0.0001).getLabel());
+    }
+
+    /** setup_modifiable rebuilds the grids, so edges added to the graph since are found. */
+    public void testSetupModifiable() {
+        Envelope envelope = new Envelope(X0 - 2 * BLOCK, X0 - BLOCK, Y0, Y0 + BLOCK);
+        assertTrue(gridIndex.getEdgesForEnvelope(envelope).isEmpty());
+        Vertex outside = new IntersectionVertex(graph, "outside", X0 - 2 * BLOCK, Y0 + BLOCK);
+        street(outside, graph.getVertex("v0_0"), new Random(6));
+        gridIndex.setup_modifiable();
+        assertEquals(1, gridIndex.getEdgesForEnvelope(envelope).size());
+    }
+
+    /** Times the candidate edge queries of both indexes over the same random points. */
+    public void testBenchmark() {
+        Coordinate[] points = new Coordinate[BENCHMARK_POINTS];
+        Random random = new Random(5);
+        for (int i = 0; i < points.length; i++)
+            points[i] = randomPoint(random);
+        benchmark(treeIndex, points);
+        benchmark(gridIndex, points);
+    }
+
+    private void benchmark(StreetVertexIndexServiceImpl index, Coordinate[] points) {
+        double radius = 0.001;
+        long t0 = System.currentTimeMillis();
+        int found = 0;
+        for (Coordinate c : points) {
+            Envelope envelope = new Envelope(c);
+            envelope.expandBy(radius);
+            for (StreetEdge e : index.getCandidateEdges(envelope, c, radius)) {
+                if (e != null)
+                    found++;
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        // keep the compiler from optimizing out the queries
+        assertTrue(found > 0);
+        System.out.println(index.getClass().getSimpleName() + " " + points.length
+                + " candidate edge queries: " + (t1 - t0) / 1000.0 + " sec");
+    }
+
+}
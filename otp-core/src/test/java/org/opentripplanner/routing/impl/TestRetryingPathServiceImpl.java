@@ -0,0 +1,80 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+
+public class TestRetryingPathServiceImpl extends TestCase {
+
+    private Graph graph;
+
+    public void setUp() {
+        graph = ConstantsForTests.getInstance().getPortlandGraph();
+    }
+
+    private RetryingPathServiceImpl makePathService(int parallelism) {
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
+        pathService.setSptService(new GenericAStar());
+        pathService.setGraphService(new GraphServiceBeanImpl(graph));
+        pathService.setParallelism(parallelism);
+        return pathService;
+    }
+
+    private RoutingRequest makeRequest() {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.numItineraries = 3;
+        options.setRoutingContext(graph, "TriMet_8371", "TriMet_10579");
+        return options;
+    }
+
+    public void testParallelAlternatives() {
+        List<GraphPath> sequential = makePathService(1).getPaths(makeRequest());
+        RetryingPathServiceImpl parallelService = makePathService(4);
+        RoutingRequest options = makeRequest();
+        List<GraphPath> parallel = parallelService.getPaths(options);
+        assertNotNull(sequential);
+        assertNotNull(parallel);
+        assertFalse(options.rctx.aborted);
+
+        // the first search is the same in both modes, and banning trips cannot improve on it
+        assertEquals(bestWeight(sequential), bestWeight(parallel), 1e-6);
+
+        // no duplicates, sorted like the sequential results
+        PathComparator comparator = new PathComparator(false);
+        for (int i = 0; i < parallel.size(); i++) {
+            for (int j = i + 1; j < parallel.size(); j++) {
+                assertFalse(parallel.get(i).equals(parallel.get(j)));
+                assertTrue(comparator.compare(parallel.get(i), parallel.get(j)) <= 0);
+            }
+        }
+    }
+
+    private double bestWeight(List<GraphPath> paths) {
+        double best = Double.MAX_VALUE;
+        for (GraphPath path : paths)
+            best = Math.min(best, path.getWeight());
+        return best;
+    }
+
+}
@@ -0,0 +1,167 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.impl.raptor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.graph_builder.impl.raptor.RaptorDataBuilder;
+import org.opentripplanner.graph_builder.impl.transit_index.TransitIndexBuilder;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.TestUtils;
+
+/**
+ * Compares the array-based search with RaptorSearch on the test agency feed, with RAPTOR data
+ * built by RaptorDataBuilder. The benchmark times both engines on random trips between stops of a
+ * larger graph, and only runs when the system property otp.raptor.benchmarkGraph names a Graph.obj
+ * built with RaptorDataBuilder; otp.raptor.benchmarkTime may give the departure time in seconds
+ * since the epoch, which is otherwise now.
+ */
+public class ArrayRaptorSearchTest extends TestCase {
+
+    private static final String BENCHMARK_GRAPH = "otp.raptor.benchmarkGraph";
+
+    private static final String BENCHMARK_TIME = "otp.raptor.benchmarkTime";
+
+    private static final int N_TRIPS = 200;
+
+    /** Origin, destination and departure time (hour, minute) on the test agency feed. */
+    private static final Object[][] STOP_PAIRS = {
+            { "A", "C", 7, 50 }, // a single ride on route 1
+            { "B", "E", 0, 30 }, // a single ride on route 3
+            { "C", "D", 15, 55 }, // transferring at E beats the direct route 16
+            { "Q", "S", 8, 25 } // route 11, or routes 12 and 13 with no time to transfer at R
+    };
+
+    /**
+     * ArrayRaptorSearch should find a path whenever RaptorSearch does, arriving no later, since
+     * it does not prune the search by regions.
+     */
+    public void testNoLaterThanRaptorSearch() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        Graph graph = new Graph();
+        new GTFSPatternHopFactory(context).run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        TransitIndexBuilder transitIndexBuilder = new TransitIndexBuilder();
+        transitIndexBuilder.setDao(context.getDao());
+        transitIndexBuilder.buildGraph(graph);
+        new RaptorDataBuilder().buildGraph(graph, new HashMap<Class<?>, Object>());
+
+        Raptor raptor = new Raptor();
+        raptor.setGraphService(new GraphServiceBeanImpl(graph));
+        raptor.sptService = new GenericAStar();
+        raptor.setShortPathCutoff(0);
+        raptor.setup();
+
+        for (Object[] pair : STOP_PAIRS) {
+            @SuppressWarnings("deprecation")
+            Vertex from = graph.getVertex("agency_" + pair[0]);
+            @SuppressWarnings("deprecation")
+            Vertex to = graph.getVertex("agency_" + pair[1]);
+            long time = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7,
+                    (Integer) pair[2], (Integer) pair[3], 0);
+            String trip = pair[0] + " to " + pair[1];
+
+            raptor.setArraySearch(false);
+            long expected = earliestArrival(route(raptor, graph, from, to, time));
+            raptor.setArraySearch(true);
+            long actual = earliestArrival(route(raptor, graph, from, to, time));
+            assertTrue("RaptorSearch found no path from " + trip, expected < Long.MAX_VALUE);
+            assertTrue("ArrayRaptorSearch arrives later from " + trip, actual <= expected);
+        }
+    }
+
+    private static long earliestArrival(List<GraphPath> paths) {
+        long earliest = Long.MAX_VALUE;
+        for (GraphPath path : paths)
+            earliest = Math.min(earliest, path.getEndTime());
+        return earliest;
+    }
+
+    public void testBenchmark() throws Exception {
+        String path = System.getProperty(BENCHMARK_GRAPH);
+        if (path == null)
+            return;
+        Graph graph = Graph.load(new File(path), LoadLevel.FULL);
+        assertNotNull("no raptor data in " + path, graph.getService(RaptorDataService.class));
+        long time = Long.getLong(BENCHMARK_TIME, System.currentTimeMillis() / 1000);
+
+        List<TransitStop> stops = new ArrayList<TransitStop>();
+        for (TransitStop stop : IterableLibrary.filter(graph.getVertices(), TransitStop.class))
+            stops.add(stop);
+        Random random = new Random(42);
+        TransitStop[][] trips = new TransitStop[N_TRIPS][];
+        for (int i = 0; i < N_TRIPS; i++) {
+            trips[i] = new TransitStop[] { stops.get(random.nextInt(stops.size())),
+                    stops.get(random.nextInt(stops.size())) };
+        }
+
+        Raptor raptor = new Raptor();
+        raptor.setGraphService(new GraphServiceBeanImpl(graph));
+        raptor.sptService = new GenericAStar();
+        raptor.setShortPathCutoff(0);
+        raptor.setup();
+
+        // once each to build the cached tables and warm up
+        route(raptor, graph, trips[0][0], trips[0][1], time);
+        raptor.setArraySearch(true);
+        route(raptor, graph, trips[0][0], trips[0][1], time);
+
+        int[] found = new int[2];
+        long[] millis = new long[2];
+        for (int engine = 0; engine < 2; engine++) {
+            raptor.setArraySearch(engine == 1);
+            long t0 = System.currentTimeMillis();
+            for (TransitStop[] trip : trips) {
+                if (!route(raptor, graph, trip[0], trip[1], time).isEmpty())
+                    found[engine]++;
+            }
+            millis[engine] = System.currentTimeMillis() - t0;
+        }
+        assertTrue(found[1] > 0);
+        System.out.println(String.format(
+                "%d trips: RaptorSearch %d ms, %d found; ArrayRaptorSearch %d ms, %d found",
+                N_TRIPS, millis[0], found[0], millis[1], found[1]));
+    }
+
+    private List<GraphPath> route(Raptor raptor, Graph graph, Vertex from, Vertex to, long time) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet("WALK,TRANSIT"));
+        options.setDateTime(new Date(time * 1000));
+        options.setRoutingContext(graph, from, to);
+        return raptor.getPaths(options);
+    }
+
+}
@@ -0,0 +1,110 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.util.TestUtils;
+
+/*
+ * Check that the indexed multi-state SPT produces the same trees as the map-based one, and
+ * compare their speed and allocation on batch searches over the Portland graph.
+ */
+public class TestIndexedMultiShortestPathTree extends TestCase {
+
+    private static final int N_TRIALS = 20;
+
+    private Graph graph;
+
+    private Vertex[] origins;
+
+    @Override
+    protected void setUp() {
+        graph = ConstantsForTests.getInstance().getPortlandGraph();
+        Random rng = new Random(0);
+        origins = new Vertex[N_TRIALS];
+        for (int i = 0; i < N_TRIALS; ++i) {
+            Vertex v = null;
+            while (v == null) {
+                v = graph.getVertex("TriMet_" + rng.nextInt(10000));
+            }
+            origins[i] = v;
+        }
+    }
+
+    private ShortestPathTree search(ShortestPathTreeFactory factory, Vertex origin) {
+        GenericAStar aStar = new GenericAStar();
+        aStar.setShortestPathTreeFactory(factory);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.batch = true;
+        options.setRoutingContext(graph, origin, null);
+        return aStar.getShortestPathTree(options);
+    }
+
+    public void testSameTrees() {
+        for (Vertex origin : origins) {
+            ShortestPathTree expected = search(MultiShortestPathTree.FACTORY, origin);
+            ShortestPathTree actual = search(IndexedMultiShortestPathTree.FACTORY, origin);
+            assertEquals(expected.getVertexCount(), actual.getVertexCount());
+            assertEquals(expected.getAllStates().size(), actual.getAllStates().size());
+            for (Vertex v : graph.getVertices()) {
+                State e = expected.getState(v);
+                State a = actual.getState(v);
+                if (e == null) {
+                    assertNull(a);
+                } else {
+                    assertNotNull(a);
+                    assertEquals(e.getWeight(), a.getWeight(), 0.0);
+                    assertEquals(e.getTimeSeconds(), a.getTimeSeconds());
+                }
+            }
+        }
+    }
+
+    public void testCompareTrees() {
+        // warm up both implementations before measuring
+        for (Vertex origin : origins) {
+            search(MultiShortestPathTree.FACTORY, origin);
+            search(IndexedMultiShortestPathTree.FACTORY, origin);
+        }
+        System.out.println("\nbatch search from " + N_TRIALS + " origins, "
+                + Vertex.getMaxIndex() + " vertex indexes");
+        timeSearches(MultiShortestPathTree.FACTORY, "MultiShortestPathTree");
+        timeSearches(IndexedMultiShortestPathTree.FACTORY, "IndexedMultiShortestPathTree");
+    }
+
+    private void timeSearches(ShortestPathTreeFactory factory, String name) {
+        long bytes0 = TestUtils.allocatedBytes();
+        long t0 = System.currentTimeMillis();
+        int nStates = 0;
+        for (Vertex origin : origins) {
+            nStates += search(factory, origin).getVertexCount();
+        }
+        long t1 = System.currentTimeMillis();
+        long bytes1 = TestUtils.allocatedBytes();
+        assertTrue(nStates > 0);
+        System.out.println(name + " \ttime " + (t1 - t0) / 1000.0 + " sec \tallocated "
+                + (bytes1 - bytes0) / (1024 * 1024) + " MiB");
+    }
+
+}
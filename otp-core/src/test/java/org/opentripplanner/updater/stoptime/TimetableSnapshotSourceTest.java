@@ -17,6 +17,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
@@ -85,10 +86,14 @@ public class TimetableSnapshotSourceTest {
         updater.applyTripUpdateLists(Arrays.asList(tripUpdateList));
         assertSame(resolver, updater.getTimetableSnapshot());
 
+        // the postponed update is committed by the next scheduled commit, not by readers
         updater.setMaxSnapshotFrequency(-1);
-        TimetableResolver newResolver = updater.getTimetableSnapshot();
+        assertSame(resolver, updater.getTimetableSnapshot());
+        TimetableResolver newResolver = updater.commitIfDue(false);
         assertNotNull(newResolver);
         assertNotSame(resolver, newResolver);
+        assertSame(newResolver, updater.getTimetableSnapshot());
+        assertTrue(updater.getSnapshotAge() >= 0);
     }
     
     @Test
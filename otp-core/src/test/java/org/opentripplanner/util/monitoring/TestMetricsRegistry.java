@@ -0,0 +1,105 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestMetricsRegistry extends TestCase {
+
+    public void testBuckets() {
+        long previousUpper = -1;
+        for (int i = 0; i < 2000; i++) {
+            long upper = Histogram.bucketUpperBound(i);
+            assertTrue(upper > previousUpper);
+            assertEquals(i, Histogram.bucketIndex(previousUpper + 1));
+            assertEquals(i, Histogram.bucketIndex(upper));
+            previousUpper = upper;
+            if (upper == Long.MAX_VALUE)
+                break;
+        }
+        assertEquals(Long.MAX_VALUE, previousUpper);
+    }
+
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double p : new double[] { 1, 50, 90, 99, 100 }) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long reported = histogram.getValueAtPercentile(p);
+            assertTrue(reported >= exact);
+            assertTrue(reported <= exact + exact / 32 + 1);
+        }
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    public void testConcurrentCounter() throws InterruptedException {
+        final Counter counter = new Counter();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++)
+                        counter.increment();
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(800000, counter.get());
+    }
+
+    public void testDisabled() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram histogram = registry.histogram("test");
+        assertSame(histogram, registry.histogram("test"));
+        registry.setEnabled(false);
+        histogram.recordElapsed(registry.startTime());
+        assertEquals(0, histogram.getCount());
+        assertFalse(registry.getSnapshot().containsKey("test"));
+        registry.setEnabled(true);
+        histogram.recordElapsed(registry.startTime());
+        assertEquals(1, histogram.getCount());
+        assertTrue(registry.getSnapshot().get("test") instanceof Map);
+    }
+
+    public void testGauge() {
+        MetricsRegistry registry = new MetricsRegistry();
+        final long[] value = { 1 };
+        registry.gauge("gauge", new Gauge() {
+            @Override
+            public long getValue() {
+                return value[0];
+            }
+        });
+        assertEquals(1L, registry.getSnapshot().get("gauge"));
+        value[0] = 2;
+        assertEquals(2L, registry.getSnapshot().get("gauge"));
+    }
+
+}
@@ -6,8 +6,20 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
 import org.apache.thrift.TException;
 import org.opentripplanner.api.thrift.OTPServerTask;
@@ -63,6 +75,7 @@ import org.opentripplanner.routing.spt.GraphPath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Concrete implementation of the Thrift interface.
@@ -80,6 +93,151 @@ public class OTPServiceImpl implements OTPService.Iface {
     
     private RoutingRequest prototypeRoutingRequest = new RoutingRequest();
 
+    /**
+     * The number of threads running the queries of bulk calls, shared by all bulk calls. Values
+     * of 1 or less run the queries on the calling thread, one after another.
+     */
+    private int bulkParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of bulk queries that may wait for a thread. Queries submitted when the queue is
+     * full run on the thread of the bulk call, which slows down callers instead of queueing
+     * without bound.
+     */
+    private int bulkQueueCapacity = 1000;
+
+    /**
+     * Bulk calls return after this many milliseconds, reporting the queries they did not finish
+     * as failed. Path searches still running at that time are aborted. A negative or zero value
+     * means no deadline.
+     */
+    private long bulkTimeoutMillis = 0;
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private transient volatile ExecutorService bulkExecutor;
+
+    /**
+     * Runs queries the bulk executor cannot queue on the thread of the bulk call. Unlike
+     * CallerRunsPolicy, it also runs them when the executor was just shut down by a setter, since
+     * the bulk call waits for every query it submitted.
+     */
+    private static final RejectedExecutionHandler RUN_ON_CALLER = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable query, ThreadPoolExecutor executor) {
+            query.run();
+        }
+    };
+
+    /** A kind of query of the bulk calls. */
+    private interface QueryRunner<Q, R> {
+
+        /**
+         * @param deadline the time in milliseconds since the epoch at which the bulk call returns,
+         *        or Long.MAX_VALUE if there is none
+         * @return the result of the query
+         */
+        R run(Q query, long deadline);
+
+        /** @return the result reported for a query that failed or did not finish in time */
+        R failed(Q query);
+    }
+
+    public synchronized void setBulkParallelism(int bulkParallelism) {
+        this.bulkParallelism = bulkParallelism;
+        shutdownBulkExecutor();
+    }
+
+    public synchronized void setBulkQueueCapacity(int bulkQueueCapacity) {
+        this.bulkQueueCapacity = bulkQueueCapacity;
+        shutdownBulkExecutor();
+    }
+
+    /** Let the current executor finish its queries, a new one is made for the next bulk call. */
+    private synchronized void shutdownBulkExecutor() {
+        if (bulkExecutor != null) {
+            bulkExecutor.shutdown();
+            bulkExecutor = null;
+        }
+    }
+
+    /** @return the executor for bulk queries, or null if they run on the calling thread */
+    private synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null && bulkParallelism > 1) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(bulkParallelism, bulkParallelism,
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(bulkQueueCapacity, 1)),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("otp-thrift-bulk-%d").build(),
+                    RUN_ON_CALLER);
+            pool.allowCoreThreadTimeOut(true);
+            bulkExecutor = pool;
+        }
+        return bulkExecutor;
+    }
+
+    /**
+     * Run the queries of a bulk call on the bulk executor, within the bulk deadline.
+     * 
+     * @return the results in the order of the queries, with the failed result of the runner for
+     *         queries that threw an exception or did not finish in time
+     */
+    private <Q, R> List<R> runBulk(List<Q> queries, final QueryRunner<Q, R> runner) {
+        List<R> results = new ArrayList<R>(queries.size());
+        final long deadline = bulkTimeoutMillis > 0
+                ? System.currentTimeMillis() + bulkTimeoutMillis : Long.MAX_VALUE;
+        ExecutorService executor = getBulkExecutor();
+        if (executor == null) {
+            for (Q query : queries) {
+                R result = null;
+                if (System.currentTimeMillis() < deadline) {
+                    try {
+                        result = runner.run(query, deadline);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Bulk query {} failed: {}", query, e.toString());
+                    }
+                }
+                results.add(result != null ? result : runner.failed(query));
+            }
+            return results;
+        }
+        List<Future<R>> futures = new ArrayList<Future<R>>(queries.size());
+        for (final Q query : queries) {
+            futures.add(executor.submit(new Callable<R>() {
+                @Override
+                public R call() {
+                    return runner.run(query, deadline);
+                }
+            }));
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<R> future = futures.get(i);
+            R result = null;
+            try {
+                if (interrupted) {
+                    future.cancel(true);
+                } else if (deadline == Long.MAX_VALUE) {
+                    result = future.get();
+                } else {
+                    long wait = Math.max(deadline - System.currentTimeMillis(), 0);
+                    result = future.get(wait, TimeUnit.MILLISECONDS);
+                }
+            } catch (TimeoutException e) {
+                // queries not started yet will not be, path searches stop at the deadline
+                future.cancel(true);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                interrupted = true;
+            } catch (ExecutionException e) {
+                LOG.warn("Bulk query {} failed: {}", queries.get(i), e.getCause().toString());
+            }
+            results.add(result != null ? result : runner.failed(queries.get(i)));
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return results;
+    }
+
     /**
      * Convenience getter for street index.
      * 
@@ -211,8 +369,20 @@ public class OTPServiceImpl implements OTPService.Iface {
         long startTime = System.currentTimeMillis();
         
         BulkFindNearestVertexResponse res = new BulkFindNearestVertexResponse();
-        for (VertexQuery q : req.getQueries()) {
-            VertexResult result = findNearbyVertex(q);
+        List<VertexResult> results = runBulk(req.getQueries(),
+                new QueryRunner<VertexQuery, VertexResult>() {
+                    @Override
+                    public VertexResult run(VertexQuery q, long deadline) {
+                        return findNearbyVertex(q);
+                    }
+
+                    @Override
+                    public VertexResult failed(VertexQuery q) {
+                        // no nearest vertex
+                        return new VertexResult();
+                    }
+                });
+        for (VertexResult result : results) {
             res.addToResults(result);
         }
         
@@ -272,8 +442,20 @@ public class OTPServiceImpl implements OTPService.Iface {
         long startTime = System.currentTimeMillis();
 
         BulkFindNearestEdgesResponse res = new BulkFindNearestEdgesResponse();
-        for (NearestEdgesQuery q : req.getQueries()) {
-            NearestEdgesResult result = findNearestEdges(q);
+        List<NearestEdgesResult> results = runBulk(req.getQueries(),
+                new QueryRunner<NearestEdgesQuery, NearestEdgesResult>() {
+                    @Override
+                    public NearestEdgesResult run(NearestEdgesQuery q, long deadline) {
+                        return findNearestEdges(q);
+                    }
+
+                    @Override
+                    public NearestEdgesResult failed(NearestEdgesQuery q) {
+                        // no nearest edges
+                        return new NearestEdgesResult();
+                    }
+                });
+        for (NearestEdgesResult result : results) {
             res.addToResults(result);
         }
         
@@ -285,9 +467,11 @@ public class OTPServiceImpl implements OTPService.Iface {
      * Computes the GraphPath for the given trip.
      * 
      * @param trip
+     * @param deadline the time in milliseconds since the epoch at which the search is aborted,
+     *        or Long.MAX_VALUE for none
      * @return
      */
-    private TripPaths computePaths(TripParameters trip, PathOptions pathOptions) {
+    private TripPaths computePaths(TripParameters trip, PathOptions pathOptions, long deadline) {
         // Build the RoutingRequest. For now, get only one itinerary.
         RoutingRequest options = (new RoutingRequestBuilder(prototypeRoutingRequest))
                 .addTripParameters(trip)
@@ -295,21 +479,25 @@ public class OTPServiceImpl implements OTPService.Iface {
                 .setNumItineraries(pathOptions.getNum_paths())
                 .build();
 
-        // For now, always use the default router.
-        options.setRouterId("");
-
-        // TODO(flamholz): respect the return_detailed_path option.
-        List<GraphPath> paths = pathService.getPaths(options);
-        if (paths == null || paths.size() == 0) {
-            LOG.warn("Found 0 paths for trip {}", trip);
-            LOG.warn("Origin {}", options.getFrom());
-            LOG.warn("Destination {}", options.getTo());
-        }        
-        TripPathsExtension tripPaths = new TripPathsExtension(trip, paths);
-
-        // Need to call RoutingRequest.cleanup() to cleanup the temp edges.
-        options.cleanup();
-        return tripPaths;
+        try {
+            // For now, always use the default router.
+            options.setRouterId("");
+            if (deadline < Long.MAX_VALUE)
+                options.rctx.searchAbortTime = deadline;
+
+            // TODO(flamholz): respect the return_detailed_path option.
+            List<GraphPath> paths = pathService.getPaths(options);
+            if (paths == null || paths.size() == 0) {
+                LOG.warn("Found 0 paths for trip {}", trip);
+                LOG.warn("Origin {}", options.getFrom());
+                LOG.warn("Destination {}", options.getTo());
+            }
+            return new TripPathsExtension(trip, paths);
+        } finally {
+            // Need to call RoutingRequest.cleanup() to cleanup the temp edges, even when the
+            // search was aborted or threw.
+            options.cleanup();
+        }
     }
 
     @Override
@@ -321,7 +509,7 @@ public class OTPServiceImpl implements OTPService.Iface {
         TripPaths outPaths = new TripPaths();
         outPaths.setTrip(trip);
 
-        TripPaths tripPaths = computePaths(trip, req.getOptions());
+        TripPaths tripPaths = computePaths(trip, req.getOptions(), Long.MAX_VALUE);
 
         FindPathsResponse res = new FindPathsResponse();
         res.setPaths(tripPaths);
@@ -335,10 +523,22 @@ public class OTPServiceImpl implements OTPService.Iface {
         LOG.debug("BulkFindPaths called");
         long startTime = System.currentTimeMillis();
 
-        PathOptions pathOptions = req.getOptions();
+        final PathOptions pathOptions = req.getOptions();
         BulkPathsResponse res = new BulkPathsResponse();
-        for (TripParameters trip : req.getTrips()) {
-            TripPaths tripPaths = computePaths(trip, pathOptions);
+        List<TripPaths> results = runBulk(req.getTrips(),
+                new QueryRunner<TripParameters, TripPaths>() {
+                    @Override
+                    public TripPaths run(TripParameters trip, long deadline) {
+                        return computePaths(trip, pathOptions, deadline);
+                    }
+
+                    @Override
+                    public TripPaths failed(TripParameters trip) {
+                        // reported as no paths found
+                        return new TripPathsExtension(trip, null);
+                    }
+                });
+        for (TripPaths tripPaths : results) {
             res.addToPaths(tripPaths);
         }
         res.setCompute_time_millis(System.currentTimeMillis() - startTime);
@@ -290,6 +290,48 @@ public class OTPServiceImplTest {
         }
     }
     
+    @Test
+    public void testBulkFindPathsInParallel() throws TException {
+        PathOptions opts = new PathOptions();
+        opts.setNum_paths(1);
+
+        BulkPathsRequest req = new BulkPathsRequest();
+        req.setOptions(opts);
+
+        for (int i = 0; i < 8; ++i) {
+            TripParameters trip = new TripParameters();
+            trip.addToAllowed_modes(TravelMode.CAR);
+
+            P2<Location> pair = pickOriginAndDest();
+            trip.setOrigin(pair.getFirst());
+            trip.setDestination(pair.getSecond());
+            req.addToTrips(trip);
+        }
+
+        serviceImpl.setBulkParallelism(1);
+        BulkPathsResponse sequential = serviceImpl.BulkFindPaths(req);
+        serviceImpl.setBulkParallelism(4);
+        BulkPathsResponse parallel = serviceImpl.BulkFindPaths(req);
+        // Queries that do not fit in the queue run on the calling thread.
+        serviceImpl.setBulkQueueCapacity(1);
+        BulkPathsResponse callerRuns = serviceImpl.BulkFindPaths(req);
+
+        // Results come back in the order of the trips whatever thread computed them.
+        for (BulkPathsResponse res : new BulkPathsResponse[] { parallel, callerRuns }) {
+            assertEquals(req.getTripsSize(), res.getPathsSize());
+            for (int i = 0; i < req.getTripsSize(); ++i) {
+                TripPaths expected = sequential.getPaths().get(i);
+                TripPaths actual = res.getPaths().get(i);
+                assertEquals(req.getTrips().get(i), actual.getTrip());
+                assertEquals(expected.isNo_paths_found(), actual.isNo_paths_found());
+                if (!actual.isNo_paths_found()) {
+                    assertEquals(expected.getPaths().get(0).getDuration(),
+                            actual.getPaths().get(0).getDuration());
+                }
+            }
+        }
+    }
+
     @Test
     public void testFindNearestVertex() throws TException {
         for (Vertex v : graph.getVertices()) {